@@ -484,6 +484,12 @@ public class Board {
         this.posHashInitialized = false;
     }
 
+    private Board(int[] board, int[] oldBoard, int[][][] pieceList) {
+        this.board = board;
+        this.oldBoard = oldBoard;
+        this.pieceList = pieceList;
+    }
+
     /**
      * creates a deep copy of the current Board
      * any modifications of the copy will have no
@@ -492,17 +498,12 @@ public class Board {
      */
     public Board makeCopy() {
 
-        Board b = new Board();
-
-        for(int i=0;i<120;i++) {
-            b.board[i] = this.board[i];
-            b.oldBoard[i] = this.oldBoard[i];
-        }
+        // clone the arrays instead of setting up an empty board
+        // first, as copies are made for every node of a game
+        Board b = new Board(this.board.clone(), this.oldBoard.clone(), new int[2][7][]);
         for(int i=0;i<2;i++) {
             for(int j=0;j<7;j++) {
-                for(int k=0;k<10;k++) {
-                    b.pieceList[i][j][k] = this.pieceList[i][j][k];
-                }
+                b.pieceList[i][j] = this.pieceList[i][j].clone();
             }
         }
 
@@ -1741,7 +1742,6 @@ public class Board {
      */
     public String san(Move m) {
         // first check for null move
-        StringBuilder san = new StringBuilder();
         if(m.isNullMove) {
             return "--";
         }
@@ -1754,6 +1754,25 @@ public class Board {
         b_temp.apply(m);
         boolean is_check = b_temp.isCheck();
         boolean is_checkmate = b_temp.isCheckmate();
+        return this.san(m, is_check, is_checkmate);
+    }
+
+    /**
+     * Creates a Move representation in Short Algebraic Notation, where
+     * the check and checkmate status of the position after the Move
+     * are already known (e.g. because the resulting position is already
+     * stored in a game tree). This avoids creating a temporary copy
+     * of the Board.
+     * @param m a Move for which SAN is desired
+     * @param is_check true if the Move gives check
+     * @param is_checkmate true if the Move gives checkmate
+     * @return String with SAN
+     */
+    String san(Move m, boolean is_check, boolean is_checkmate) {
+        StringBuilder san = new StringBuilder();
+        if(m.isNullMove) {
+            return "--";
+        }
 
         if(this.isCastlesWking(m) || this.isCastlesBking(m)) {
             san.append("O-O");
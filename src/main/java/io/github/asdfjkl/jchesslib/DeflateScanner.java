@@ -0,0 +1,446 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes a gzip file block by block, and keeps track of the bit offset of
+ * each deflate block within the file (cf. RFC 1951, RFC 1952). This is
+ * used to find the positions where decompression can be resumed with an
+ * {@code Inflater} (cf. {@code GzipIndex}), since the JDK's {@code Inflater}
+ * does not report block boundaries. The decompressed data is not returned,
+ * only the last 32 KB of it are kept as the window for the next block.
+ */
+final class DeflateScanner {
+
+    static final int WINDOW_SIZE = 1 << 15;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final int[] DIST_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DIST_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+    // order of the code length code lengths in a dynamic block header
+    private static final int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        byte[] lengths = new byte[288];
+        Arrays.fill(lengths, 0, 144, (byte) 8);
+        Arrays.fill(lengths, 144, 256, (byte) 9);
+        Arrays.fill(lengths, 256, 280, (byte) 7);
+        Arrays.fill(lengths, 280, 288, (byte) 8);
+        byte[] distances = new byte[30];
+        Arrays.fill(distances, (byte) 5);
+        try {
+            FIXED_LITERALS = new Huffman(lengths, 288);
+            FIXED_DISTANCES = new Huffman(distances, 30);
+        } catch (ZipException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * canonical Huffman code, decoded with a single lookup table
+     * that is indexed by the next (maximum code length) bits
+     */
+    private static final class Huffman {
+
+        // entries are symbol << 4 | code length, 0 for unused codes
+        private final int[] table;
+        private final int bits;
+
+        Huffman(byte[] lengths, int count) throws ZipException {
+            int[] lengthCount = new int[16];
+            int maxLength = 0;
+            for(int i=0;i<count;i++) {
+                lengthCount[lengths[i]]++;
+                maxLength = Math.max(maxLength, lengths[i]);
+            }
+            lengthCount[0] = 0;
+            int[] nextCode = new int[16];
+            int code = 0;
+            int left = 1;
+            for(int len=1;len<=15;len++) {
+                code = (code + lengthCount[len - 1]) << 1;
+                nextCode[len] = code;
+                left = (left << 1) - lengthCount[len];
+                if(left < 0) {
+                    throw new ZipException("invalid deflate data: oversubscribed code");
+                }
+            }
+            this.bits = Math.max(1, maxLength);
+            this.table = new int[1 << this.bits];
+            for(int symbol=0;symbol<count;symbol++) {
+                int len = lengths[symbol];
+                if(len == 0) {
+                    continue;
+                }
+                int reversed = Integer.reverse(nextCode[len]++) >>> (32 - len);
+                for(int i=reversed;i<this.table.length;i+=1 << len) {
+                    this.table[i] = symbol << 4 | len;
+                }
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer input;
+    // number of bytes of the file that were put into the bit buffer
+    private long bytesIn;
+    // zero bytes that were put into the bit buffer after the end of the file
+    private int padding;
+    private long bitBuffer;
+    private int bitCount;
+
+    // output, the WINDOW_SIZE bytes before outPos are always valid
+    private final byte[] out;
+    private int outPos;
+    private int crcPos;
+    private long outTotal;
+    private final CRC32 crc;
+    private long memberStart;
+
+    DeflateScanner(FileChannel channel) {
+        this.channel = channel;
+        this.input = ByteBuffer.allocate(1 << 16);
+        this.input.flip();
+        this.out = new byte[3 * WINDOW_SIZE];
+        this.outPos = WINDOW_SIZE;
+        this.crcPos = WINDOW_SIZE;
+        this.crc = new CRC32();
+    }
+
+    /**
+     * get the offset of the next bit to be decoded within the file
+     * @return bit offset
+     */
+    long getBitPosition() {
+        return (this.bytesIn + this.padding) * 8 - this.bitCount;
+    }
+
+    /**
+     * get the number of bytes that were decompressed so far
+     * @return uncompressed size
+     */
+    long getOutput() {
+        return this.outTotal;
+    }
+
+    /**
+     * get the last (up to) 32 KB of decompressed data
+     * @return window
+     */
+    byte[] getWindow() {
+        int length = (int) Math.min(WINDOW_SIZE, this.outTotal);
+        return Arrays.copyOfRange(this.out, this.outPos - length, this.outPos);
+    }
+
+    private int readInput() throws IOException {
+        if(!this.input.hasRemaining()) {
+            this.input.clear();
+            int read = this.channel.read(this.input);
+            this.input.flip();
+            if(read <= 0) {
+                return -1;
+            }
+        }
+        return this.input.get() & 0xff;
+    }
+
+    private void need(int n) throws IOException {
+        while(this.bitCount < n) {
+            int b = this.readInput();
+            if(b < 0) {
+                b = 0;
+                this.padding++;
+            } else {
+                this.bytesIn++;
+            }
+            this.bitBuffer |= (long) b << this.bitCount;
+            this.bitCount += 8;
+        }
+    }
+
+    private int bits(int n) throws IOException {
+        this.need(n);
+        int value = (int) (this.bitBuffer & ((1L << n) - 1));
+        this.bitBuffer >>>= n;
+        this.bitCount -= n;
+        return value;
+    }
+
+    private int decode(Huffman h) throws IOException {
+        this.need(h.bits);
+        int entry = h.table[(int) (this.bitBuffer & ((1 << h.bits) - 1))];
+        int len = entry & 15;
+        if(len == 0) {
+            throw new ZipException("invalid deflate data: invalid code");
+        }
+        this.bitBuffer >>>= len;
+        this.bitCount -= len;
+        return entry >>> 4;
+    }
+
+    private void checkEnd() throws IOException {
+        if(this.getBitPosition() > this.bytesIn * 8) {
+            throw new EOFException("unexpected end of gzip file");
+        }
+    }
+
+    // reads a byte at a byte boundary, -1 at the end of the file
+    private int readByte() throws IOException {
+        this.bitBuffer >>>= this.bitCount & 7;
+        this.bitCount -= this.bitCount & 7;
+        if(this.bitCount >= 8) {
+            int b = (int) (this.bitBuffer & 0xff);
+            this.bitBuffer >>>= 8;
+            this.bitCount -= 8;
+            return b;
+        }
+        int b = this.readInput();
+        if(b >= 0) {
+            this.bytesIn++;
+        }
+        return b;
+    }
+
+    private int readBytes(int n) throws IOException {
+        int value = 0;
+        for(int i=0;i<n;i++) {
+            int b = this.readByte();
+            if(b < 0) {
+                throw new EOFException("unexpected end of gzip file");
+            }
+            value |= b << (8 * i);
+        }
+        return value;
+    }
+
+    /**
+     * reads the header of the next gzip member
+     * @return false if the end of the file is reached, true if a member starts
+     * @throws IOException if the header is invalid
+     */
+    boolean readMemberHeader() throws IOException {
+        // like GZIPInputStream, ignore trailing data after the last member
+        if(this.readByte() != 0x1f || this.readByte() != 0x8b) {
+            return false;
+        }
+        if(this.readByte() != 8) {
+            throw new ZipException("unsupported gzip compression method");
+        }
+        int flags = this.readBytes(1);
+        // modification time, extra flags, OS
+        this.readBytes(4);
+        this.readBytes(2);
+        if((flags & 4) != 0) {
+            int extra = this.readBytes(2);
+            for(int i=0;i<extra;i++) {
+                this.readBytes(1);
+            }
+        }
+        // file name and comment, zero terminated
+        for(int flag=8;flag<=16;flag<<=1) {
+            if((flags & flag) != 0) {
+                while(this.readBytes(1) != 0) {
+                    // skip
+                }
+            }
+        }
+        if((flags & 2) != 0) {
+            this.readBytes(2);
+        }
+        this.crc.reset();
+        this.memberStart = this.outTotal;
+        return true;
+    }
+
+    /**
+     * reads the trailer of the current gzip member,
+     * and checks checksum and size
+     * @throws IOException if they do not match
+     */
+    void readMemberTrailer() throws IOException {
+        this.flush();
+        long expectedCrc = this.readBytes(4) & 0xffffffffL;
+        long expectedSize = this.readBytes(4) & 0xffffffffL;
+        if(expectedCrc != this.crc.getValue()
+                || expectedSize != ((this.outTotal - this.memberStart) & 0xffffffffL)) {
+            throw new ZipException("corrupt gzip file: checksum mismatch");
+        }
+    }
+
+    private void flush() {
+        this.crc.update(this.out, this.crcPos, this.outPos - this.crcPos);
+        this.crcPos = this.outPos;
+    }
+
+    // make room for at least 258 bytes, keeping the window
+    private void slide() {
+        this.flush();
+        System.arraycopy(this.out, this.outPos - WINDOW_SIZE, this.out, 0, WINDOW_SIZE);
+        this.outPos = WINDOW_SIZE;
+        this.crcPos = WINDOW_SIZE;
+    }
+
+    /**
+     * decodes the next deflate block of the current member
+     * @return true if this was the last block of the member
+     * @throws IOException if the data is invalid
+     */
+    boolean readBlock() throws IOException {
+        boolean last = this.bits(1) == 1;
+        int type = this.bits(2);
+        if(type == 0) {
+            this.readStored();
+        } else if(type == 1) {
+            this.readCodes(FIXED_LITERALS, FIXED_DISTANCES);
+        } else if(type == 2) {
+            this.readDynamic();
+        } else {
+            throw new ZipException("invalid deflate data: invalid block type");
+        }
+        this.checkEnd();
+        return last;
+    }
+
+    private void readStored() throws IOException {
+        int length = this.readBytes(2);
+        int inverted = this.readBytes(2);
+        if(length != (~inverted & 0xffff)) {
+            throw new ZipException("invalid deflate data: invalid stored block length");
+        }
+        for(int i=0;i<length;i++) {
+            if(this.outPos == this.out.length) {
+                this.slide();
+            }
+            this.out[this.outPos++] = (byte) this.readBytes(1);
+        }
+        this.outTotal += length;
+    }
+
+    private void readDynamic() throws IOException {
+        int literalCount = this.bits(5) + 257;
+        int distanceCount = this.bits(5) + 1;
+        int codeLengthCount = this.bits(4) + 4;
+        if(literalCount > 286 || distanceCount > 30) {
+            throw new ZipException("invalid deflate data: too many codes");
+        }
+        byte[] lengths = new byte[19];
+        for(int i=0;i<codeLengthCount;i++) {
+            lengths[CODE_LENGTH_ORDER[i]] = (byte) this.bits(3);
+        }
+        Huffman codeLengths = new Huffman(lengths, 19);
+        lengths = new byte[literalCount + distanceCount];
+        int i = 0;
+        while(i < lengths.length) {
+            int symbol = this.decode(codeLengths);
+            if(symbol < 16) {
+                lengths[i++] = (byte) symbol;
+                continue;
+            }
+            int value = 0;
+            int repeat;
+            if(symbol == 16) {
+                if(i == 0) {
+                    throw new ZipException("invalid deflate data: repeat without length");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + this.bits(2);
+            } else if(symbol == 17) {
+                repeat = 3 + this.bits(3);
+            } else {
+                repeat = 11 + this.bits(7);
+            }
+            if(i + repeat > lengths.length) {
+                throw new ZipException("invalid deflate data: too many lengths");
+            }
+            Arrays.fill(lengths, i, i + repeat, (byte) value);
+            i += repeat;
+        }
+        if(lengths[256] == 0) {
+            throw new ZipException("invalid deflate data: missing end of block code");
+        }
+        Huffman literals = new Huffman(lengths, literalCount);
+        Huffman distances = new Huffman(Arrays.copyOfRange(lengths, literalCount, lengths.length), distanceCount);
+        this.readCodes(literals, distances);
+    }
+
+    private void readCodes(Huffman literals, Huffman distances) throws IOException {
+        byte[] out = this.out;
+        while(true) {
+            int symbol = this.decode(literals);
+            if(this.outPos + 258 > out.length) {
+                this.slide();
+            }
+            if(symbol < 256) {
+                out[this.outPos++] = (byte) symbol;
+                this.outTotal++;
+                continue;
+            }
+            if(symbol == 256) {
+                return;
+            }
+            symbol -= 257;
+            if(symbol >= 29) {
+                throw new ZipException("invalid deflate data: invalid length code");
+            }
+            int length = LENGTH_BASE[symbol] + this.bits(LENGTH_EXTRA[symbol]);
+            int distanceSymbol = this.decode(distances);
+            if(distanceSymbol >= 30) {
+                throw new ZipException("invalid deflate data: invalid distance code");
+            }
+            int distance = DIST_BASE[distanceSymbol] + this.bits(DIST_EXTRA[distanceSymbol]);
+            if(distance > this.outTotal - this.memberStart) {
+                throw new ZipException("invalid deflate data: distance too far back");
+            }
+            int from = this.outPos - distance;
+            for(int i=0;i<length;i++) {
+                out[this.outPos++] = out[from + i];
+            }
+            this.outTotal += length;
+        }
+    }
+
+}
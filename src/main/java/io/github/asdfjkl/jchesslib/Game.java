@@ -27,7 +27,9 @@
 package io.github.asdfjkl.jchesslib;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Class to store Games. This includes both the actual game tree consisting
@@ -42,6 +44,11 @@ public class Game {
     private boolean headerWasChanged;
     private boolean wasEcoClassified;
     private HashMap<String, String> pgnHeaders;
+    // cached main line, i.e. mainline[i] is the node after i halfmoves
+    private GameNode[] mainline;
+    private int mainlineLength;
+    // modifications of the tree when the main line was cached
+    private int mainlineModifications;
 
     /**
      * create a new game. The game will have a root node with
@@ -58,17 +65,13 @@ public class Game {
     }
 
     private boolean containsPositionRec(long positionHash, GameNode node, int maxHalfmove) {
-        if(maxHalfmove <= node.getBoard().halfmoveClock) {
-            return false;
-        }
-        if(node.getBoard().getPositionHash() == positionHash) {
-            return true;
-        } else {
-            for(GameNode var_i : node.getVariations()) {
-                boolean hasPosition = containsPositionRec(positionHash, var_i, maxHalfmove);
-                if(hasPosition) {
-                    return true;
-                }
+        GameNodeIterator it = new GameNodeIterator(node);
+        while(it.hasNext()) {
+            GameNode node_i = it.next();
+            if(maxHalfmove <= node_i.getBoard().halfmoveClock) {
+                it.skipChildren();
+            } else if(node_i.getBoard().getPositionHash() == positionHash) {
+                return true;
             }
         }
         return false;
@@ -96,14 +99,11 @@ public class Game {
     }
 
     private GameNode findNodeByIdRec(int id, GameNode node) {
-        if(node.getId() == id) {
-            return node;
-        } else {
-            for(GameNode var_i : node.getVariations()) {
-                GameNode result = this.findNodeByIdRec(id, var_i);
-                if(result != null) {
-                    return result;
-                }
+        GameNodeIterator it = new GameNodeIterator(node);
+        while(it.hasNext()) {
+            GameNode node_i = it.next();
+            if(node_i.getId() == id) {
+                return node_i;
             }
         }
         return null;
@@ -129,9 +129,9 @@ public class Game {
     private ArrayList<Integer> getAllIds(GameNode node) {
 
         ArrayList<Integer> ids = new ArrayList<>();
-        ids.add(node.getId());
-        for(GameNode nodeI : node.getVariations()) {
-            ids.addAll(getAllIds(nodeI));
+        GameNodeIterator it = new GameNodeIterator(node);
+        while(it.hasNext()) {
+            ids.add(it.next().getId());
         }
         return ids;
     }
@@ -143,6 +143,131 @@ public class Game {
         return getAllIds(getRootNode());
     }
 
+    /**
+     * get an iterator over all nodes of the game tree
+     * @param order one of {@code GameNodeIterator.PRE_ORDER, POST_ORDER, MAINLINE_FIRST}
+     * @return the iterator
+     */
+    public GameNodeIterator iterator(int order) {
+        return new GameNodeIterator(this.getRootNode(), order);
+    }
+
+    /**
+     * visit all nodes of the game tree in pre-order. If the visitor
+     * returns false for a node, the variations below that node are skipped
+     * @param visitor the visitor
+     */
+    public void accept(GameNodeVisitor visitor) {
+        GameNodeIterator it = new GameNodeIterator(this.getRootNode());
+        while(it.hasNext()) {
+            if(!visitor.visit(it.next())) {
+                it.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * visit all nodes below the root in the order in which they are
+     * written in PGN. For every node, first the main line move is visited, then
+     * all variations (sidelines), each enclosed by calls of
+     * {@code beginVariation} and {@code endVariation}, and finally the main line
+     * is continued. If the visitor returns false for a node, the nodes following
+     * it are skipped, and a variation that it starts ends there
+     * @param visitor the visitor
+     */
+    public void acceptInPgnOrder(GameNodeVisitor visitor) {
+        // uses an explicit stack instead of recursion, since
+        // deeply nested variations would otherwise overflow the call stack
+        ArrayList<PgnOrderFrame> stack = new ArrayList<>();
+        stack.add(new PgnOrderFrame(this.getRootNode(), false));
+        while(!stack.isEmpty()) {
+            PgnOrderFrame frame = stack.get(stack.size() - 1);
+            int cntVar = frame.node.getVariations().size();
+            // first visit the mainline move
+            if(frame.nextVariation == 0) {
+                frame.continues = cntVar > 0 && visitor.visit(frame.node.getVariation(0));
+                frame.nextVariation = 1;
+            }
+            // now handle the next variation (sideline)
+            if(frame.nextVariation < cntVar) {
+                GameNode var_i = frame.node.getVariation(frame.nextVariation);
+                frame.nextVariation++;
+                visitor.beginVariation();
+                if(visitor.visit(var_i)) {
+                    stack.add(new PgnOrderFrame(var_i, true));
+                } else {
+                    visitor.endVariation();
+                }
+                continue;
+            }
+            // finally continue the mainline. It replaces the current frame
+            // and takes over ending the variation
+            stack.remove(stack.size() - 1);
+            if(frame.continues) {
+                stack.add(new PgnOrderFrame(frame.node.getVariation(0), frame.closesVariation));
+            } else if(frame.closesVariation) {
+                visitor.endVariation();
+            }
+        }
+    }
+
+    private static class PgnOrderFrame {
+
+        private final GameNode node;
+        private final boolean closesVariation;
+        private int nextVariation;
+        private boolean continues;
+
+        PgnOrderFrame(GameNode node, boolean closesVariation) {
+            this.node = node;
+            this.closesVariation = closesVariation;
+        }
+    }
+
+    /**
+     * visit all nodes of the game tree, where the variations of a node
+     * are visited in parallel. The visitor must be thread-safe, and no
+     * order of the visits is guaranteed except that a node is visited before
+     * all nodes below. If the visitor returns false for a node, the variations
+     * below that node are skipped
+     * @param visitor the visitor
+     * @param parallelism number of worker threads. 0 uses the common
+     *                    fork/join pool, 1 visits all nodes on the calling thread
+     */
+    public void acceptParallel(GameNodeVisitor visitor, int parallelism) {
+        ParallelTreeVisitor.visit(this.getRootNode(), visitor, parallelism);
+    }
+
+    /**
+     * Fills SAN, check and checkmate status, as well as hashes for every node of the
+     * game tree in advance (cf. {@code GameNode.getSan()}, {@code GameNode.isCheckmate()},
+     * {@code GameNode.getZobrist()}). Otherwise, these are lazily computed node by node,
+     * which is slow when e.g. printing or serving large game trees. Large trees are
+     * split and processed in parallel.
+     * @param options selects what to compute and how many threads to use
+     */
+    public void precompute(PrecomputeOptions options) {
+        TreePrecomputer.precompute(this, options);
+    }
+
+    /**
+     * same as {@code precompute(PrecomputeOptions)}, but with default options, i.e.
+     * compute everything using all available cores
+     */
+    public void precompute() {
+        TreePrecomputer.precompute(this, new PrecomputeOptions());
+    }
+
+    /**
+     * batch variant of {@code precompute(PrecomputeOptions)}. The supplied games are
+     * distributed over all threads, and each game is processed by a single thread.
+     * @param games the games to process
+     * @param options selects what to compute and how many threads to use
+     */
+    public static void precompute(List<Game> games, PrecomputeOptions options) {
+        TreePrecomputer.precompute(games, options);
+    }
+
     /**
      * checks if the flag {@code treeWasChanged} is set.
      * @return true if the flag is set, false otherwise
@@ -248,11 +373,53 @@ public class Game {
      * @return
      */
     public GameNode getEndNode() {
-        GameNode temp = this.getRootNode();
+        this.ensureMainline();
+        return this.mainline[this.mainlineLength - 1];
+    }
+
+    /**
+     * get the node of the main line after the supplied number of halfmoves.
+     * The main line is cached, i.e. this takes constant time
+     * @param ply number of halfmoves from the root (0 is the root)
+     * @return the node, throws {@code IllegalArgumentException} if
+     *         the main line is shorter
+     */
+    public GameNode getMainlineNode(int ply) {
+        this.ensureMainline();
+        if(ply < 0 || ply >= this.mainlineLength) {
+            throw new IllegalArgumentException("main line has only "+(this.mainlineLength - 1)
+                    +" halfmoves, but ply "+ply+" requested");
+        }
+        return this.mainline[ply];
+    }
+
+    // the cached main line is valid as long as the variations
+    // of the tree were not changed (cf. GameNode.getTreeModifications)
+    private boolean isMainlineCached() {
+        return this.mainline != null && this.mainline[0] == this.root
+                && this.mainlineModifications == this.root.getTreeModifications();
+    }
+
+    private void ensureMainline() {
+        if(this.isMainlineCached()) {
+            return;
+        }
+        int length = 1;
+        GameNode temp = this.root;
         while(temp.getVariations().size() > 0) {
             temp = temp.getVariation(0);
+            length++;
+        }
+        this.mainline = new GameNode[Math.max(16, length)];
+        temp = this.root;
+        for(int i=0;i<length;i++) {
+            this.mainline[i] = temp;
+            if(temp.hasChild()) {
+                temp = temp.getVariation(0);
+            }
         }
-        return temp;
+        this.mainlineLength = length;
+        this.mainlineModifications = this.root.getTreeModifications();
     }
 
     /**
@@ -288,16 +455,10 @@ public class Game {
      * @param m the move to apply
      */
     public void applyMove(Move m) {
-        boolean existsChild = false;
-        for(GameNode var_i : this.current.getVariations()) {
-            Move mi = var_i.getMove();
-            if(m.from == mi.from && m.to == mi.to && m.promotionPiece == mi.promotionPiece) {
-                existsChild = true;
-                this.current = var_i;
-                break;
-            }
-        }
-        if(!existsChild) {
+        GameNode child = this.current.findChild(m);
+        if(child != null) {
+            this.current = child;
+        } else {
             GameNode current = this.getCurrentNode();
             Board bCurrent = current.getBoard();
             Board bChild = bCurrent.makeCopy();
@@ -306,7 +467,17 @@ public class Game {
             newCurrent.setBoard(bChild);
             newCurrent.setMove(m);
             newCurrent.setParent(current);
-            current.getVariations().add(newCurrent);
+            // extend the cached main line if the move is appended to its end
+            boolean extend = this.isMainlineCached() && this.mainline[this.mainlineLength - 1] == current;
+            current.addVariation(newCurrent);
+            if(extend) {
+                if(this.mainlineLength == this.mainline.length) {
+                    this.mainline = Arrays.copyOf(this.mainline, this.mainline.length * 2);
+                }
+                this.mainline[this.mainlineLength] = newCurrent;
+                this.mainlineLength++;
+                this.mainlineModifications = this.root.getTreeModifications();
+            }
             this.current = newCurrent;
             this.treeWasChanged = true;
         }
@@ -375,11 +546,7 @@ public class Game {
      * node of the main variation (seen from the root)
      */
     public void goToEnd() {
-        GameNode temp = this.root;
-        while(temp.getVariations().size() > 0) {
-            temp = temp.getVariation(0);
-        }
-        this.current = temp;
+        this.current = this.getEndNode();
     }
 
     /**
@@ -393,6 +560,8 @@ public class Game {
         if(node.getParent() != null) {
             GameNode parent = node.getParent();
             int i = parent.getVariations().indexOf(node);
+            // reordering keeps the set of children, i.e.
+            // the child index of the parent stays valid
             if (i > 0) {
                 parent.getVariations().remove(i);
                 parent.getVariations().add(i - 1, node);
@@ -412,6 +581,8 @@ public class Game {
         if(node.getParent() != null) {
             GameNode parent = node.getParent();
             int i = parent.getVariations().indexOf(node);
+            // reordering keeps the set of children, i.e.
+            // the child index of the parent stays valid
             if(i < parent.getVariations().size() -1) {
                 parent.getVariations().remove(i);
                 parent.getVariations().add(i+1,node);
@@ -444,7 +615,7 @@ public class Game {
             idx = variationRoot.getVariations().indexOf(child);
         }
         if (idx != -1) {
-            variationRoot.getVariations().remove(idx);
+            variationRoot.deleteVariation(idx);
             this.current = variationRoot;
         }
     }
@@ -465,9 +636,9 @@ public class Game {
      * @param node
      */
     public void removeCommentRec(GameNode node) {
-        node.setComment("");
-        for(GameNode var_i : node.getVariations()) {
-            this.removeCommentRec(var_i);
+        GameNodeIterator it = new GameNodeIterator(node);
+        while(it.hasNext()) {
+            it.next().setComment("");
         }
     }
 
@@ -496,9 +667,9 @@ public class Game {
      * @param node
      */
     public void removeAllAnnotationsRec(GameNode node) {
-        node.removeNagsInRange(0,120);
-        for(GameNode var_i : node.getVariations()) {
-            this.removeAllAnnotationsRec(var_i);
+        GameNodeIterator it = new GameNodeIterator(node);
+        while(it.hasNext()) {
+            it.next().removeNagsInRange(0,120);
         }
     }
 
@@ -560,13 +731,8 @@ public class Game {
      * @return
      */
     public int countHalfmoves() {
-        int halfmoves = 0;
-        GameNode temp = this.root;
-        while(temp.getVariations().size() > 0) {
-            temp = temp.getVariation(0);
-            halfmoves += 1;
-        }
-        return halfmoves;
+        this.ensureMainline();
+        return this.mainlineLength - 1;
     }
 
     /**
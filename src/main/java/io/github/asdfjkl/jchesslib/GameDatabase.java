@@ -0,0 +1,313 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A binary game database. Compared to PGN, games load without parsing SAN
+ * or generating moves: each move is stored as its 16 bit packed encoding
+ * (cf. {@code Move.pack}), which is applied directly. Variations are
+ * enclosed in marker values. Header tags and values (and non-standard start
+ * positions) are stored once in a string dictionary, and each game references
+ * them by id. Comments and NAGs are stored in separate sections of each game
+ * record, keyed by the number of the node they belong to.
+ *
+ * Layout of a database file:
+ * <pre>
+ * MAGIC, VERSION                      two 32 bit integers
+ * game records                        one per game
+ * string dictionary                   number of strings, then each string as length and UTF-8 bytes
+ * game index                          64 bit offset of each game record
+ * dictionary offset, index offset     64 bit each
+ * number of games, MAGIC              32 bit each
+ * </pre>
+ * A game record consists of the number of headers and pairs of tag and value
+ * ids, the result, the id of the start position plus one (0 for the standard
+ * start position), and the length-prefixed sections of moves, comments and NAGs.
+ * Numbers in records are variable-length integers.
+ *
+ * Games are read with positional reads on a file channel, hence
+ * a database can be read concurrently by several threads.
+ */
+public class GameDatabase implements Closeable {
+
+    /**
+     * suggested suffix for database files
+     */
+    public static final String SUFFIX = ".jcdb";
+
+    static final int MAGIC = 0x4A434442; // "JCDB"
+    static final int VERSION = 1;
+    static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // markers in the move section, packed moves are at most 15 bits
+    static final int VARIATION_START = 0xFFFE;
+    static final int VARIATION_END = 0xFFFF;
+
+    private static final int TRAILER_SIZE = 24;
+
+    private final FileChannel channel;
+    private final String[] strings;
+    // offsets of all game records, plus the end of the last record
+    private final long[] offsets;
+
+    private GameDatabase(FileChannel channel, String[] strings, long[] offsets) {
+        this.channel = channel;
+        this.strings = strings;
+        this.offsets = offsets;
+    }
+
+    /**
+     * open a database file. Close the database after use.
+     * @param dbFilename filename of the database
+     * @return the database
+     * @throws IOException if the file can not be read or is not a database
+     */
+    public static GameDatabase open(String dbFilename) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(dbFilename), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if(size < 8 + TRAILER_SIZE || readFully(channel, 0, 8).getInt() != MAGIC) {
+                throw new IOException("not a game database file");
+            }
+            ByteBuffer trailer = readFully(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            long dictionaryOffset = trailer.getLong();
+            long indexOffset = trailer.getLong();
+            int gameCount = trailer.getInt();
+            if(trailer.getInt() != MAGIC || indexOffset + 8L * gameCount != size - TRAILER_SIZE
+                    || dictionaryOffset > indexOffset) {
+                throw new IOException("game database file is truncated");
+            }
+            ByteBuffer dictionary = readFully(channel, dictionaryOffset, (int) (indexOffset - dictionaryOffset));
+            String[] strings = new String[readVarInt(dictionary)];
+            for(int i=0;i<strings.length;i++) {
+                int length = readVarInt(dictionary);
+                strings[i] = new String(dictionary.array(), dictionary.position(), length, StandardCharsets.UTF_8);
+                dictionary.position(dictionary.position() + length);
+            }
+            ByteBuffer index = readFully(channel, indexOffset, 8 * gameCount);
+            long[] offsets = new long[gameCount + 1];
+            for(int i=0;i<gameCount;i++) {
+                offsets[i] = index.getLong();
+            }
+            offsets[gameCount] = dictionaryOffset;
+            return new GameDatabase(channel, strings, offsets);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * convert a PGN file to a database file. Games are read in a single pass.
+     * The encoding of the PGN is detected (cf. {@code PgnReader.isIsoLatin1}).
+     * @param pgnFilename filename of the PGN
+     * @param dbFilename filename of the database
+     * @return number of games written
+     * @throws IOException if the PGN can not be read or the database can not be written
+     */
+    public static int convert(String pgnFilename, String dbFilename) throws IOException {
+        PgnReader reader = new PgnReader();
+        if(reader.isIsoLatin1(pgnFilename)) {
+            reader.setEncodingIsoLatin1();
+        }
+        try(PgnGameIterator games = reader.iterateGames(pgnFilename);
+            GameDatabaseWriter writer = new GameDatabaseWriter(dbFilename)) {
+            while(games.hasNext()) {
+                writer.addGame(games.next());
+            }
+            return writer.size();
+        }
+    }
+
+    /**
+     * write all games of the database to a PGN file (UTF-8 encoded)
+     * @param pgnFilename filename of the PGN
+     * @throws IOException if a game can not be read or the PGN can not be written
+     */
+    public void exportPgn(String pgnFilename) throws IOException {
+        PgnPrinter printer = new PgnPrinter();
+        try(BufferedWriter out = Files.newBufferedWriter(Path.of(pgnFilename), StandardCharsets.UTF_8)) {
+            for(int i=0;i<this.size();i++) {
+                out.write(printer.printGame(this.readGame(i)));
+                out.write("\n\n");
+            }
+        }
+    }
+
+    /**
+     * get the number of games
+     * @return number of games
+     */
+    public int size() {
+        return this.offsets.length - 1;
+    }
+
+    /**
+     * read the headers of a game, without decoding its moves
+     * @param i index of the game
+     * @return hashmap of key,value e.g. key="Site", value="London"
+     * @throws IOException if the game can not be read
+     */
+    public HashMap<String, String> readHeaders(int i) throws IOException {
+        ByteBuffer record = this.readRecord(i);
+        HashMap<String, String> headers = new HashMap<>();
+        this.decodeHeaders(record, headers);
+        return headers;
+    }
+
+    private void decodeHeaders(ByteBuffer record, HashMap<String, String> headers) {
+        int count = readVarInt(record);
+        for(int j=0;j<count;j++) {
+            String tag = this.strings[readVarInt(record)];
+            headers.put(tag, this.strings[readVarInt(record)]);
+        }
+    }
+
+    /**
+     * read a game
+     * @param i index of the game
+     * @return the game
+     * @throws IOException if the game can not be read or is corrupt
+     */
+    public Game readGame(int i) throws IOException {
+        ByteBuffer record = this.readRecord(i);
+        Game g = new Game();
+        try {
+            HashMap<String, String> headers = new HashMap<>();
+            this.decodeHeaders(record, headers);
+            g.setPgnHeaders(headers);
+            g.setResult(readVarInt(record));
+            int fen = readVarInt(record);
+            GameNode root = g.getRootNode();
+            root.setBoard(fen > 0 ? new Board(this.strings[fen - 1]) : new Board(true));
+            ArrayList<GameNode> nodes = new ArrayList<>();
+            nodes.add(root);
+            int movesLength = readVarInt(record);
+            this.decodeMoves(record, record.position(), record.position() + movesLength, root, nodes);
+            record.position(record.position() + movesLength);
+
+            readVarInt(record);
+            int comments = readVarInt(record);
+            for(int j=0;j<comments;j++) {
+                GameNode node = nodes.get(readVarInt(record));
+                int length = readVarInt(record);
+                node.setComment(new String(record.array(), record.position(), length, StandardCharsets.UTF_8));
+                record.position(record.position() + length);
+            }
+            readVarInt(record);
+            int nags = readVarInt(record);
+            for(int j=0;j<nags;j++) {
+                GameNode node = nodes.get(readVarInt(record));
+                node.addNag(readVarInt(record));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("game " + i + " is corrupt", e);
+        }
+        return g;
+    }
+
+    private void decodeMoves(ByteBuffer record, int from, int to, GameNode root, ArrayList<GameNode> nodes) {
+        byte[] data = record.array();
+        GameNode current = root;
+        ArrayList<GameNode> stack = new ArrayList<>();
+        for(int pos=from;pos<to;pos+=2) {
+            int code = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+            if(code == VARIATION_START) {
+                stack.add(current);
+                current = current.getParent();
+                continue;
+            }
+            if(code == VARIATION_END) {
+                current = stack.remove(stack.size() - 1);
+                continue;
+            }
+            Board board = current.getBoard();
+            Move m = Move.unpack(code);
+            Board childBoard = board.makeCopy();
+            childBoard.apply(m);
+            GameNode next = new GameNode();
+            next.setMove(m);
+            next.setBoard(childBoard);
+            next.setParent(current);
+            current.addVariation(next);
+            nodes.add(next);
+            current = next;
+        }
+    }
+
+    private ByteBuffer readRecord(int i) throws IOException {
+        if(i < 0 || i >= this.size()) {
+            throw new IllegalArgumentException("there are only " + this.size() + " games, but "
+                    + i + " requested");
+        }
+        return readFully(this.channel, this.offsets[i], (int) (this.offsets[i + 1] - this.offsets[i]));
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of game database file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    /**
+     * close the database file
+     * @throws IOException if the file can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes games to a binary game database (cf. {@code GameDatabase}). Games
+ * are appended one by one, hence a PGN file of any size can be converted
+ * while streaming through it. The file is written to a temporary file
+ * first, and moved when the writer is closed.
+ */
+public class GameDatabaseWriter implements Closeable {
+
+    private final Path path;
+    private final Path tmp;
+    private final OutputStream out;
+    private long position;
+    private boolean closed;
+
+    private final HashMap<String, Integer> stringIds = new HashMap<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+    private long[] offsets = new long[1024];
+    private int gameCount;
+
+    // sections of the current record
+    private final Buffer record = new Buffer();
+    private final Buffer moves = new Buffer();
+    private final Buffer comments = new Buffer();
+    private final Buffer nags = new Buffer();
+    private int commentCount;
+    private int nagCount;
+    private int nodeCount;
+
+    /**
+     * create a new database file. An existing file is
+     * replaced when the writer is closed.
+     * @param dbFilename filename of the database
+     * @throws IOException if the file can not be created
+     */
+    public GameDatabaseWriter(String dbFilename) throws IOException {
+        this.path = Path.of(dbFilename);
+        this.tmp = Path.of(dbFilename + ".tmp");
+        this.out = new BufferedOutputStream(Files.newOutputStream(this.tmp), 1 << 16);
+        Buffer header = new Buffer();
+        header.writeInt(GameDatabase.MAGIC);
+        header.writeInt(GameDatabase.VERSION);
+        this.write(header);
+    }
+
+    /**
+     * append a game to the database
+     * @param g the game
+     * @throws IOException if the game can not be written
+     */
+    public void addGame(Game g) throws IOException {
+        if(this.closed) {
+            throw new IOException("database writer is closed");
+        }
+        this.record.size = 0;
+        this.moves.size = 0;
+        this.comments.size = 0;
+        this.nags.size = 0;
+        this.commentCount = 0;
+        this.nagCount = 0;
+        this.nodeCount = 0;
+
+        HashMap<String, String> headers = g.getPgnHeaders();
+        this.record.writeVarInt(headers.size());
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            this.record.writeVarInt(this.stringId(header.getKey()));
+            this.record.writeVarInt(this.stringId(header.getValue()));
+        }
+        this.record.writeVarInt(g.getResult());
+        GameNode root = g.getRootNode();
+        String fen = root.getBoard().fen();
+        if(fen.equals(GameDatabase.START_FEN)) {
+            this.record.writeVarInt(0);
+        } else {
+            this.record.writeVarInt(this.stringId(fen) + 1);
+        }
+        this.addAnnotations(root);
+        this.encodeLine(root);
+
+        this.record.writeVarInt(this.moves.size);
+        this.record.write(this.moves);
+        Buffer section = new Buffer();
+        section.writeVarInt(this.commentCount);
+        section.write(this.comments);
+        this.record.writeVarInt(section.size);
+        this.record.write(section);
+        section.size = 0;
+        section.writeVarInt(this.nagCount);
+        section.write(this.nags);
+        this.record.writeVarInt(section.size);
+        this.record.write(section);
+
+        if(this.gameCount == this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, 2 * this.gameCount);
+        }
+        this.offsets[this.gameCount++] = this.position;
+        this.write(this.record);
+    }
+
+    // encodes the moves of the line starting at node, where variations
+    // are enclosed in VARIATION_START and VARIATION_END after the move
+    // they are an alternative to. Nodes are numbered in this order.
+    // Moves are not checked for legality, as games are built from legal moves.
+    private void encodeLine(GameNode node) {
+        while(node.hasChild()) {
+            GameNode mainChild = node.getVariation(0);
+            this.encodeMove(mainChild);
+            for(int i=1;i<node.getVariations().size();i++) {
+                GameNode child = node.getVariation(i);
+                this.moves.writeShort(GameDatabase.VARIATION_START);
+                this.encodeMove(child);
+                this.encodeLine(child);
+                this.moves.writeShort(GameDatabase.VARIATION_END);
+            }
+            node = mainChild;
+        }
+    }
+
+    private void encodeMove(GameNode child) {
+        this.moves.writeShort(child.getMove().pack());
+        this.nodeCount++;
+        this.addAnnotations(child);
+    }
+
+    private void addAnnotations(GameNode node) {
+        String comment = node.getComment();
+        if(comment != null && !comment.isEmpty()) {
+            byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+            this.comments.writeVarInt(this.nodeCount);
+            this.comments.writeVarInt(bytes.length);
+            this.comments.write(bytes, bytes.length);
+            this.commentCount++;
+        }
+        for(int nag : node.getNags()) {
+            this.nags.writeVarInt(this.nodeCount);
+            this.nags.writeVarInt(nag);
+            this.nagCount++;
+        }
+    }
+
+    private int stringId(String s) {
+        Integer id = this.stringIds.get(s);
+        if(id == null) {
+            id = this.strings.size();
+            this.strings.add(s);
+            this.stringIds.put(s, id);
+        }
+        return id;
+    }
+
+    private void write(Buffer buffer) throws IOException {
+        this.out.write(buffer.data, 0, buffer.size);
+        this.position += buffer.size;
+    }
+
+    /**
+     * get the number of games written so far
+     * @return number of games
+     */
+    public int size() {
+        return this.gameCount;
+    }
+
+    /**
+     * write the string dictionary and the game index, and move the file
+     * to its final location
+     * @throws IOException if the file can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if(this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            long dictionaryOffset = this.position;
+            Buffer block = new Buffer();
+            block.writeVarInt(this.strings.size());
+            for(String s : this.strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                block.writeVarInt(bytes.length);
+                block.write(bytes, bytes.length);
+            }
+            this.write(block);
+            long indexOffset = this.position;
+            block.size = 0;
+            for(int i=0;i<this.gameCount;i++) {
+                block.writeLong(this.offsets[i]);
+            }
+            block.writeLong(dictionaryOffset);
+            block.writeLong(indexOffset);
+            block.writeInt(this.gameCount);
+            block.writeInt(GameDatabase.MAGIC);
+            this.write(block);
+        } finally {
+            this.out.close();
+        }
+        try {
+            Files.move(this.tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(this.tmp, this.path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * growable byte array with big-endian and variable-length integers
+     */
+    private static class Buffer {
+
+        private byte[] data = new byte[256];
+        private int size;
+
+        private void ensure(int extra) {
+            if(this.size + extra > this.data.length) {
+                this.data = Arrays.copyOf(this.data, Math.max(2 * this.data.length, this.size + extra));
+            }
+        }
+
+        void writeShort(int value) {
+            this.ensure(2);
+            this.data[this.size++] = (byte) (value >>> 8);
+            this.data[this.size++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            this.ensure(5);
+            while((value & ~0x7f) != 0) {
+                this.data[this.size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            this.data[this.size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            this.ensure(4);
+            for(int shift=24;shift>=0;shift-=8) {
+                this.data[this.size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeLong(long value) {
+            this.ensure(8);
+            for(int shift=56;shift>=0;shift-=8) {
+                this.data[this.size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void write(byte[] bytes, int length) {
+            this.ensure(length);
+            System.arraycopy(bytes, 0, this.data, this.size, length);
+            this.size += length;
+        }
+
+        void write(Buffer other) {
+            this.write(other.data, other.size);
+        }
+    }
+
+}
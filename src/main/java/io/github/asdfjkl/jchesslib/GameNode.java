@@ -26,28 +26,51 @@
 
 package io.github.asdfjkl.jchesslib;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 /**
  * Represents a node of a game tree.
  */
 public class GameNode {
 
-    static int id;
+    // games are parsed and created on several threads
+    // in parallel, hence ids must be drawn atomically
+    private static final AtomicInteger id = new AtomicInteger();
+    // nodes with more children than this get a hashed child index
+    private static final int CHILD_INDEX_THRESHOLD = 8;
     private final int nodeId;
     private Board board = null;
     private Move move = null; // move leading to this node
     private GameNode parent = null;
     private String comment;
     private String sanCache;
+    private boolean statusCached;
+    private boolean isCheck;
+    private boolean isCheckmate;
+    private boolean hashesCached;
+    private long zobrist;
+    private long positionHash;
     private final ArrayList<GameNode> variations;
+    // shared by all nodes of a tree, null until needed
+    private Tree tree;
+    // maps packed moves to children, cf. findChild. Dropped by
+    // every change of variations except appending a child
+    private HashMap<Integer, GameNode> childIndex;
     private ArrayList<Integer> nags;
     private ArrayList<ColoredField> coloredFields;
     private ArrayList<Arrow> arrows;
 
     protected static int initId() {
-        return id++;
+        return id.getAndIncrement();
     }
 
     /**
@@ -58,7 +81,7 @@ public class GameNode {
      */
     public GameNode() {
         this.nodeId = initId();
-        this.variations = new ArrayList<GameNode>();
+        this.variations = new Variations();
         this.nags = new ArrayList<Integer>();
         //this.board = new Board(true);
         //this.board.resetToStartingPosition();
@@ -66,6 +89,176 @@ public class GameNode {
         this.sanCache = "";
     }
 
+    // counts the changes of variations of all nodes of a tree,
+    // such that e.g. a cached main line can be checked in constant time
+    private static final class Tree {
+        private int modifications;
+    }
+
+    // list of variations that counts all changes, also if
+    // the list is modified directly (cf. getVariations)
+    private final class Variations extends ArrayList<GameNode> {
+
+        @Override
+        public boolean add(GameNode node) {
+            // appending a child keeps the child index valid
+            HashMap<Integer, GameNode> index = childIndex;
+            adopt(node);
+            super.add(node);
+            if(index != null) {
+                index.putIfAbsent(node.getMove().pack(), node);
+                childIndex = index;
+            }
+            return true;
+        }
+
+        @Override
+        public void add(int index, GameNode node) {
+            adopt(node);
+            super.add(index, node);
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends GameNode> nodes) {
+            for(GameNode node : nodes) {
+                adopt(node);
+            }
+            return super.addAll(nodes);
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends GameNode> nodes) {
+            for(GameNode node : nodes) {
+                adopt(node);
+            }
+            return super.addAll(index, nodes);
+        }
+
+        @Override
+        public GameNode set(int index, GameNode node) {
+            adopt(node);
+            return super.set(index, node);
+        }
+
+        @Override
+        public GameNode remove(int index) {
+            modified();
+            return super.remove(index);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            modified();
+            return super.remove(o);
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            modified();
+            return super.removeAll(c);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            modified();
+            return super.retainAll(c);
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super GameNode> filter) {
+            modified();
+            return super.removeIf(filter);
+        }
+
+        @Override
+        protected void removeRange(int from, int to) {
+            modified();
+            super.removeRange(from, to);
+        }
+
+        @Override
+        public void clear() {
+            modified();
+            super.clear();
+        }
+
+        @Override
+        public void sort(Comparator<? super GameNode> c) {
+            modified();
+            super.sort(c);
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<GameNode> operator) {
+            super.replaceAll(operator);
+            modified();
+            for(GameNode node : this) {
+                adopt(node);
+            }
+        }
+
+        @Override
+        public List<GameNode> subList(int from, int to) {
+            // a view that changes this list only through the methods above
+            return new AbstractList<GameNode>() {
+                @Override
+                public GameNode get(int index) { return Variations.this.get(index); }
+                @Override
+                public int size() { return Variations.this.size(); }
+                @Override
+                public GameNode set(int index, GameNode node) { return Variations.this.set(index, node); }
+                @Override
+                public void add(int index, GameNode node) { Variations.this.add(index, node); }
+                @Override
+                public GameNode remove(int index) { return Variations.this.remove(index); }
+            }.subList(from, to);
+        }
+    }
+
+    private Tree tree() {
+        if(this.tree == null) {
+            this.tree = new Tree();
+        }
+        return this.tree;
+    }
+
+    private void modified() {
+        this.childIndex = null;
+        this.tree().modifications++;
+    }
+
+    // the supplied node and all nodes below it become part of the tree of this node
+    private void adopt(GameNode node) {
+        this.childIndex = null;
+        Tree t = this.tree();
+        t.modifications++;
+        if(node == null || node.tree == t) {
+            return;
+        }
+        if(node.variations.isEmpty()) {
+            node.tree = t;
+            return;
+        }
+        ArrayList<GameNode> stack = new ArrayList<>();
+        stack.add(node);
+        while(!stack.isEmpty()) {
+            GameNode n = stack.remove(stack.size() - 1);
+            if(n.tree != t) {
+                n.tree = t;
+                stack.addAll(n.variations);
+            }
+        }
+    }
+
+    /**
+     * get the number of changes of variations of all nodes of the tree
+     * of this node. Used to check if a cached main line is still valid
+     * @return number of changes
+     */
+    int getTreeModifications() {
+        return this.tree().modifications;
+    }
+
     /**
      * adds the supplied {@code Arrow} if
      * the arrow is not already existing. If the
@@ -153,6 +346,8 @@ public class GameNode {
      */
     public void setBoard(Board b) {
         this.board = b;
+        this.statusCached = false;
+        this.hashesCached = false;
     }
 
     /**
@@ -178,6 +373,83 @@ public class GameNode {
         return this.sanCache;
     }
 
+    /**
+     * set the cached short algebraic notation of the Move
+     * that leads to this node (cf. {@code Game.precompute})
+     * @param san String with SAN representation
+     */
+    void setSanCache(String san) {
+        this.sanCache = san;
+    }
+
+    /**
+     * checks if the side to move is in check in the position
+     * of this node. The result is computed once and then cached.
+     * @return true if the side to move is in check
+     */
+    public boolean isCheck() {
+        if(!this.statusCached) {
+            this.computeStatus();
+        }
+        return this.isCheck;
+    }
+
+    /**
+     * checks if the side to move is checkmated in the position
+     * of this node. The result is computed once and then cached.
+     * @return true if the side to move is checkmated
+     */
+    public boolean isCheckmate() {
+        if(!this.statusCached) {
+            this.computeStatus();
+        }
+        return this.isCheckmate;
+    }
+
+    /**
+     * computes and caches check and checkmate status from the board of this node.
+     * Note that checkmate detection temporarily modifies the board, i.e.
+     * the board must not be accessed concurrently while this runs
+     */
+    void computeStatus() {
+        this.isCheck = this.board.isCheck();
+        this.isCheckmate = this.isCheck && this.board.isCheckmate();
+        this.statusCached = true;
+    }
+
+    /**
+     * get the zobrist hash of the position of this node. The hash
+     * is computed once and then cached.
+     * @return zobrist hash value
+     */
+    public long getZobrist() {
+        if(!this.hashesCached) {
+            this.computeHashes();
+        }
+        return this.zobrist;
+    }
+
+    /**
+     * get the position hash (cf. {@code Board.getPositionHash}) of the
+     * position of this node. The hash is computed once and then cached.
+     * @return hash value of the position
+     */
+    public long getPositionHash() {
+        if(!this.hashesCached) {
+            this.computeHashes();
+        }
+        return this.positionHash;
+    }
+
+    /**
+     * computes and caches zobrist and position hash from the board of this node
+     */
+    void computeHashes() {
+        this.zobrist = this.board.getZobrist();
+        this.positionHash = this.board.getPositionHash();
+        this.hashesCached = true;
+    }
+
     /**
      * get the parent of this node
      * @return parent node
@@ -259,7 +531,8 @@ public class GameNode {
     }
 
     /**
-     * get all variations of the current node
+     * get all variations of the current node. The list can
+     * be modified directly, e.g. to reorder the variations
      * @return
      */
     public ArrayList<GameNode> getVariations() {
@@ -275,6 +548,37 @@ public class GameNode {
         this.variations.add(node);
     }
 
+    /**
+     * find the child of this node that is reached by the supplied move.
+     * Nodes with many children keep a hashed index of their children,
+     * such that wide trees (e.g. from engine analysis) can be searched
+     * in constant time
+     * @param m the move
+     * @return the child, or {@code null} if no child with that move exists
+     */
+    public GameNode findChild(Move m) {
+        if(this.variations.size() > CHILD_INDEX_THRESHOLD) {
+            if(this.childIndex == null) {
+                this.rebuildChildIndex();
+            }
+            return this.childIndex.get(m.pack());
+        }
+        for(GameNode var_i : this.variations) {
+            Move mi = var_i.getMove();
+            if(m.from == mi.from && m.to == mi.to && m.promotionPiece == mi.promotionPiece) {
+                return var_i;
+            }
+        }
+        return null;
+    }
+
+    private void rebuildChildIndex() {
+        this.childIndex = new HashMap<>();
+        for(GameNode var_i : this.variations) {
+            this.childIndex.putIfAbsent(var_i.getMove().pack(), var_i);
+        }
+    }
+
     /**
      * checks if the node has variations (i.e.
      * more than one child)
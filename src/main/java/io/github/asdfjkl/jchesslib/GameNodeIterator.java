@@ -0,0 +1,183 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over all nodes of a game tree (or a subtree). The traversal
+ * uses an explicit stack, i.e. also trees with very deep variation nesting
+ * can be traversed. The tree must not be modified during iteration.
+ */
+public class GameNodeIterator implements Iterator<GameNode> {
+
+    /**
+     * a node is returned before the nodes of its variations,
+     * variations are returned in order
+     */
+    public static final int PRE_ORDER = 0;
+    /**
+     * a node is returned after the nodes of its variations
+     */
+    public static final int POST_ORDER = 1;
+    /**
+     * first all nodes of the main line are returned, then all
+     * variations branching off the main line (each followed to its end),
+     * then all variations branching off those, and so on
+     */
+    public static final int MAINLINE_FIRST = 2;
+
+    private final int order;
+
+    // pre-order: nodes still to return
+    // post-order: path from the start node to the next node to return
+    private final ArrayList<GameNode> stack;
+    // post-order: index of the next variation to descend to, for each node on the path
+    private final ArrayList<Integer> nextChild;
+    // mainline first: start nodes of lines still to return
+    private final ArrayDeque<GameNode> lines;
+    // mainline first: next node on the current line
+    private GameNode lineNode;
+
+    // last returned node, whose variations are not yet added
+    private GameNode pending;
+
+    /**
+     * create a pre-order iterator over the supplied node and all nodes below
+     * @param start start node
+     */
+    public GameNodeIterator(GameNode start) {
+        this(start, PRE_ORDER);
+    }
+
+    /**
+     * create an iterator over the supplied node and all nodes below
+     * @param start start node
+     * @param order one of {@code PRE_ORDER, POST_ORDER, MAINLINE_FIRST}
+     */
+    public GameNodeIterator(GameNode start, int order) {
+        if(order != PRE_ORDER && order != POST_ORDER && order != MAINLINE_FIRST) {
+            throw new IllegalArgumentException("unknown traversal order: " + order);
+        }
+        this.order = order;
+        this.stack = new ArrayList<>();
+        this.nextChild = new ArrayList<>();
+        this.lines = new ArrayDeque<>();
+        if(order == PRE_ORDER) {
+            this.stack.add(start);
+        } else if(order == POST_ORDER) {
+            this.stack.add(start);
+            this.nextChild.add(0);
+        } else {
+            this.lineNode = start;
+        }
+    }
+
+    /**
+     * do not descend into the variations below the node that
+     * was last returned by {@code next()}. Not supported for post-order
+     * traversal, since there all nodes below have already been returned
+     */
+    public void skipChildren() {
+        if(this.order == POST_ORDER) {
+            throw new IllegalStateException("children can not be skipped in post-order traversal");
+        }
+        if(this.order == MAINLINE_FIRST && this.pending != null) {
+            this.lineNode = null;
+        }
+        this.pending = null;
+    }
+
+    private void addPending() {
+        if(this.pending == null) {
+            return;
+        }
+        ArrayList<GameNode> variations = this.pending.getVariations();
+        if(this.order == PRE_ORDER) {
+            for(int i=variations.size()-1;i>=0;i--) {
+                this.stack.add(variations.get(i));
+            }
+        } else {
+            for(int i=1;i<variations.size();i++) {
+                this.lines.add(variations.get(i));
+            }
+            if(variations.isEmpty()) {
+                this.lineNode = null;
+            } else {
+                this.lineNode = variations.get(0);
+            }
+        }
+        this.pending = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        this.addPending();
+        if(this.order == MAINLINE_FIRST) {
+            return this.lineNode != null || !this.lines.isEmpty();
+        } else {
+            return !this.stack.isEmpty();
+        }
+    }
+
+    @Override
+    public GameNode next() {
+        if(!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if(this.order == PRE_ORDER) {
+            this.pending = this.stack.remove(this.stack.size() - 1);
+            return this.pending;
+        } else if(this.order == MAINLINE_FIRST) {
+            if(this.lineNode == null) {
+                this.lineNode = this.lines.poll();
+            }
+            this.pending = this.lineNode;
+            return this.pending;
+        } else {
+            // descend along the first unvisited variation until a node
+            // is found whose variations have all been returned
+            while(true) {
+                int top = this.stack.size() - 1;
+                GameNode node = this.stack.get(top);
+                int idx = this.nextChild.get(top);
+                if(idx < node.getVariations().size()) {
+                    this.nextChild.set(top, idx + 1);
+                    this.stack.add(node.getVariation(idx));
+                    this.nextChild.add(0);
+                } else {
+                    this.stack.remove(top);
+                    this.nextChild.remove(top);
+                    return node;
+                }
+            }
+        }
+    }
+
+}
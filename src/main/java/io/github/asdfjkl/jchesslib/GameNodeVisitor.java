@@ -0,0 +1,53 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+/**
+ * Callback for traversing a game tree (cf. {@code Game.accept})
+ */
+public interface GameNodeVisitor {
+
+    /**
+     * called for each visited node
+     * @param node the visited node
+     * @return true if the variations below the node should be
+     *         visited, false if they should be skipped
+     */
+    boolean visit(GameNode node);
+
+    /**
+     * called before the first node of a variation (sideline), if
+     * the tree is visited in PGN order (cf. {@code Game.acceptInPgnOrder})
+     */
+    default void beginVariation() { }
+
+    /**
+     * called after the last visited node of a variation (sideline), if
+     * the tree is visited in PGN order (cf. {@code Game.acceptInPgnOrder})
+     */
+    default void endVariation() { }
+
+}
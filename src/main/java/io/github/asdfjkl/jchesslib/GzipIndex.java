@@ -0,0 +1,516 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Checkpoint index of a gzip compressed file, to decompress from (nearly)
+ * any offset of the uncompressed data (cf. zran.c of zlib). A checkpoint is
+ * stored at the start of each gzip member, and at the start of the first
+ * deflate block after every {@code SPAN} bytes of uncompressed data. A checkpoint
+ * consists of the bit offset of the block within the file, the uncompressed
+ * offset, and the 32 KB of uncompressed data before it, which is set as
+ * dictionary of the {@code Inflater}.
+ *
+ * The index is stored next to the file (the filename with suffix {@code .gzi}),
+ * and rebuilt if size, modification time or a checksum of the file change.
+ * Windows are stored compressed.
+ */
+final class GzipIndex {
+
+    static final String SUFFIX = ".gzi";
+
+    // default distance between checkpoints in uncompressed bytes
+    static final int SPAN = 1 << 20;
+
+    private static final int MAGIC = 0x4A43475A; // "JCGZ"
+    private static final int VERSION = 1;
+
+    private final long fileSize;
+    private final long fileModified;
+    private final long checksum;
+    private final long uncompressedSize;
+    // for each checkpoint: bit offset in the file, uncompressed offset,
+    // and the compressed window, null at the start of a member
+    private final long[] bitPositions;
+    private final long[] outputs;
+    private final byte[][] windows;
+
+    private GzipIndex(long fileSize, long fileModified, long checksum, long uncompressedSize,
+                      long[] bitPositions, long[] outputs, byte[][] windows) {
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+        this.checksum = checksum;
+        this.uncompressedSize = uncompressedSize;
+        this.bitPositions = bitPositions;
+        this.outputs = outputs;
+        this.windows = windows;
+    }
+
+    /**
+     * checks the magic bytes of a file
+     * @param filename the file
+     * @return true if the file is gzip compressed
+     * @throws IOException if the file can not be read
+     */
+    static boolean isGzip(String filename) throws IOException {
+        InputStream in = new FileInputStream(filename);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * open a file for sequential reading, decompressing it if it is gzip compressed
+     * @param filename the file
+     * @return stream of the (uncompressed) content
+     * @throws IOException if the file can not be opened
+     */
+    static InputStream openStream(String filename) throws IOException {
+        if(isGzip(filename)) {
+            return new GZIPInputStream(new FileInputStream(filename), 1 << 16);
+        }
+        return new FileInputStream(filename);
+    }
+
+    /**
+     * open the index of the supplied gzip file. If there is an up-to-date
+     * index file, it is read. Otherwise the file is decompressed once to build the
+     * index, and the index file is (re-)written. If the index file can not be written,
+     * the index is still returned.
+     * @param filename the gzip file
+     * @return the index
+     * @throws IOException if the gzip file can not be read or is invalid
+     */
+    static GzipIndex open(String filename) throws IOException {
+        Path indexPath = Path.of(filename + SUFFIX);
+        if(Files.isReadable(indexPath)) {
+            try {
+                GzipIndex existing = read(indexPath.toString());
+                if(existing.isUpToDate(filename)) {
+                    return existing;
+                }
+            } catch (IOException e) {
+                // broken index file, rebuild below
+            }
+        }
+        GzipIndex index = build(filename);
+        try {
+            index.write(indexPath.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * decompress the supplied gzip file and create its index in memory
+     * @param filename the gzip file
+     * @return the index
+     * @throws IOException if the gzip file can not be read or is invalid
+     */
+    static GzipIndex build(String filename) throws IOException {
+        return build(filename, SPAN);
+    }
+
+    /**
+     * decompress the supplied gzip file and create its index in memory
+     * @param filename the gzip file
+     * @param span minimum distance between checkpoints in uncompressed bytes
+     * @return the index
+     * @throws IOException if the gzip file can not be read or is invalid
+     */
+    static GzipIndex build(String filename, int span) throws IOException {
+        Path path = Path.of(filename);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long checksum = PgnIndex.checksum(channel, size);
+            channel.position(0);
+            DeflateScanner scanner = new DeflateScanner(channel);
+            ArrayList<Long> bitPositions = new ArrayList<>();
+            ArrayList<Long> outputs = new ArrayList<>();
+            ArrayList<byte[]> windows = new ArrayList<>();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                while(scanner.readMemberHeader()) {
+                    bitPositions.add(scanner.getBitPosition());
+                    outputs.add(scanner.getOutput());
+                    windows.add(null);
+                    long last = scanner.getOutput();
+                    boolean lastBlock = false;
+                    while(!lastBlock) {
+                        if(scanner.getOutput() - last >= span) {
+                            bitPositions.add(scanner.getBitPosition());
+                            outputs.add(scanner.getOutput());
+                            windows.add(compress(deflater, scanner.getWindow()));
+                            last = scanner.getOutput();
+                        }
+                        lastBlock = scanner.readBlock();
+                    }
+                    scanner.readMemberTrailer();
+                }
+            } finally {
+                deflater.end();
+            }
+            if(bitPositions.isEmpty()) {
+                throw new ZipException("not in gzip format");
+            }
+            long[] bits = new long[bitPositions.size()];
+            long[] offsets = new long[bits.length];
+            for(int i=0;i<bits.length;i++) {
+                bits[i] = bitPositions.get(i);
+                offsets[i] = outputs.get(i);
+            }
+            return new GzipIndex(size, modified, checksum, scanner.getOutput(),
+                    bits, offsets, windows.toArray(new byte[0][]));
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static byte[] compress(Deflater deflater, byte[] window) {
+        deflater.reset();
+        deflater.setInput(window);
+        deflater.finish();
+        byte[] buffer = new byte[window.length + 64];
+        int length = 0;
+        while(!deflater.finished()) {
+            if(length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * read an index file
+     * @param indexFilename filename of the index
+     * @return the index
+     * @throws IOException if the file can not be read or is not a valid index
+     */
+    static GzipIndex read(String indexFilename) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFilename)));
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a gzip index file");
+            }
+            long fileSize = in.readLong();
+            long fileModified = in.readLong();
+            long checksum = in.readLong();
+            long uncompressedSize = in.readLong();
+            int count = in.readInt();
+            if(count <= 0) {
+                throw new IOException("not a gzip index file");
+            }
+            long[] bitPositions = new long[count];
+            long[] outputs = new long[count];
+            byte[][] windows = new byte[count][];
+            for(int i=0;i<count;i++) {
+                bitPositions[i] = in.readLong();
+                outputs[i] = in.readLong();
+                int length = in.readInt();
+                if(length >= 0) {
+                    windows[i] = new byte[length];
+                    in.readFully(windows[i]);
+                }
+            }
+            return new GzipIndex(fileSize, fileModified, checksum, uncompressedSize,
+                    bitPositions, outputs, windows);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * write the index to a file. The file is written to a temporary
+     * file first, and then moved, i.e. readers never see a partial index.
+     * @param indexFilename filename of the index
+     * @throws IOException if the file can not be written
+     */
+    void write(String indexFilename) throws IOException {
+        Path path = Path.of(indexFilename);
+        Path tmp = Path.of(indexFilename + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.fileSize);
+            out.writeLong(this.fileModified);
+            out.writeLong(this.checksum);
+            out.writeLong(this.uncompressedSize);
+            out.writeInt(this.bitPositions.length);
+            for(int i=0;i<this.bitPositions.length;i++) {
+                out.writeLong(this.bitPositions[i]);
+                out.writeLong(this.outputs[i]);
+                if(this.windows[i] == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(this.windows[i].length);
+                    out.write(this.windows[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * checks if the index matches the current content of the gzip file,
+     * by comparing size, modification time and a checksum
+     * @param filename the gzip file
+     * @return true if the index is up-to-date
+     * @throws IOException if the file can not be read
+     */
+    boolean isUpToDate(String filename) throws IOException {
+        Path path = Path.of(filename);
+        if(Files.size(path) != this.fileSize
+                || Files.getLastModifiedTime(path).toMillis() != this.fileModified) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return PgnIndex.checksum(channel, this.fileSize) == this.checksum;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * get the size of the uncompressed data
+     * @return uncompressed size
+     */
+    long getUncompressedSize() {
+        return this.uncompressedSize;
+    }
+
+    /**
+     * get the number of checkpoints
+     * @return number of checkpoints
+     */
+    int size() {
+        return this.bitPositions.length;
+    }
+
+    /**
+     * get the last checkpoint at or before the supplied uncompressed offset
+     * @param offset uncompressed offset
+     * @return index of the checkpoint
+     */
+    int find(long offset) {
+        int i = Arrays.binarySearch(this.outputs, offset);
+        if(i < 0) {
+            return Math.max(0, -i - 2);
+        }
+        // several checkpoints can have the same offset, e.g. empty members
+        while(i + 1 < this.outputs.length && this.outputs[i + 1] == offset) {
+            i++;
+        }
+        return i;
+    }
+
+    long getOutput(int checkpoint) {
+        return this.outputs[checkpoint];
+    }
+
+    /**
+     * open a stream of the uncompressed data that starts at the supplied checkpoint.
+     * Closing the stream does not close the channel.
+     * @param channel channel of the gzip file
+     * @param checkpoint index of the checkpoint
+     * @return stream of the uncompressed data
+     * @throws IOException if the window of the checkpoint is invalid
+     */
+    InputStream openAt(FileChannel channel, int checkpoint) throws IOException {
+        return new CheckpointInputStream(channel, checkpoint);
+    }
+
+    private byte[] getWindow(int checkpoint) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(this.windows[checkpoint]);
+            byte[] window = new byte[DeflateScanner.WINDOW_SIZE];
+            int length = 0;
+            while(!inflater.finished() && length < window.length) {
+                int n = inflater.inflate(window, length, window.length - length);
+                if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("invalid gzip index window");
+                }
+                length += n;
+            }
+            return Arrays.copyOf(window, length);
+        } catch (DataFormatException e) {
+            throw new ZipException("invalid gzip index window");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * decompresses with a raw {@code Inflater} from a checkpoint. Since
+     * deflate blocks start at arbitrary bits, the compressed data is shifted
+     * such that the block starts at a byte boundary. At the end of a
+     * member, decompression continues at the checkpoint of the next member.
+     */
+    private final class CheckpointInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final Inflater inflater;
+        private final ByteBuffer raw;
+        private final byte[] shifted;
+        private int checkpoint;
+        private long filePos;
+        private int shift;
+        private boolean eof;
+
+        CheckpointInputStream(FileChannel channel, int checkpoint) throws IOException {
+            this.channel = channel;
+            this.inflater = new Inflater(true);
+            this.raw = ByteBuffer.allocate(1 << 16);
+            this.shifted = new byte[1 << 16];
+            this.start(checkpoint);
+        }
+
+        private void start(int checkpoint) throws IOException {
+            this.checkpoint = checkpoint;
+            this.inflater.reset();
+            this.filePos = bitPositions[checkpoint] >>> 3;
+            this.shift = (int) (bitPositions[checkpoint] & 7);
+            if(windows[checkpoint] != null) {
+                this.inflater.setDictionary(getWindow(checkpoint));
+            }
+        }
+
+        private void fill() throws IOException {
+            this.raw.clear();
+            int read = this.channel.read(this.raw, this.filePos);
+            if(read <= 0) {
+                throw new EOFException("unexpected end of gzip file");
+            }
+            byte[] b = this.raw.array();
+            if(this.shift == 0) {
+                this.inflater.setInput(b, 0, read);
+                this.filePos += read;
+                return;
+            }
+            // each shifted byte needs the bits of the next byte as well,
+            // except for the last byte of the file
+            int length = read > 1 ? read - 1 : 1;
+            for(int i=0;i<length;i++) {
+                int next = i + 1 < read ? b[i + 1] & 0xff : 0;
+                this.shifted[i] = (byte) (((b[i] & 0xff) >>> this.shift) | (next << (8 - this.shift)));
+            }
+            this.inflater.setInput(this.shifted, 0, length);
+            this.filePos += length;
+        }
+
+        // continue at the next member, if there is one
+        private boolean nextMember() throws IOException {
+            for(int i=this.checkpoint+1;i<windows.length;i++) {
+                if(windows[i] == null) {
+                    this.start(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = this.read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            try {
+                while(!this.eof) {
+                    if(this.inflater.finished()) {
+                        if(!this.nextMember()) {
+                            this.eof = true;
+                            break;
+                        }
+                        continue;
+                    }
+                    int n = this.inflater.inflate(b, off, len);
+                    if(n > 0) {
+                        return n;
+                    }
+                    if(this.inflater.needsDictionary()) {
+                        throw new ZipException("invalid gzip data");
+                    }
+                    if(this.inflater.needsInput()) {
+                        this.fill();
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() {
+            this.inflater.end();
+        }
+    }
+
+}
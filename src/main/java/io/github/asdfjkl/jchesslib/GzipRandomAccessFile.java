@@ -0,0 +1,135 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to the lines of a gzip compressed PGN file, like
+ * {@code OptimizedRandomAccessFile} for uncompressed files. Offsets are
+ * offsets within the uncompressed data, e.g. as returned by {@code PgnReader.scanPgn}.
+ * When the file is opened the first time, it is decompressed once to build a
+ * checkpoint index, which is stored next to the file (the filename with
+ * suffix {@code .gzi}). Seeking then only decompresses from the
+ * nearest checkpoint before the offset, i.e. at most about 1 MB.
+ * Use with {@code PgnReader.readGame(GzipRandomAccessFile)}.
+ */
+public class GzipRandomAccessFile implements PgnLineSource, Closeable {
+
+    private final GzipIndex index;
+    private final FileChannel channel;
+    private PgnLineReader lines;
+    // checkpoint where the current stream started
+    private int checkpoint;
+
+    /**
+     * open a gzip compressed file, and build its checkpoint
+     * index if there is no up-to-date index file
+     * @param filename the gzip file
+     * @throws IOException if the file can not be read or is not a valid gzip file
+     */
+    public GzipRandomAccessFile(String filename) throws IOException {
+        this.index = GzipIndex.open(filename);
+        this.channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+    }
+
+    /**
+     * get the size of the uncompressed data
+     * @return size in bytes
+     */
+    public long length() {
+        return this.index.getUncompressedSize();
+    }
+
+    /**
+     * sets the offset within the uncompressed data for the next read.
+     * Seeking forward within the current checkpoint span skips decompressed
+     * data, otherwise decompression restarts at the nearest checkpoint.
+     * @param offset offset within the uncompressed data
+     * @throws IOException if reading fails
+     */
+    public void seek(long offset) throws IOException {
+        if(offset < 0) {
+            throw new IllegalArgumentException("negative offset: " + offset);
+        }
+        int target = this.index.find(offset);
+        if(this.lines == null || this.lines.getPosition() > offset || target > this.checkpoint) {
+            this.closeLines();
+            this.checkpoint = target;
+            this.lines = new PgnLineReader(this.index.openAt(this.channel, target), this.index.getOutput(target));
+        }
+        this.lines.skipTo(offset);
+    }
+
+    /**
+     * get the current offset within the uncompressed data
+     * @return offset
+     */
+    public long getFilePointer() {
+        if(this.lines == null) {
+            return 0;
+        }
+        return this.lines.getPosition();
+    }
+
+    @Override
+    public long getPosition() {
+        return this.getFilePointer();
+    }
+
+    /**
+     * reads the next line. Lines end with \n, \r or \r\n,
+     * and each byte is mapped to one char (ISO-8859-1)
+     * @return the line, or null at the end of the file
+     * @throws IOException if reading fails
+     */
+    @Override
+    public String readLine() throws IOException {
+        if(this.lines == null) {
+            this.seek(0);
+        }
+        return this.lines.readLine();
+    }
+
+    private void closeLines() throws IOException {
+        if(this.lines != null) {
+            // closes the inflater, but not the channel
+            this.lines.close();
+            this.lines = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closeLines();
+        this.channel.close();
+    }
+
+}
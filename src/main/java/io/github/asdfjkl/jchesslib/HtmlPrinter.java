@@ -268,60 +268,43 @@ public class HtmlPrinter {
         //this->forceMoveNumber = false;
     }
 
-    private void printGameContent(GameNode g, boolean onMainLine) {
-
-        Board b = g.getBoard();
-
-        // first write mainline move, if there are variations
-        int cntVar = g.getVariations().size();
-        if(cntVar > 0) {
-            if(onMainLine) {
-                this.writeToken("<b>");
-            }
-            GameNode mainVariation = g.getVariation(0);
-            this.printMove(mainVariation);
-            // write nags
-            for(Integer ni : mainVariation.getNags()) {
-                this.printNag(ni);
-            }
-            writeToken(" ");
-            if(onMainLine) {
-                this.writeToken("</b>");
-            }
-            // write comments
-            if(!mainVariation.getComment().isEmpty()) {
-                this.printComment(mainVariation.getComment());
-            }
+    private void printNodeContent(GameNode node, boolean onMainLine) {
+        if(onMainLine) {
+            this.writeToken("<b>");
+        }
+        this.printMove(node);
+        // write nags
+        for(Integer ni : node.getNags()) {
+            this.printNag(ni);
+        }
+        writeToken(" ");
+        if(onMainLine) {
+            this.writeToken("</b>");
+        }
+        // write comments
+        if(!node.getComment().isEmpty()) {
+            this.printComment(node.getComment());
         }
+    }
 
-        // now handle all variations (sidelines)
-        for(int i=1;i<cntVar;i++) {
-            // first create variation start marker, and print the move
-            GameNode var_i = g.getVariation(i);
-            this.beginVariation();
-            this.printMove(var_i);
-            // next print nags
-            for(Integer ni : var_i.getNags()) {
-                this.printNag(ni);
-            }
-            writeToken(" ");
-            // finally print comments
-            if(!var_i.getComment().isEmpty()) {
-                this.printComment(var_i.getComment());
+    private void printGameContent(Game g) {
+        g.acceptInPgnOrder(new GameNodeVisitor() {
+            @Override
+            public boolean visit(GameNode node) {
+                printNodeContent(node, variationDepth == 0);
+                return true;
             }
 
-            // recursive call for all children
-            this.printGameContent(var_i, false);
-
-            // print variation end
-            this.endVariation();
-        }
+            @Override
+            public void beginVariation() {
+                HtmlPrinter.this.beginVariation();
+            }
 
-        // finally do the mainline
-        if(cntVar > 0) {
-            GameNode mainVariation = g.getVariation(0);
-            this.printGameContent(mainVariation, onMainLine);
-        }
+            @Override
+            public void endVariation() {
+                HtmlPrinter.this.endVariation();
+            }
+        });
     }
 
     /**
@@ -345,7 +328,7 @@ public class HtmlPrinter {
             this.printComment(root.getComment());
         }
 
-        this.printGameContent(root, true);
+        this.printGameContent(g);
         this.printResult(g.getResult());
         //this.html.append(this.currentLine.toString());
         //this.writeLine("</body></html>");
@@ -354,5 +337,4 @@ public class HtmlPrinter {
         return this.html.toString();
     }
 
-
-}
\ No newline at end of file
+}
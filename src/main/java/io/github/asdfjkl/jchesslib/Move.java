@@ -261,6 +261,48 @@ public class Move {
         }
     }
 
+    /**
+     * encode the move as a 16 bit integer, using the same layout as
+     * moves in Polyglot books: bits 0-5 encode the target square, bits 6-11
+     * the source square (each as 0=a1, 1=b1, ..., 63=h8), and bits 12-14 the
+     * promotion piece (1=knight, 2=bishop, 3=rook, 4=queen). A null move
+     * is encoded as 0.
+     * @return the packed move
+     */
+    public int pack() {
+        if(this.isNullMove) {
+            return 0;
+        }
+        int from64 = ((this.from / 10) - 2) * 8 + (this.from % 10) - 1;
+        int to64 = ((this.to / 10) - 2) * 8 + (this.to % 10) - 1;
+        int promotion = 0;
+        if(this.promotionPiece >= CONSTANTS.KNIGHT && this.promotionPiece <= CONSTANTS.QUEEN) {
+            promotion = this.promotionPiece - 1;
+        }
+        return (promotion << 12) | (from64 << 6) | to64;
+    }
+
+    /**
+     * create a move from a 16 bit integer encoding (cf. {@code pack()})
+     * @param packed the packed move
+     * @return the decoded move
+     */
+    public static Move unpack(int packed) {
+        if(packed == 0) {
+            return new Move();
+        }
+        int to64 = packed & 0x3F;
+        int from64 = (packed >> 6) & 0x3F;
+        int promotion = (packed >> 12) & 0x7;
+        int from = ((from64 / 8) + 2) * 10 + (from64 % 8) + 1;
+        int to = ((to64 / 8) + 2) * 10 + (to64 % 8) + 1;
+        if(promotion > 0) {
+            return new Move(from, to, promotion + 1);
+        } else {
+            return new Move(from, to);
+        }
+    }
+
     /**
      * return a uci string of the current move
      */
@@ -0,0 +1,711 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates the main lines of many games into a directed acyclic graph of
+ * positions. Positions are identified by their zobrist hash, hence transpositions
+ * are merged into the same position. Each position is identified by an integer id
+ * and stores the number of games that reached it, the results of these games and
+ * the sum of the (average) Elo of the players. Each edge stores the move leading
+ * from one position to another, and the number of games that played it. A position
+ * or move that occurs several times in a game, e.g. by repetition, is counted once.
+ * All data is kept in primitive arrays indexed by position and edge ids.
+ *
+ * Building a tree is not thread-safe; use {@code build} to build
+ * a tree from many games in parallel. Queries can be done concurrently
+ * once the tree is built.
+ */
+public class OpeningTree {
+
+    private static final int DEFAULT_MAX_PLY = 40;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_GAMES_PER_TASK = 64;
+
+    private final int maxPly;
+
+    // position data, indexed by position id
+    private int positionCount;
+    private long[] keys;
+    private int[] games;
+    private int[] whiteWins;
+    private int[] draws;
+    private int[] blackWins;
+    private long[] eloSum;
+    private int[] eloCount;
+    private int[] firstEdge;
+    // number of the last added game that reached the position
+    private int[] positionStamp;
+
+    // open addressing hash table, maps zobrist to position id + 1 (0 = empty slot)
+    private int[] positionTable;
+
+    // edge data, indexed by edge id
+    private int edgeCount;
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private int[] edgeMove;
+    private int[] edgeGames;
+    private int[] nextEdge;
+    // number of the last added game that played the move
+    private int[] edgeStamp;
+
+    // number of games added by addGame
+    private int stamp;
+
+    // open addressing hash table, maps (position id, packed move) to edge id + 1
+    private int[] edgeTable;
+
+    /**
+     * create an empty tree that takes the first 40 plies
+     * of each game into account
+     */
+    public OpeningTree() {
+        this(DEFAULT_MAX_PLY);
+    }
+
+    /**
+     * create an empty tree
+     * @param maxPly maximum number of plies of each game
+     *               that are added to the tree
+     */
+    public OpeningTree(int maxPly) {
+        if(maxPly < 0) {
+            throw new IllegalArgumentException("maximum ply must not be negative, but is: " + maxPly);
+        }
+        this.maxPly = maxPly;
+        this.keys = new long[INITIAL_CAPACITY];
+        this.games = new int[INITIAL_CAPACITY];
+        this.whiteWins = new int[INITIAL_CAPACITY];
+        this.draws = new int[INITIAL_CAPACITY];
+        this.blackWins = new int[INITIAL_CAPACITY];
+        this.eloSum = new long[INITIAL_CAPACITY];
+        this.eloCount = new int[INITIAL_CAPACITY];
+        this.firstEdge = new int[INITIAL_CAPACITY];
+        this.positionStamp = new int[INITIAL_CAPACITY];
+        this.positionTable = new int[INITIAL_CAPACITY * 2];
+        this.edgeFrom = new int[INITIAL_CAPACITY];
+        this.edgeTo = new int[INITIAL_CAPACITY];
+        this.edgeMove = new int[INITIAL_CAPACITY];
+        this.edgeGames = new int[INITIAL_CAPACITY];
+        this.nextEdge = new int[INITIAL_CAPACITY];
+        this.edgeStamp = new int[INITIAL_CAPACITY];
+        this.edgeTable = new int[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * get the maximum number of plies per game that are added to the tree
+     * @return maximum number of plies
+     */
+    public int getMaxPly() {
+        return this.maxPly;
+    }
+
+    /**
+     * adds the main line of the game (up to the maximum ply) to the tree
+     * @param g the game
+     */
+    public void addGame(Game g) {
+        int result = gameResult(g);
+        int elo = averageElo(g);
+        this.stamp++;
+        GameNode node = g.getRootNode();
+        int position = this.addPosition(node.getZobrist());
+        int ply = 0;
+        while(true) {
+            // count repeated positions and moves only once per game
+            if(this.positionStamp[position] != this.stamp) {
+                this.positionStamp[position] = this.stamp;
+                this.countGame(position, result, elo);
+            }
+            if(ply >= this.maxPly || !node.hasChild()) {
+                break;
+            }
+            GameNode next = node.getVariation(0);
+            int nextPosition = this.addPosition(next.getZobrist());
+            int edge = this.addEdge(position, next.getMove().pack(), nextPosition, 0);
+            if(this.edgeStamp[edge] != this.stamp) {
+                this.edgeStamp[edge] = this.stamp;
+                this.edgeGames[edge]++;
+            }
+            node = next;
+            position = nextPosition;
+            ply++;
+        }
+    }
+
+    /**
+     * adds all positions, edges and counts of the supplied
+     * tree to this tree
+     * @param other the tree to merge into this one
+     */
+    public void merge(OpeningTree other) {
+        if(other == this) {
+            throw new IllegalArgumentException("a tree can not be merged into itself");
+        }
+        int[] idMap = new int[other.positionCount];
+        for(int i=0;i<other.positionCount;i++) {
+            int position = this.addPosition(other.keys[i]);
+            idMap[i] = position;
+            this.games[position] += other.games[i];
+            this.whiteWins[position] += other.whiteWins[i];
+            this.draws[position] += other.draws[i];
+            this.blackWins[position] += other.blackWins[i];
+            this.eloSum[position] += other.eloSum[i];
+            this.eloCount[position] += other.eloCount[i];
+        }
+        for(int i=0;i<other.edgeCount;i++) {
+            this.addEdge(idMap[other.edgeFrom[i]], other.edgeMove[i], idMap[other.edgeTo[i]], other.edgeGames[i]);
+        }
+    }
+
+    /**
+     * builds a tree from the supplied games. Workers build trees
+     * for ranges of the games in parallel, which are then merged.
+     * @param games list of games
+     * @param maxPly maximum number of plies of each game that are added to the tree
+     * @param parallelism number of worker threads. 0 uses the common
+     *                    fork/join pool, 1 builds the tree on the calling thread
+     * @return the tree
+     */
+    public static OpeningTree build(List<Game> games, int maxPly, int parallelism) {
+        return build(new GameSource(games), maxPly, parallelism);
+    }
+
+    /**
+     * builds a tree from all games of a PGN file. Each worker reads
+     * its range of games with its own file handle and reader, and builds
+     * a tree for its range. These trees are then merged.
+     * @param filename filename of the PGN
+     * @param maxPly maximum number of plies of each game that are added to the tree
+     * @param parallelism number of worker threads. 0 uses the common
+     *                    fork/join pool, 1 builds the tree on the calling thread
+     * @return the tree
+     */
+    public static OpeningTree build(String filename, int maxPly, int parallelism) {
+        ArrayList<Long> offsets = new PgnReader().scanPgn(filename);
+        return build(new PgnSource(filename, offsets), maxPly, parallelism);
+    }
+
+    private static OpeningTree build(Source source, int maxPly, int parallelism) {
+        if(maxPly < 0) {
+            throw new IllegalArgumentException("maximum ply must not be negative, but is: " + maxPly);
+        }
+        if(parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative, but is: " + parallelism);
+        }
+        if(parallelism == 1 || source.size() <= MIN_GAMES_PER_TASK) {
+            return source.buildRange(0, source.size(), maxPly);
+        }
+        ForkJoinPool pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+        try {
+            // a few tasks per worker balance the load, without
+            // spending too much time on merging subtrees
+            int threshold = Math.max(MIN_GAMES_PER_TASK, source.size() / (pool.getParallelism() * 4));
+            return pool.invoke(new BuildTask(source, 0, source.size(), maxPly, threshold));
+        } finally {
+            if(pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * get the number of positions of the tree
+     * @return number of positions
+     */
+    public int size() {
+        return this.positionCount;
+    }
+
+    /**
+     * get the number of edges (i.e. distinct moves) of the tree
+     * @return number of edges
+     */
+    public int getEdgeCount() {
+        return this.edgeCount;
+    }
+
+    /**
+     * get the id of the position with the supplied zobrist hash
+     * @param zobrist zobrist hash of the position
+     * @return the id of the position, or -1 if the position is not in the tree
+     */
+    public int getPosition(long zobrist) {
+        int mask = this.positionTable.length - 1;
+        int slot = mix(zobrist) & mask;
+        while(this.positionTable[slot] != 0) {
+            int position = this.positionTable[slot] - 1;
+            if(this.keys[position] == zobrist) {
+                return position;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * get the id of the position of the supplied board
+     * @param board the board
+     * @return the id of the position, or -1 if the position is not in the tree
+     */
+    public int getPosition(Board board) {
+        return this.getPosition(board.getZobrist());
+    }
+
+    /**
+     * get the id of the position that is reached by playing
+     * the supplied move in the supplied position
+     * @param position id of the position
+     * @param packedMove the move, encoded by {@code Move.pack()}
+     * @return the id of the resulting position, or -1 if the
+     *         move was never played in that position
+     */
+    public int getChild(int position, int packedMove) {
+        int edge = this.findEdge(position, packedMove);
+        if(edge < 0) {
+            return -1;
+        } else {
+            return this.edgeTo[edge];
+        }
+    }
+
+    /**
+     * get the id of the position that is reached by playing
+     * the supplied move in the supplied position
+     * @param position id of the position
+     * @param m the move
+     * @return the id of the resulting position, or -1 if the
+     *         move was never played in that position
+     */
+    public int getChild(int position, Move m) {
+        return this.getChild(position, m.pack());
+    }
+
+    /**
+     * get the number of games in which the supplied move
+     * was played in the supplied position
+     * @param position id of the position
+     * @param m the move
+     * @return number of games
+     */
+    public int getMoveCount(int position, Move m) {
+        int edge = this.findEdge(position, m.pack());
+        if(edge < 0) {
+            return 0;
+        } else {
+            return this.edgeGames[edge];
+        }
+    }
+
+    /**
+     * get all moves that were played in the supplied position,
+     * the most frequently played move first
+     * @param position id of the position
+     * @return list of moves
+     */
+    public ArrayList<Move> getMoves(int position) {
+        this.checkPosition(position);
+        ArrayList<Integer> edges = new ArrayList<>();
+        for(int edge = this.firstEdge[position]; edge >= 0; edge = this.nextEdge[edge]) {
+            edges.add(edge);
+        }
+        edges.sort((a, b) -> Integer.compare(this.edgeGames[b], this.edgeGames[a]));
+        ArrayList<Move> moves = new ArrayList<>();
+        for(Integer edge : edges) {
+            moves.add(Move.unpack(this.edgeMove[edge]));
+        }
+        return moves;
+    }
+
+    /**
+     * get the zobrist hash of a position
+     * @param position id of the position
+     * @return zobrist hash
+     */
+    public long getZobrist(int position) {
+        this.checkPosition(position);
+        return this.keys[position];
+    }
+
+    /**
+     * get the number of games that reached the position. A position
+     * that occurs several times in a game is counted once.
+     * @param position id of the position
+     * @return number of games
+     */
+    public int getGameCount(int position) {
+        this.checkPosition(position);
+        return this.games[position];
+    }
+
+    /**
+     * get the number of games that reached the position and were won by white
+     * @param position id of the position
+     * @return number of games
+     */
+    public int getWhiteWins(int position) {
+        this.checkPosition(position);
+        return this.whiteWins[position];
+    }
+
+    /**
+     * get the number of games that reached the position and were drawn
+     * @param position id of the position
+     * @return number of games
+     */
+    public int getDraws(int position) {
+        this.checkPosition(position);
+        return this.draws[position];
+    }
+
+    /**
+     * get the number of games that reached the position and were won by black
+     * @param position id of the position
+     * @return number of games
+     */
+    public int getBlackWins(int position) {
+        this.checkPosition(position);
+        return this.blackWins[position];
+    }
+
+    /**
+     * get the sum of the scores of white of all games that reached
+     * the position, counted in half points (i.e. a win counts 2,
+     * a draw counts 1). Games without result are not counted.
+     * @param position id of the position
+     * @return score sum in half points
+     */
+    public int getWhiteScoreSum(int position) {
+        this.checkPosition(position);
+        return 2 * this.whiteWins[position] + this.draws[position];
+    }
+
+    /**
+     * get the average Elo of the players of all games that reached the
+     * position. Games without Elo information are not counted.
+     * @param position id of the position
+     * @return average Elo, or 0 if no Elo information is available
+     */
+    public int getAverageElo(int position) {
+        this.checkPosition(position);
+        if(this.eloCount[position] == 0) {
+            return 0;
+        } else {
+            return (int) (this.eloSum[position] / this.eloCount[position]);
+        }
+    }
+
+    private void checkPosition(int position) {
+        if(position < 0 || position >= this.positionCount) {
+            throw new IllegalArgumentException("there are only " + this.positionCount + " positions, but id "
+                    + position + " requested");
+        }
+    }
+
+    private void countGame(int position, int result, int elo) {
+        this.games[position]++;
+        if(result == CONSTANTS.RES_WHITE_WINS) {
+            this.whiteWins[position]++;
+        } else if(result == CONSTANTS.RES_DRAW) {
+            this.draws[position]++;
+        } else if(result == CONSTANTS.RES_BLACK_WINS) {
+            this.blackWins[position]++;
+        }
+        if(elo > 0) {
+            this.eloSum[position] += elo;
+            this.eloCount[position]++;
+        }
+    }
+
+    private int addPosition(long zobrist) {
+        int mask = this.positionTable.length - 1;
+        int slot = mix(zobrist) & mask;
+        while(this.positionTable[slot] != 0) {
+            int position = this.positionTable[slot] - 1;
+            if(this.keys[position] == zobrist) {
+                return position;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int position = this.positionCount;
+        if(position == this.keys.length) {
+            int capacity = position * 2;
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.games = Arrays.copyOf(this.games, capacity);
+            this.whiteWins = Arrays.copyOf(this.whiteWins, capacity);
+            this.draws = Arrays.copyOf(this.draws, capacity);
+            this.blackWins = Arrays.copyOf(this.blackWins, capacity);
+            this.eloSum = Arrays.copyOf(this.eloSum, capacity);
+            this.eloCount = Arrays.copyOf(this.eloCount, capacity);
+            this.firstEdge = Arrays.copyOf(this.firstEdge, capacity);
+            this.positionStamp = Arrays.copyOf(this.positionStamp, capacity);
+        }
+        this.keys[position] = zobrist;
+        this.firstEdge[position] = -1;
+        this.positionCount++;
+        this.positionTable[slot] = position + 1;
+        // keep load factor of the table at most 1/2
+        if(this.positionCount * 2 > this.positionTable.length) {
+            this.positionTable = new int[this.positionTable.length * 2];
+            int newMask = this.positionTable.length - 1;
+            for(int i=0;i<this.positionCount;i++) {
+                int s = mix(this.keys[i]) & newMask;
+                while(this.positionTable[s] != 0) {
+                    s = (s + 1) & newMask;
+                }
+                this.positionTable[s] = i + 1;
+            }
+        }
+        return position;
+    }
+
+    private int findEdge(int position, int packedMove) {
+        int mask = this.edgeTable.length - 1;
+        int slot = mix(edgeKey(position, packedMove)) & mask;
+        while(this.edgeTable[slot] != 0) {
+            int edge = this.edgeTable[slot] - 1;
+            if(this.edgeFrom[edge] == position && this.edgeMove[edge] == packedMove) {
+                return edge;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // returns the id of the edge
+    private int addEdge(int from, int packedMove, int to, int count) {
+        int mask = this.edgeTable.length - 1;
+        int slot = mix(edgeKey(from, packedMove)) & mask;
+        while(this.edgeTable[slot] != 0) {
+            int edge = this.edgeTable[slot] - 1;
+            if(this.edgeFrom[edge] == from && this.edgeMove[edge] == packedMove) {
+                this.edgeGames[edge] += count;
+                return edge;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int edge = this.edgeCount;
+        if(edge == this.edgeFrom.length) {
+            int capacity = edge * 2;
+            this.edgeFrom = Arrays.copyOf(this.edgeFrom, capacity);
+            this.edgeTo = Arrays.copyOf(this.edgeTo, capacity);
+            this.edgeMove = Arrays.copyOf(this.edgeMove, capacity);
+            this.edgeGames = Arrays.copyOf(this.edgeGames, capacity);
+            this.nextEdge = Arrays.copyOf(this.nextEdge, capacity);
+            this.edgeStamp = Arrays.copyOf(this.edgeStamp, capacity);
+        }
+        this.edgeFrom[edge] = from;
+        this.edgeTo[edge] = to;
+        this.edgeMove[edge] = packedMove;
+        this.edgeGames[edge] = count;
+        this.nextEdge[edge] = this.firstEdge[from];
+        this.firstEdge[from] = edge;
+        this.edgeCount++;
+        this.edgeTable[slot] = edge + 1;
+        if(this.edgeCount * 2 > this.edgeTable.length) {
+            this.edgeTable = new int[this.edgeTable.length * 2];
+            int newMask = this.edgeTable.length - 1;
+            for(int i=0;i<this.edgeCount;i++) {
+                int s = mix(edgeKey(this.edgeFrom[i], this.edgeMove[i])) & newMask;
+                while(this.edgeTable[s] != 0) {
+                    s = (s + 1) & newMask;
+                }
+                this.edgeTable[s] = i + 1;
+            }
+        }
+        return edge;
+    }
+
+    private static long edgeKey(int position, int packedMove) {
+        return ((long) position << 16) | packedMove;
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    // the result in the movetext is not always recognized
+    // by the reader, hence fall back to the header
+    private static int gameResult(Game g) {
+        int result = g.getResult();
+        if(result != CONSTANTS.RES_UNDEF) {
+            return result;
+        }
+        String header = g.getHeader("Result");
+        if(header.equals("1-0")) {
+            return CONSTANTS.RES_WHITE_WINS;
+        } else if(header.equals("0-1")) {
+            return CONSTANTS.RES_BLACK_WINS;
+        } else if(header.equals("1/2-1/2")) {
+            return CONSTANTS.RES_DRAW;
+        } else {
+            return CONSTANTS.RES_UNDEF;
+        }
+    }
+
+    private static int averageElo(Game g) {
+        int white = parseElo(g.getHeader("WhiteElo"));
+        int black = parseElo(g.getHeader("BlackElo"));
+        if(white > 0 && black > 0) {
+            return (white + black) / 2;
+        } else if(white > 0) {
+            return white;
+        } else {
+            return black;
+        }
+    }
+
+    private static int parseElo(String s) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * games to build a tree from, accessed by index
+     */
+    private interface Source {
+
+        int size();
+
+        OpeningTree buildRange(int from, int to, int maxPly);
+    }
+
+    private static class GameSource implements Source {
+
+        private final List<Game> games;
+
+        GameSource(List<Game> games) {
+            this.games = games;
+        }
+
+        @Override
+        public int size() {
+            return games.size();
+        }
+
+        @Override
+        public OpeningTree buildRange(int from, int to, int maxPly) {
+            OpeningTree tree = new OpeningTree(maxPly);
+            for(int i=from;i<to;i++) {
+                tree.addGame(games.get(i));
+            }
+            return tree;
+        }
+    }
+
+    private static class PgnSource implements Source {
+
+        private final String filename;
+        private final ArrayList<Long> offsets;
+
+        PgnSource(String filename, ArrayList<Long> offsets) {
+            this.filename = filename;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public int size() {
+            return offsets.size();
+        }
+
+        @Override
+        public OpeningTree buildRange(int from, int to, int maxPly) {
+            OpeningTree tree = new OpeningTree(maxPly);
+            PgnReader reader = new PgnReader();
+            OptimizedRandomAccessFile raf = null;
+            try {
+                raf = new OptimizedRandomAccessFile(filename, "r");
+                for(int i=from;i<to;i++) {
+                    raf.seek(offsets.get(i));
+                    tree.addGame(reader.readGame(raf));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if(raf != null) {
+                    try {
+                        raf.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            return tree;
+        }
+    }
+
+    private static class BuildTask extends RecursiveTask<OpeningTree> {
+
+        private final Source source;
+        private final int from;
+        private final int to;
+        private final int maxPly;
+        private final int threshold;
+
+        BuildTask(Source source, int from, int to, int maxPly, int threshold) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+            this.maxPly = maxPly;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected OpeningTree compute() {
+            if(to - from <= threshold) {
+                return source.buildRange(from, to, maxPly);
+            }
+            int middle = (from + to) >>> 1;
+            BuildTask left = new BuildTask(source, from, middle, maxPly, threshold);
+            left.fork();
+            OpeningTree right = new BuildTask(source, middle, to, maxPly, threshold).compute();
+            OpeningTree leftTree = left.join();
+            // merge the smaller tree into the larger one
+            if(leftTree.size() >= right.size()) {
+                leftTree.merge(right);
+                return leftTree;
+            } else {
+                right.merge(leftTree);
+                return right;
+            }
+        }
+    }
+
+}
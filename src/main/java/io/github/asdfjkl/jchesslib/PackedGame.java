@@ -0,0 +1,118 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.util.HashMap;
+
+/**
+ * The main line of a game as a sequence of packed moves (cf. {@code Move.pack}),
+ * together with the headers, the result and the final position. This is
+ * far more compact than a {@code Game} (cf. {@code PgnReader.readPackedGame}).
+ */
+public class PackedGame {
+
+    private final HashMap<String, String> headers;
+    private final int[] moves;
+    private final Board finalBoard;
+    private final int result;
+
+    PackedGame(HashMap<String, String> headers, int[] moves, Board finalBoard, int result) {
+        this.headers = headers;
+        this.moves = moves;
+        this.finalBoard = finalBoard;
+        this.result = result;
+    }
+
+    /**
+     * returns meta-information of the game. Will return
+     * empty string if the information is not available
+     * @param tag e.g. 'Site'
+     * @return the value of the tag, e.g. 'London'
+     */
+    public String getHeader(String tag) {
+        String value = this.headers.get(tag);
+        if(value == null) {
+            return "";
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * return all meta-information (tag + header)
+     * @return hashmap of key,value e.g. key="Site", value="London"
+     */
+    public HashMap<String, String> getPgnHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * get the number of half moves of the main line
+     * @return number of half moves
+     */
+    public int size() {
+        return this.moves.length;
+    }
+
+    /**
+     * get the packed moves of the main line
+     * (cf. {@code Move.unpack}). Do not modify the array.
+     * @return packed moves
+     */
+    public int[] getMoves() {
+        return this.moves;
+    }
+
+    /**
+     * get a move of the main line
+     * @param ply index of the half move, starting with 0
+     * @return the move
+     */
+    public Move getMove(int ply) {
+        if(ply < 0 || ply >= this.moves.length) {
+            throw new IllegalArgumentException("game has " + this.moves.length + " half moves, but "
+                    + ply + " requested");
+        }
+        return Move.unpack(this.moves[ply]);
+    }
+
+    /**
+     * get the position after the last move
+     * @return final position
+     */
+    public Board getFinalBoard() {
+        return this.finalBoard;
+    }
+
+    /**
+     * get the result of the game
+     * @return one of CONSTANTS.RES_WHITE_WINS, RES_BLACK_WINS, RES_DRAW, RES_UNDEF
+     */
+    public int getResult() {
+        return this.result;
+    }
+
+}
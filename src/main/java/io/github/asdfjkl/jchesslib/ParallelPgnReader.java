@@ -0,0 +1,467 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Reads all games of a PGN file with several threads. A reader thread scans
+ * the file and splits it into the raw bytes of each game. A pool of worker
+ * threads, each with its own {@code PgnReader}, parses these into games.
+ * The games are delivered either in the order of the file, or in the order
+ * in which parsing finishes. All queues between the stages are bounded, i.e.
+ * reading pauses if games are not consumed fast enough.
+ *
+ * Configure the reader before the first call to {@code hasNext()}
+ * or {@code next()}, and close it after use, e.g. with try-with-resources.
+ */
+public class ParallelPgnReader implements Iterator<Game>, AutoCloseable {
+
+    // the file is scanned in blocks of this size
+    private static final long BLOCK_SIZE = 16L << 20;
+
+    private static final Slice END_OF_SLICES = new Slice(null, 0, null);
+    private static final CompletableFuture<Game> END_OF_RESULTS = CompletableFuture.completedFuture(null);
+    private static final Game END_OF_GAMES = new Game();
+
+    private final String filename;
+    private int parallelism;
+    private boolean ordered;
+    private int queueCapacity;
+    // encoding and parse options of the worker's readers
+    private final PgnReader settings;
+
+    private BlockingQueue<Slice> slices;
+    private BlockingQueue<CompletableFuture<Game>> orderedResults;
+    private BlockingQueue<Game> unorderedResults;
+    private AtomicInteger activeWorkers;
+    private ArrayList<Thread> threads;
+    private volatile Throwable failure;
+
+    private Game next;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * create a reader for the supplied file. By default, all available
+     * processors are used for parsing, and games are delivered in order.
+     * @param filename filename of the PGN
+     */
+    public ParallelPgnReader(String filename) {
+        this.filename = filename;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.ordered = true;
+        this.queueCapacity = 256;
+        this.settings = new PgnReader();
+    }
+
+    private void checkNotStarted() {
+        if(this.started) {
+            throw new IllegalStateException("reader was already started");
+        }
+    }
+
+    /**
+     * set the number of worker threads that parse games
+     * @param parallelism number of threads, at least 1
+     */
+    public void setParallelism(int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, but is: " + parallelism);
+        }
+        this.checkNotStarted();
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * get the number of worker threads that parse games
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * set whether games are delivered in the order of the file (the default),
+     * or as soon as they are parsed. Unordered delivery avoids that one large
+     * game holds back all games after it.
+     * @param ordered true for delivery in file order
+     */
+    public void setOrdered(boolean ordered) {
+        this.checkNotStarted();
+        this.ordered = ordered;
+    }
+
+    /**
+     * check if games are delivered in the order of the file
+     * @return true for delivery in file order
+     */
+    public boolean isOrdered() {
+        return this.ordered;
+    }
+
+    /**
+     * set the capacity of the queues between the stages, i.e. the
+     * maximum number of games that are read ahead of the consumer
+     * @param queueCapacity capacity, at least 1
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be at least 1, but is: " + queueCapacity);
+        }
+        this.checkNotStarted();
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * get the capacity of the queues between the stages
+     * @return capacity
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * parse PGN headers and comments as UTF-8 (the default)
+     * (cf. {@code PgnReader.setEncodingUTF8})
+     */
+    public void setEncodingUTF8() {
+        this.checkNotStarted();
+        this.settings.setEncodingUTF8();
+    }
+
+    /**
+     * parse PGN headers and comments as ISO-8859-1
+     * (cf. {@code PgnReader.setEncodingIsoLatin1})
+     */
+    public void setEncodingIsoLatin1() {
+        this.checkNotStarted();
+        this.settings.setEncodingIsoLatin1();
+    }
+
+    /**
+     * skip variations (cf. {@code PgnReader.setSkipVariations})
+     * @param skipVariations true to skip variations
+     */
+    public void setSkipVariations(boolean skipVariations) {
+        this.checkNotStarted();
+        this.settings.setSkipVariations(skipVariations);
+    }
+
+    /**
+     * skip comments (cf. {@code PgnReader.setSkipComments})
+     * @param skipComments true to skip comments
+     */
+    public void setSkipComments(boolean skipComments) {
+        this.checkNotStarted();
+        this.settings.setSkipComments(skipComments);
+    }
+
+    /**
+     * skip NAGs (cf. {@code PgnReader.setSkipNags})
+     * @param skipNags true to skip NAGs
+     */
+    public void setSkipNags(boolean skipNags) {
+        this.checkNotStarted();
+        this.settings.setSkipNags(skipNags);
+    }
+
+    /**
+     * tokenize games directly on bytes (cf. {@code PgnReader.setByteLexer})
+     * @param byteLexer true to use the byte lexer
+     */
+    public void setByteLexer(boolean byteLexer) {
+        this.checkNotStarted();
+        this.settings.setByteLexer(byteLexer);
+    }
+
+    /**
+     * only keep the supplied headers (cf. {@code PgnReader.setKeptHeaders})
+     * @param tags names of headers to keep, or null to keep all
+     */
+    public void setKeptHeaders(Collection<String> tags) {
+        this.checkNotStarted();
+        this.settings.setKeptHeaders(tags);
+    }
+
+    /**
+     * report diagnostics to the supplied listener (cf. {@code PgnReader.setReadListener}).
+     * The listener is shared by all workers and must be thread-safe,
+     * like {@code PgnReadCounter}.
+     * @param listener the listener, or null for none
+     */
+    public void setReadListener(PgnReadListener listener) {
+        this.checkNotStarted();
+        this.settings.setReadListener(listener);
+    }
+
+    /**
+     * only return games whose headers match the supplied filter
+     * (cf. {@code PgnReader.setHeaderFilter})
+     * @param filter the filter, or null to read all games
+     */
+    public void setHeaderFilter(Predicate<HashMap<String, String>> filter) {
+        this.checkNotStarted();
+        this.settings.setHeaderFilter(filter);
+    }
+
+    private void start() {
+        this.started = true;
+        this.slices = new ArrayBlockingQueue<>(this.queueCapacity);
+        if(this.ordered) {
+            this.orderedResults = new ArrayBlockingQueue<>(this.queueCapacity);
+        } else {
+            this.unorderedResults = new ArrayBlockingQueue<>(this.queueCapacity);
+        }
+        this.activeWorkers = new AtomicInteger(this.parallelism);
+        this.threads = new ArrayList<>();
+        this.threads.add(new Thread(this::readSlices, "pgn-reader"));
+        for(int i=0;i<this.parallelism;i++) {
+            this.threads.add(new Thread(this::parseSlices, "pgn-parser-" + i));
+        }
+        for(Thread t : this.threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // reader stage: scan the file for game offsets block by block,
+    // and pass the bytes from one offset to the next to the workers
+    private void readSlices() {
+        FileChannel channel = null;
+        boolean interrupted = false;
+        try {
+            channel = FileChannel.open(Path.of(this.filename), StandardOpenOption.READ);
+            long length = channel.size();
+            ArrayList<Long> offsets = new ArrayList<>();
+            PgnScanner scanner = new PgnScanner(new PgnScanner.State(false, -1, 0), offsets, null, null);
+            long previous = -1;
+            long pos = 0;
+            while(pos < length) {
+                pos = scanner.scan(channel, pos, pos + BLOCK_SIZE);
+                for(Long offset : offsets) {
+                    if(previous >= 0) {
+                        this.emit(channel, previous, offset);
+                    }
+                    previous = offset;
+                }
+                offsets.clear();
+            }
+            if(previous >= 0) {
+                this.emit(channel, previous, length);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } catch (Throwable t) {
+            // reported by hasNext after all games before the failure
+            this.failure = t;
+        } finally {
+            if(channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    this.settings.reportError(e);
+                }
+            }
+            if(!interrupted) {
+                this.endSlices();
+            }
+        }
+    }
+
+    // tells the workers and hasNext that no more slices follow
+    private void endSlices() {
+        try {
+            for(int i=0;i<this.parallelism;i++) {
+                this.slices.put(END_OF_SLICES);
+            }
+            if(this.ordered) {
+                this.orderedResults.put(END_OF_RESULTS);
+            }
+        } catch (InterruptedException e) {
+            // reader was closed
+        }
+    }
+
+    private void emit(FileChannel channel, long from, long to) throws IOException, InterruptedException {
+        byte[] data = new byte[(int) Math.min(Integer.MAX_VALUE - 8, to - from)];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, from + buffer.position()) < 0) {
+                break;
+            }
+        }
+        Slice slice = new Slice(data, from, this.ordered ? new CompletableFuture<>() : null);
+        // put the result first, such that results are queued in file order
+        if(this.ordered) {
+            this.orderedResults.put(slice.result);
+        }
+        this.slices.put(slice);
+    }
+
+    // worker stage: parse slices with a reader that is owned by this thread
+    private void parseSlices() {
+        PgnReader reader = this.settings.copySettings();
+        try {
+            while(true) {
+                Slice slice = this.slices.take();
+                if(slice == END_OF_SLICES) {
+                    break;
+                }
+                Game g = new Game();
+                try {
+                    PgnLineReader lines = new PgnLineReader(new ByteArrayInputStream(slice.data), slice.offset);
+                    if(reader.readNextGame(lines, g) == PgnReader.GAME_FILTERED) {
+                        // completed with null, skipped by hasNext
+                        g = null;
+                    }
+                } catch (Throwable e) {
+                    if(this.ordered) {
+                        slice.result.completeExceptionally(e);
+                    } else {
+                        this.failure = e;
+                    }
+                    continue;
+                }
+                if(this.ordered) {
+                    slice.result.complete(g);
+                } else if(g != null) {
+                    this.unorderedResults.put(g);
+                }
+            }
+            if(!this.ordered && this.activeWorkers.decrementAndGet() == 0) {
+                this.unorderedResults.put(END_OF_GAMES);
+            }
+        } catch (InterruptedException e) {
+            // reader was closed
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(this.next != null || this.finished) {
+            return this.next != null;
+        }
+        if(!this.started) {
+            this.start();
+        }
+        try {
+            if(this.ordered) {
+                CompletableFuture<Game> result;
+                // games that do not match the header filter are null
+                while(this.next == null && (result = this.orderedResults.take()) != END_OF_RESULTS) {
+                    this.next = result.join();
+                }
+            } else {
+                Game g = this.unorderedResults.take();
+                if(g != END_OF_GAMES) {
+                    this.next = g;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("interrupted while waiting for games"));
+        } catch (CompletionException e) {
+            this.rethrow(e.getCause());
+        }
+        if(this.next == null) {
+            this.finished = true;
+            if(this.failure != null) {
+                this.rethrow(this.failure);
+            }
+        }
+        return this.next != null;
+    }
+
+    private void rethrow(Throwable t) {
+        if(t instanceof IOException) {
+            throw new UncheckedIOException((IOException) t);
+        } else if(t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if(t instanceof Error) {
+            throw (Error) t;
+        } else {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    public Game next() {
+        if(!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Game g = this.next;
+        this.next = null;
+        return g;
+    }
+
+    /**
+     * stop all threads of the reader
+     */
+    @Override
+    public void close() {
+        if(this.threads != null) {
+            for(Thread t : this.threads) {
+                t.interrupt();
+            }
+        }
+        this.finished = true;
+        this.next = null;
+    }
+
+    private static class Slice {
+
+        private final byte[] data;
+        // offset of the slice within the file
+        private final long offset;
+        private final CompletableFuture<Game> result;
+
+        Slice(byte[] data, long offset, CompletableFuture<Game> result) {
+            this.data = data;
+            this.offset = offset;
+            this.result = result;
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scans a PGN file for game offsets with several threads. The file is split
+ * into ranges of roughly equal size, and the start of each range is moved
+ * forward to the next header line that follows an empty line. After an empty
+ * line, a sequential scan has no pending game and the next line starts a new
+ * game, unless the empty line is within a {} comment. Each range is scanned
+ * assuming it does not start within a comment. Then the state at the end of
+ * each range is compared with the assumed state of the next range, and
+ * ranges where the assumption was wrong are scanned again, such that the
+ * result is always identical to a sequential scan. A range whose scan failed
+ * is scanned again as well, and if that fails too, scanning stops with the
+ * offsets found before the error, like a sequential scan.
+ */
+final class ParallelPgnScanner {
+
+    static final long MIN_CHUNK_SIZE = 4L << 20;
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final int BOUNDARY_BUFFER_SIZE = 1 << 16;
+
+    private ParallelPgnScanner() {}
+
+    static ArrayList<Long> scan(String filename, int parallelism) throws IOException {
+        ArrayList<Long> offsets = new ArrayList<>();
+        scan(filename, parallelism, MIN_CHUNK_SIZE, offsets);
+        return offsets;
+    }
+
+    /**
+     * scan the file, and add the offsets of all games to offsets
+     * @throws IOException if the file can not be read. The offsets
+     *         found before the error are still added
+     */
+    static void scan(String filename, int parallelism, long minChunkSize,
+                     ArrayList<Long> offsets) throws IOException {
+        if(parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative, but is: " + parallelism);
+        }
+        long length = new File(filename).length();
+        if(parallelism == 1 || length < 2 * minChunkSize) {
+            scanChunk(filename, 0, Long.MAX_VALUE, new PgnScanner.State(false, -1, 0), offsets);
+            return;
+        }
+        ForkJoinPool pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+        try {
+            int chunks = (int) Math.min(pool.getParallelism() * CHUNKS_PER_WORKER, length / minChunkSize);
+
+            // find safe start offsets of the ranges
+            ArrayList<Future<Long>> boundaryFutures = new ArrayList<>();
+            for(int i=1;i<chunks;i++) {
+                long from = length * i / chunks;
+                long to = length * (i + 1) / chunks;
+                boundaryFutures.add(pool.submit(() -> findBoundary(filename, from, to)));
+            }
+            ArrayList<Long> starts = new ArrayList<>();
+            starts.add(0L);
+            for(Future<Long> future : boundaryFutures) {
+                long boundary = get(future, -1L);
+                if(boundary > 0) {
+                    starts.add(boundary);
+                }
+            }
+
+            // scan all ranges assuming they start outside of a comment
+            ArrayList<Future<ChunkResult>> chunkFutures = new ArrayList<>();
+            for(int i=0;i<starts.size();i++) {
+                long start = starts.get(i);
+                long end = i + 1 < starts.size() ? starts.get(i + 1) : Long.MAX_VALUE;
+                chunkFutures.add(pool.submit(() -> {
+                    ChunkResult result = new ChunkResult(new PgnScanner.State(false, -1, start));
+                    scanChunk(filename, start, end, result.state, result.offsets);
+                    return result;
+                }));
+            }
+
+            // merge, and rescan ranges whose assumed start state was wrong
+            // or whose scan failed
+            PgnScanner.State state = new PgnScanner.State(false, -1, 0);
+            for(int i=0;i<starts.size();i++) {
+                long start = starts.get(i);
+                long end = i + 1 < starts.size() ? starts.get(i + 1) : Long.MAX_VALUE;
+                ChunkResult result = get(chunkFutures.get(i), null);
+                if(result == null || !state.sameAs(new PgnScanner.State(false, -1, start))) {
+                    // continues the state, and adds offsets up to a possible error
+                    scanChunk(filename, start, end, state, offsets);
+                } else {
+                    offsets.addAll(result.offsets);
+                    state = result.state;
+                }
+            }
+        } finally {
+            if(pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // the caller scans again on the calling thread if a task failed
+    private static <T> T get(Future<T> future, T onError) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // handled by the caller
+        }
+        return onError;
+    }
+
+    private static void scanChunk(String filename, long start, long end, PgnScanner.State state,
+                                  ArrayList<Long> offsets) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        try {
+            PgnScanner.scanRange(channel, start, end, state, offsets);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * find the first line starting with '[' that follows an empty
+     * line, and starts at or after offset from and before offset to
+     * @return offset of the line, or -1 if there is none
+     */
+    private static long findBoundary(String filename, long from, long to) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_BUFFER_SIZE);
+            long pos = from - 3;
+            // the last three bytes before pos
+            int b3 = -1;
+            int b2 = -1;
+            int b1 = -1;
+            while(pos < to) {
+                buffer.clear();
+                int read = channel.read(buffer, pos);
+                if(read <= 0) {
+                    return -1;
+                }
+                for(int i=0;i<read && pos < to;i++) {
+                    int c = buffer.get(i);
+                    if(pos >= from && c == '[' && followsEmptyLine(b3, b2, b1)) {
+                        return pos;
+                    }
+                    b3 = b2;
+                    b2 = b1;
+                    b1 = c;
+                    pos++;
+                }
+            }
+            return -1;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * checks if the line terminator ending in b1 is preceded by another line
+     * terminator, i.e. the previous line was empty. Note that \r\n is a single
+     * line terminator, but \n\r and \r\r are two
+     */
+    static boolean followsEmptyLine(int b3, int b2, int b1) {
+        if(b1 == '\n' && b2 == '\r') {
+            return b3 == '\n' || b3 == '\r';
+        }
+        if(b1 == '\n' || b1 == '\r') {
+            return b2 == '\n' || b2 == '\r';
+        }
+        return false;
+    }
+
+    private static class ChunkResult {
+
+        private final PgnScanner.State state;
+        private final ArrayList<Long> offsets;
+
+        ChunkResult(PgnScanner.State start) {
+            this.state = new PgnScanner.State(start.inComment, start.gamePos, start.lastPos);
+            this.offsets = new ArrayList<>();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Visits all nodes of a game tree in parallel. The main line of a subtree is
+ * walked on the current thread, while the variations branching off it are
+ * independent subtrees and are visited by separate tasks.
+ */
+final class ParallelTreeVisitor {
+
+    private ParallelTreeVisitor() {}
+
+    static void visit(GameNode start, GameNodeVisitor visitor, int parallelism) {
+        if(parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative, but is: " + parallelism);
+        }
+        if(parallelism == 1) {
+            GameNodeIterator it = new GameNodeIterator(start);
+            while(it.hasNext()) {
+                if(!visitor.visit(it.next())) {
+                    it.skipChildren();
+                }
+            }
+            return;
+        }
+        ForkJoinPool pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new LineTask(start, visitor));
+        } finally {
+            if(pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static class LineTask extends RecursiveAction {
+
+        private final GameNode start;
+        private final GameNodeVisitor visitor;
+
+        LineTask(GameNode start, GameNodeVisitor visitor) {
+            this.start = start;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<LineTask> forked = new ArrayList<>();
+            GameNode node = start;
+            while(node != null && visitor.visit(node)) {
+                ArrayList<GameNode> variations = node.getVariations();
+                for(int i=1;i<variations.size();i++) {
+                    LineTask task = new LineTask(variations.get(i), visitor);
+                    task.fork();
+                    forked.add(task);
+                }
+                node = variations.isEmpty() ? null : variations.get(0);
+            }
+            for(LineTask task : forked) {
+                task.join();
+            }
+        }
+    }
+
+}
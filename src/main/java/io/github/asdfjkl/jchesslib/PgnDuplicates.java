@@ -0,0 +1,421 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds duplicate games in a PGN file. Each game is identified by a fingerprint
+ * of its normalized White, Black, Date, Result and FEN headers, and its main line
+ * (cf. {@code fingerprint}). Headers are normalized by ignoring case, accents and all
+ * characters that are not letters or digits, e.g. "Carlsen, Magnus" and "carlsen magnus"
+ * are the same, and so are "2019.??.??" and "2019". Other headers such as Event or Site
+ * are not taken into account, as they are often spelled differently by different sources.
+ *
+ * Games are read in parallel ranges (as indexed by the {@code PgnIndex} of the PGN).
+ * Games with equal fingerprints form a cluster of duplicates; the first game
+ * of each cluster is considered the original. Two independent 64 bit hashes are
+ * compared, so false duplicates are practically impossible even for huge databases.
+ */
+public class PgnDuplicates {
+
+    private static final int MIN_GAMES_PER_TASK = 256;
+
+    private static final long SEED = 0x243F6A8885A308D3L;
+    private static final long SECOND_SEED = 0x13198A2E03707344L;
+    private static final String[] FINGERPRINT_TAGS = { "White", "Black", "Date", "Result", "FEN" };
+
+    private final String pgnFilename;
+    private final PgnIndex pgnIndex;
+    // games of cluster i are clusterGames[clusterStarts[i]] ... clusterGames[clusterStarts[i+1]-1]
+    private final int[] clusterStarts;
+    private final int[] clusterGames;
+    private final boolean[] duplicate;
+    private final int duplicateCount;
+
+    private PgnDuplicates(String pgnFilename, PgnIndex pgnIndex, ArrayList<int[]> clusters) {
+        this.pgnFilename = pgnFilename;
+        this.pgnIndex = pgnIndex;
+        this.clusterStarts = new int[clusters.size() + 1];
+        int total = 0;
+        for(int i=0;i<clusters.size();i++) {
+            this.clusterStarts[i] = total;
+            total += clusters.get(i).length;
+        }
+        this.clusterStarts[clusters.size()] = total;
+        this.clusterGames = new int[total];
+        this.duplicate = new boolean[pgnIndex.size()];
+        int count = 0;
+        for(int i=0;i<clusters.size();i++) {
+            int[] games = clusters.get(i);
+            System.arraycopy(games, 0, this.clusterGames, this.clusterStarts[i], games.length);
+            for(int j=1;j<games.length;j++) {
+                this.duplicate[games[j]] = true;
+                count++;
+            }
+        }
+        this.duplicateCount = count;
+    }
+
+    /**
+     * find all duplicate games of a PGN file. The {@code PgnIndex} of the
+     * PGN is opened (and updated if necessary) first.
+     * @param pgnFilename filename of the PGN
+     * @param parallelism number of worker threads. 0 uses the common
+     *                    fork/join pool, 1 reads all games on the calling thread
+     * @return the duplicates
+     * @throws IOException if the PGN file can not be read
+     */
+    public static PgnDuplicates find(String pgnFilename, int parallelism) throws IOException {
+        if(parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative, but is: " + parallelism);
+        }
+        PgnIndex pgnIndex = PgnIndex.open(pgnFilename);
+        int n = pgnIndex.size();
+        long[] fingerprints = new long[n];
+        long[] secondFingerprints = new long[n];
+        if(parallelism == 1 || n <= MIN_GAMES_PER_TASK) {
+            new FingerprintTask(pgnFilename, pgnIndex, fingerprints, secondFingerprints, 0, n, n).computeRange();
+        } else {
+            ForkJoinPool pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+            try {
+                // a few tasks per worker balance the load
+                int threshold = Math.max(MIN_GAMES_PER_TASK, n / (pool.getParallelism() * 4));
+                pool.invoke(new FingerprintTask(pgnFilename, pgnIndex, fingerprints, secondFingerprints,
+                        0, n, threshold));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                if(pool != ForkJoinPool.commonPool()) {
+                    pool.shutdown();
+                }
+            }
+        }
+        return new PgnDuplicates(pgnFilename, pgnIndex, cluster(fingerprints, secondFingerprints));
+    }
+
+    // sorts games by fingerprint, and collects runs of
+    // games with equal fingerprints into clusters
+    private static ArrayList<int[]> cluster(long[] fingerprints, long[] secondFingerprints) {
+        int n = fingerprints.length;
+        long[] keys = Arrays.copyOf(fingerprints, n);
+        long[] games = new long[n];
+        for(int i=0;i<n;i++) {
+            games[i] = i;
+        }
+        // stable, hence games of equal fingerprints stay in file order
+        PositionIndex.radixSort(keys, games, n, new long[n], new long[n]);
+        ArrayList<int[]> clusters = new ArrayList<>();
+        int start = 0;
+        while(start < n) {
+            int end = start + 1;
+            while(end < n && keys[end] == keys[start]) {
+                end++;
+            }
+            if(end - start > 1) {
+                addClusters(games, start, end, secondFingerprints, clusters);
+            }
+            start = end;
+        }
+        clusters.sort((a, b) -> Integer.compare(a[0], b[0]));
+        return clusters;
+    }
+
+    // splits games with the same first fingerprint by their second fingerprint
+    private static void addClusters(long[] games, int start, int end, long[] secondFingerprints,
+                                    ArrayList<int[]> clusters) {
+        boolean[] done = new boolean[end - start];
+        for(int i=start;i<end;i++) {
+            if(done[i - start]) {
+                continue;
+            }
+            long second = secondFingerprints[(int) games[i]];
+            int[] cluster = new int[end - i];
+            int size = 0;
+            for(int j=i;j<end;j++) {
+                if(!done[j - start] && secondFingerprints[(int) games[j]] == second) {
+                    done[j - start] = true;
+                    cluster[size++] = (int) games[j];
+                }
+            }
+            if(size > 1) {
+                clusters.add(Arrays.copyOf(cluster, size));
+            }
+        }
+    }
+
+    /**
+     * computes the fingerprint of a game from its normalized
+     * headers and the packed moves of its main line
+     * @param game the game
+     * @return fingerprint
+     */
+    public static long fingerprint(PackedGame game) {
+        return fingerprint(game.getPgnHeaders(), game.getMoves(), SEED);
+    }
+
+    /**
+     * computes the fingerprint of a game from its normalized headers and
+     * the packed moves of its main line. The fingerprint is the same as
+     * the one of the {@code PackedGame} of the game.
+     * @param game the game
+     * @return fingerprint
+     */
+    public static long fingerprint(Game game) {
+        ArrayList<Integer> moves = new ArrayList<>();
+        GameNode node = game.getRootNode();
+        while(node.hasChild()) {
+            node = node.getVariation(0);
+            moves.add(node.getMove().pack());
+        }
+        int[] packed = new int[moves.size()];
+        for(int i=0;i<packed.length;i++) {
+            packed[i] = moves.get(i);
+        }
+        return fingerprint(game.getPgnHeaders(), packed, SEED);
+    }
+
+    private static long fingerprint(HashMap<String, String> headers, int[] moves, long seed) {
+        long h = seed;
+        for(String tag : FINGERPRINT_TAGS) {
+            String value = headers.get(tag);
+            if(value != null) {
+                String normalized = PgnSearchIndex.normalize(value);
+                for(int i=0;i<normalized.length();i++) {
+                    char c = normalized.charAt(i);
+                    if(Character.isLetterOrDigit(c)) {
+                        h = mix(h, c);
+                    }
+                }
+            }
+            // separator, such that values can not shift between tags
+            h = mix(h, -1);
+        }
+        h = mix(h, moves.length);
+        for(int move : moves) {
+            h = mix(h, move);
+        }
+        // final avalanche
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        h ^= value;
+        h *= 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * get the number of clusters, i.e. of games that have duplicates
+     * @return number of clusters
+     */
+    public int getClusterCount() {
+        return this.clusterStarts.length - 1;
+    }
+
+    /**
+     * get the games of a cluster. The first game is the original,
+     * all others are duplicates of it. Clusters are sorted by their
+     * first game.
+     * @param cluster index of the cluster
+     * @return indices of the games (as in the {@code PgnIndex} of the PGN), in file order
+     */
+    public int[] getCluster(int cluster) {
+        this.checkCluster(cluster);
+        return Arrays.copyOfRange(this.clusterGames, this.clusterStarts[cluster], this.clusterStarts[cluster + 1]);
+    }
+
+    /**
+     * get the offsets of the games of a cluster within the PGN file
+     * @param cluster index of the cluster
+     * @return offsets of the games, in file order
+     */
+    public long[] getClusterOffsets(int cluster) {
+        this.checkCluster(cluster);
+        long[] offsets = new long[this.clusterStarts[cluster + 1] - this.clusterStarts[cluster]];
+        for(int i=0;i<offsets.length;i++) {
+            offsets[i] = this.pgnIndex.getOffset(this.clusterGames[this.clusterStarts[cluster] + i]);
+        }
+        return offsets;
+    }
+
+    private void checkCluster(int cluster) {
+        if(cluster < 0 || cluster >= this.getClusterCount()) {
+            throw new IllegalArgumentException("there are only " + this.getClusterCount() + " clusters, but "
+                    + cluster + " requested");
+        }
+    }
+
+    /**
+     * checks if a game is a duplicate of an earlier game
+     * @param game index of the game (as in the {@code PgnIndex} of the PGN)
+     * @return true if the game is a duplicate
+     */
+    public boolean isDuplicate(int game) {
+        return this.duplicate[game];
+    }
+
+    /**
+     * get the number of duplicates, i.e. of games that
+     * would be removed by {@code write}
+     * @return number of duplicates
+     */
+    public int getDuplicateCount() {
+        return this.duplicateCount;
+    }
+
+    /**
+     * get the number of games of the PGN
+     * @return number of games
+     */
+    public int getGameCount() {
+        return this.duplicate.length;
+    }
+
+    /**
+     * write a copy of the PGN without duplicates. The text of all other games
+     * is copied unchanged. The file is written to a temporary file first, and then moved.
+     * @param outFilename filename of the deduplicated PGN
+     * @throws IOException if the PGN can not be read or the file can not be written
+     */
+    public void write(String outFilename) throws IOException {
+        if(!this.pgnIndex.isUpToDate(this.pgnFilename)) {
+            throw new IOException("PGN file has changed since duplicates were searched");
+        }
+        Path path = Path.of(outFilename);
+        Path tmp = Path.of(outFilename + ".tmp");
+        FileChannel in = FileChannel.open(Path.of(this.pgnFilename), StandardOpenOption.READ);
+        try {
+            FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            try {
+                // copy runs of consecutive games that are kept at once
+                int game = 0;
+                while(game < this.duplicate.length) {
+                    if(this.duplicate[game]) {
+                        game++;
+                        continue;
+                    }
+                    long from = this.pgnIndex.getOffset(game);
+                    long to = from;
+                    while(game < this.duplicate.length && !this.duplicate[game]) {
+                        to = this.pgnIndex.getOffset(game) + this.pgnIndex.getLength(game);
+                        game++;
+                    }
+                    while(from < to) {
+                        from += in.transferTo(from, to - from, out);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * reads a range of games, and stores their fingerprints
+     */
+    private static class FingerprintTask extends RecursiveAction {
+
+        private final String pgnFilename;
+        private final PgnIndex pgnIndex;
+        private final long[] fingerprints;
+        private final long[] secondFingerprints;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        FingerprintTask(String pgnFilename, PgnIndex pgnIndex, long[] fingerprints, long[] secondFingerprints,
+                        int from, int to, int threshold) {
+            this.pgnFilename = pgnFilename;
+            this.pgnIndex = pgnIndex;
+            this.fingerprints = fingerprints;
+            this.secondFingerprints = secondFingerprints;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        void computeRange() throws IOException {
+            PgnReader reader = new PgnReader();
+            OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(pgnFilename, "r");
+            try {
+                for(int i=from;i<to;i++) {
+                    raf.seek(pgnIndex.getOffset(i));
+                    PackedGame game = reader.readPackedGame(raf);
+                    if(game == null) {
+                        // can not happen for an up-to-date index
+                        throw new IOException("no game at offset " + pgnIndex.getOffset(i));
+                    }
+                    fingerprints[i] = fingerprint(game.getPgnHeaders(), game.getMoves(), SEED);
+                    secondFingerprints[i] = fingerprint(game.getPgnHeaders(), game.getMoves(), SECOND_SEED);
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= threshold) {
+                try {
+                    this.computeRange();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FingerprintTask(pgnFilename, pgnIndex, fingerprints, secondFingerprints,
+                            from, middle, threshold),
+                    new FingerprintTask(pgnFilename, pgnIndex, fingerprints, secondFingerprints,
+                            middle, to, threshold));
+        }
+    }
+
+}
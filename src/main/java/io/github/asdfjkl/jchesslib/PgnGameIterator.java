@@ -0,0 +1,87 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over all games of a PGN in a single sequential pass
+ * (cf. {@code PgnReader.iterateGames}). The iterator holds the underlying
+ * input open and should be closed, e.g. with try-with-resources. Errors
+ * while reading are thrown as {@code UncheckedIOException}.
+ */
+public class PgnGameIterator implements Iterator<Game>, AutoCloseable {
+
+    private final PgnReader reader;
+    private final PgnLineReader lines;
+    private Game next;
+    private boolean finished;
+
+    PgnGameIterator(PgnReader reader, PgnLineReader lines) {
+        this.reader = reader;
+        this.lines = lines;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(this.next == null && !this.finished) {
+            Game g = new Game();
+            try {
+                if(this.reader.nextGame(this.lines, g)) {
+                    this.next = g;
+                } else {
+                    this.finished = true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public Game next() {
+        if(!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Game g = this.next;
+        this.next = null;
+        return g;
+    }
+
+    /**
+     * close the underlying input
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        this.lines.close();
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over all games of a PGN file (cf. {@code PgnReader.streamGames}).
+ * As long as it is not split, the file is read in a single sequential pass. On the
+ * first split, the game offsets are scanned (cf. {@code PgnReader.scanPgnParallel}),
+ * and the games are split into ranges of consecutive games. Each range is
+ * read sequentially with its own reader and file handle.
+ */
+class PgnGameSpliterator implements Spliterator<Game> {
+
+    private static final int MIN_GAMES_PER_SPLIT = 64;
+
+    private final String filename;
+    // encoding and parse options for the readers of all splits
+    private final PgnReader settings;
+    // all handles opened by this spliterator or its splits,
+    // closed when the stream is closed
+    private final ConcurrentLinkedQueue<Closeable> opened;
+
+    // null until the first split, then offsets of all games
+    private long[] offsets;
+    private int index;
+    private int end;
+
+    private PgnReader reader;
+    private PgnLineReader lines;
+    private boolean started;
+
+    PgnGameSpliterator(String filename, PgnReader settings) {
+        this(filename, settings, new ConcurrentLinkedQueue<>(), null, 0, 0);
+    }
+
+    private PgnGameSpliterator(String filename, PgnReader settings, ConcurrentLinkedQueue<Closeable> opened,
+                               long[] offsets, int index, int end) {
+        this.filename = filename;
+        this.settings = settings;
+        this.opened = opened;
+        this.offsets = offsets;
+        this.index = index;
+        this.end = end;
+    }
+
+    private void open(long offset) throws IOException {
+        this.closeLines();
+        FileChannel channel = FileChannel.open(Path.of(this.filename), StandardOpenOption.READ);
+        channel.position(offset);
+        this.lines = new PgnLineReader(Channels.newInputStream(channel), offset);
+        this.opened.add(this.lines);
+        if(this.reader == null) {
+            this.reader = this.settings.copySettings();
+        }
+    }
+
+    private void closeLines() throws IOException {
+        if(this.lines != null) {
+            this.opened.remove(this.lines);
+            this.lines.close();
+            this.lines = null;
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Game> action) {
+        try {
+            if(this.offsets == null) {
+                if(!this.started) {
+                    this.open(0);
+                    this.started = true;
+                }
+                if(this.lines == null) {
+                    return false;
+                }
+                Game g = new Game();
+                if(!this.reader.nextGame(this.lines, g)) {
+                    this.closeLines();
+                    return false;
+                }
+                action.accept(g);
+                return true;
+            }
+            while(this.index < this.end) {
+                // games are read consecutively, but skip or seek if
+                // the next game does not start where the last one ended
+                long offset = this.offsets[this.index];
+                if(this.lines == null || this.lines.getPosition() > offset) {
+                    this.open(offset);
+                } else {
+                    this.lines.skipTo(offset);
+                }
+                Game g = new Game();
+                int read = this.reader.readNextGame(this.lines, g);
+                this.index++;
+                if(read != PgnReader.GAME_FILTERED) {
+                    action.accept(g);
+                    return true;
+                }
+            }
+            this.closeLines();
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<Game> trySplit() {
+        if(this.offsets == null) {
+            if(this.started) {
+                return null;
+            }
+            ArrayList<Long> scanned;
+            try {
+                scanned = ParallelPgnScanner.scan(this.filename, 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.offsets = new long[scanned.size()];
+            for(int i=0;i<this.offsets.length;i++) {
+                this.offsets[i] = scanned.get(i);
+            }
+            this.index = 0;
+            this.end = this.offsets.length;
+        }
+        int remaining = this.end - this.index;
+        if(this.lines != null || remaining < 2 * MIN_GAMES_PER_SPLIT) {
+            return null;
+        }
+        int middle = this.index + remaining / 2;
+        PgnGameSpliterator prefix = new PgnGameSpliterator(this.filename, this.settings,
+                this.opened, this.offsets, this.index, middle);
+        this.index = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        if(this.offsets == null) {
+            return Long.MAX_VALUE;
+        }
+        return this.end - this.index;
+    }
+
+    @Override
+    public int characteristics() {
+        // with a header filter, the number of games is only an upper bound
+        if(this.offsets == null || this.settings.headerFilter != null) {
+            return ORDERED | NONNULL;
+        }
+        return ORDERED | NONNULL | SIZED | SUBSIZED;
+    }
+
+    /**
+     * close all handles that are still open
+     */
+    void closeAll() {
+        IOException exception = null;
+        Closeable c;
+        while((c = this.opened.poll()) != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if(exception != null) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+}
@@ -0,0 +1,552 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact store of the headers of many games, e.g. for game lists. Headers are
+ * stored by column: each column is an int array, indexed by game. Text columns
+ * (Event, Site, Round, White, Black) store ids into a per-column dictionary of
+ * distinct values, hence each distinct name is stored once. Date, Result and Elo
+ * ratings are parsed into numbers. This takes about 44 bytes per game plus the
+ * dictionaries, compared to several hundred bytes for a {@code PgnItem} or a
+ * header map per game.
+ *
+ * Games can be sorted by any column (cf. {@code sort}), and
+ * selected by ranges of column values (cf. {@code filter}).
+ *
+ * Adding games is not thread-safe. Queries can be done concurrently
+ * once all games are added.
+ */
+public class PgnHeaderStore {
+
+    /**
+     * column of the Event header, a text column
+     */
+    public static final int COLUMN_EVENT = PgnIndex.TAG_EVENT;
+
+    /**
+     * column of the Site header, a text column
+     */
+    public static final int COLUMN_SITE = PgnIndex.TAG_SITE;
+
+    /**
+     * column of the Date header, as a number like 20190500 for "2019.05.??"
+     */
+    public static final int COLUMN_DATE = PgnIndex.TAG_DATE;
+
+    /**
+     * column of the Round header, a text column
+     */
+    public static final int COLUMN_ROUND = PgnIndex.TAG_ROUND;
+
+    /**
+     * column of the White header, a text column
+     */
+    public static final int COLUMN_WHITE = PgnIndex.TAG_WHITE;
+
+    /**
+     * column of the Black header, a text column
+     */
+    public static final int COLUMN_BLACK = PgnIndex.TAG_BLACK;
+
+    /**
+     * column of the Result header, as one of CONSTANTS.RES_*
+     */
+    public static final int COLUMN_RESULT = PgnIndex.TAG_RESULT;
+
+    /**
+     * column of the WhiteElo header, 0 if unknown
+     */
+    public static final int COLUMN_WHITE_ELO = 7;
+
+    /**
+     * column of the BlackElo header, 0 if unknown
+     */
+    public static final int COLUMN_BLACK_ELO = 8;
+
+    private static final int COLUMN_COUNT = 9;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private long[] offsets;
+    // column values, indexed by column and game
+    private final int[][] columns;
+    // dictionaries of text columns (null for numeric columns)
+    private final ArrayList<ArrayList<String>> dictionaries;
+    private final ArrayList<HashMap<String, Integer>> dictionaryIds;
+    // rank of each dictionary value in sort order, computed when sorting
+    private final int[][] ranks;
+
+    /**
+     * create an empty store
+     */
+    public PgnHeaderStore() {
+        this.offsets = new long[INITIAL_CAPACITY];
+        this.columns = new int[COLUMN_COUNT][INITIAL_CAPACITY];
+        this.dictionaries = new ArrayList<>();
+        this.dictionaryIds = new ArrayList<>();
+        for(int column=0;column<COLUMN_COUNT;column++) {
+            if(isTextColumn(column)) {
+                this.dictionaries.add(new ArrayList<>());
+                this.dictionaryIds.add(new HashMap<>());
+            } else {
+                this.dictionaries.add(null);
+                this.dictionaryIds.add(null);
+            }
+        }
+        this.ranks = new int[COLUMN_COUNT][];
+    }
+
+    /**
+     * create a store of the headers of the supplied games
+     * @param items the games
+     * @return the store
+     */
+    public static PgnHeaderStore build(List<PgnItem> items) {
+        PgnHeaderStore store = new PgnHeaderStore();
+        for(PgnItem item : items) {
+            store.add(item);
+        }
+        return store;
+    }
+
+    /**
+     * create a store of the headers of all games of a {@code PgnIndex}
+     * @param index the index of a PGN
+     * @return the store
+     */
+    public static PgnHeaderStore build(PgnIndex index) {
+        PgnHeaderStore store = new PgnHeaderStore();
+        for(int i=0;i<index.size();i++) {
+            store.add(index.getPgnItem(i));
+        }
+        return store;
+    }
+
+    /**
+     * scan a PGN file, and create a store of the headers of all games
+     * @param pgnFilename filename of the PGN
+     * @return the store
+     */
+    public static PgnHeaderStore scan(String pgnFilename) {
+        return build(new PgnReader().scanPgnGetSTR(pgnFilename));
+    }
+
+    /**
+     * add the headers of a game
+     * @param item offset and headers of the game
+     */
+    public void add(PgnItem item) {
+        if(this.size == this.offsets.length) {
+            int capacity = this.size * 2;
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            for(int column=0;column<COLUMN_COUNT;column++) {
+                this.columns[column] = Arrays.copyOf(this.columns[column], capacity);
+            }
+        }
+        int i = this.size;
+        this.offsets[i] = item.getOffset();
+        this.columns[COLUMN_EVENT][i] = this.addValue(COLUMN_EVENT, item.getEvent());
+        this.columns[COLUMN_SITE][i] = this.addValue(COLUMN_SITE, item.getSite());
+        this.columns[COLUMN_DATE][i] = parseDate(item.getDate());
+        this.columns[COLUMN_ROUND][i] = this.addValue(COLUMN_ROUND, item.getRound());
+        this.columns[COLUMN_WHITE][i] = this.addValue(COLUMN_WHITE, item.getWhite());
+        this.columns[COLUMN_BLACK][i] = this.addValue(COLUMN_BLACK, item.getBlack());
+        this.columns[COLUMN_RESULT][i] = parseResult(item.getResult());
+        this.columns[COLUMN_WHITE_ELO][i] = parseElo(item.getWhiteElo());
+        this.columns[COLUMN_BLACK_ELO][i] = parseElo(item.getBlackElo());
+        this.size++;
+    }
+
+    private int addValue(int column, String value) {
+        HashMap<String, Integer> ids = this.dictionaryIds.get(column);
+        Integer id = ids.get(value);
+        if(id == null) {
+            ArrayList<String> dictionary = this.dictionaries.get(column);
+            id = dictionary.size();
+            dictionary.add(value);
+            ids.put(value, id);
+            this.ranks[column] = null;
+        }
+        return id;
+    }
+
+    /**
+     * parse a PGN date like "2019.05.??" into a number like 20190500.
+     * Unknown parts are 0.
+     * @param date the date
+     * @return the date as number, 0 if the date is unknown
+     */
+    static int parseDate(String date) {
+        return datePart(date, 0, 4) * 10000 + datePart(date, 5, 2) * 100 + datePart(date, 8, 2);
+    }
+
+    private static int datePart(String date, int from, int length) {
+        if(date.length() < from + length) {
+            return 0;
+        }
+        int value = 0;
+        for(int i=from;i<from+length;i++) {
+            char c = date.charAt(i);
+            if(c < '0' || c > '9') {
+                return 0;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * parse a PGN result
+     * @param result the result, e.g. "1-0"
+     * @return one of CONSTANTS.RES_WHITE_WINS, RES_BLACK_WINS, RES_DRAW, RES_UNDEF
+     */
+    static int parseResult(String result) {
+        if(result.equals("1-0")) {
+            return CONSTANTS.RES_WHITE_WINS;
+        } else if(result.equals("0-1")) {
+            return CONSTANTS.RES_BLACK_WINS;
+        } else if(result.equals("1/2-1/2")) {
+            return CONSTANTS.RES_DRAW;
+        } else {
+            return CONSTANTS.RES_UNDEF;
+        }
+    }
+
+    /**
+     * parse an Elo rating
+     * @param elo the rating
+     * @return the rating, 0 if it is unknown
+     */
+    static int parseElo(String elo) {
+        try {
+            return Math.max(0, Integer.parseInt(elo.trim()));
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isTextColumn(int column) {
+        return column == COLUMN_EVENT || column == COLUMN_SITE || column == COLUMN_ROUND
+                || column == COLUMN_WHITE || column == COLUMN_BLACK;
+    }
+
+    private static void checkColumn(int column) {
+        if(column < 0 || column >= COLUMN_COUNT) {
+            throw new IllegalArgumentException("unknown column: " + column);
+        }
+    }
+
+    private static void checkTextColumn(int column) {
+        if(!isTextColumn(column)) {
+            throw new IllegalArgumentException("not a text column: " + column);
+        }
+    }
+
+    private void checkGame(int game) {
+        if(game < 0 || game >= this.size) {
+            throw new IllegalArgumentException("there are only " + this.size + " games, but "
+                    + game + " requested");
+        }
+    }
+
+    /**
+     * get the number of games
+     * @return number of games
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * get the offset of a game within the PGN file
+     * @param game index of the game
+     * @return offset
+     */
+    public long getOffset(int game) {
+        this.checkGame(game);
+        return this.offsets[game];
+    }
+
+    /**
+     * get the value of a column of a game. For text columns, this is the id of
+     * the text in the dictionary of the column. Dates are numbers like 20190500
+     * (cf. {@code parseDate}), results are one of CONSTANTS.RES_WHITE_WINS,
+     * RES_BLACK_WINS, RES_DRAW, RES_UNDEF, and unknown Elo ratings are 0.
+     * @param column one of COLUMN_EVENT, ... COLUMN_BLACK_ELO
+     * @param game index of the game
+     * @return the value
+     */
+    public int getValue(int column, int game) {
+        checkColumn(column);
+        this.checkGame(game);
+        return this.columns[column][game];
+    }
+
+    /**
+     * get the text of a text column of a game
+     * @param column one of COLUMN_EVENT, COLUMN_SITE, COLUMN_ROUND, COLUMN_WHITE, COLUMN_BLACK
+     * @param game index of the game
+     * @return the text
+     */
+    public String getText(int column, int game) {
+        checkTextColumn(column);
+        this.checkGame(game);
+        return this.dictionaries.get(column).get(this.columns[column][game]);
+    }
+
+    /**
+     * get the event of a game
+     * @param game index of the game
+     * @return the event
+     */
+    public String getEvent(int game) { return this.getText(COLUMN_EVENT, game); }
+
+    /**
+     * get the site of a game
+     * @param game index of the game
+     * @return the site
+     */
+    public String getSite(int game) { return this.getText(COLUMN_SITE, game); }
+
+    /**
+     * get the round of a game
+     * @param game index of the game
+     * @return the round
+     */
+    public String getRound(int game) { return this.getText(COLUMN_ROUND, game); }
+
+    /**
+     * get the white player of a game
+     * @param game index of the game
+     * @return the name of the white player
+     */
+    public String getWhite(int game) { return this.getText(COLUMN_WHITE, game); }
+
+    /**
+     * get the black player of a game
+     * @param game index of the game
+     * @return the name of the black player
+     */
+    public String getBlack(int game) { return this.getText(COLUMN_BLACK, game); }
+
+    /**
+     * get the date of a game as a number
+     * @param game index of the game
+     * @return the date, e.g. 20190500 for "2019.05.??"
+     */
+    public int getDate(int game) { return this.getValue(COLUMN_DATE, game); }
+
+    /**
+     * get the result of a game
+     * @param game index of the game
+     * @return one of CONSTANTS.RES_WHITE_WINS, RES_BLACK_WINS, RES_DRAW, RES_UNDEF
+     */
+    public int getResult(int game) { return this.getValue(COLUMN_RESULT, game); }
+
+    /**
+     * get the Elo rating of the white player of a game
+     * @param game index of the game
+     * @return the rating, or 0 if unknown
+     */
+    public int getWhiteElo(int game) { return this.getValue(COLUMN_WHITE_ELO, game); }
+
+    /**
+     * get the Elo rating of the black player of a game
+     * @param game index of the game
+     * @return the rating, or 0 if unknown
+     */
+    public int getBlackElo(int game) { return this.getValue(COLUMN_BLACK_ELO, game); }
+
+    /**
+     * get the number of distinct values of a text column
+     * @param column one of COLUMN_EVENT, COLUMN_SITE, COLUMN_ROUND, COLUMN_WHITE, COLUMN_BLACK
+     * @return number of distinct values
+     */
+    public int getDictionarySize(int column) {
+        checkTextColumn(column);
+        return this.dictionaries.get(column).size();
+    }
+
+    /**
+     * get the id of a text in the dictionary of a text column
+     * @param column one of COLUMN_EVENT, COLUMN_SITE, COLUMN_ROUND, COLUMN_WHITE, COLUMN_BLACK
+     * @param text the text
+     * @return the id, or -1 if no game has this text
+     */
+    public int getId(int column, String text) {
+        checkTextColumn(column);
+        Integer id = this.dictionaryIds.get(column).get(text);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * get offset, index and headers of a game as {@code PgnItem}
+     * @param game index of the game
+     * @return the item
+     */
+    public PgnItem getPgnItem(int game) {
+        this.checkGame(game);
+        PgnItem item = new PgnItem();
+        item.setIndex(game);
+        item.setOffset(this.offsets[game]);
+        item.setEvent(this.getEvent(game));
+        item.setSite(this.getSite(game));
+        item.setDate(formatDate(this.getDate(game)));
+        item.setRound(this.getRound(game));
+        item.setWhite(this.getWhite(game));
+        item.setBlack(this.getBlack(game));
+        int result = this.getResult(game);
+        item.setResult(result == CONSTANTS.RES_WHITE_WINS ? "1-0" : result == CONSTANTS.RES_BLACK_WINS ? "0-1"
+                : result == CONSTANTS.RES_DRAW ? "1/2-1/2" : "*");
+        item.setWhiteElo(this.getWhiteElo(game) > 0 ? Integer.toString(this.getWhiteElo(game)) : "");
+        item.setBlackElo(this.getBlackElo(game) > 0 ? Integer.toString(this.getBlackElo(game)) : "");
+        return item;
+    }
+
+    private static String formatDate(int date) {
+        String year = date / 10000 == 0 ? "????" : String.format("%04d", date / 10000);
+        String month = date / 100 % 100 == 0 ? "??" : String.format("%02d", date / 100 % 100);
+        String day = date % 100 == 0 ? "??" : String.format("%02d", date % 100);
+        return year + "." + month + "." + day;
+    }
+
+    /**
+     * get all games sorted by a column. Text columns are sorted by text,
+     * others by value. Games with equal values keep their order.
+     * @param column one of COLUMN_EVENT, ... COLUMN_BLACK_ELO
+     * @param ascending true to sort in ascending order
+     * @return indices of the games in sort order
+     */
+    public int[] sort(int column, boolean ascending) {
+        int[] games = new int[this.size];
+        for(int i=0;i<games.length;i++) {
+            games[i] = i;
+        }
+        return this.sort(games, column, ascending);
+    }
+
+    /**
+     * sort the supplied games by a column (cf. {@code sort(int, boolean)})
+     * @param games indices of the games, e.g. the result of a filter
+     * @param column one of COLUMN_EVENT, ... COLUMN_BLACK_ELO
+     * @param ascending true to sort in ascending order
+     * @return indices of the games in sort order
+     */
+    public int[] sort(int[] games, int column, boolean ascending) {
+        checkColumn(column);
+        int[] values = this.columns[column];
+        int[] rank = isTextColumn(column) ? this.getRanks(column) : null;
+        int n = games.length;
+        long[] keys = new long[n];
+        long[] indices = new long[n];
+        for(int i=0;i<n;i++) {
+            this.checkGame(games[i]);
+            int value = rank == null ? values[games[i]] : rank[values[games[i]]];
+            // map signed values to unsigned keys, and reverse them for descending order
+            long key = (long) value - Integer.MIN_VALUE;
+            keys[i] = ascending ? key : ~key;
+            indices[i] = games[i];
+        }
+        PositionIndex.radixSort(keys, indices, n, new long[n], new long[n]);
+        int[] sorted = new int[n];
+        for(int i=0;i<n;i++) {
+            sorted[i] = (int) indices[i];
+        }
+        return sorted;
+    }
+
+    // the rank of each dictionary value when sorted by text
+    private synchronized int[] getRanks(int column) {
+        if(this.ranks[column] == null) {
+            ArrayList<String> dictionary = this.dictionaries.get(column);
+            Integer[] ids = new Integer[dictionary.size()];
+            for(int i=0;i<ids.length;i++) {
+                ids[i] = i;
+            }
+            Arrays.sort(ids, (a, b) -> dictionary.get(a).compareTo(dictionary.get(b)));
+            int[] rank = new int[ids.length];
+            for(int i=0;i<ids.length;i++) {
+                rank[ids[i]] = i;
+            }
+            this.ranks[column] = rank;
+        }
+        return this.ranks[column];
+    }
+
+    /**
+     * get all games where the value of a column is within a range,
+     * e.g. all games with a date from 20190000 to 20211231. For text
+     * columns, values are dictionary ids (cf. {@code getId}).
+     * @param column one of COLUMN_EVENT, ... COLUMN_BLACK_ELO
+     * @param min minimum value (inclusive)
+     * @param max maximum value (inclusive)
+     * @return indices of the games, in ascending order
+     */
+    public int[] filter(int column, int min, int max) {
+        checkColumn(column);
+        int[] values = this.columns[column];
+        int[] games = new int[this.size];
+        int length = 0;
+        for(int i=0;i<this.size;i++) {
+            if(values[i] >= min && values[i] <= max) {
+                games[length++] = i;
+            }
+        }
+        return Arrays.copyOf(games, length);
+    }
+
+    /**
+     * get those of the supplied games, where the value of a column is within
+     * a range (cf. {@code filter(int, int, int)}). Filters can be chained,
+     * e.g. to select games by date and then by Elo.
+     * @param games indices of the games
+     * @param column one of COLUMN_EVENT, ... COLUMN_BLACK_ELO
+     * @param min minimum value (inclusive)
+     * @param max maximum value (inclusive)
+     * @return indices of the games that match, in the order of games
+     */
+    public int[] filter(int[] games, int column, int min, int max) {
+        checkColumn(column);
+        int[] values = this.columns[column];
+        int[] matching = new int[games.length];
+        int length = 0;
+        for(int game : games) {
+            this.checkGame(game);
+            if(values[game] >= min && values[game] <= max) {
+                matching[length++] = game;
+            }
+        }
+        return Arrays.copyOf(matching, length);
+    }
+
+}
@@ -0,0 +1,1324 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Index of a PGN file that stores offset, length and the seven
+ * tag roster (Event, Site, Date, Round, White, Black, Result) of each game.
+ * The index is stored in a compact binary file next to the PGN file
+ * (the PGN filename with suffix {@code .idx}). Opening a PGN file with
+ * an up-to-date index file just memory-maps the index. The index is up-to-date
+ * if size, modification time and a checksum of sampled blocks of the PGN file
+ * match.
+ *
+ * Header values are stored once in a string table, and each
+ * game references them by id. Index files are mapped in segments
+ * of 1 GB, i.e. their size is not limited to 2 GB.
+ *
+ * Date, Elo ratings and result of each game are also stored as numbers, together
+ * with the games sorted by each of these values. Hence games within value ranges,
+ * e.g. all games from 2019 to 2021 with both players rated over 2500, are found by
+ * binary search instead of reading headers (cf. {@code findGames}).
+ *
+ * If games are appended to the PGN file, {@code refresh} scans only the
+ * appended data and extends the index (cf. {@code refresh(String)}).
+ *
+ * Scanning very large PGN files can write checkpoints, i.e. the headers of the games
+ * scanned so far, such that an interrupted scan is continued instead
+ * of started again (cf. {@code resume}).
+ */
+public class PgnIndex {
+
+    /**
+     * suffix appended to the PGN filename for the index file
+     */
+    public static final String SUFFIX = ".idx";
+
+    /**
+     * suffix appended to the index filename for checkpoints
+     */
+    public static final String CHECKPOINT_SUFFIX = ".part";
+
+    /**
+     * tag of the Event header (cf. {@code getTag})
+     */
+    public static final int TAG_EVENT = 0;
+
+    /**
+     * tag of the Site header (cf. {@code getTag})
+     */
+    public static final int TAG_SITE = 1;
+
+    /**
+     * tag of the Date header (cf. {@code getTag})
+     */
+    public static final int TAG_DATE = 2;
+
+    /**
+     * tag of the Round header (cf. {@code getTag})
+     */
+    public static final int TAG_ROUND = 3;
+
+    /**
+     * tag of the White header (cf. {@code getTag})
+     */
+    public static final int TAG_WHITE = 4;
+
+    /**
+     * tag of the Black header (cf. {@code getTag})
+     */
+    public static final int TAG_BLACK = 5;
+
+    /**
+     * tag of the Result header (cf. {@code getTag})
+     */
+    public static final int TAG_RESULT = 6;
+
+    static final int TAG_COUNT = 7;
+
+    /**
+     * value of the Date header, as a number like 20190500 for "2019.05.??" (cf. {@code getValue})
+     */
+    public static final int VALUE_DATE = 0;
+
+    /**
+     * value of the WhiteElo header, 0 if unknown (cf. {@code getValue})
+     */
+    public static final int VALUE_WHITE_ELO = 1;
+
+    /**
+     * value of the BlackElo header, 0 if unknown (cf. {@code getValue})
+     */
+    public static final int VALUE_BLACK_ELO = 2;
+
+    /**
+     * value of the Result header, as one of CONSTANTS.RES_* (cf. {@code getValue})
+     */
+    public static final int VALUE_RESULT = 3;
+
+    static final int VALUE_COUNT = 4;
+
+    private static final int MAGIC = 0x4A435049; // "JCPI"
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 56;
+    // bytes per mapped segment of the index file, i.e. 1 GB
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int CHECKPOINT_MAGIC = 0x4A43504B; // "JCPK"
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final int CHECKPOINT_HEADER_SIZE = 56;
+    // offset, tags and values of a game in a checkpoint
+    private static final int CHECKPOINT_RECORD_SIZE = 8 + 4 * (TAG_COUNT + VALUE_COUNT);
+    // bytes scanned between two progress reports
+    private static final long PROGRESS_STEP = 1L << 26;
+
+    // the checksum covers blocks of this size, spread evenly over the file
+    private static final int CHECKSUM_BLOCK_SIZE = 1 << 16;
+    private static final int CHECKSUM_BLOCKS = 16;
+
+    // all segments except the last one have 1 << segmentShift bytes. Sections
+    // of longs come before sections of ints, such that no number crosses
+    // the end of a segment
+    private final ByteBuffer[] segments;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final long pgnSize;
+    private final long pgnModified;
+    private final long checksum;
+    private final long tailChecksum;
+    private final int gameCount;
+    private final int stringCount;
+    private final String encoding;
+
+    // positions of the sections within the segments
+    private final long offsetsPos;
+    private final long stringOffsetsPos;
+    private final long lengthsPos;
+    private final long tagsPos;
+    private final long valuesPos;
+    private final long sortedPos;
+    private final long stringsPos;
+
+    private final String[] stringCache;
+
+    private PgnIndex(ByteBuffer[] segments, int segmentShift) throws IOException {
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        long size = 0;
+        for(ByteBuffer segment : segments) {
+            size += segment.capacity();
+        }
+        if(size < HEADER_SIZE || this.getInt(0) != MAGIC) {
+            throw new IOException("not a PGN index file");
+        }
+        if(this.getInt(4) != VERSION) {
+            throw new IOException("unsupported PGN index version: " + this.getInt(4));
+        }
+        this.pgnSize = this.getLong(8);
+        this.pgnModified = this.getLong(16);
+        this.checksum = this.getLong(24);
+        this.gameCount = this.getInt(32);
+        this.stringCount = this.getInt(36);
+        int encodingId = this.getInt(40);
+        this.tailChecksum = this.getLong(48);
+        if(this.gameCount < 0 || this.stringCount <= encodingId || encodingId < 0) {
+            throw new IOException("not a PGN index file");
+        }
+        this.offsetsPos = HEADER_SIZE;
+        this.stringOffsetsPos = this.offsetsPos + 8L * this.gameCount;
+        this.lengthsPos = this.stringOffsetsPos + 8L * (this.stringCount + 1);
+        this.tagsPos = this.lengthsPos + 4L * this.gameCount;
+        this.valuesPos = this.tagsPos + 4L * TAG_COUNT * this.gameCount;
+        this.sortedPos = this.valuesPos + 4L * VALUE_COUNT * this.gameCount;
+        this.stringsPos = this.sortedPos + 4L * VALUE_COUNT * this.gameCount;
+        if(this.stringsPos > size
+                || this.stringsPos + this.getLong(this.lengthsPos - 8) > size) {
+            throw new IOException("PGN index file is truncated");
+        }
+        this.stringCache = new String[this.stringCount];
+        this.encoding = this.getString(encodingId);
+    }
+
+    private int getInt(long position) {
+        return this.segments[(int) (position >>> this.segmentShift)].getInt((int) (position & this.segmentMask));
+    }
+
+    private long getLong(long position) {
+        return this.segments[(int) (position >>> this.segmentShift)].getLong((int) (position & this.segmentMask));
+    }
+
+    /**
+     * open the index of the supplied PGN file. If there is an up-to-date
+     * index file next to the PGN, it is memory-mapped. If games were appended
+     * to the PGN, only the new data is scanned (cf. {@code refresh}). Otherwise
+     * the PGN is scanned, and the index file is (re-)written. If the index file can not
+     * be written, the index is still returned.
+     * @param pgnFilename filename of the PGN
+     * @param encoding encoding of the PGN headers, e.g. "UTF-8" or "ISO-8859-1"
+     * @return the index
+     * @throws IOException if the PGN file can not be read
+     */
+    public static PgnIndex open(String pgnFilename, String encoding) throws IOException {
+        Path indexPath = Path.of(pgnFilename + SUFFIX);
+        PgnIndex index = null;
+        if(Files.isReadable(indexPath)) {
+            try {
+                PgnIndex existing = read(indexPath.toString());
+                if(existing.getEncoding().equals(encoding)) {
+                    index = existing.refresh(pgnFilename);
+                    if(index == existing) {
+                        return index;
+                    }
+                }
+            } catch (IOException e) {
+                // broken index file, rebuild below
+            }
+        }
+        if(index == null) {
+            index = build(pgnFilename, encoding);
+        }
+        try {
+            index.write(indexPath.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * open the index of the supplied PGN file (cf. {@code open(String, String)}).
+     * The encoding is detected when the index is created
+     * (cf. {@code PgnReader.isIsoLatin1}), and stored in the index file.
+     * @param pgnFilename filename of the PGN
+     * @return the index
+     * @throws IOException if the PGN file can not be read
+     */
+    public static PgnIndex open(String pgnFilename) throws IOException {
+        Path indexPath = Path.of(pgnFilename + SUFFIX);
+        if(Files.isReadable(indexPath)) {
+            try {
+                return open(pgnFilename, read(indexPath.toString()).getEncoding());
+            } catch (IOException e) {
+                // broken index file, detect the encoding below
+            }
+        }
+        return open(pgnFilename, detectEncoding(pgnFilename));
+    }
+
+    private static String detectEncoding(String pgnFilename) {
+        if(new PgnReader().isIsoLatin1(pgnFilename)) {
+            return "ISO-8859-1";
+        } else {
+            return "UTF-8";
+        }
+    }
+
+    /**
+     * memory-map an index file
+     * @param indexFilename filename of the index
+     * @return the index
+     * @throws IOException if the file can not be read or is not a valid index
+     */
+    public static PgnIndex read(String indexFilename) throws IOException {
+        return read(indexFilename, SEGMENT_SHIFT);
+    }
+
+    // maps the file in segments of 1 << segmentShift bytes
+    static PgnIndex read(String indexFilename, int segmentShift) throws IOException {
+        if(segmentShift < 6 || segmentShift > 30) {
+            throw new IllegalArgumentException("segment shift must be between 6 and 30");
+        }
+        FileChannel channel = FileChannel.open(Path.of(indexFilename), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long segmentSize = 1L << segmentShift;
+            ByteBuffer[] segments = new ByteBuffer[(int) ((size + segmentSize - 1) >>> segmentShift)];
+            for(int i=0;i<segments.length;i++) {
+                long first = (long) i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, first, Math.min(segmentSize, size - first));
+            }
+            return new PgnIndex(segments, segmentShift);
+        } finally {
+            // the mappings stay valid after closing the channel
+            channel.close();
+        }
+    }
+
+    /**
+     * scan the supplied PGN file and create its index in memory
+     * @param pgnFilename filename of the PGN
+     * @param encoding encoding of the PGN headers, e.g. "UTF-8" or "ISO-8859-1"
+     * @return the index
+     * @throws IOException if the PGN file can not be read
+     */
+    public static PgnIndex build(String pgnFilename, String encoding) throws IOException {
+        return scan(pgnFilename, new Builder(encoding, null), null, 0, 0, null);
+    }
+
+    /**
+     * scan the supplied PGN file and create its index in memory. While scanning, a
+     * checkpoint is written whenever checkpointInterval bytes were scanned since the
+     * last one. Checkpoints are appended to a file next to the index file (the index
+     * filename with suffix {@code .part}), each with the headers of the games found
+     * since the previous checkpoint, i.e. writing a checkpoint takes time proportional
+     * to the scanned bytes, not to all games found so far.
+     * If scanning is interrupted, it can be continued from the last checkpoint
+     * (cf. {@code resume}). The checkpoint is deleted when scanning is finished.
+     * If a checkpoint can not be written, scanning continues.
+     * @param pgnFilename filename of the PGN
+     * @param encoding encoding of the PGN headers, e.g. "UTF-8" or "ISO-8859-1"
+     * @param checkpointInterval bytes between checkpoints, or 0 for no checkpoints
+     * @param listener receives the progress, can be null
+     * @return the index
+     * @throws IOException if the PGN file can not be read
+     */
+    public static PgnIndex build(String pgnFilename, String encoding, long checkpointInterval,
+                                 PgnScanListener listener) throws IOException {
+        if(checkpointInterval < 0) {
+            throw new IllegalArgumentException("checkpoint interval must not be negative");
+        }
+        Path checkpointPath = Path.of(pgnFilename + SUFFIX + CHECKPOINT_SUFFIX);
+        PgnIndex index = scan(pgnFilename, new Builder(encoding, null),
+                checkpointInterval > 0 ? new Checkpoint(checkpointPath) : null, 0, checkpointInterval, listener);
+        Files.deleteIfExists(checkpointPath);
+        return index;
+    }
+
+    /**
+     * continue an interrupted scan of the supplied PGN file from its last checkpoint
+     * (cf. {@code build(String, String, long, PgnScanListener)}). The checkpoint is
+     * valid if the PGN file still starts with the bytes that were scanned for the
+     * checkpoint, which is verified by comparing checksums. Scanning then continues
+     * at the start of the last game of the checkpoint, which might have been incomplete.
+     * If there is no valid checkpoint, the whole PGN is scanned.
+     * @param pgnFilename filename of the PGN
+     * @param checkpointInterval bytes between checkpoints, or 0 for no further checkpoints
+     * @param listener receives the progress, can be null
+     * @return the index
+     * @throws IOException if the PGN file can not be read
+     */
+    public static PgnIndex resume(String pgnFilename, long checkpointInterval,
+                                  PgnScanListener listener) throws IOException {
+        if(checkpointInterval < 0) {
+            throw new IllegalArgumentException("checkpoint interval must not be negative");
+        }
+        Path checkpointPath = Path.of(pgnFilename + SUFFIX + CHECKPOINT_SUFFIX);
+        String encoding = null;
+        Checkpoint checkpoint = null;
+        if(Files.isReadable(checkpointPath)) {
+            try {
+                Checkpoint existing = Checkpoint.read(checkpointPath);
+                encoding = existing.builder.encoding;
+                if(isPrefixOf(pgnFilename, existing.pgnBytes, existing.checksum, existing.tailChecksum)) {
+                    checkpoint = existing;
+                }
+            } catch (IOException e) {
+                // broken checkpoint, scan the whole file below
+            }
+        }
+        PgnIndex index;
+        if(checkpoint != null) {
+            Builder builder = checkpoint.builder;
+            long resumeAt = builder.size > 0 ? builder.offsets[builder.size - 1] : 0;
+            index = scan(pgnFilename, builder, checkpointInterval > 0 ? checkpoint : null,
+                    resumeAt, checkpointInterval, listener);
+        } else {
+            if(encoding == null) {
+                encoding = detectEncoding(pgnFilename);
+            }
+            index = scan(pgnFilename, new Builder(encoding, null),
+                    checkpointInterval > 0 ? new Checkpoint(checkpointPath) : null, 0, checkpointInterval, listener);
+        }
+        Files.deleteIfExists(checkpointPath);
+        return index;
+    }
+
+    /**
+     * get an index that matches the current content of the PGN file.
+     * If the PGN did not change, this index is returned. If data was only
+     * appended to the PGN, i.e. size did not shrink and the last indexed
+     * bytes are unchanged, scanning resumes at the start of the last indexed
+     * game, and a new index that extends this one is returned. This
+     * takes time proportional to the appended data (and the last game, which
+     * might have been incomplete when it was indexed). Otherwise, the
+     * whole PGN is scanned again.
+     * The returned index is not written to disk (cf. {@code write}).
+     * @param pgnFilename filename of the PGN
+     * @return up-to-date index
+     * @throws IOException if the PGN file can not be read
+     */
+    public PgnIndex refresh(String pgnFilename) throws IOException {
+        if(this.isUpToDate(pgnFilename)) {
+            return this;
+        }
+        if(this.isAppendedTo(pgnFilename)) {
+            int keep = Math.max(0, this.gameCount - 1);
+            long resumeAt = this.gameCount > 0 ? this.getOffset(keep) : 0;
+            return scan(pgnFilename, new Builder(this.encoding, this), null, resumeAt, 0, null);
+        }
+        return build(pgnFilename, this.encoding);
+    }
+
+    // checks if the file still starts with the indexed data, by
+    // comparing the checksum of the last indexed bytes
+    private boolean isAppendedTo(String pgnFilename) throws IOException {
+        Path path = Path.of(pgnFilename);
+        if(Files.size(path) < this.pgnSize) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return tailChecksum(channel, this.pgnSize) == this.tailChecksum;
+        } finally {
+            channel.close();
+        }
+    }
+
+    // checks if the file still starts with the first size bytes that were scanned,
+    // by comparing the checksums of sampled blocks and of the last scanned bytes
+    private static boolean isPrefixOf(String pgnFilename, long size,
+                                      long checksum, long tailChecksum) throws IOException {
+        Path path = Path.of(pgnFilename);
+        if(Files.size(path) < size) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return tailChecksum(channel, size) == tailChecksum && checksum(channel, size) == checksum;
+        } finally {
+            channel.close();
+        }
+    }
+
+    // scans the PGN starting at offset from, which must be the offset of a game,
+    // and adds the games to builder, replacing its games at or after that offset.
+    // Checkpoints are appended to checkpoint, if not null
+    private static PgnIndex scan(String pgnFilename, Builder builder, Checkpoint checkpoint, long from,
+                                 long checkpointInterval, PgnScanListener listener) throws IOException {
+        Path path = Path.of(pgnFilename);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            ArrayList<Long> offsets = new ArrayList<>();
+            ArrayList<PgnItem> items = new ArrayList<>();
+            PgnScanner scanner = new PgnScanner(new PgnScanner.State(false, -1, from),
+                    offsets, items, builder.encoding);
+            long step = checkpointInterval > 0 ? Math.min(PROGRESS_STEP, checkpointInterval) : PROGRESS_STEP;
+            long pos = from;
+            long lastCheckpoint = from;
+            while(pos < size) {
+                long end = size - pos > step ? pos + step : Long.MAX_VALUE;
+                pos = scanner.scan(channel, pos, end);
+                // the builder keeps the headers more compactly than the items
+                for(PgnItem item : items) {
+                    builder.add(item);
+                }
+                items.clear();
+                offsets.clear();
+                if(checkpoint != null && pos < size && pos - lastCheckpoint >= checkpointInterval) {
+                    lastCheckpoint = pos;
+                    try {
+                        checkpoint.append(builder, pos, checksum(channel, pos), tailChecksum(channel, pos));
+                        if(listener != null) {
+                            listener.checkpointWritten(pos, builder.size);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if(listener != null) {
+                    listener.progress(Math.min(pos, size), size, builder.size);
+                }
+            }
+            long checksum = checksum(channel, size);
+            long tailChecksum = tailChecksum(channel, size);
+            return builder.toIndex(size, modified, checksum, tailChecksum, SEGMENT_SHIFT);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * games and strings of an index that is created. Games are
+     * stored by column in arrays, and written in the layout of the
+     * index file when scanning is finished.
+     */
+    private static final class Builder {
+
+        private final HashMap<String, Integer> stringIds = new HashMap<>();
+        private final ArrayList<byte[]> strings = new ArrayList<>();
+        private long stringBytes;
+        private String encoding;
+        private int encodingId;
+        private long[] offsets;
+        private final int[][] tags = new int[TAG_COUNT][];
+        private final int[][] values = new int[VALUE_COUNT][];
+        private int size;
+        // strings and games before these were appended to the checkpoint
+        private int savedStrings;
+        private int savedGames;
+
+        // starts without strings, i.e. without an encoding
+        Builder(int capacity) {
+            this.offsets = new long[capacity];
+            for(int tag=0;tag<TAG_COUNT;tag++) {
+                this.tags[tag] = new int[capacity];
+            }
+            for(int column=0;column<VALUE_COUNT;column++) {
+                this.values[column] = new int[capacity];
+            }
+        }
+
+        // starts with all games and strings of base, if not null
+        Builder(String encoding, PgnIndex base) {
+            this(base != null ? base.gameCount + 1024 : 1024);
+            if(base != null) {
+                for(int i=0;i<base.stringCount;i++) {
+                    byte[] bytes = base.getStringBytes(i);
+                    this.stringIds.put(base.getString(i), i);
+                    this.strings.add(bytes);
+                    this.stringBytes += bytes.length;
+                }
+                for(int i=0;i<base.gameCount;i++) {
+                    this.offsets[i] = base.getOffset(i);
+                    for(int tag=0;tag<TAG_COUNT;tag++) {
+                        this.tags[tag][i] = base.getInt(base.tagsPos + 4L * ((long) i * TAG_COUNT + tag));
+                    }
+                    for(int column=0;column<VALUE_COUNT;column++) {
+                        this.values[column][i] = base.value(column, i);
+                    }
+                }
+                this.size = base.gameCount;
+            }
+            this.encoding = encoding;
+            this.encodingId = this.addString(encoding);
+        }
+
+        int addString(String s) {
+            Integer id = this.stringIds.get(s);
+            if(id == null) {
+                id = this.addString(s.getBytes(StandardCharsets.UTF_8));
+            }
+            return id;
+        }
+
+        // adds a string that is not yet known
+        int addString(byte[] bytes) {
+            int id = this.strings.size();
+            this.stringIds.put(new String(bytes, StandardCharsets.UTF_8), id);
+            this.strings.add(bytes);
+            this.stringBytes += bytes.length;
+            return id;
+        }
+
+        // adds a game, replacing all games that start at or after its offset,
+        // and returns its index
+        int addGame(long offset) throws IOException {
+            while(this.size > 0 && this.offsets[this.size - 1] >= offset) {
+                this.size--;
+            }
+            this.savedGames = Math.min(this.savedGames, this.size);
+            if(this.size == this.offsets.length) {
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, this.size * 3L / 2 + 1024);
+                if(capacity == this.size) {
+                    throw new IOException("too many games for a PGN index");
+                }
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+                for(int tag=0;tag<TAG_COUNT;tag++) {
+                    this.tags[tag] = Arrays.copyOf(this.tags[tag], capacity);
+                }
+                for(int column=0;column<VALUE_COUNT;column++) {
+                    this.values[column] = Arrays.copyOf(this.values[column], capacity);
+                }
+            }
+            this.offsets[this.size] = offset;
+            return this.size++;
+        }
+
+        void add(PgnItem item) throws IOException {
+            int i = this.addGame(item.getOffset());
+            this.tags[TAG_EVENT][i] = this.addString(item.getEvent());
+            this.tags[TAG_SITE][i] = this.addString(item.getSite());
+            this.tags[TAG_DATE][i] = this.addString(item.getDate());
+            this.tags[TAG_ROUND][i] = this.addString(item.getRound());
+            this.tags[TAG_WHITE][i] = this.addString(item.getWhite());
+            this.tags[TAG_BLACK][i] = this.addString(item.getBlack());
+            this.tags[TAG_RESULT][i] = this.addString(item.getResult());
+            this.values[VALUE_DATE][i] = PgnHeaderStore.parseDate(item.getDate());
+            this.values[VALUE_WHITE_ELO][i] = PgnHeaderStore.parseElo(item.getWhiteElo());
+            this.values[VALUE_BLACK_ELO][i] = PgnHeaderStore.parseElo(item.getBlackElo());
+            this.values[VALUE_RESULT][i] = PgnHeaderStore.parseResult(item.getResult());
+        }
+
+        // size of the index in bytes
+        long indexSize() {
+            return HEADER_SIZE + 8L * this.size + 8L * (this.strings.size() + 1)
+                    + 4L * (1 + TAG_COUNT + 2 * VALUE_COUNT) * this.size + this.stringBytes;
+        }
+
+        // creates the index in memory, in segments of 1 << segmentShift bytes
+        PgnIndex toIndex(long pgnSize, long pgnModified, long checksum, long tailChecksum,
+                         int segmentShift) throws IOException {
+            long total = this.indexSize();
+            long segmentSize = 1L << segmentShift;
+            ByteBuffer[] segments = new ByteBuffer[(int) ((total + segmentSize - 1) >>> segmentShift)];
+            for(int i=0;i<segments.length;i++) {
+                segments[i] = ByteBuffer.allocate((int) Math.min(segmentSize, total - ((long) i << segmentShift)));
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new SegmentOutputStream(segments)));
+            this.write(out, pgnSize, pgnModified, checksum, tailChecksum);
+            out.flush();
+            return new PgnIndex(segments, segmentShift);
+        }
+
+        // writes the index in the layout of the index file
+        void write(DataOutputStream out, long pgnSize, long pgnModified,
+                   long checksum, long tailChecksum) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(pgnSize);
+            out.writeLong(pgnModified);
+            out.writeLong(checksum);
+            out.writeInt(this.size);
+            out.writeInt(this.strings.size());
+            out.writeInt(this.encodingId);
+            out.writeInt(0);
+            out.writeLong(tailChecksum);
+            for(int i=0;i<this.size;i++) {
+                out.writeLong(this.offsets[i]);
+            }
+            long stringOffset = 0;
+            for(byte[] str : this.strings) {
+                out.writeLong(stringOffset);
+                stringOffset += str.length;
+            }
+            out.writeLong(stringOffset);
+            for(int i=0;i<this.size;i++) {
+                long end = i + 1 < this.size ? this.offsets[i + 1] : pgnSize;
+                out.writeInt((int) Math.min(Integer.MAX_VALUE, end - this.offsets[i]));
+            }
+            for(int i=0;i<this.size;i++) {
+                for(int tag=0;tag<TAG_COUNT;tag++) {
+                    out.writeInt(this.tags[tag][i]);
+                }
+            }
+            for(int column=0;column<VALUE_COUNT;column++) {
+                for(int i=0;i<this.size;i++) {
+                    out.writeInt(this.values[column][i]);
+                }
+            }
+            for(int column=0;column<VALUE_COUNT;column++) {
+                for(int game : sortByValue(this.values[column], this.size)) {
+                    out.writeInt(game);
+                }
+            }
+            for(byte[] str : this.strings) {
+                out.write(str);
+            }
+        }
+    }
+
+    /**
+     * checkpoint file of a scan. A header is followed by chunks, each with
+     * the strings and games that were added since the previous checkpoint. A game
+     * replaces all games of previous chunks that start at or after its offset.
+     * The header is written after the chunk, such that a partially
+     * written chunk is ignored.
+     */
+    private static final class Checkpoint {
+
+        private final Path path;
+        // bytes of the checkpoint file covered by the header, 0 if nothing was written
+        private long length;
+        // first bytes of the PGN file that were scanned
+        private long pgnBytes;
+        private long checksum;
+        private long tailChecksum;
+        // the games of a checkpoint that was read
+        private Builder builder;
+
+        Checkpoint(Path path) {
+            this.path = path;
+        }
+
+        void append(Builder builder, long pgnBytes, long checksum, long tailChecksum) throws IOException {
+            FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if(this.length == 0) {
+                    this.length = CHECKPOINT_HEADER_SIZE;
+                    builder.savedStrings = 0;
+                    builder.savedGames = 0;
+                }
+                // drop what a failed append left behind
+                channel.truncate(this.length);
+                channel.position(this.length);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(builder.strings.size() - builder.savedStrings);
+                for(int id=builder.savedStrings;id<builder.strings.size();id++) {
+                    byte[] bytes = builder.strings.get(id);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.writeInt(builder.size - builder.savedGames);
+                for(int i=builder.savedGames;i<builder.size;i++) {
+                    out.writeLong(builder.offsets[i]);
+                    for(int tag=0;tag<TAG_COUNT;tag++) {
+                        out.writeInt(builder.tags[tag][i]);
+                    }
+                    for(int column=0;column<VALUE_COUNT;column++) {
+                        out.writeInt(builder.values[column][i]);
+                    }
+                }
+                out.flush();
+                long length = channel.position();
+                channel.force(false);
+                ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_SIZE);
+                header.putInt(CHECKPOINT_MAGIC);
+                header.putInt(CHECKPOINT_VERSION);
+                header.putLong(length);
+                header.putLong(pgnBytes);
+                header.putLong(checksum);
+                header.putLong(tailChecksum);
+                header.putInt(builder.size);
+                header.putInt(builder.strings.size());
+                header.putInt(builder.encodingId);
+                CRC32 crc = new CRC32();
+                crc.update(header.array(), 0, header.position());
+                header.putInt((int) crc.getValue());
+                header.flip();
+                while(header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(false);
+                this.length = length;
+                this.pgnBytes = pgnBytes;
+                this.checksum = checksum;
+                this.tailChecksum = tailChecksum;
+                builder.savedStrings = builder.strings.size();
+                builder.savedGames = builder.size;
+            } finally {
+                channel.close();
+            }
+        }
+
+        static Checkpoint read(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_SIZE);
+                while(header.hasRemaining() && channel.read(header) > 0) { }
+                CRC32 crc = new CRC32();
+                crc.update(header.array(), 0, CHECKPOINT_HEADER_SIZE - 4);
+                if(header.hasRemaining() || header.getInt(0) != CHECKPOINT_MAGIC
+                        || header.getInt(4) != CHECKPOINT_VERSION
+                        || header.getInt(CHECKPOINT_HEADER_SIZE - 4) != (int) crc.getValue()) {
+                    throw new IOException("not a checkpoint file");
+                }
+                Checkpoint checkpoint = new Checkpoint(path);
+                checkpoint.length = header.getLong(8);
+                checkpoint.pgnBytes = header.getLong(16);
+                checkpoint.checksum = header.getLong(24);
+                checkpoint.tailChecksum = header.getLong(32);
+                int gameCount = header.getInt(40);
+                int stringCount = header.getInt(44);
+                int encodingId = header.getInt(48);
+                if(channel.size() < checkpoint.length || gameCount < 0) {
+                    throw new IOException("checkpoint file is truncated");
+                }
+                Builder builder = new Builder(gameCount + 1024);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                long pos = CHECKPOINT_HEADER_SIZE;
+                while(pos < checkpoint.length) {
+                    int strings = in.readInt();
+                    pos += 4;
+                    for(int j=0;j<strings;j++) {
+                        int length = in.readInt();
+                        if(length < 0 || pos + 4 + length > checkpoint.length) {
+                            throw new IOException("checkpoint file is corrupt");
+                        }
+                        byte[] bytes = new byte[length];
+                        in.readFully(bytes);
+                        builder.addString(bytes);
+                        pos += 4 + length;
+                    }
+                    int games = in.readInt();
+                    pos += 4;
+                    if(games < 0 || pos + (long) games * CHECKPOINT_RECORD_SIZE > checkpoint.length) {
+                        throw new IOException("checkpoint file is corrupt");
+                    }
+                    for(int j=0;j<games;j++) {
+                        int i = builder.addGame(in.readLong());
+                        for(int tag=0;tag<TAG_COUNT;tag++) {
+                            int id = in.readInt();
+                            if(id < 0 || id >= builder.strings.size()) {
+                                throw new IOException("checkpoint file is corrupt");
+                            }
+                            builder.tags[tag][i] = id;
+                        }
+                        for(int column=0;column<VALUE_COUNT;column++) {
+                            builder.values[column][i] = in.readInt();
+                        }
+                    }
+                    pos += (long) games * CHECKPOINT_RECORD_SIZE;
+                }
+                if(pos != checkpoint.length || builder.size != gameCount || builder.strings.size() != stringCount
+                        || encodingId < 0 || encodingId >= stringCount) {
+                    throw new IOException("checkpoint file is corrupt");
+                }
+                builder.encodingId = encodingId;
+                builder.encoding = new String(builder.strings.get(encodingId), StandardCharsets.UTF_8);
+                builder.savedStrings = builder.strings.size();
+                builder.savedGames = builder.size;
+                checkpoint.builder = builder;
+                return checkpoint;
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // games sorted by value, games with equal values in file order
+    private static int[] sortByValue(int[] values, int n) {
+        long[] keys = new long[n];
+        long[] games = new long[n];
+        for(int i=0;i<n;i++) {
+            keys[i] = (long) values[i] - Integer.MIN_VALUE;
+            games[i] = i;
+        }
+        PositionIndex.radixSort(keys, games, n, new long[n], new long[n]);
+        int[] sorted = new int[n];
+        for(int i=0;i<n;i++) {
+            sorted[i] = (int) games[i];
+        }
+        return sorted;
+    }
+
+    // writes to consecutive buffers, filling each before the next one
+    private static final class SegmentOutputStream extends OutputStream {
+
+        private final ByteBuffer[] segments;
+        private int current;
+
+        SegmentOutputStream(ByteBuffer[] segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public void write(int b) {
+            while(!this.segments[this.current].hasRemaining()) {
+                this.current++;
+            }
+            this.segments[this.current].put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while(len > 0) {
+                ByteBuffer segment = this.segments[this.current];
+                if(!segment.hasRemaining()) {
+                    this.current++;
+                    continue;
+                }
+                int n = Math.min(len, segment.remaining());
+                segment.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    /**
+     * write the index to a file. The file is written to a temporary
+     * file first, and then moved, i.e. readers never see a partial index.
+     * @param indexFilename filename of the index
+     * @throws IOException if the file can not be written
+     */
+    public void write(String indexFilename) throws IOException {
+        Path path = Path.of(indexFilename);
+        Path tmp = Path.of(indexFilename + ".tmp");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            for(ByteBuffer segment : this.segments) {
+                ByteBuffer buffer = segment.duplicate();
+                buffer.clear();
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * checks if the index matches the current content of the PGN file,
+     * by comparing size, modification time and a checksum
+     * @param pgnFilename filename of the PGN
+     * @return true if the index is up-to-date
+     * @throws IOException if the PGN file can not be read
+     */
+    public boolean isUpToDate(String pgnFilename) throws IOException {
+        Path path = Path.of(pgnFilename);
+        if(Files.size(path) != this.pgnSize
+                || Files.getLastModifiedTime(path).toMillis() != this.pgnModified) {
+            return false;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return checksum(channel, this.pgnSize) == this.checksum;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * computes a CRC32 checksum of the last block before offset size
+     */
+    static long tailChecksum(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BLOCK_SIZE);
+        long from = Math.max(0, size - CHECKSUM_BLOCK_SIZE);
+        updateChecksum(crc, channel, buffer, from, size - from);
+        return crc.getValue();
+    }
+
+    /**
+     * computes a CRC32 checksum of the first size bytes of a file. For large
+     * files, only blocks evenly spread over the file (including the first and
+     * the last block) are taken into account, such that the checksum can be
+     * computed quickly.
+     */
+    static long checksum(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BLOCK_SIZE);
+        if(size <= (long) CHECKSUM_BLOCK_SIZE * CHECKSUM_BLOCKS) {
+            updateChecksum(crc, channel, buffer, 0, size);
+        } else {
+            long step = (size - CHECKSUM_BLOCK_SIZE) / (CHECKSUM_BLOCKS - 1);
+            for(int i=0;i<CHECKSUM_BLOCKS;i++) {
+                updateChecksum(crc, channel, buffer, i * step, CHECKSUM_BLOCK_SIZE);
+            }
+        }
+        return crc.getValue();
+    }
+
+    static void updateChecksum(CRC32 crc, FileChannel channel, ByteBuffer buffer,
+                               long from, long length) throws IOException {
+        long pos = from;
+        long end = from + length;
+        while(pos < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - pos));
+            int read = channel.read(buffer, pos);
+            if(read <= 0) {
+                break;
+            }
+            buffer.flip();
+            crc.update(buffer);
+            pos += read;
+        }
+    }
+
+    /**
+     * get the number of games
+     * @return number of games
+     */
+    public int size() {
+        return this.gameCount;
+    }
+
+    /**
+     * get the size of the PGN file when the index was created
+     * @return size in bytes
+     */
+    public long getPgnSize() {
+        return this.pgnSize;
+    }
+
+    long getPgnModified() {
+        return this.pgnModified;
+    }
+
+    long getChecksum() {
+        return this.checksum;
+    }
+
+    /**
+     * get the encoding that was used to decode the headers
+     * @return name of the encoding
+     */
+    public String getEncoding() {
+        return this.encoding;
+    }
+
+    private void checkGame(int i) {
+        if(i < 0 || i >= this.gameCount) {
+            throw new IllegalArgumentException("there are only " + this.gameCount + " games, but index "
+                    + i + " requested");
+        }
+    }
+
+    /**
+     * get the file offset of a game (cf. {@code PgnReader.scanPgn})
+     * @param i index of the game
+     * @return file offset
+     */
+    public long getOffset(int i) {
+        this.checkGame(i);
+        return this.getLong(this.offsetsPos + 8L * i);
+    }
+
+    /**
+     * get the number of bytes from the offset of a game
+     * to the offset of the next game (or the end of the file)
+     * @param i index of the game
+     * @return length in bytes
+     */
+    public int getLength(int i) {
+        this.checkGame(i);
+        return this.getInt(this.lengthsPos + 4L * i);
+    }
+
+    /**
+     * get a header of the seven tag roster of a game
+     * @param i index of the game
+     * @param tag one of {@code TAG_EVENT, TAG_SITE, TAG_DATE, TAG_ROUND,
+     *            TAG_WHITE, TAG_BLACK, TAG_RESULT}
+     * @return value of the header, or an empty string if it is not set
+     */
+    public String getTag(int i, int tag) {
+        this.checkGame(i);
+        if(tag < 0 || tag >= TAG_COUNT) {
+            throw new IllegalArgumentException("unknown tag: " + tag);
+        }
+        return this.getString(this.getInt(this.tagsPos + 4L * ((long) i * TAG_COUNT + tag)));
+    }
+
+    String getString(int id) {
+        String s = this.stringCache[id];
+        if(s == null) {
+            s = new String(this.getStringBytes(id), StandardCharsets.UTF_8);
+            this.stringCache[id] = s;
+        }
+        return s;
+    }
+
+    private byte[] getStringBytes(int id) {
+        long from = this.getLong(this.stringOffsetsPos + 8L * id);
+        long to = this.getLong(this.stringOffsetsPos + 8L * (id + 1));
+        byte[] bytes = new byte[(int) (to - from)];
+        // the bytes of a string can span two segments
+        long position = this.stringsPos + from;
+        int done = 0;
+        while(done < bytes.length) {
+            ByteBuffer view = this.segments[(int) (position >>> this.segmentShift)].duplicate();
+            view.position((int) (position & this.segmentMask));
+            int n = Math.min(bytes.length - done, view.remaining());
+            view.get(bytes, done, n);
+            done += n;
+            position += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * get the Event header of a game
+     * @param i index of the game
+     * @return the value of the header, or an empty string
+     */
+    public String getEvent(int i) { return this.getTag(i, TAG_EVENT); }
+
+    /**
+     * get the Site header of a game
+     * @param i index of the game
+     * @return the value of the header, or an empty string
+     */
+    public String getSite(int i) { return this.getTag(i, TAG_SITE); }
+
+    /**
+     * get the Date header of a game
+     * @param i index of the game
+     * @return the value of the header, or an empty string
+     */
+    public String getDate(int i) { return this.getTag(i, TAG_DATE); }
+
+    /**
+     * get the Round header of a game
+     * @param i index of the game
+     * @return the value of the header, or an empty string
+     */
+    public String getRound(int i) { return this.getTag(i, TAG_ROUND); }
+
+    /**
+     * get the White header of a game
+     * @param i index of the game
+     * @return the value of the header, or an empty string
+     */
+    public String getWhite(int i) { return this.getTag(i, TAG_WHITE); }
+
+    /**
+     * get the Black header of a game
+     * @param i index of the game
+     * @return the value of the header, or an empty string
+     */
+    public String getBlack(int i) { return this.getTag(i, TAG_BLACK); }
+
+    /**
+     * get the Result header of a game
+     * @param i index of the game
+     * @return the value of the header, or an empty string
+     */
+    public String getResult(int i) { return this.getTag(i, TAG_RESULT); }
+
+    private static void checkColumn(int column) {
+        if(column < 0 || column >= VALUE_COUNT) {
+            throw new IllegalArgumentException("unknown value column: " + column);
+        }
+    }
+
+    /**
+     * get a numeric value of a game. Dates are numbers like 20190500
+     * for "2019.05.??", results are one of CONSTANTS.RES_WHITE_WINS,
+     * RES_BLACK_WINS, RES_DRAW, RES_UNDEF, and unknown Elo ratings are 0.
+     * @param i index of the game
+     * @param column one of {@code VALUE_DATE, VALUE_WHITE_ELO, VALUE_BLACK_ELO, VALUE_RESULT}
+     * @return the value
+     */
+    public int getValue(int i, int column) {
+        this.checkGame(i);
+        checkColumn(column);
+        return this.value(column, i);
+    }
+
+    private int value(int column, int i) {
+        return this.getInt(this.valuesPos + 4L * ((long) column * this.gameCount + i));
+    }
+
+    // the game at a position of the games sorted by a column
+    private int sortedGame(int column, int rank) {
+        return this.getInt(this.sortedPos + 4L * ((long) column * this.gameCount + rank));
+    }
+
+    // position of the first game in sort order whose value is at least min
+    private int lowerBound(int column, long min) {
+        int low = 0;
+        int high = this.gameCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(this.value(column, this.sortedGame(column, middle)) < min) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * count the games where a value is within a range. This takes
+     * logarithmic time, and can be used to start a query with the
+     * most selective range.
+     * @param column one of {@code VALUE_DATE, VALUE_WHITE_ELO, VALUE_BLACK_ELO, VALUE_RESULT}
+     * @param min minimum value (inclusive)
+     * @param max maximum value (inclusive)
+     * @return number of games
+     */
+    public int countGames(int column, int min, int max) {
+        checkColumn(column);
+        if(min > max) {
+            return 0;
+        }
+        return this.lowerBound(column, max + 1L) - this.lowerBound(column, min);
+    }
+
+    /**
+     * get all games where a value is within a range, e.g. all games
+     * with a date from 20190000 to 20211231 (cf. {@code getValue})
+     * @param column one of {@code VALUE_DATE, VALUE_WHITE_ELO, VALUE_BLACK_ELO, VALUE_RESULT}
+     * @param min minimum value (inclusive)
+     * @param max maximum value (inclusive)
+     * @return indices of the games, in ascending order
+     */
+    public int[] findGames(int column, int min, int max) {
+        checkColumn(column);
+        if(min > max) {
+            return new int[0];
+        }
+        int from = this.lowerBound(column, min);
+        int to = this.lowerBound(column, max + 1L);
+        if(to - from < this.gameCount / 32) {
+            int[] games = new int[to - from];
+            for(int rank=from;rank<to;rank++) {
+                games[rank - from] = this.sortedGame(column, rank);
+            }
+            Arrays.sort(games);
+            return games;
+        }
+        // many games, collect them in a bit set
+        long[] bits = new long[(this.gameCount + 63) >>> 6];
+        int[] games = new int[to - from];
+        for(int rank=from;rank<to;rank++) {
+            int game = this.sortedGame(column, rank);
+            bits[game >>> 6] |= 1L << game;
+        }
+        int length = 0;
+        for(int word=0;word<bits.length;word++) {
+            long w = bits[word];
+            while(w != 0) {
+                games[length++] = (word << 6) + Long.numberOfTrailingZeros(w);
+                w &= w - 1;
+            }
+        }
+        return games;
+    }
+
+    /**
+     * get those of the supplied games, where a value is within a range. This
+     * intersects the supplied games with the games of the range, e.g. to
+     * select games by date first and then by Elo.
+     * @param games indices of games, e.g. as returned by {@code findGames}
+     * @param column one of {@code VALUE_DATE, VALUE_WHITE_ELO, VALUE_BLACK_ELO, VALUE_RESULT}
+     * @param min minimum value (inclusive)
+     * @param max maximum value (inclusive)
+     * @return indices of the games that match, in the order of games
+     */
+    public int[] findGames(int[] games, int column, int min, int max) {
+        checkColumn(column);
+        int[] matching = new int[games.length];
+        int length = 0;
+        for(int game : games) {
+            this.checkGame(game);
+            int value = this.value(column, game);
+            if(value >= min && value <= max) {
+                matching[length++] = game;
+            }
+        }
+        return Arrays.copyOf(matching, length);
+    }
+
+    /**
+     * get the file offsets of games
+     * @param games indices of the games
+     * @return file offsets, in the order of games
+     */
+    public long[] getOffsets(int[] games) {
+        long[] offsets = new long[games.length];
+        for(int i=0;i<games.length;i++) {
+            offsets[i] = this.getOffset(games[i]);
+        }
+        return offsets;
+    }
+
+    /**
+     * get offset, index and headers of a game as {@code PgnItem}
+     * @param i index of the game
+     * @return the item
+     */
+    public PgnItem getPgnItem(int i) {
+        PgnItem item = new PgnItem();
+        item.setIndex(i);
+        item.setOffset(this.getOffset(i));
+        item.setEvent(this.getEvent(i));
+        item.setSite(this.getSite(i));
+        item.setDate(this.getDate(i));
+        item.setRound(this.getRound(i));
+        item.setWhite(this.getWhite(i));
+        item.setBlack(this.getBlack(i));
+        item.setResult(this.getResult(i));
+        int whiteElo = this.getValue(i, VALUE_WHITE_ELO);
+        int blackElo = this.getValue(i, VALUE_BLACK_ELO);
+        item.setWhiteElo(whiteElo > 0 ? Integer.toString(whiteElo) : "");
+        item.setBlackElo(blackElo > 0 ? Integer.toString(blackElo) : "");
+        return item;
+    }
+
+}
@@ -42,6 +42,8 @@ public class PgnItem {
     private String black = "";
     private String result = "";
     private String eco = "";
+    private String whiteElo = "";
+    private String blackElo = "";
 
     private boolean foundAtLeast1Tag = false;
 
@@ -165,6 +167,30 @@ public class PgnItem {
      */
     public void setEco(String eco) { this.eco = eco; }
 
+    /**
+     * get the Elo rating of White (as in the WhiteElo header)
+     * @return
+     */
+    public String getWhiteElo() { return whiteElo; }
+
+    /**
+     * set the Elo rating of White
+     * @param whiteElo
+     */
+    public void setWhiteElo(String whiteElo) { this.whiteElo = whiteElo; }
+
+    /**
+     * get the Elo rating of Black (as in the BlackElo header)
+     * @return
+     */
+    public String getBlackElo() { return blackElo; }
+
+    /**
+     * set the Elo rating of Black
+     * @param blackElo
+     */
+    public void setBlackElo(String blackElo) { this.blackElo = blackElo; }
+
     public void markValid() {
         foundAtLeast1Tag = true;
     }
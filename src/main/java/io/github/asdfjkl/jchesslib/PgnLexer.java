@@ -0,0 +1,486 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.IOException;
+
+/**
+ * Tokenizes a PGN directly on the bytes of its lines (cf. {@code PgnLineReader}).
+ * Each call to {@code next} returns the kind of the next token, and the
+ * token's bytes are found at {@code getStart} and {@code getLength} in
+ * {@code getBuffer}. No objects are created for tokens. Header values and
+ * comments are only decoded into strings if requested.
+ * Move numbers, check symbols outside of moves and unknown characters are
+ * skipped, and escaped lines (starting with %) are ignored.
+ */
+final class PgnLexer {
+
+    static final int TOKEN_EOF = 0;
+    // an empty line, i.e. the end of the headers or the end of a game
+    static final int TOKEN_EMPTY_LINE = 1;
+    // a line like [Tag "value"]. Tag and value are available
+    // with getTagStart/getTagLength and getStart/getLength
+    static final int TOKEN_HEADER = 2;
+    // a move in SAN, including castling and null moves (--)
+    static final int TOKEN_SAN = 3;
+    static final int TOKEN_NAG = 4;
+    // content of a comment, without braces
+    static final int TOKEN_COMMENT = 5;
+    static final int TOKEN_OPEN_VARIATION = 6;
+    static final int TOKEN_CLOSE_VARIATION = 7;
+    static final int TOKEN_RESULT = 8;
+
+    // same limit as in PgnReader for comments without closing brace
+    static final int MAX_COMMENT_LINES = 500;
+
+    private final PgnLineReader lines;
+
+    private byte[] line;
+    private int lineLength;
+    private int pos;
+    // offset of the current line within the file
+    private long lineOffset;
+
+    private byte[] comment;
+
+    private int kind;
+    private byte[] tokenBuffer;
+    private int tokenStart;
+    private int tokenLength;
+    private int tagStart;
+    private int tagLength;
+    private int result;
+    private boolean pushedBack;
+    private long tokenOffset;
+    private boolean truncated;
+
+    PgnLexer(PgnLineReader lines) {
+        this.lines = lines;
+        this.line = lines.getLineBytes();
+        this.lineLength = 0;
+        this.pos = 0;
+        this.comment = new byte[256];
+    }
+
+    /**
+     * the source of the lexer
+     * @return line reader
+     */
+    PgnLineReader getLines() {
+        return this.lines;
+    }
+
+    /**
+     * return the current token again with the next call of {@code next}
+     */
+    void pushBack() {
+        this.pushedBack = true;
+    }
+
+    /**
+     * checks if the current token was pushed back
+     * @return true if pushed back
+     */
+    boolean isPushedBack() {
+        return this.pushedBack;
+    }
+
+    /**
+     * offset of the line of the current token within the file
+     * @return byte offset
+     */
+    long getLineOffset() {
+        return this.lineOffset;
+    }
+
+    byte[] getBuffer() {
+        return this.tokenBuffer;
+    }
+
+    int getStart() {
+        return this.tokenStart;
+    }
+
+    int getLength() {
+        return this.tokenLength;
+    }
+
+    /**
+     * offset of the current token within the file. For comments,
+     * this is the offset of the opening brace
+     * @return byte offset
+     */
+    long getOffset() {
+        return this.tokenOffset;
+    }
+
+    /**
+     * checks if the current comment token has no closing brace, i.e.
+     * ended at the end of the file or after the maximum number of lines
+     * @return true if truncated
+     */
+    boolean isTruncated() {
+        return this.truncated;
+    }
+
+    int getTagStart() {
+        return this.tagStart;
+    }
+
+    int getTagLength() {
+        return this.tagLength;
+    }
+
+    /**
+     * result of a result token
+     * @return one of CONSTANTS.RES_*
+     */
+    int getResult() {
+        return this.result;
+    }
+
+    /**
+     * decode the bytes of the current token, i.e. the
+     * value of a header or the content of a comment
+     * @param decoder decoder for the encoding of the PGN
+     * @return the decoded string
+     */
+    String decode(PgnTextDecoder decoder) {
+        return decoder.decode(this.tokenBuffer, this.tokenStart, this.tokenLength);
+    }
+
+    /**
+     * checks if the tag of the current header token equals the supplied tag
+     * @param tag tag name, must be ASCII
+     * @return true if equal
+     */
+    boolean tagEquals(String tag) {
+        if(tag.length() != this.tagLength) {
+            return false;
+        }
+        for(int i=0;i<this.tagLength;i++) {
+            if(this.line[this.tagStart + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * value of a NAG token, like $14 or !?
+     * @return the NAG, or -1 if the token is not a valid NAG
+     */
+    int getNag() {
+        byte[] b = this.tokenBuffer;
+        int s = this.tokenStart;
+        if(b[s] == '$') {
+            if(this.tokenLength == 1 || this.tokenLength > 4) {
+                return -1;
+            }
+            int nag = 0;
+            for(int i=1;i<this.tokenLength;i++) {
+                nag = 10 * nag + (b[s + i] - '0');
+            }
+            return nag;
+        }
+        byte c2 = this.tokenLength > 1 ? b[s + 1] : 0;
+        if(b[s] == '?' && c2 == '?') {
+            return CONSTANTS.NAG_BLUNDER;
+        }
+        if(b[s] == '!' && c2 == '!') {
+            return CONSTANTS.NAG_BRILLIANT_MOVE;
+        }
+        if(b[s] == '!' && c2 == '?') {
+            return CONSTANTS.NAG_SPECULATIVE_MOVE;
+        }
+        if(b[s] == '?' && c2 == '!') {
+            return CONSTANTS.NAG_DUBIOUS_MOVE;
+        }
+        if(b[s] == '?') {
+            return CONSTANTS.NAG_MISTAKE;
+        }
+        return CONSTANTS.NAG_GOOD_MOVE;
+    }
+
+    /**
+     * skips the rest of the moves of the current game without tokenizing them,
+     * up to the first empty line, or before the first header line that is not
+     * within a comment (cf. {@code PgnLineReader.skipMoveText})
+     * @throws IOException if reading fails
+     */
+    void skipGame() throws IOException {
+        boolean inComment = false;
+        for(int i=this.pos;i<this.lineLength;i++) {
+            byte c = this.line[i];
+            if(inComment) {
+                inComment = c != '}';
+            } else if(c == '{') {
+                inComment = true;
+            } else if(c == ';') {
+                break;
+            }
+        }
+        this.pos = this.lineLength;
+        this.lines.skipMoveText(inComment, true);
+    }
+
+    private boolean readLine() throws IOException {
+        this.lineOffset = this.lines.getPosition();
+        this.lineLength = this.lines.readLineBytes();
+        // the line reader might have grown its buffer
+        this.line = this.lines.getLineBytes();
+        this.pos = 0;
+        return this.lineLength >= 0;
+    }
+
+    private void setToken(int kind, byte[] buffer, int start, int length) {
+        this.kind = kind;
+        this.tokenBuffer = buffer;
+        this.tokenStart = start;
+        this.tokenLength = length;
+        this.tokenOffset = this.lineOffset + start;
+    }
+
+    private static boolean isSanByte(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '=' || c == '-' || c == '+' || c == '#';
+    }
+
+    private boolean startsWith(String s) {
+        if(this.pos + s.length() > this.lineLength) {
+            return false;
+        }
+        for(int i=0;i<s.length();i++) {
+            if(this.line[this.pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * read the next token
+     * @return kind of the token, one of the TOKEN_* constants
+     * @throws IOException if reading fails
+     */
+    int next() throws IOException {
+        if(this.pushedBack) {
+            this.pushedBack = false;
+            return this.kind;
+        }
+        while(true) {
+            if(this.pos >= this.lineLength) {
+                if(!this.readLine()) {
+                    this.setToken(TOKEN_EOF, this.line, 0, 0);
+                    return TOKEN_EOF;
+                }
+                if(this.lineLength == 0) {
+                    this.setToken(TOKEN_EMPTY_LINE, this.line, 0, 0);
+                    return TOKEN_EMPTY_LINE;
+                }
+                if(this.line[0] == '%') {
+                    this.pos = this.lineLength;
+                    continue;
+                }
+                if(this.line[0] == '[') {
+                    this.pos = this.lineLength;
+                    if(this.lexHeader()) {
+                        return TOKEN_HEADER;
+                    }
+                    continue;
+                }
+            }
+            int c = this.line[this.pos];
+            if((c >= 'a' && c <= 'h') || c == 'K' || c == 'Q' || c == 'R' || c == 'B' || c == 'N' || c == 'O') {
+                return this.lexSan();
+            }
+            if(c >= '0' && c <= '9') {
+                if(this.startsWith("1-0")) {
+                    return this.lexResult(CONSTANTS.RES_WHITE_WINS, 3);
+                }
+                if(this.startsWith("0-1")) {
+                    return this.lexResult(CONSTANTS.RES_BLACK_WINS, 3);
+                }
+                if(this.startsWith("1/2-1/2")) {
+                    return this.lexResult(CONSTANTS.RES_DRAW, 7);
+                }
+                if(this.startsWith("0-0")) {
+                    return this.lexSan();
+                }
+                // move number
+                while(this.pos < this.lineLength && this.line[this.pos] >= '0' && this.line[this.pos] <= '9') {
+                    this.pos++;
+                }
+                continue;
+            }
+            if(c == '-' && this.startsWith("--")) {
+                this.setToken(TOKEN_SAN, this.line, this.pos, 2);
+                this.pos += 2;
+                return TOKEN_SAN;
+            }
+            if(c == '*') {
+                return this.lexResult(CONSTANTS.RES_UNDEF, 1);
+            }
+            if(c == '(') {
+                this.setToken(TOKEN_OPEN_VARIATION, this.line, this.pos, 1);
+                this.pos++;
+                return TOKEN_OPEN_VARIATION;
+            }
+            if(c == ')') {
+                this.setToken(TOKEN_CLOSE_VARIATION, this.line, this.pos, 1);
+                this.pos++;
+                return TOKEN_CLOSE_VARIATION;
+            }
+            if(c == '$' || c == '!' || c == '?') {
+                int start = this.pos;
+                this.pos++;
+                if(c == '$') {
+                    while(this.pos < this.lineLength && this.line[this.pos] >= '0' && this.line[this.pos] <= '9') {
+                        this.pos++;
+                    }
+                } else {
+                    while(this.pos < this.lineLength && (this.line[this.pos] == '!' || this.line[this.pos] == '?')) {
+                        this.pos++;
+                    }
+                }
+                this.setToken(TOKEN_NAG, this.line, start, this.pos - start);
+                return TOKEN_NAG;
+            }
+            if(c == '{') {
+                this.lexComment();
+                return TOKEN_COMMENT;
+            }
+            if(c == ';') {
+                // rest of line comment
+                this.pos = this.lineLength;
+                continue;
+            }
+            // whitespace, dots or anything unknown
+            this.pos++;
+        }
+    }
+
+    private int lexSan() {
+        int start = this.pos;
+        while(this.pos < this.lineLength && isSanByte(this.line[this.pos])) {
+            this.pos++;
+        }
+        this.setToken(TOKEN_SAN, this.line, start, this.pos - start);
+        return TOKEN_SAN;
+    }
+
+    private int lexResult(int result, int length) {
+        this.result = result;
+        this.setToken(TOKEN_RESULT, this.line, this.pos, length);
+        this.pos += length;
+        return TOKEN_RESULT;
+    }
+
+    // a header line like [Tag "value"], parsed the same way as in PgnReader
+    private boolean lexHeader() {
+        if(this.lineLength <= 4) {
+            return false;
+        }
+        int space = -1;
+        int firstQuote = -1;
+        int secondQuote = -1;
+        for(int i=0;i<this.lineLength;i++) {
+            byte c = this.line[i];
+            if(c == ' ' && space < 0) {
+                space = i;
+            } else if(c == '"') {
+                if(firstQuote < 0) {
+                    firstQuote = i;
+                } else {
+                    secondQuote = i;
+                    break;
+                }
+            }
+        }
+        if(space <= 1 || firstQuote < 0 || secondQuote <= firstQuote + 1) {
+            return false;
+        }
+        this.tagStart = 1;
+        this.tagLength = space - 1;
+        this.setToken(TOKEN_HEADER, this.line, firstQuote + 1, secondQuote - firstQuote - 1);
+        return true;
+    }
+
+    // collects the comment that starts at pos. Comments over multiple lines
+    // are joined with \n, and as in PgnReader, get a trailing \n
+    private void lexComment() throws IOException {
+        int start = this.pos + 1;
+        this.truncated = false;
+        for(int i=start;i<this.lineLength;i++) {
+            if(this.line[i] == '}') {
+                this.setToken(TOKEN_COMMENT, this.line, start, i - start);
+                this.pos = i + 1;
+                return;
+            }
+        }
+        long offset = this.lineOffset + this.pos;
+        this.truncated = true;
+        int length = this.appendComment(0, this.line, start, this.lineLength - start);
+        int linesRead = 0;
+        while(linesRead < MAX_COMMENT_LINES) {
+            if(!this.readLine()) {
+                this.lineLength = 0;
+                break;
+            }
+            linesRead++;
+            int end = -1;
+            for(int i=0;i<this.lineLength;i++) {
+                if(this.line[i] == '}') {
+                    end = i;
+                    break;
+                }
+            }
+            if(end >= 0) {
+                length = this.appendComment(length, this.line, 0, end);
+                this.pos = end + 1;
+                this.truncated = false;
+                break;
+            }
+            length = this.appendComment(length, this.line, 0, this.lineLength);
+            this.pos = this.lineLength;
+        }
+        this.setToken(TOKEN_COMMENT, this.comment, 0, length);
+        this.tokenOffset = offset;
+    }
+
+    private int appendComment(int length, byte[] b, int start, int count) {
+        int required = length + count + 1;
+        if(required > this.comment.length) {
+            byte[] larger = new byte[Math.max(required, 2 * this.comment.length)];
+            System.arraycopy(this.comment, 0, larger, 0, length);
+            this.comment = larger;
+        }
+        System.arraycopy(b, start, this.comment, length, count);
+        this.comment[length + count] = '\n';
+        return required;
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines of a PGN from an input stream with a single buffer, and keeps track
+ * of the byte offset of the next line. Lines are terminated by \n, \r or \r\n,
+ * the same as for {@code OptimizedRandomAccessFile.readLine}.
+ */
+class PgnLineReader implements PgnLineSource, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int bufferPos;
+    private int bufferEnd;
+    private byte[] line;
+    private long position;
+
+    /**
+     * @param in the input stream
+     * @param position offset of the first byte of the stream within the file
+     */
+    PgnLineReader(InputStream in, long position) {
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.line = new byte[256];
+        this.position = position;
+    }
+
+    /**
+     * get the offset of the next byte that will be read, i.e.
+     * the start of the next line
+     * @return byte offset
+     */
+    @Override
+    public long getPosition() {
+        return this.position;
+    }
+
+    private boolean fill() throws IOException {
+        int read = this.in.read(this.buffer, 0, this.buffer.length);
+        if(read <= 0) {
+            return false;
+        }
+        this.bufferPos = 0;
+        this.bufferEnd = read;
+        return true;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        int length = this.readLineBytes();
+        if(length < 0) {
+            return null;
+        }
+        return new String(this.line, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * reads the next line into the line buffer (cf. {@code getLineBytes}),
+     * without decoding it
+     * @return length of the line, or -1 at the end of the stream
+     * @throws IOException if reading fails
+     */
+    int readLineBytes() throws IOException {
+        int length = 0;
+        while(true) {
+            if(this.bufferPos == this.bufferEnd && !this.fill()) {
+                if(length == 0) {
+                    return -1;
+                }
+                return length;
+            }
+            byte c = this.buffer[this.bufferPos];
+            this.bufferPos++;
+            this.position++;
+            if(c == '\n' || c == '\r') {
+                // consume the \n of \r\n right away, such that
+                // the position is always the start of the next line
+                if(c == '\r' && (this.bufferPos < this.bufferEnd || this.fill())
+                        && this.buffer[this.bufferPos] == '\n') {
+                    this.bufferPos++;
+                    this.position++;
+                }
+                return length;
+            }
+            if(length == this.line.length) {
+                byte[] larger = new byte[this.line.length * 2];
+                System.arraycopy(this.line, 0, larger, 0, length);
+                this.line = larger;
+            }
+            this.line[length] = c;
+            length++;
+        }
+    }
+
+    /**
+     * get the buffer that holds the line that was read last
+     * with {@code readLineBytes}. The buffer is reused for the
+     * next line.
+     * @return line buffer
+     */
+    byte[] getLineBytes() {
+        return this.line;
+    }
+
+    /**
+     * skips the rest of the moves of a game directly on the buffered bytes,
+     * without reading lines. Skipping ends after the first empty line that is
+     * not within a {} comment, as when parsing the moves. Lines starting
+     * with % are ignored, and a comment ends after at most
+     * MAX_COMMENT_LINES lines.
+     * With the rules of the byte lexer, ; starts a comment up to the end of the line,
+     * and skipping also ends before a line that starts with [ (cf. {@code PgnLexer}).
+     * @param inComment true if skipping starts within a {} comment
+     * @param lexerRules true to apply the rules of the byte lexer
+     * @throws IOException if reading fails
+     */
+    void skipMoveText(boolean inComment, boolean lexerRules) throws IOException {
+        // length of the current line, and true if the rest of the line is ignored
+        int length = 0;
+        boolean ignore = false;
+        int commentLines = 0;
+        while(true) {
+            if(this.bufferPos == this.bufferEnd && !this.fill()) {
+                return;
+            }
+            byte c = this.buffer[this.bufferPos];
+            if(length == 0 && !inComment && lexerRules && c == '[') {
+                return;
+            }
+            this.bufferPos++;
+            this.position++;
+            if(c == '\n' || c == '\r') {
+                if(c == '\r' && (this.bufferPos < this.bufferEnd || this.fill())
+                        && this.buffer[this.bufferPos] == '\n') {
+                    this.bufferPos++;
+                    this.position++;
+                }
+                if(inComment) {
+                    commentLines++;
+                    if(commentLines > PgnLexer.MAX_COMMENT_LINES) {
+                        inComment = false;
+                    }
+                } else if(length == 0) {
+                    return;
+                }
+                length = 0;
+                ignore = false;
+                continue;
+            }
+            if(length == 0 && c == '%' && !inComment) {
+                ignore = true;
+            }
+            length++;
+            if(ignore) {
+                continue;
+            }
+            if(c == '{') {
+                if(!inComment) {
+                    inComment = true;
+                    commentLines = 0;
+                }
+            } else if(c == '}') {
+                inComment = false;
+            } else if(c == ';' && lexerRules && !inComment) {
+                ignore = true;
+            }
+        }
+    }
+
+    /**
+     * skip forward to the supplied offset, which must be the start of
+     * a line at or after the current position
+     * @param offset the offset
+     * @throws IOException if reading fails
+     */
+    void skipTo(long offset) throws IOException {
+        while(this.position < offset) {
+            if(this.bufferPos == this.bufferEnd && !this.fill()) {
+                return;
+            }
+            int skip = (int) Math.min(this.bufferEnd - this.bufferPos, offset - this.position);
+            this.bufferPos += skip;
+            this.position += skip;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+}
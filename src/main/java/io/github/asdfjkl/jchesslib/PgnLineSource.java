@@ -0,0 +1,53 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.IOException;
+
+/**
+ * A source of lines of a PGN file. Lines are returned as ISO-8859-1
+ * decoded strings without line terminators, i.e. each char corresponds
+ * to one byte of the file (cf. {@code OptimizedRandomAccessFile.readLine}).
+ */
+interface PgnLineSource {
+
+    /**
+     * read the next line
+     * @return the line, or null if the end of the input is reached
+     * @throws IOException if reading fails
+     */
+    String readLine() throws IOException;
+
+    /**
+     * get the offset of the start of the next line within the file
+     * @return byte offset, or -1 if not known
+     * @throws IOException if reading fails
+     */
+    default long getPosition() throws IOException {
+        return -1;
+    }
+
+}
@@ -167,52 +167,36 @@ public class PgnPrinter {
         //this->forceMoveNumber = false;
     }
 
-    private void printGameContent(GameNode g) {
-
-        Board b = g.getBoard();
-
-        // first write mainline move, if there are variations
-        int cntVar = g.getVariations().size();
-        if(cntVar > 0) {
-            GameNode mainVariation = g.getVariation(0);
-            this.printMove(mainVariation);
-            // write nags
-            for(Integer ni : mainVariation.getNags()) {
-                this.printNag(ni);
-            }
-            // write comments
-            if(!mainVariation.getComment().isEmpty()) {
-                this.printComment(mainVariation.getComment());
-            }
+    private void printNodeContent(GameNode node) {
+        this.printMove(node);
+        // write nags
+        for(Integer ni : node.getNags()) {
+            this.printNag(ni);
         }
+        // write comments
+        if(!node.getComment().isEmpty()) {
+            this.printComment(node.getComment());
+        }
+    }
 
-        // now handle all variations (sidelines)
-        for(int i=1;i<cntVar;i++) {
-            // first create variation start marker, and print the move
-            GameNode var_i = g.getVariation(i);
-            this.beginVariation();
-            this.printMove(var_i);
-            // next print nags
-            for(Integer ni : var_i.getNags()) {
-                this.printNag(ni);
-            }
-            // finally print comments
-            if(!var_i.getComment().isEmpty()) {
-                this.printComment(var_i.getComment());
+    private void printGameContent(Game g) {
+        g.acceptInPgnOrder(new GameNodeVisitor() {
+            @Override
+            public boolean visit(GameNode node) {
+                printNodeContent(node);
+                return true;
             }
 
-            // recursive call for all children
-            this.printGameContent(var_i);
-
-            // print variation end
-            this.endVariation();
-        }
+            @Override
+            public void beginVariation() {
+                PgnPrinter.this.beginVariation();
+            }
 
-        // finally do the mainline
-        if(cntVar > 0) {
-            GameNode mainVariation = g.getVariation(0);
-            this.printGameContent(mainVariation);
-        }
+            @Override
+            public void endVariation() {
+                PgnPrinter.this.endVariation();
+            }
+        });
     }
 
     /**
@@ -235,7 +219,7 @@ public class PgnPrinter {
             this.printComment(root.getComment());
         }
 
-        this.printGameContent(root);
+        this.printGameContent(g);
         this.printResult(g.getResult());
         this.pgn.append(this.currentLine.toString());
 
@@ -270,4 +254,3 @@ public class PgnPrinter {
     }
 
 }
-
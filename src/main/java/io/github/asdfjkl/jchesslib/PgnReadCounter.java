@@ -0,0 +1,129 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@code PgnReadListener} that counts all diagnostics. The counter
+ * is thread-safe, i.e. it can be shared between several readers.
+ */
+public class PgnReadCounter implements PgnReadListener {
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder illegalMoves = new LongAdder();
+    private final LongAdder ambiguousMoves = new LongAdder();
+    private final LongAdder invalidFens = new LongAdder();
+    private final LongAdder truncatedComments = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder headerNanos = new LongAdder();
+    private final LongAdder moveNanos = new LongAdder();
+
+    @Override
+    public void gameRead(long offset, long bytes) {
+        this.games.increment();
+        if(bytes > 0) {
+            this.bytes.add(bytes);
+        }
+    }
+
+    @Override
+    public void illegalMove(String san, long offset) {
+        this.illegalMoves.increment();
+    }
+
+    @Override
+    public void ambiguousMove(String san, long offset) {
+        this.ambiguousMoves.increment();
+    }
+
+    @Override
+    public void invalidFen(String fen, long offset) {
+        this.invalidFens.increment();
+    }
+
+    @Override
+    public void truncatedComment(long offset) {
+        this.truncatedComments.increment();
+    }
+
+    @Override
+    public void phaseTime(int phase, long nanos) {
+        if(phase == PHASE_HEADERS) {
+            this.headerNanos.add(nanos);
+        } else {
+            this.moveNanos.add(nanos);
+        }
+    }
+
+    @Override
+    public void readError(Exception e) {
+        this.errors.increment();
+    }
+
+    public long getGames() { return this.games.sum(); }
+
+    public long getBytes() { return this.bytes.sum(); }
+
+    public long getIllegalMoves() { return this.illegalMoves.sum(); }
+
+    public long getAmbiguousMoves() { return this.ambiguousMoves.sum(); }
+
+    public long getInvalidFens() { return this.invalidFens.sum(); }
+
+    public long getTruncatedComments() { return this.truncatedComments.sum(); }
+
+    public long getErrors() { return this.errors.sum(); }
+
+    /**
+     * get the total time spent reading headers
+     * @return time in nanoseconds
+     */
+    public long getHeaderNanos() { return this.headerNanos.sum(); }
+
+    /**
+     * get the total time spent reading moves
+     * @return time in nanoseconds
+     */
+    public long getMoveNanos() { return this.moveNanos.sum(); }
+
+    /**
+     * reset all counters to zero
+     */
+    public void reset() {
+        this.games.reset();
+        this.bytes.reset();
+        this.illegalMoves.reset();
+        this.ambiguousMoves.reset();
+        this.invalidFens.reset();
+        this.truncatedComments.reset();
+        this.errors.reset();
+        this.headerNanos.reset();
+        this.moveNanos.reset();
+    }
+
+}
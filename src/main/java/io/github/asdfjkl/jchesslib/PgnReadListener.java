@@ -0,0 +1,100 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+/**
+ * Receives diagnostics while PGN files are read (cf. {@code PgnReader.setReadListener}).
+ * All methods do nothing by default. Offsets are byte offsets within the
+ * file, or -1 if they are not known (e.g. for {@code PgnReader.readGame(String)}).
+ * A listener that is shared by several readers, e.g. the workers of
+ * a {@code ParallelPgnReader}, must be thread-safe.
+ * If a listener is set, errors are reported to the listener
+ * instead of being printed.
+ */
+public interface PgnReadListener {
+
+    /**
+     * phase of reading the headers of a game, including the lines before the game
+     */
+    int PHASE_HEADERS = 0;
+
+    /**
+     * phase of reading the moves, comments and variations of a game
+     */
+    int PHASE_MOVES = 1;
+
+    /**
+     * called after a game was read
+     * @param offset offset of the first line that was read for the game
+     * @param bytes number of bytes that were read for the game, or -1 if not known
+     */
+    default void gameRead(long offset, long bytes) { }
+
+    /**
+     * called for a move that is not legal in the current position,
+     * or can not be parsed. The move is skipped.
+     * @param san the move as it appears in the PGN
+     * @param offset offset of the move
+     */
+    default void illegalMove(String san, long offset) { }
+
+    /**
+     * called for a move that matches more than one legal move. The move is skipped.
+     * @param san the move as it appears in the PGN
+     * @param offset offset of the move
+     */
+    default void ambiguousMove(String san, long offset) { }
+
+    /**
+     * called if the FEN header of a game can not be parsed, or describes
+     * an inconsistent position. In the latter case, the moves of the game
+     * are skipped, otherwise they are read from the initial position.
+     * @param fen the value of the FEN header
+     * @param offset offset of the first line of the game
+     */
+    default void invalidFen(String fen, long offset) { }
+
+    /**
+     * called for a comment without closing brace, either at the
+     * end of the file or because it exceeds the maximum number of lines
+     * @param offset offset of the line where the comment starts
+     */
+    default void truncatedComment(long offset) { }
+
+    /**
+     * called with the time spent in each phase of reading a game
+     * @param phase one of PHASE_HEADERS, PHASE_MOVES
+     * @param nanos time in nanoseconds
+     */
+    default void phaseTime(int phase, long nanos) { }
+
+    /**
+     * called if reading fails
+     * @param e the error
+     */
+    default void readError(Exception e) { }
+
+}
@@ -28,10 +28,23 @@ package io.github.asdfjkl.jchesslib;
 import com.ibm.icu.text.CharsetDetector;
 import com.ibm.icu.text.CharsetMatch;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.Stack;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Read PGN files.
@@ -44,6 +57,41 @@ public class PgnReader {
     final Stack<GameNode> gameStack;
     String encoding;
 
+    private static final int DETECTION_WINDOW_SIZE = 1 << 20;
+
+    boolean skipVariations = false;
+    boolean skipComments = false;
+    boolean skipNags = false;
+    // null if all headers are kept
+    HashSet<String> keptHeaders = null;
+
+    // packed mode (cf. readPackedGame): moves are applied to a single
+    // board and stored packed, no nodes or board copies are created
+    boolean packed = false;
+    int[] packedMoves = new int[256];
+    int packedCount = 0;
+    PlyCallback plyCallback = null;
+
+    // decoder for the current encoding, created on first use
+    PgnTextDecoder textDecoder = null;
+
+    boolean byteLexer = false;
+
+    // diagnostics, null if none is installed
+    PgnReadListener listener = null;
+    // offset of the current line, and start of the current
+    // move within the line (only tracked if a listener is set)
+    long lineOffset = -1;
+    int moveStart = 0;
+    long headersRead = 0;
+    long gameOffset = -1;
+    // games whose headers do not match are skipped
+    Predicate<HashMap<String, String>> headerFilter = null;
+    // true if the game that was parsed last did not match the filter
+    boolean filtered = false;
+    // lexer of the line reader that was used last (cf. nextGame)
+    PgnLexer lexer = null;
+
     /**
      * create a new PGN reader and init all values
      */
@@ -76,52 +124,293 @@ public class PgnReader {
      */
     public String getEncoding() { return encoding; }
 
+    /**
+     * if set, variations are skipped when reading games, and
+     * only the main line is added to the game. Variations are
+     * skipped by tracking the depth of parentheses, i.e. moves
+     * of variations are not parsed at all.
+     * This does not apply to {@code readGame(String)}.
+     * @param skipVariations true to skip variations
+     */
+    public void setSkipVariations(boolean skipVariations) {
+        this.skipVariations = skipVariations;
+    }
+
+    /**
+     * if set, comments are skipped when reading games, i.e.
+     * comments are neither collected nor decoded.
+     * This does not apply to {@code readGame(String)}.
+     * @param skipComments true to skip comments
+     */
+    public void setSkipComments(boolean skipComments) {
+        this.skipComments = skipComments;
+    }
+
+    /**
+     * if set, NAGs (like $1 or !?) are skipped when reading games.
+     * This does not apply to {@code readGame(String)}.
+     * @param skipNags true to skip NAGs
+     */
+    public void setSkipNags(boolean skipNags) {
+        this.skipNags = skipNags;
+    }
+
+    /**
+     * only keep the supplied headers when reading games. The values
+     * of all other headers are not decoded. The FEN header is always
+     * used to set up the root board. Supply null to keep all headers.
+     * This does not apply to {@code readGame(String)}.
+     * @param tags names of headers to keep, e.g. "White" and "Black"
+     */
+    public void setKeptHeaders(Collection<String> tags) {
+        if(tags == null) {
+            this.keptHeaders = null;
+        } else {
+            this.keptHeaders = new HashSet<>(tags);
+        }
+    }
+
+    /**
+     * if set, games that are read with {@code iterateGames}, {@code streamGames}
+     * or by a {@code ParallelPgnReader} are tokenized directly on the bytes
+     * of the file (cf. {@code PgnLexer}), instead of decoding each line into a
+     * string first. Only header values and comments that are kept are decoded.
+     * The resulting games are the same, except that draws (1/2-1/2) are
+     * recognized in the moves, and lines starting with [ directly after the
+     * moves start the next game.
+     * @param byteLexer true to use the byte lexer
+     */
+    public void setByteLexer(boolean byteLexer) {
+        this.byteLexer = byteLexer;
+    }
+
+    /**
+     * set a callback that is called for each position of
+     * games that are read with {@code readPackedGame}
+     * @param plyCallback the callback, or null for none
+     */
+    public void setPlyCallback(PlyCallback plyCallback) {
+        this.plyCallback = plyCallback;
+    }
+
+    /**
+     * set a listener that receives diagnostics about read games, like
+     * illegal moves or timings (cf. {@code PgnReadCounter}). If a listener is set,
+     * errors are reported to the listener instead of being printed.
+     * Diagnostics are only collected if a listener is set.
+     * @param listener the listener, or null for none
+     */
+    public void setReadListener(PgnReadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * only read games whose headers match the supplied filter. The filter
+     * is tested as soon as the headers of a game are read, and the moves of
+     * games that do not match are skipped directly on the bytes, without
+     * tokenizing them. The filter gets the kept headers of the game
+     * (cf. {@code setKeptHeaders}), e.g.
+     * {@code h -> "Carlsen, Magnus".equals(h.get("White"))}.
+     * Non-matching games are skipped by {@code iterateGames}, {@code streamGames},
+     * {@code readGame}, {@code readPackedGame} and {@code ParallelPgnReader},
+     * i.e. these return the next matching game.
+     * This does not apply to {@code readGame(String)}.
+     * @param filter the filter, or null to read all games
+     */
+    public void setHeaderFilter(Predicate<HashMap<String, String>> filter) {
+        this.headerFilter = filter;
+    }
+
+    void reportError(Exception e) {
+        if(this.listener != null) {
+            this.listener.readError(e);
+        } else {
+            e.printStackTrace();
+        }
+    }
+
+    private long moveOffset() {
+        if(this.lineOffset < 0) {
+            return -1;
+        }
+        return this.lineOffset + this.moveStart;
+    }
+
+    // the move that starts at moveStart in the current line
+    private String moveText() {
+        int end = this.moveStart;
+        while(end < this.currentLine.length() && this.currentLine.charAt(end) != ' '
+                && this.currentLine.charAt(end) != ')' && this.currentLine.charAt(end) != '{') {
+            end++;
+        }
+        return this.currentLine.substring(this.moveStart, end);
+    }
+
+    private void reportIllegalMove(IllegalArgumentException e) {
+        if(this.listener != null) {
+            this.reportIllegalMove();
+        } else {
+            e.printStackTrace();
+        }
+    }
+
+    private void reportInvalidFen(String fen, IllegalArgumentException e) {
+        if(this.listener != null) {
+            this.listener.invalidFen(fen, this.gameOffset);
+        } else if(e != null) {
+            e.printStackTrace();
+        }
+    }
+
+    private void reportIllegalMove() {
+        if(this.listener != null) {
+            this.listener.illegalMove(this.moveText(), this.moveOffset());
+        }
+    }
+
+    private void reportIllegalMove(PgnLexer lexer, IllegalArgumentException e) {
+        if(this.listener != null) {
+            this.reportLexerMove(lexer, false);
+        } else {
+            e.printStackTrace();
+        }
+    }
+
+    private void reportLexerMove(PgnLexer lexer, boolean ambiguous) {
+        if(this.listener == null) {
+            return;
+        }
+        String san = new String(lexer.getBuffer(), lexer.getStart(), lexer.getLength(),
+                StandardCharsets.ISO_8859_1);
+        if(ambiguous) {
+            this.listener.ambiguousMove(san, lexer.getOffset());
+        } else {
+            this.listener.illegalMove(san, lexer.getOffset());
+        }
+    }
+
+    // offset of a comment that starts at currentIdx, if it is not closed
+    // on the current line (i.e. end < 0). Computed before reading further lines
+    private long commentOffset(int end) {
+        if(end >= 0 || this.listener == null || this.lineOffset < 0) {
+            return -1;
+        }
+        return this.lineOffset + this.currentIdx;
+    }
+
+    private void reportTruncatedComment(long offset) {
+        if(this.listener != null) {
+            this.listener.truncatedComment(offset);
+        }
+    }
+
+    // reads the next line, and keeps track of its offset if a listener is set
+    private String readLine(PgnLineSource source) throws IOException {
+        if(this.listener != null) {
+            this.lineOffset = source.getPosition();
+        }
+        return source.readLine();
+    }
+
+    private void reportAmbiguousMove() {
+        if(this.listener != null) {
+            this.listener.ambiguousMove(this.moveText(), this.moveOffset());
+        }
+    }
+
+    PgnTextDecoder textDecoder() {
+        if(this.textDecoder == null || !this.textDecoder.getEncoding().equals(this.encoding)) {
+            this.textDecoder = new PgnTextDecoder(this.encoding);
+        }
+        return this.textDecoder;
+    }
+
+    /**
+     * creates a new reader with the same encoding
+     * and parse options as this reader
+     */
+    PgnReader copySettings() {
+        PgnReader reader = new PgnReader();
+        reader.encoding = this.encoding;
+        reader.skipVariations = this.skipVariations;
+        reader.skipComments = this.skipComments;
+        reader.skipNags = this.skipNags;
+        reader.keptHeaders = this.keptHeaders;
+        reader.plyCallback = this.plyCallback;
+        reader.byteLexer = this.byteLexer;
+        reader.listener = this.listener;
+        reader.headerFilter = this.headerFilter;
+        return reader;
+    }
+
     /**
      * This function uses com.ibm.icu.text.CharsetDetector
      * to heuristically detect if a PGN file is encoded in
-     * IsoLatin1
+     * IsoLatin1. Only the first line, and all headers and comments
+     * within the first 1000 lines (and the first MB) of the file are
+     * used for detection.
      * @param filename filename of the PGN
      * @return true if encoded in IsoLatin1, false otherwise
      */
     public boolean isIsoLatin1(String filename) {
 
         boolean isLatin1 = false;
-        OptimizedRandomAccessFile raf = null;
-        ArrayList<Byte> bytesRead = new ArrayList<>();
-        String line = "";
+        FileChannel channel = null;
         try {
-            raf = new OptimizedRandomAccessFile(filename, "r");
-            CharsetDetector detector = new CharsetDetector();
-            // read the first line, and from
-            // the first 10000 lines read all tags and comments
-            int i=0;
-            while((line = raf.readLine()) != null && i < 1000) {
-                if(i == 0 || (line.contains("[") || line.contains("{") || line.contains("}"))) {
-                    byte[] lineBytes = line.getBytes(StandardCharsets.ISO_8859_1);
-                    for (int j = 0; j < lineBytes.length; j++) {
-                        bytesRead.add(lineBytes[j]);
-                    }
+            ByteBuffer window;
+            if(GzipIndex.isGzip(filename)) {
+                try(InputStream in = GzipIndex.openStream(filename)) {
+                    window = ByteBuffer.wrap(in.readNBytes(DETECTION_WINDOW_SIZE));
                 }
-                i++;
+            } else {
+                channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+                int mapSize = (int) Math.min(channel.size(), DETECTION_WINDOW_SIZE);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, 0, mapSize);
             }
-            byte[] primBytesRead = new byte[bytesRead.size()];
-            for(i = 0; i < bytesRead.size(); i++) {
-                primBytesRead[i] = bytesRead.get(i).byteValue();
+            int windowSize = window.limit();
+            byte[] sample = new byte[Math.min(windowSize, 1 << 16)];
+            int sampleLength = 0;
+            int lineStart = 0;
+            boolean relevant = true; // the first line is always used
+            int lines = 0;
+            for(int i=0;i<windowSize && lines < 1000;i++) {
+                byte c = window.get(i);
+                if(c == '[' || c == '{' || c == '}') {
+                    relevant = true;
+                }
+                if(c == '\n' || c == '\r' || i == windowSize - 1) {
+                    int lineEnd = (c == '\n' || c == '\r') ? i : i + 1;
+                    if(relevant) {
+                        int length = lineEnd - lineStart;
+                        if(sampleLength + length > sample.length) {
+                            sample = Arrays.copyOf(sample, Math.max(sampleLength + length, 2 * sample.length));
+                        }
+                        window.position(lineStart);
+                        window.get(sample, sampleLength, length);
+                        sampleLength += length;
+                    }
+                    if(c == '\r' && i + 1 < windowSize && window.get(i + 1) == '\n') {
+                        i++;
+                    }
+                    lineStart = i + 1;
+                    relevant = false;
+                    lines++;
+                }
             }
-            detector.setText(primBytesRead);
+            CharsetDetector detector = new CharsetDetector();
+            detector.setText(Arrays.copyOf(sample, sampleLength));
             CharsetMatch match = detector.detect();
-            String encoding = match.getName();
-            if(encoding.equals("ISO-8859-1")) {
+            if(match != null && match.getName().equals("ISO-8859-1")) {
                 isLatin1 = true;
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            reportError(e);
         } finally {
-            if(raf != null) {
+            if(channel != null) {
                 try {
-                    raf.close();
+                    channel.close();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    reportError(e);
                 }
             }
         }
@@ -137,79 +426,26 @@ public class PgnReader {
 
         ArrayList<PgnItem> entries = new ArrayList<>();
 
-        boolean inComment = false;
-        long game_pos = -1;
-        PgnItem current = null;
-        long last_pos = 0;
-
-        String currentLine = "";
-        OptimizedRandomAccessFile raf = null;
+        FileChannel channel = null;
         try {
-            raf = new OptimizedRandomAccessFile(filename, "r");
-            while ((currentLine = raf.readLine()) != null) {
-                // skip comments
-                if (currentLine.startsWith("%")) {
-                    continue;
-                }
-
-                if (!inComment && currentLine.startsWith("[")) {
-
-                    if (game_pos == -1) {
-                        game_pos = last_pos;
-                        current = new PgnItem();
-                    }
-                    last_pos = raf.getFilePointer();
-
-                    if (currentLine.length() > 4) {
-                        int spaceOffset = currentLine.indexOf(' ');
-                        int firstQuote = currentLine.indexOf('"');
-                        int secondQuote = currentLine.indexOf('"', firstQuote + 1);
-                        String tag = currentLine.substring(1, spaceOffset);
-                        String value = currentLine.substring(firstQuote + 1, secondQuote);
-                        String valueEncoded = new String(value.getBytes(StandardCharsets.ISO_8859_1), encoding);
-                        if(tag.equals("Event")) {
-                            current.setEvent(valueEncoded);
-                        }
-                        if(tag.equals("Site")) {
-                            current.setSite(valueEncoded);
-                        }
-                        if(tag.equals("Round")) {
-                            current.setRound(valueEncoded);
-                        }
-                        if(tag.equals("White")) {
-                            current.setWhite(valueEncoded);
-                        }
-                        if(tag.equals("Black")) {
-                            current.setBlack(valueEncoded);
-                        }
-                        if(tag.equals("Result")) {
-                            current.setResult(valueEncoded);
-                        }
-                    }
-
-                    continue;
-                }
-                if ((!inComment && currentLine.contains("{"))
-                        || (inComment && currentLine.contains("}"))) {
-                    inComment = currentLine.lastIndexOf("{") > currentLine.lastIndexOf("}");
-                }
-
-                if (game_pos != -1) {
-                    current.setOffset(game_pos);
-                    entries.add(current);
-                    game_pos = -1;
+            PgnScanner scanner = new PgnScanner(new PgnScanner.State(false, -1, 0),
+                    new ArrayList<>(), entries, encoding);
+            if(GzipIndex.isGzip(filename)) {
+                try(InputStream in = GzipIndex.openStream(filename)) {
+                    scanner.scan(in);
                 }
-
-                last_pos = raf.getFilePointer();
+                return entries;
             }
+            channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+            scanner.scan(channel, 0, Long.MAX_VALUE);
         } catch (IOException e) {
-            e.printStackTrace();
+            reportError(e);
         } finally {
-            if (raf != null) {
+            if (channel != null) {
                 try {
-                    raf.close();
+                    channel.close();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    reportError(e);
                 }
             }
         }
@@ -218,7 +454,10 @@ public class PgnReader {
 
     /**
      * quickly scan a PGN file and get file offsets for
-     * all stored games
+     * all stored games. The file is memory-mapped and
+     * scanned directly on the bytes. Gzip compressed files are
+     * decompressed while scanning, and the offsets are offsets
+     * within the uncompressed data (cf. {@code GzipRandomAccessFile}).
      * @param filename filename of the PGN
      * @return PgnItems for all games in the file
      */
@@ -226,53 +465,125 @@ public class PgnReader {
 
         ArrayList<Long> offsets = new ArrayList<>();
 
-        boolean inComment = false;
-        long game_pos = -1;
-        long last_pos = 0;
-
-        String currentLine = "";
-        OptimizedRandomAccessFile raf = null;
+        FileChannel channel = null;
         try {
-            raf = new OptimizedRandomAccessFile(filename, "r");
-            while ((currentLine = raf.readLine()) != null) {
-                // skip comments
-                if (currentLine.startsWith("%")) {
-                    continue;
+            if(GzipIndex.isGzip(filename)) {
+                try(InputStream in = GzipIndex.openStream(filename)) {
+                    new PgnScanner(new PgnScanner.State(false, -1, 0), offsets, null, null).scan(in);
                 }
-
-                if (!inComment && currentLine.startsWith("[")) {
-                    if (game_pos == -1) {
-                        game_pos = last_pos;
-                    }
-                    last_pos = raf.getFilePointer();
-                    continue;
-                }
-                if ((!inComment && currentLine.contains("{"))
-                        || (inComment && currentLine.contains("}"))) {
-                    inComment = currentLine.lastIndexOf("{") > currentLine.lastIndexOf("}");
-                }
-
-                if (game_pos != -1) {
-                    offsets.add(game_pos);
-                    game_pos = -1;
-                }
-
-                last_pos = raf.getFilePointer();
+                return offsets;
             }
+            channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+            PgnScanner.scanRange(channel, 0, Long.MAX_VALUE, new PgnScanner.State(false, -1, 0), offsets);
         } catch (IOException e) {
-            e.printStackTrace();
+            reportError(e);
         } finally {
-            if (raf != null) {
+            if (channel != null) {
                 try {
-                    raf.close();
+                    channel.close();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    reportError(e);
                 }
             }
         }
         return offsets;
     }
 
+    /**
+     * scan a PGN file and get file offsets for all stored games, using
+     * all available processors. The file is split into ranges that start at
+     * a header line after an empty line, and these are scanned concurrently.
+     * The result is identical to {@code scanPgn}. Gzip compressed files
+     * are scanned sequentially.
+     * @param filename filename of the PGN
+     * @return offsets of all games in the file
+     */
+    public ArrayList<Long> scanPgnParallel(String filename) {
+        return this.scanPgnParallel(filename, 0);
+    }
+
+    /**
+     * scan a PGN file and get file offsets for all stored games
+     * in parallel (cf. {@code scanPgnParallel(String)})
+     * @param filename filename of the PGN
+     * @param parallelism number of worker threads. 0 uses the common
+     *                    fork/join pool, 1 scans on the calling thread
+     * @return offsets of all games in the file
+     */
+    public ArrayList<Long> scanPgnParallel(String filename, int parallelism) {
+        try {
+            // gzip data can not be split, scan sequentially
+            if(GzipIndex.isGzip(filename)) {
+                return this.scanPgn(filename);
+            }
+        } catch (IOException e) {
+            reportError(e);
+            return new ArrayList<>();
+        }
+        ArrayList<Long> offsets = new ArrayList<>();
+        try {
+            ParallelPgnScanner.scan(filename, parallelism, ParallelPgnScanner.MIN_CHUNK_SIZE, offsets);
+        } catch (IOException e) {
+            // offsets up to the error, like scanPgn
+            reportError(e);
+        }
+        return offsets;
+    }
+
+    /**
+     * get an iterator over all games of a PGN file. The file is read
+     * sequentially in a single pass, i.e. there is no need to scan
+     * for offsets first. Gzip compressed files are decompressed on the fly.
+     * Close the iterator after use, e.g. with try-with-resources.
+     * @param filename filename of the PGN
+     * @return iterator over the games of the file
+     * @throws IOException if the file can not be opened
+     */
+    public PgnGameIterator iterateGames(String filename) throws IOException {
+        return this.iterateGames(GzipIndex.openStream(filename));
+    }
+
+    /**
+     * get an iterator over all games read from the supplied stream
+     * (cf. {@code iterateGames(String)}). Closing the iterator
+     * closes the stream.
+     * @param in the stream
+     * @return iterator over the games of the stream
+     */
+    public PgnGameIterator iterateGames(InputStream in) {
+        return new PgnGameIterator(this.copySettings(), new PgnLineReader(in, 0));
+    }
+
+    /**
+     * get a stream of all games of a PGN file. A sequential stream
+     * reads the file in a single pass. A parallel stream first scans the
+     * game offsets, and then reads ranges of consecutive games in parallel.
+     * Gzip compressed files are decompressed on the fly, and always read sequentially.
+     * The stream should be closed after use, e.g. with try-with-resources.
+     * Errors while reading are thrown as {@code UncheckedIOException}.
+     * @param filename filename of the PGN
+     * @return stream of the games of the file
+     * @throws IOException if the file does not exist
+     */
+    public Stream<Game> streamGames(String filename) throws IOException {
+        if(!Files.isReadable(Path.of(filename))) {
+            throw new FileNotFoundException(filename);
+        }
+        if(GzipIndex.isGzip(filename)) {
+            PgnGameIterator iterator = this.iterateGames(filename);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+                try {
+                    iterator.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        PgnGameSpliterator spliterator = new PgnGameSpliterator(filename, this.copySettings());
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::closeAll);
+    }
+
     /**
      * provided with an offset, this function seeks to that offset, reads
      * all tags of the game and returns them as a HashMap of tag and value.
@@ -288,13 +599,13 @@ public class PgnReader {
             raf = new OptimizedRandomAccessFile(filename, "r");
             header = readSingleHeader(raf, offset);
         } catch (IOException e) {
-            e.printStackTrace();
+            reportError(e);
         } finally {
             if (raf != null) {
                 try {
                     raf.close();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    reportError(e);
                 }
             }
         }
@@ -314,6 +625,35 @@ public class PgnReader {
      */
     public HashMap<String, String> readSingleHeader(OptimizedRandomAccessFile raf, long offset) {
 
+        try {
+            raf.seek(offset);
+        } catch (IOException e) {
+            reportError(e);
+            return new HashMap<>();
+        }
+        return readSingleHeader(raf::readLine);
+    }
+
+    /**
+     * provided with an offset within the uncompressed data, this function seeks
+     * to that offset, reads all tags of the game and returns them as a HashMap of tag and value.
+     * @param gz a handle of a gzip compressed PGN
+     * @param offset (valid) offset within the uncompressed data
+     * @return hashmap of tag and value
+     */
+    public HashMap<String, String> readSingleHeader(GzipRandomAccessFile gz, long offset) {
+
+        try {
+            gz.seek(offset);
+        } catch (IOException e) {
+            reportError(e);
+            return new HashMap<>();
+        }
+        return readSingleHeader(gz);
+    }
+
+    private HashMap<String, String> readSingleHeader(PgnLineSource source) {
+
         HashMap<String, String> header = new HashMap<>();
 
         String currentLine = "";
@@ -322,8 +662,7 @@ public class PgnReader {
         boolean foundHeader = false;
 
         try {
-            raf.seek(offset);
-            while ((currentLine = raf.readLine()) != null) {
+            while ((currentLine = source.readLine()) != null) {
                 // skip comments
                 if (currentLine.startsWith("%")) {
                     continue;
@@ -339,7 +678,7 @@ public class PgnReader {
                         int secondQuote = currentLine.indexOf('"', firstQuote + 1);
                         String tag = currentLine.substring(1, spaceOffset);
                         String value = currentLine.substring(firstQuote + 1, secondQuote);
-                        header.put(tag, new String(value.getBytes(StandardCharsets.ISO_8859_1), encoding));
+                        header.put(tag, textDecoder().decodeLatin1(value));
                     }
                 } else {
                     if (foundHeader) {
@@ -348,7 +687,7 @@ public class PgnReader {
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            reportError(e);
         }
         return header;
     }
@@ -373,6 +712,10 @@ public class PgnReader {
 
     private void addMove(Move m) {
 
+        if(this.packed) {
+            this.addPackedMove(m);
+            return;
+        }
         GameNode next = new GameNode();
 
         Board currentBoard = this.currentNode.getBoard();
@@ -385,7 +728,27 @@ public class PgnReader {
             this.currentNode.addVariation(next);
             this.currentNode = next;
         } catch(IllegalArgumentException e) {
-            e.printStackTrace();
+            this.reportIllegalMove(e);
+        }
+    }
+
+    private void addPackedMove(Move m) {
+
+        // in packed mode, the board of the current
+        // (root) node is modified in place
+        try {
+            this.currentNode.getBoard().apply(m);
+        } catch(IllegalArgumentException e) {
+            this.reportIllegalMove(e);
+            return;
+        }
+        if(this.packedCount == this.packedMoves.length) {
+            this.packedMoves = Arrays.copyOf(this.packedMoves, 2 * this.packedCount);
+        }
+        this.packedMoves[this.packedCount] = m.pack();
+        this.packedCount += 1;
+        if(this.plyCallback != null) {
+            this.plyCallback.onPly(this.packedCount, this.currentNode.getBoard());
         }
     }
 
@@ -433,6 +796,7 @@ public class PgnReader {
                                 return;
                             }
                         } else {
+                            reportIllegalMove();
                             currentIdx += 4;
                             return;
                         }
@@ -481,6 +845,7 @@ public class PgnReader {
                             return;
                         }
                     } else {
+                        reportIllegalMove();
                         currentIdx+=2;
                         return;
                     }
@@ -507,6 +872,10 @@ public class PgnReader {
             if (legals.size() == 1) {
                 Move m = legals.get(0);
                 this.addMove(m);
+            } else if(legals.isEmpty()) {
+                reportIllegalMove();
+            } else {
+                reportAmbiguousMove();
             }
         }
     }
@@ -528,10 +897,15 @@ public class PgnReader {
             Move m = filter.get(0);
             this.addMove(m);
         } else {
-            ArrayList<Move> legals = board.legalsFromPseudos(pseudos);
+            // a disambiguation that matches no piece is ignored
+            ArrayList<Move> legals = board.legalsFromPseudos(filter.isEmpty() ? pseudos : filter);
             if(legals.size() == 1) {
                 Move m = legals.get(0);
                 this.addMove(m);
+            } else if(legals.isEmpty()) {
+                reportIllegalMove();
+            } else {
+                reportAmbiguousMove();
             }
         }
     }
@@ -552,10 +926,15 @@ public class PgnReader {
             Move m = filter.get(0);
             this.addMove(m);
         } else {
-            ArrayList<Move> legals = board.legalsFromPseudos(pseudos);
+            // a disambiguation that matches no piece is ignored
+            ArrayList<Move> legals = board.legalsFromPseudos(filter.isEmpty() ? pseudos : filter);
             if(legals.size() == 1) {
                 Move m = legals.get(0);
                 this.addMove(m);
+            } else if(legals.isEmpty()) {
+                reportIllegalMove();
+            } else {
+                reportAmbiguousMove();
             }
         }
     }
@@ -581,7 +960,7 @@ public class PgnReader {
                         try {
                             createPieceMove(pieceType, to_col, to_row);
                         } catch (IllegalArgumentException e) {
-                            e.printStackTrace();
+                            reportIllegalMove(e);
                         }
                     } else {
                         // fix: skip x if we have Qexe5
@@ -603,7 +982,7 @@ public class PgnReader {
                                 try {
                                     createPieceMove(pieceType, to_col, to_row, currentLine.charAt(currentIdx - (3 + skipForTake)));
                                 } catch (IllegalArgumentException e) {
-                                    e.printStackTrace();
+                                    reportIllegalMove(e);
                                 }
                             } else {
                                 currentIdx+=4;
@@ -635,7 +1014,7 @@ public class PgnReader {
                         try {
                             createPieceMove(pieceType, to_col, to_row, from_row);
                         } catch (IllegalArgumentException e) {
-                            e.printStackTrace();
+                            reportIllegalMove(e);
                         }
                     } else {
                         currentIdx+=3;
@@ -750,31 +1129,139 @@ public class PgnReader {
         }
     }
 
-    private int getNetxtToken() {
+    private void skipNAG() {
 
-        int lineSize = currentLine.length();
-        while(currentIdx < lineSize) {
-            char ci = currentLine.charAt(currentIdx);
-            if(ci == ' ' || ci == '.') {
+        while(currentIdx < currentLine.length()) {
+            char c = currentLine.charAt(currentIdx);
+            if(c == '$' || c == '!' || c == '?' || (c >= '0' && c <= '9')) {
                 currentIdx += 1;
-                continue;
+            } else {
+                break;
             }
-            if(ci >= '0' && ci <= '9') {
-                if(ci == '1') {
-                    if(currentIdx+1 < lineSize) {
-                        if(currentLine.charAt(currentIdx+1) == '-') {
-                            if(currentIdx+2 < lineSize && currentLine.charAt(currentIdx+2) == '0') {
-                                return CONSTANTS.TKN_RES_WHITE_WIN;
-                            }
-                        }
-                        if(currentIdx+2 < lineSize && currentLine.charAt(currentIdx+2) == '/') {
-                            if(currentIdx+6 < lineSize && currentLine.substring(currentIdx,currentIdx+7).equals("1/2-1/2")) {
-                                return CONSTANTS.TKN_RES_DRAW;
-                            }
-                        }
-                    }
+        }
+    }
+
+    // skips the moves of a game that start with the current line without
+    // tokenizing them, up to the first empty line that is not within a comment
+    private void skipMoveText(PgnLineSource source) throws IOException {
+
+        boolean inComment = false;
+        while (true) {
+            for (int i = 0; i < currentLine.length(); i++) {
+                char c = currentLine.charAt(i);
+                if (c == '{') {
+                    inComment = true;
+                } else if (c == '}') {
+                    inComment = false;
                 }
-                // irregular castling like 0-0 or 0-0-0
+            }
+            if (source instanceof PgnLineReader) {
+                ((PgnLineReader) source).skipMoveText(inComment, false);
+                return;
+            }
+            int linesRead = 0;
+            do {
+                currentLine = source.readLine();
+                if (currentLine == null) {
+                    return;
+                }
+                linesRead++;
+            } while (currentLine.startsWith("%") && !inComment
+                    || inComment && linesRead <= 500 && currentLine.indexOf('}') < 0);
+            if (currentLine.isEmpty()) {
+                return;
+            }
+            if (inComment) {
+                currentLine = currentLine.substring(currentLine.indexOf('}') + 1);
+                inComment = false;
+            }
+        }
+    }
+
+    // skips a comment that starts at currentIdx, possibly over
+    // multiple lines, without collecting its content
+    private void skipComment(PgnLineSource source) throws IOException {
+
+        int end = currentLine.indexOf('}', currentIdx + 1);
+        long offset = this.commentOffset(end);
+        int linesRead = 0;
+        while(end < 0 && linesRead < 500) {
+            currentLine = readLine(source);
+            if(currentLine == null) {
+                currentLine = "";
+                currentIdx = 0;
+                reportTruncatedComment(offset);
+                return;
+            }
+            linesRead += 1;
+            end = currentLine.indexOf('}');
+        }
+        if(end < 0) {
+            reportTruncatedComment(offset);
+        }
+        currentIdx = end + 1;
+    }
+
+    // skips a variation that starts at currentIdx, including all nested
+    // variations and comments. Returns false, if the game ended before
+    // the variation was closed
+    private boolean skipVariation(PgnLineSource source) throws IOException {
+
+        int depth = 1;
+        currentIdx += 1;
+        while(true) {
+            while(currentIdx < currentLine.length()) {
+                char c = currentLine.charAt(currentIdx);
+                if(c == '{') {
+                    skipComment(source);
+                    continue;
+                }
+                currentIdx += 1;
+                if(c == '(') {
+                    depth += 1;
+                } else if(c == ')') {
+                    depth -= 1;
+                    if(depth == 0) {
+                        return true;
+                    }
+                }
+            }
+            currentLine = readLine(source);
+            currentIdx = 0;
+            if(currentLine == null || currentLine.isEmpty()) {
+                return false;
+            }
+            if(currentLine.startsWith("%")) {
+                currentIdx = currentLine.length();
+            }
+        }
+    }
+
+    private int getNetxtToken() {
+
+        int lineSize = currentLine.length();
+        while(currentIdx < lineSize) {
+            char ci = currentLine.charAt(currentIdx);
+            if(ci == ' ' || ci == '.') {
+                currentIdx += 1;
+                continue;
+            }
+            if(ci >= '0' && ci <= '9') {
+                if(ci == '1') {
+                    if(currentIdx+1 < lineSize) {
+                        if(currentLine.charAt(currentIdx+1) == '-') {
+                            if(currentIdx+2 < lineSize && currentLine.charAt(currentIdx+2) == '0') {
+                                return CONSTANTS.TKN_RES_WHITE_WIN;
+                            }
+                        }
+                        if(currentIdx+2 < lineSize && currentLine.charAt(currentIdx+2) == '/') {
+                            if(currentIdx+6 < lineSize && currentLine.substring(currentIdx,currentIdx+7).equals("1/2-1/2")) {
+                                return CONSTANTS.TKN_RES_DRAW;
+                            }
+                        }
+                    }
+                }
+                // irregular castling like 0-0 or 0-0-0
                 if(ci == '0') {
                     if(currentIdx+1 < lineSize && currentLine.charAt(currentIdx+1) == '-') {
                         if(currentIdx+2 < lineSize && currentLine.charAt(currentIdx+2) == '1') {
@@ -852,12 +1339,354 @@ public class PgnReader {
      */
     public Game readGame(OptimizedRandomAccessFile raf) {
 
+        return this.readFilteredGame(this.lineSource(raf));
+    }
+
+    /**
+     * reads the next game from the current position of a gzip compressed PGN
+     * (cf. {@code readGame(OptimizedRandomAccessFile)}). To read a specific game,
+     * first seek to its offset within the uncompressed data.
+     * @param gz the handle of the file
+     * @return parsed game
+     */
+    public Game readGame(GzipRandomAccessFile gz) {
+
+        return this.readFilteredGame(gz);
+    }
+
+    /**
+     * reads the next game from the current position of the file, but only
+     * decodes the main line into packed moves (cf. {@code PackedGame}).
+     * All moves are applied to a single board, and no game tree is built,
+     * which is much faster than {@code readGame}. Variations, comments
+     * and NAGs are skipped. If set, the ply callback is called for each
+     * position (cf. {@code setPlyCallback}).
+     * @param raf the handle of the file
+     * @return the game, or null if there are no more games in the file
+     */
+    public PackedGame readPackedGame(OptimizedRandomAccessFile raf) {
+
+        try {
+            return this.parsePackedGame(this.lineSource(raf));
+        } catch (IOException e) {
+            reportError(e);
+            return null;
+        }
+    }
+
+    /**
+     * reads the next game from the current position of a gzip compressed
+     * PGN as packed game (cf. {@code readPackedGame(OptimizedRandomAccessFile)})
+     * @param gz the handle of the file
+     * @return the game, or null if there are no more games in the file
+     */
+    public PackedGame readPackedGame(GzipRandomAccessFile gz) {
+
+        try {
+            return this.parsePackedGame(gz);
+        } catch (IOException e) {
+            reportError(e);
+            return null;
+        }
+    }
+
+    // reads the next game that matches the header filter
+    private Game readFilteredGame(PgnLineSource source) {
+
+        Game g = new Game();
+        try {
+            while(this.parseGame(source, g) && this.filtered) {
+                g = new Game();
+            }
+        } catch (IOException e) {
+            reportError(e);
+        }
+        return g;
+    }
+
+    // the lines of the file. Offsets are only tracked if a listener is set
+    private PgnLineSource lineSource(OptimizedRandomAccessFile raf) {
+        if(this.listener == null) {
+            return raf::readLine;
+        }
+        return new PgnLineSource() {
+            @Override
+            public String readLine() throws IOException {
+                return raf.readLine();
+            }
+
+            @Override
+            public long getPosition() throws IOException {
+                return raf.getFilePointer();
+            }
+        };
+    }
+
+    PackedGame parsePackedGame(PgnLineSource source) throws IOException {
+
+        Game g;
+        this.packed = true;
+        try {
+            do {
+                g = new Game();
+                this.packedCount = 0;
+                if (!this.parseGame(source, g)) {
+                    return null;
+                }
+            } while (this.filtered);
+        } finally {
+            this.packed = false;
+        }
+        return new PackedGame(g.getPgnHeaders(), Arrays.copyOf(this.packedMoves, this.packedCount),
+                g.getRootNode().getBoard(), g.getResult());
+    }
+
+    /**
+     * reads the next game from the supplied line reader into the
+     * supplied game, either line based or with the byte lexer
+     * (cf. {@code parseGame} and {@code setByteLexer}). Games that
+     * do not match the header filter are skipped.
+     */
+    boolean nextGame(PgnLineReader lines, Game g) throws IOException {
+
+        int read;
+        while((read = this.readNextGame(lines, g)) == GAME_FILTERED) {
+            g.resetHeaders();
+        }
+        return read == GAME_READ;
+    }
+
+    static final int GAME_NONE = 0;
+    static final int GAME_READ = 1;
+    // the headers of the game did not match the header filter
+    static final int GAME_FILTERED = 2;
+
+    /**
+     * reads the next game from the supplied line reader into the
+     * supplied game, or skips it if it does not match the header filter
+     * @return one of GAME_NONE (end of input), GAME_READ, GAME_FILTERED
+     */
+    int readNextGame(PgnLineReader lines, Game g) throws IOException {
+
+        boolean found;
+        if(!this.byteLexer) {
+            found = this.parseGame(lines, g);
+        } else {
+            if(this.lexer == null || this.lexer.getLines() != lines) {
+                this.lexer = new PgnLexer(lines);
+            }
+            found = this.parseGame(this.lexer, g);
+        }
+        if(!found) {
+            return GAME_NONE;
+        }
+        return this.filtered ? GAME_FILTERED : GAME_READ;
+    }
+
+    /**
+     * reads the next game from the supplied lexer into the supplied game,
+     * the same way as {@code parseGame(PgnLineSource, Game)}. A header
+     * directly after the moves ends the game, and is pushed back
+     * for the next game.
+     * @param lexer the lexer
+     * @param g the game, should be newly created
+     * @return false if the end of the input was reached
+     *         before any header or move of a game was found
+     * @throws IOException if reading fails
+     */
+    boolean parseGame(PgnLexer lexer, Game g) throws IOException {
+
+        if(this.listener == null) {
+            return this.parseTokens(lexer, g);
+        }
+        long start = System.nanoTime();
+        this.gameOffset = -1;
+        this.headersRead = 0;
+        boolean found = this.parseTokens(lexer, g);
+        long to = lexer.isPushedBack() ? lexer.getLineOffset() : lexer.getLines().getPosition();
+        this.reportGame(found, to, start);
+        return found;
+    }
+
+    private void reportGame(boolean found, long to, long start) {
+        long end = System.nanoTime();
+        if(!found) {
+            return;
+        }
+        if(this.headersRead == 0) {
+            this.headersRead = end;
+        }
+        this.listener.phaseTime(PgnReadListener.PHASE_HEADERS, this.headersRead - start);
+        this.listener.phaseTime(PgnReadListener.PHASE_MOVES, end - this.headersRead);
+        long bytes = (this.gameOffset < 0 || to < 0) ? -1 : to - this.gameOffset;
+        this.listener.gameRead(this.gameOffset, bytes);
+    }
+
+    private boolean parseTokens(PgnLexer lexer, Game g) throws IOException {
+
+        String startingFen = "";
+        boolean foundHeader = false;
+        filtered = false;
+
+        gameStack.clear();
+        gameStack.push(g.getRootNode());
+        currentNode = g.getRootNode();
+        currentNode.setBoard(new Board(true));
+
+        int tkn;
+        while (true) {
+            tkn = lexer.next();
+            if (tkn == PgnLexer.TOKEN_EMPTY_LINE) {
+                continue;
+            }
+            if (listener != null && gameOffset < 0) {
+                gameOffset = lexer.getLineOffset();
+            }
+            if (tkn != PgnLexer.TOKEN_HEADER) {
+                break;
+            }
+            foundHeader = true;
+            if (lexer.tagEquals("FEN")) {
+                startingFen = lexer.decode(textDecoder());
+            } else {
+                String tag = new String(lexer.getBuffer(), lexer.getTagStart(), lexer.getTagLength(),
+                        StandardCharsets.ISO_8859_1);
+                if (keptHeaders == null || keptHeaders.contains(tag)) {
+                    g.setHeader(tag, lexer.decode(textDecoder()));
+                }
+            }
+        }
+        if (tkn == PgnLexer.TOKEN_EOF) {
+            return foundHeader;
+        }
+        if (listener != null) {
+            headersRead = System.nanoTime();
+        }
+        if (headerFilter != null && !headerFilter.test(g.getPgnHeaders())) {
+            filtered = true;
+            lexer.skipGame();
+            return true;
+        }
+
+        if (!startingFen.isEmpty()) {
+            try {
+                Board boardFen = new Board(startingFen);
+                if (!boardFen.isConsistent()) {
+                    reportInvalidFen(startingFen, null);
+                    // skip the moves, such that
+                    // a following game can be read
+                    while (tkn != PgnLexer.TOKEN_EOF && tkn != PgnLexer.TOKEN_EMPTY_LINE) {
+                        tkn = lexer.next();
+                    }
+                    return true;
+                } else {
+                    currentNode.setBoard(boardFen);
+                }
+            } catch (IllegalArgumentException e) {
+                reportInvalidFen(startingFen, e);
+            }
+        }
+
+        if (packed && plyCallback != null) {
+            plyCallback.onPly(0, currentNode.getBoard());
+        }
+
+        boolean skipLines = skipVariations || packed;
+        boolean skipText = skipComments || packed;
+        boolean skipAnnotations = skipNags || packed;
+        int skippedDepth = 0;
+        for (; ; tkn = lexer.next()) {
+            if (tkn == PgnLexer.TOKEN_EOF || tkn == PgnLexer.TOKEN_EMPTY_LINE) {
+                return true;
+            }
+            if (tkn == PgnLexer.TOKEN_HEADER) {
+                lexer.pushBack();
+                return true;
+            }
+            if (skippedDepth > 0) {
+                if (tkn == PgnLexer.TOKEN_OPEN_VARIATION) {
+                    skippedDepth += 1;
+                } else if (tkn == PgnLexer.TOKEN_CLOSE_VARIATION) {
+                    skippedDepth -= 1;
+                }
+                continue;
+            }
+            if (tkn == PgnLexer.TOKEN_SAN) {
+                try {
+                    Move m = SanResolver.resolve(currentNode.getBoard(), lexer.getBuffer(),
+                            lexer.getStart(), lexer.getLength());
+                    if (m == SanResolver.AMBIGUOUS) {
+                        reportLexerMove(lexer, true);
+                    } else if (m == null) {
+                        reportLexerMove(lexer, false);
+                    } else {
+                        addMove(m);
+                    }
+                } catch (IllegalArgumentException e) {
+                    reportIllegalMove(lexer, e);
+                }
+            } else if (tkn == PgnLexer.TOKEN_RESULT) {
+                g.setResult(lexer.getResult());
+            } else if (tkn == PgnLexer.TOKEN_NAG) {
+                int nag = lexer.getNag();
+                if (!skipAnnotations && nag >= 0) {
+                    currentNode.addNag(nag);
+                }
+            } else if (tkn == PgnLexer.TOKEN_COMMENT) {
+                if (listener != null && lexer.isTruncated()) {
+                    listener.truncatedComment(lexer.getOffset());
+                }
+                if (!skipText) {
+                    currentNode.setComment(lexer.decode(textDecoder()));
+                }
+            } else if (tkn == PgnLexer.TOKEN_OPEN_VARIATION) {
+                if (skipLines) {
+                    skippedDepth = 1;
+                } else if (currentNode != g.getRootNode()) {
+                    // same as in parseGame(PgnLineSource, Game)
+                    gameStack.push(currentNode);
+                    currentNode = currentNode.getParent();
+                }
+            } else if (tkn == PgnLexer.TOKEN_CLOSE_VARIATION) {
+                if (gameStack.size() > 1) {
+                    currentNode = gameStack.pop();
+                }
+            }
+        }
+    }
+
+    /**
+     * reads the next game from the supplied source into the supplied
+     * game. Empty lines and escaped (%) lines before the game are skipped.
+     * The game ends at the first empty line after the moves.
+     * @param source the lines of the PGN
+     * @param g the game, should be newly created
+     * @return false if the end of the source was reached
+     *         before any header or move of a game was found
+     * @throws IOException if reading fails
+     */
+    boolean parseGame(PgnLineSource source, Game g) throws IOException {
+
+        if(this.listener == null) {
+            return this.parseLines(source, g);
+        }
+        long start = System.nanoTime();
+        this.gameOffset = -1;
+        this.headersRead = 0;
+        this.lineOffset = -1;
+        boolean found = this.parseLines(source, g);
+        this.reportGame(found, source.getPosition(), start);
+        return found;
+    }
+
+    private boolean parseLines(PgnLineSource source, Game g) throws IOException {
+
         currentLine = "";
         currentIdx = 0;
 
         String startingFen = "";
-
-        Game g = new Game();
+        boolean foundHeader = false;
+        filtered = false;
 
         gameStack.clear();
         gameStack.push(g.getRootNode());
@@ -867,219 +1696,229 @@ public class PgnReader {
 
         currentLine = null;
 
-        try {
-            while ((currentLine = raf.readLine()) != null) {
-                if (currentLine.startsWith("%") || currentLine.isEmpty()) {
-                    continue;
-                }
+        while ((currentLine = readLine(source)) != null) {
+            if (currentLine.startsWith("%") || currentLine.isEmpty()) {
+                continue;
+            }
+            if (listener != null && gameOffset < 0) {
+                gameOffset = lineOffset;
+            }
 
-                if (currentLine.startsWith("[")) {
-                    if (currentLine.length() > 4) {
-                        int spaceOffset = currentLine.indexOf(' ');
-                        int firstQuote = currentLine.indexOf('"');
-                        int secondQuote = currentLine.indexOf('"', firstQuote + 1);
-                        if(spaceOffset > 1 && firstQuote >= 0 && secondQuote >= 0 && secondQuote > (firstQuote+1)) {
-                            String tag = currentLine.substring(1, spaceOffset);
+            if (currentLine.startsWith("[")) {
+                foundHeader = true;
+                if (currentLine.length() > 4) {
+                    int spaceOffset = currentLine.indexOf(' ');
+                    int firstQuote = currentLine.indexOf('"');
+                    int secondQuote = currentLine.indexOf('"', firstQuote + 1);
+                    if(spaceOffset > 1 && firstQuote >= 0 && secondQuote >= 0 && secondQuote > (firstQuote+1)) {
+                        String tag = currentLine.substring(1, spaceOffset);
+                        if (tag.equals("FEN")) {
+                            startingFen = currentLine.substring(firstQuote + 1, secondQuote);
+                        } else if (keptHeaders == null || keptHeaders.contains(tag)) {
                             String value = currentLine.substring(firstQuote + 1, secondQuote);
-                            if (tag.equals("FEN")) {
-                                startingFen = value;
-                            } else {
-                                g.setHeader(tag, new String(value.getBytes(StandardCharsets.ISO_8859_1), encoding));
-                            }
+                            g.setHeader(tag, textDecoder().decodeLatin1(value));
                         }
                     }
-                    continue;
-                } else {
-                    break; // finished reading header
                 }
+            } else {
+                break; // finished reading header
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            return g;
         }
+        // reached eof without finding any moves
+        if (currentLine == null) {
+            return foundHeader;
+        }
+        if (listener != null) {
+            headersRead = System.nanoTime();
+        }
+        if (headerFilter != null && !headerFilter.test(g.getPgnHeaders())) {
+            filtered = true;
+            skipMoveText(source);
+            return true;
+        }
+
         // now the actual game should start.
         // try to set the starting fen, if it exists
         if (!startingFen.isEmpty()) {
             try {
                 Board boardFen = new Board(startingFen);
                 if (!boardFen.isConsistent()) {
-                    return g;
+                    reportInvalidFen(startingFen, null);
+                    // skip the moves, such that
+                    // a following game can be read
+                    while (currentLine != null && !currentLine.isEmpty()) {
+                        currentLine = readLine(source);
+                    }
+                    return true;
                 } else {
                     currentNode.setBoard(boardFen);
                 }
             } catch (IllegalArgumentException e) {
-                e.printStackTrace();
+                reportInvalidFen(startingFen, e);
             }
         }
 
-        // we should now have a header, seek first non-empty line
-        // if we already reached it, just skip this part
-        if(currentLine.trim().isEmpty()) {
-            try {
-                while (true) {
-                    currentLine = raf.readLine();
-                    if (currentLine == null) { //reached eof
-                        return g;
-                    }
-                    if (currentLine.trim().isEmpty()) {
-                        continue;
-                    } else {
-                        break;
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                return g;
-            }
+        if (packed && plyCallback != null) {
+            plyCallback.onPly(0, currentNode.getBoard());
         }
 
         boolean firstLine = true;
 
-        try {
-            while (true) {
-                // if we are at the first line after skipping
-                // all the empty ones, don't read another line
-                // otherwise, call readLine
-                if (!firstLine) {
-                    currentLine = raf.readLine();
-                } else {
-                    firstLine = false;
+        while (true) {
+            // if we are at the first line after skipping
+            // all the empty ones, don't read another line
+            // otherwise, call readLine
+            if (!firstLine) {
+                currentLine = readLine(source);
+            } else {
+                firstLine = false;
+            }
+            if (currentLine == null || currentLine.isEmpty()) {
+                return true;
+            }
+            if (currentLine.startsWith("%")) {
+                continue;
+            }
+
+            currentIdx = 0;
+            while (currentIdx < currentLine.length()) {
+                int tkn = getNetxtToken();
+                moveStart = currentIdx;
+                if (tkn == CONSTANTS.TKN_EOL) {
+                    break;
                 }
-                if (currentLine == null || currentLine.isEmpty()) {
-                    return g;
+                if (tkn == CONSTANTS.TKN_RES_WHITE_WIN) {
+                    // 1-0
+                    g.setResult(CONSTANTS.RES_WHITE_WINS);
+                    currentIdx += 4;
                 }
-                if (currentLine.startsWith("%")) {
-                    continue;
+                if (tkn == CONSTANTS.TKN_RES_BLACK_WIN) {
+                    // 0-1
+                    g.setResult(CONSTANTS.RES_BLACK_WINS);
+                    currentIdx += 4;
                 }
-
-                currentIdx = 0;
-                while (currentIdx < currentLine.length()) {
-                    int tkn = getNetxtToken();
-                    if (tkn == CONSTANTS.TKN_EOL) {
-                        break;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_WHITE_WIN) {
-                        // 1-0
-                        g.setResult(CONSTANTS.RES_WHITE_WINS);
-                        currentIdx += 4;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_BLACK_WIN) {
-                        // 0-1
-                        g.setResult(CONSTANTS.RES_BLACK_WINS);
-                        currentIdx += 4;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_UNDEFINED) {
-                        // *
-                        g.setResult(CONSTANTS.RES_UNDEF);
-                        currentIdx += 2;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_DRAW) {
-                        // 1/2-1/2
-                        g.setResult(CONSTANTS.RES_DRAW);
-                        currentIdx += 8;
-                    }
-                    if (tkn == CONSTANTS.TKN_PAWN_MOVE) {
-                        parsePawnMove();
-                    }
-                    if (tkn == CONSTANTS.TKN_CASTLE) {
-                        parseCastleMove();
-                    }
-                    if (tkn == CONSTANTS.TKN_ROOK_MOVE) {
-                        parsePieceMove(CONSTANTS.ROOK);
-                    }
-                    if (tkn == CONSTANTS.TKN_KNIGHT_MOVE) {
-                        parsePieceMove(CONSTANTS.KNIGHT);
-                    }
-                    if (tkn == CONSTANTS.TKN_BISHOP_MOVE) {
-                        parsePieceMove(CONSTANTS.BISHOP);
-                    }
-                    if (tkn == CONSTANTS.TKN_QUEEN_MOVE) {
-                        parsePieceMove(CONSTANTS.QUEEN);
-                    }
-                    if (tkn == CONSTANTS.TKN_KING_MOVE) {
-                        parsePieceMove(CONSTANTS.KING);
-                    }
-                    if (tkn == CONSTANTS.TKN_CHECK) {
-                        currentIdx += 1;
-                    }
-                    if (tkn == CONSTANTS.TKN_NULL_MOVE) {
-                        Move m = new Move();
-                        m.isNullMove = true;
-                        addMove(m);
-                        currentIdx += 2;
+                if (tkn == CONSTANTS.TKN_RES_UNDEFINED) {
+                    // *
+                    g.setResult(CONSTANTS.RES_UNDEF);
+                    currentIdx += 2;
+                }
+                if (tkn == CONSTANTS.TKN_RES_DRAW) {
+                    // 1/2-1/2
+                    g.setResult(CONSTANTS.RES_DRAW);
+                    currentIdx += 8;
+                }
+                if (tkn == CONSTANTS.TKN_PAWN_MOVE) {
+                    parsePawnMove();
+                }
+                if (tkn == CONSTANTS.TKN_CASTLE) {
+                    parseCastleMove();
+                }
+                if (tkn == CONSTANTS.TKN_ROOK_MOVE) {
+                    parsePieceMove(CONSTANTS.ROOK);
+                }
+                if (tkn == CONSTANTS.TKN_KNIGHT_MOVE) {
+                    parsePieceMove(CONSTANTS.KNIGHT);
+                }
+                if (tkn == CONSTANTS.TKN_BISHOP_MOVE) {
+                    parsePieceMove(CONSTANTS.BISHOP);
+                }
+                if (tkn == CONSTANTS.TKN_QUEEN_MOVE) {
+                    parsePieceMove(CONSTANTS.QUEEN);
+                }
+                if (tkn == CONSTANTS.TKN_KING_MOVE) {
+                    parsePieceMove(CONSTANTS.KING);
+                }
+                if (tkn == CONSTANTS.TKN_CHECK) {
+                    currentIdx += 1;
+                }
+                if (tkn == CONSTANTS.TKN_NULL_MOVE) {
+                    Move m = new Move();
+                    m.isNullMove = true;
+                    addMove(m);
+                    currentIdx += 2;
+                }
+                if (tkn == CONSTANTS.TKN_OPEN_VARIATION && (skipVariations || packed)) {
+                    if (!skipVariation(source)) {
+                        return true;
                     }
-                    if (tkn == CONSTANTS.TKN_OPEN_VARIATION) {
-                        // put current node on stack, so that we don't forget it.
-                        // however if we are at the root node, something
-                        // is wrong in the PGN. Silently ignore "(" then
-                        if(currentNode != g.getRootNode()) {
-                            gameStack.push(currentNode);
-                            currentNode = currentNode.getParent();
-                        }
-                        currentIdx += 1;
+                    continue;
+                }
+                if (tkn == CONSTANTS.TKN_OPEN_VARIATION) {
+                    // put current node on stack, so that we don't forget it.
+                    // however if we are at the root node, something
+                    // is wrong in the PGN. Silently ignore "(" then
+                    if(currentNode != g.getRootNode()) {
+                        gameStack.push(currentNode);
+                        currentNode = currentNode.getParent();
                     }
-                    if (tkn == CONSTANTS.TKN_CLOSE_VARIATION) {
-                        // pop from stack. but always leave root
-                        if (gameStack.size() > 1) {
-                            currentNode = gameStack.pop();
-                        }
-                        currentIdx += 1;
+                    currentIdx += 1;
+                }
+                if (tkn == CONSTANTS.TKN_CLOSE_VARIATION) {
+                    // pop from stack. but always leave root
+                    if (gameStack.size() > 1) {
+                        currentNode = gameStack.pop();
                     }
-                    if (tkn == CONSTANTS.TKN_NAG) {
+                    currentIdx += 1;
+                }
+                if (tkn == CONSTANTS.TKN_NAG) {
+                    if (skipNags || packed) {
+                        skipNAG();
+                    } else {
                         parseNAG();
                     }
-                    if (tkn == CONSTANTS.TKN_OPEN_COMMENT) {
-                        //String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
-                        String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length());
-                        int end = rest_of_line.indexOf("}");
-                        if (end >= 0) {
-                            String comment_line = rest_of_line.substring(0, end);
-                            currentNode.setComment(new String(comment_line.getBytes(StandardCharsets.ISO_8859_1), encoding));
-                            currentIdx = currentIdx + end + 1;
-                        } else {
-                            // get comment over multiple lines
-                            StringBuilder comment_lines = new StringBuilder();
-                            //String comment_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
-                            String comment_line = currentLine.substring(currentIdx + 1);
-                            comment_lines.append(comment_line).append("\n");
-                            // we already have the comment part of the current line,
-                            // so read-in the next line, and then loop until we find
-                            // the end marker "}"
-                            //currentLine = raf.readLine();
-                            int linesRead = 0;
-                            int end_index = -1;
-                            while (linesRead < 500) { // what if we never find } ??? -> stop after 500 lines
-                                currentLine = raf.readLine();
-                                if(currentLine == null) {
-                                    currentLine = "";
-                                    end_index = -1;
-                                    break;
-                                }
-                                linesRead += 1;
-                                if (currentLine.contains("}")) {
-                                    end_index = currentLine.indexOf("}");
-                                    break;
-                                } else {
-                                    comment_lines.append(currentLine).append("\n");
-                                }
+                }
+                if (tkn == CONSTANTS.TKN_OPEN_COMMENT && (skipComments || packed)) {
+                    skipComment(source);
+                    continue;
+                }
+                if (tkn == CONSTANTS.TKN_OPEN_COMMENT) {
+                    //String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
+                    String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length());
+                    int end = rest_of_line.indexOf("}");
+                    if (end >= 0) {
+                        String comment_line = rest_of_line.substring(0, end);
+                        currentNode.setComment(textDecoder().decodeLatin1(comment_line));
+                        currentIdx = currentIdx + end + 1;
+                    } else {
+                        // get comment over multiple lines
+                        StringBuilder comment_lines = new StringBuilder();
+                        //String comment_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
+                        String comment_line = currentLine.substring(currentIdx + 1);
+                        comment_lines.append(comment_line).append("\n");
+                        // we already have the comment part of the current line,
+                        // so read-in the next line, and then loop until we find
+                        // the end marker "}"
+                        //currentLine = readLine(source);
+                        long offset = commentOffset(-1);
+                        int linesRead = 0;
+                        int end_index = -1;
+                        while (linesRead < 500) { // what if we never find } ??? -> stop after 500 lines
+                            currentLine = readLine(source);
+                            if(currentLine == null) {
+                                currentLine = "";
+                                end_index = -1;
+                                break;
                             }
-                            if (end_index >= 0) {
-                                comment_lines.append(currentLine, 0, end_index);
-                                comment_lines.append("\n");
-                                currentIdx = end_index + 1;
+                            linesRead += 1;
+                            if (currentLine.contains("}")) {
+                                end_index = currentLine.indexOf("}");
+                                break;
+                            } else {
+                                comment_lines.append(currentLine).append("\n");
                             }
-                            currentNode.setComment(new String(comment_lines.toString().getBytes(StandardCharsets.ISO_8859_1), encoding));
                         }
+                        if (end_index >= 0) {
+                            comment_lines.append(currentLine, 0, end_index);
+                            comment_lines.append("\n");
+                            currentIdx = end_index + 1;
+                        } else {
+                            reportTruncatedComment(offset);
+                        }
+                        currentNode.setComment(textDecoder().decodeLatin1(comment_lines.toString()));
                     }
                 }
-
-
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-
-        return g;
     }
 
     /**
@@ -1093,6 +1932,8 @@ public class PgnReader {
 
         currentLine = "";
         currentIdx = 0;
+        lineOffset = -1;
+        gameOffset = -1;
 
         String startingFen = "";
 
@@ -1108,40 +1949,35 @@ public class PgnReader {
 
         int lineIndex = 0;
 
-            while (lineIndex < lines.length) {
-                currentLine = lines[lineIndex];
+        while (lineIndex < lines.length) {
+            currentLine = lines[lineIndex];
 
-                if (currentLine.startsWith("%") || currentLine.isEmpty()) {
-                    lineIndex += 1;
-                    continue;
-                }
+            if (currentLine.startsWith("%") || currentLine.isEmpty()) {
+                lineIndex += 1;
+                continue;
+            }
 
-                if (currentLine.startsWith("[")) {
-                    if (currentLine.length() > 4) {
-                        int spaceOffset = currentLine.indexOf(' ');
-                        int firstQuote = currentLine.indexOf('"');
-                        int secondQuote = currentLine.indexOf('"', firstQuote + 1);
-                        if(spaceOffset > 1 && firstQuote >= 0 && secondQuote >= 0 && secondQuote > (firstQuote+1)) {
-                            String tag = currentLine.substring(1, spaceOffset);
-                            String value = currentLine.substring(firstQuote + 1, secondQuote);
-                            if (tag.equals("FEN")) {
-                                startingFen = value;
-                            } else {
-                                try {
-                                    g.setHeader(tag, new String(value.getBytes(StandardCharsets.ISO_8859_1), encoding));
-                                } catch(UnsupportedEncodingException e) {
-                                    e.printStackTrace();
-                                }
-                            }
+            if (currentLine.startsWith("[")) {
+                if (currentLine.length() > 4) {
+                    int spaceOffset = currentLine.indexOf(' ');
+                    int firstQuote = currentLine.indexOf('"');
+                    int secondQuote = currentLine.indexOf('"', firstQuote + 1);
+                    if(spaceOffset > 1 && firstQuote >= 0 && secondQuote >= 0 && secondQuote > (firstQuote+1)) {
+                        String tag = currentLine.substring(1, spaceOffset);
+                        String value = currentLine.substring(firstQuote + 1, secondQuote);
+                        if (tag.equals("FEN")) {
+                            startingFen = value;
+                        } else {
+                            g.setHeader(tag, textDecoder().decodeLatin1(value));
                         }
                     }
-                    lineIndex += 1;
-                    continue;
-                } else {
-                    break; // finished reading header
                 }
+                lineIndex += 1;
+                continue;
+            } else {
+                break; // finished reading header
             }
-
+        }
 
         // now the actual game should start.
         // try to set the starting fen, if it exists
@@ -1149,12 +1985,13 @@ public class PgnReader {
             try {
                 Board boardFen = new Board(startingFen);
                 if (!boardFen.isConsistent()) {
+                    reportInvalidFen(startingFen, null);
                     return g;
                 } else {
                     currentNode.setBoard(boardFen);
                 }
             } catch (IllegalArgumentException e) {
-                e.printStackTrace();
+                reportInvalidFen(startingFen, e);
             }
         }
 
@@ -1178,157 +2015,153 @@ public class PgnReader {
 
         boolean firstLine = true;
 
-        try {
-            while (true) {
-                // if we are at the first line after skipping
-                // all the empty ones, don't read another line
-                // otherwise, call readLine
-                if (!firstLine) {
-                    lineIndex += 1;
-                } else {
-                    firstLine = false;
+        while (true) {
+            // if we are at the first line after skipping
+            // all the empty ones, don't read another line
+            // otherwise, call readLine
+            if (!firstLine) {
+                lineIndex += 1;
+            } else {
+                firstLine = false;
+            }
+            if (lineIndex >= lines.length) {
+                return g;
+            }
+            currentLine = lines[lineIndex];
+            if(currentLine.isEmpty()) {
+                return g;
+            }
+            if (currentLine.startsWith("%")) {
+                lineIndex += 1;
+                continue;
+            }
+
+            currentIdx = 0;
+            while (currentIdx < currentLine.length()) {
+                int tkn = getNetxtToken();
+                moveStart = currentIdx;
+                if (tkn == CONSTANTS.TKN_EOL) {
+                    break;
                 }
-                if (lineIndex >= lines.length) {
-                    return g;
+                if (tkn == CONSTANTS.TKN_RES_WHITE_WIN) {
+                    // 1-0
+                    g.setResult(CONSTANTS.RES_WHITE_WINS);
+                    currentIdx += 4;
                 }
-                currentLine = lines[lineIndex];
-                if(currentLine.isEmpty()) {
-                    return g;
+                if (tkn == CONSTANTS.TKN_RES_BLACK_WIN) {
+                    // 0-1
+                    g.setResult(CONSTANTS.RES_BLACK_WINS);
+                    currentIdx += 4;
                 }
-                if (currentLine.startsWith("%")) {
-                    lineIndex += 1;
-                    continue;
+                if (tkn == CONSTANTS.TKN_RES_UNDEFINED) {
+                    // *
+                    g.setResult(CONSTANTS.RES_UNDEF);
+                    currentIdx += 2;
                 }
-
-                currentIdx = 0;
-                while (currentIdx < currentLine.length()) {
-                    int tkn = getNetxtToken();
-                    if (tkn == CONSTANTS.TKN_EOL) {
-                        break;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_WHITE_WIN) {
-                        // 1-0
-                        g.setResult(CONSTANTS.RES_WHITE_WINS);
-                        currentIdx += 4;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_BLACK_WIN) {
-                        // 0-1
-                        g.setResult(CONSTANTS.RES_BLACK_WINS);
-                        currentIdx += 4;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_UNDEFINED) {
-                        // *
-                        g.setResult(CONSTANTS.RES_UNDEF);
-                        currentIdx += 2;
-                    }
-                    if (tkn == CONSTANTS.TKN_RES_DRAW) {
-                        // 1/2-1/2
-                        g.setResult(CONSTANTS.RES_DRAW);
-                        currentIdx += 8;
-                    }
-                    if (tkn == CONSTANTS.TKN_PAWN_MOVE) {
-                        parsePawnMove();
-                    }
-                    if (tkn == CONSTANTS.TKN_CASTLE) {
-                        parseCastleMove();
-                    }
-                    if (tkn == CONSTANTS.TKN_ROOK_MOVE) {
-                        parsePieceMove(CONSTANTS.ROOK);
-                    }
-                    if (tkn == CONSTANTS.TKN_KNIGHT_MOVE) {
-                        parsePieceMove(CONSTANTS.KNIGHT);
-                    }
-                    if (tkn == CONSTANTS.TKN_BISHOP_MOVE) {
-                        parsePieceMove(CONSTANTS.BISHOP);
-                    }
-                    if (tkn == CONSTANTS.TKN_QUEEN_MOVE) {
-                        parsePieceMove(CONSTANTS.QUEEN);
-                    }
-                    if (tkn == CONSTANTS.TKN_KING_MOVE) {
-                        parsePieceMove(CONSTANTS.KING);
-                    }
-                    if (tkn == CONSTANTS.TKN_CHECK) {
-                        currentIdx += 1;
-                    }
-                    if (tkn == CONSTANTS.TKN_NULL_MOVE) {
-                        Move m = new Move();
-                        m.isNullMove = true;
-                        addMove(m);
-                        currentIdx += 2;
-                    }
-                    if (tkn == CONSTANTS.TKN_OPEN_VARIATION) {
-                        // put current node on stack, so that we don't forget it.
-                        // however if we are at the root node, something
-                        // is wrong in the PGN. Silently ignore "(" then
-                        if(currentNode != g.getRootNode()) {
-                            gameStack.push(currentNode);
-                            currentNode = currentNode.getParent();
-                        }
-                        currentIdx += 1;
-                    }
-                    if (tkn == CONSTANTS.TKN_CLOSE_VARIATION) {
-                        // pop from stack. but always leave root
-                        if (gameStack.size() > 1) {
-                            currentNode = gameStack.pop();
-                        }
-                        currentIdx += 1;
+                if (tkn == CONSTANTS.TKN_RES_DRAW) {
+                    // 1/2-1/2
+                    g.setResult(CONSTANTS.RES_DRAW);
+                    currentIdx += 8;
+                }
+                if (tkn == CONSTANTS.TKN_PAWN_MOVE) {
+                    parsePawnMove();
+                }
+                if (tkn == CONSTANTS.TKN_CASTLE) {
+                    parseCastleMove();
+                }
+                if (tkn == CONSTANTS.TKN_ROOK_MOVE) {
+                    parsePieceMove(CONSTANTS.ROOK);
+                }
+                if (tkn == CONSTANTS.TKN_KNIGHT_MOVE) {
+                    parsePieceMove(CONSTANTS.KNIGHT);
+                }
+                if (tkn == CONSTANTS.TKN_BISHOP_MOVE) {
+                    parsePieceMove(CONSTANTS.BISHOP);
+                }
+                if (tkn == CONSTANTS.TKN_QUEEN_MOVE) {
+                    parsePieceMove(CONSTANTS.QUEEN);
+                }
+                if (tkn == CONSTANTS.TKN_KING_MOVE) {
+                    parsePieceMove(CONSTANTS.KING);
+                }
+                if (tkn == CONSTANTS.TKN_CHECK) {
+                    currentIdx += 1;
+                }
+                if (tkn == CONSTANTS.TKN_NULL_MOVE) {
+                    Move m = new Move();
+                    m.isNullMove = true;
+                    addMove(m);
+                    currentIdx += 2;
+                }
+                if (tkn == CONSTANTS.TKN_OPEN_VARIATION) {
+                    // put current node on stack, so that we don't forget it.
+                    // however if we are at the root node, something
+                    // is wrong in the PGN. Silently ignore "(" then
+                    if(currentNode != g.getRootNode()) {
+                        gameStack.push(currentNode);
+                        currentNode = currentNode.getParent();
                     }
-                    if (tkn == CONSTANTS.TKN_NAG) {
-                        parseNAG();
+                    currentIdx += 1;
+                }
+                if (tkn == CONSTANTS.TKN_CLOSE_VARIATION) {
+                    // pop from stack. but always leave root
+                    if (gameStack.size() > 1) {
+                        currentNode = gameStack.pop();
                     }
-                    if (tkn == CONSTANTS.TKN_OPEN_COMMENT) {
-                        //String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
-                        String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length());
-                        int end = rest_of_line.indexOf("}");
-                        if (end >= 0) {
-                            String comment_line = rest_of_line.substring(0, end+1);
-                            currentNode.setComment(new String(comment_line.getBytes(StandardCharsets.ISO_8859_1), encoding));
-                            currentIdx = currentIdx + end + 1;
-                        } else {
-                            // get comment over multiple lines
-                            StringBuilder comment_lines = new StringBuilder();
-                            //String comment_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
-                            String comment_line = currentLine.substring(currentIdx + 1);
-                            comment_lines.append(comment_line).append("\n");
-                            // we already have the comment part of the current line,
-                            // so read-in the next line, and then loop until we find
-                            // the end marker "}"
-                            //currentLine = raf.readLine();
-                            int linesRead = 0;
-                            int end_index = -1;
-                            while (linesRead < 500) { // what if we never find } ??? -> stop after 500 lines
-                                lineIndex += 1;
-                                if(lineIndex >= lines.length) {
-                                    currentLine = "";
-                                    end_index = -1;
-                                    break;
-                                }
-                                currentLine = lines[lineIndex];
-                                linesRead += 1;
-                                if (currentLine.contains("}")) {
-                                    end_index = currentLine.indexOf("}");
-                                    break;
-                                } else {
-                                    comment_lines.append(currentLine).append("\n");
-                                }
+                    currentIdx += 1;
+                }
+                if (tkn == CONSTANTS.TKN_NAG) {
+                    parseNAG();
+                }
+                if (tkn == CONSTANTS.TKN_OPEN_COMMENT) {
+                    //String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
+                    String rest_of_line = currentLine.substring(currentIdx + 1, currentLine.length());
+                    int end = rest_of_line.indexOf("}");
+                    if (end >= 0) {
+                        String comment_line = rest_of_line.substring(0, end+1);
+                        currentNode.setComment(textDecoder().decodeLatin1(comment_line));
+                        currentIdx = currentIdx + end + 1;
+                    } else {
+                        // get comment over multiple lines
+                        StringBuilder comment_lines = new StringBuilder();
+                        //String comment_line = currentLine.substring(currentIdx + 1, currentLine.length() - (currentIdx + 1));
+                        String comment_line = currentLine.substring(currentIdx + 1);
+                        comment_lines.append(comment_line).append("\n");
+                        // we already have the comment part of the current line,
+                        // so read-in the next line, and then loop until we find
+                        // the end marker "}"
+                        //currentLine = raf.readLine();
+                        long offset = commentOffset(-1);
+                        int linesRead = 0;
+                        int end_index = -1;
+                        while (linesRead < 500) { // what if we never find } ??? -> stop after 500 lines
+                            lineIndex += 1;
+                            if(lineIndex >= lines.length) {
+                                currentLine = "";
+                                end_index = -1;
+                                break;
                             }
-                            if (end_index >= 0) {
-                                comment_lines.append(currentLine, 0, end_index);
-                                comment_lines.append("\n");
-                                currentIdx = end_index + 1;
+                            currentLine = lines[lineIndex];
+                            linesRead += 1;
+                            if (currentLine.contains("}")) {
+                                end_index = currentLine.indexOf("}");
+                                break;
+                            } else {
+                                comment_lines.append(currentLine).append("\n");
                             }
-                            currentNode.setComment(new String(comment_lines.toString().getBytes(StandardCharsets.ISO_8859_1), encoding));
                         }
+                        if (end_index >= 0) {
+                            comment_lines.append(currentLine, 0, end_index);
+                            comment_lines.append("\n");
+                            currentIdx = end_index + 1;
+                        } else {
+                            reportTruncatedComment(offset);
+                        }
+                        currentNode.setComment(textDecoder().decodeLatin1(comment_lines.toString()));
                     }
                 }
-
-
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-
-        return g;
     }
 
 
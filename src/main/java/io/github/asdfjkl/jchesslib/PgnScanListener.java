@@ -0,0 +1,51 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+/**
+ * Receives the progress of scanning a PGN file while its index is
+ * created (cf. {@code PgnIndex.build(String, String, long, PgnScanListener)}).
+ * All methods do nothing by default. Methods are called by the
+ * scanning thread.
+ */
+public interface PgnScanListener {
+
+    /**
+     * called regularly while the PGN file is scanned, and once when scanning is finished
+     * @param bytes number of bytes of the PGN file that were scanned so far
+     * @param size size of the PGN file
+     * @param games number of games found so far
+     */
+    default void progress(long bytes, long size, int games) { }
+
+    /**
+     * called after a checkpoint was written
+     * @param bytes number of bytes of the PGN file covered by the checkpoint
+     * @param games number of games in the checkpoint
+     */
+    default void checkpointWritten(long bytes, int games) { }
+
+}
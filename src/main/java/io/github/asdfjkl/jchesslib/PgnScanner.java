@@ -0,0 +1,339 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Finds the start offsets of games in a PGN file (cf. {@code PgnReader.scanPgn}).
+ * The file is memory-mapped in windows of at most 1 GB, and lines are
+ * processed byte by byte without creating objects per line: Only the first byte
+ * of a line, and whether and which curly braces occur, are needed. Lines are
+ * terminated by \n, \r or \r\n, the same as for {@code OptimizedRandomAccessFile.readLine}.
+ * The state is kept explicitly, such that a file can be scanned in several ranges.
+ */
+final class PgnScanner {
+
+    private static final int WINDOW_SIZE = 1 << 30;
+    // when scanning a range, map only this much beyond its end
+    // to finish the last line, instead of a full window
+    private static final int WINDOW_TAIL = 1 << 20;
+
+    /**
+     * scanner state after a line was processed
+     */
+    static final class State {
+
+        // true if the last line ended within a {} comment
+        boolean inComment;
+        // start offset of the game whose headers are currently read, or -1
+        long gamePos;
+        // offset after the last processed line that was not a % comment
+        long lastPos;
+
+        State(boolean inComment, long gamePos, long lastPos) {
+            this.inComment = inComment;
+            this.gamePos = gamePos;
+            this.lastPos = lastPos;
+        }
+
+        boolean sameAs(State other) {
+            return this.inComment == other.inComment && this.gamePos == other.gamePos
+                    && this.lastPos == other.lastPos;
+        }
+    }
+
+    private final State state;
+    private final ArrayList<Long> offsets;
+    // if not null, headers of the seven tag roster are collected as well
+    private final ArrayList<PgnItem> items;
+    private final PgnTextDecoder decoder;
+    private PgnItem currentItem;
+
+    // the current line
+    private int lineLength;
+    private int firstByte;
+    private boolean sawOpenBrace;
+    private boolean sawCloseBrace;
+    private int lastBrace;
+    private boolean pendingCR;
+    private boolean headerLine;
+    private byte[] header;
+    private int headerLength;
+
+    PgnScanner(State state, ArrayList<Long> offsets, ArrayList<PgnItem> items, String encoding) {
+        this.state = state;
+        this.offsets = offsets;
+        this.items = items;
+        this.decoder = items == null ? null : new PgnTextDecoder(encoding);
+        this.header = new byte[256];
+    }
+
+    /**
+     * scans all lines that start at or after offset start and before
+     * offset end, and adds the offsets of all found games
+     * @param channel channel of the PGN file
+     * @param start offset of the first line, must be the start of a line
+     * @param end lines starting at or after this offset are not scanned
+     * @param state scanner state before the first line, will be updated
+     * @param offsets found offsets are added here
+     * @throws IOException if reading the file fails
+     */
+    static void scanRange(FileChannel channel, long start, long end,
+                          State state, ArrayList<Long> offsets) throws IOException {
+        new PgnScanner(state, offsets, null, null).scan(channel, start, end);
+    }
+
+    /**
+     * scans all lines that start at or after offset start and before offset end
+     * @param channel channel of the PGN file
+     * @param start offset of the first line, must be the start of a line
+     * @param end lines starting at or after this offset are not scanned
+     * @return offset of the first line that was not scanned, or the
+     *         file size if the end of the file was reached
+     * @throws IOException if reading the file fails
+     */
+    long scan(FileChannel channel, long start, long end) throws IOException {
+
+        this.resetLine();
+        long length = channel.size();
+        long windowStart = start;
+        if(start >= end) {
+            return start;
+        }
+        while(windowStart < length) {
+            long windowEnd = Math.min(length, windowStart + WINDOW_SIZE);
+            if(end < length) {
+                windowEnd = Math.min(windowEnd, Math.max(end, windowStart) + WINDOW_TAIL);
+            }
+            int windowSize = (int) (windowEnd - windowStart);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for(int i=0;i<windowSize;i++) {
+                int c = buffer.get(i);
+                if(this.pendingCR) {
+                    this.pendingCR = false;
+                    if(c == '\n') {
+                        // \r\n is a single line terminator
+                        long lineEnd = windowStart + i + 1;
+                        this.endLine(lineEnd);
+                        if(lineEnd >= end) {
+                            return lineEnd;
+                        }
+                        continue;
+                    }
+                    long lineEnd = windowStart + i;
+                    this.endLine(lineEnd);
+                    if(lineEnd >= end) {
+                        return lineEnd;
+                    }
+                }
+                if(c == '\n') {
+                    long lineEnd = windowStart + i + 1;
+                    this.endLine(lineEnd);
+                    if(lineEnd >= end) {
+                        return lineEnd;
+                    }
+                } else if(c == '\r') {
+                    this.pendingCR = true;
+                } else {
+                    this.addByte(c);
+                }
+            }
+            windowStart += windowSize;
+        }
+        // last line, if the file does not end with a line terminator
+        if(this.pendingCR || this.lineLength > 0) {
+            this.endLine(length);
+        }
+        return length;
+    }
+
+    /**
+     * scans all lines of the supplied stream, e.g. of a decompressed
+     * file. Offsets are positions within the stream
+     * @param in the stream
+     * @throws IOException if reading fails
+     */
+    void scan(InputStream in) throws IOException {
+
+        this.resetLine();
+        byte[] buffer = new byte[1 << 16];
+        long pos = 0;
+        int read;
+        while((read = in.read(buffer)) >= 0) {
+            for(int i=0;i<read;i++) {
+                int c = buffer[i];
+                if(this.pendingCR) {
+                    this.pendingCR = false;
+                    if(c == '\n') {
+                        this.endLine(pos + i + 1);
+                        continue;
+                    }
+                    this.endLine(pos + i);
+                }
+                if(c == '\n') {
+                    this.endLine(pos + i + 1);
+                } else if(c == '\r') {
+                    this.pendingCR = true;
+                } else {
+                    this.addByte(c);
+                }
+            }
+            pos += read;
+        }
+        if(this.pendingCR || this.lineLength > 0) {
+            this.endLine(pos);
+        }
+    }
+
+    private void resetLine() {
+        this.lineLength = 0;
+        this.sawOpenBrace = false;
+        this.sawCloseBrace = false;
+        this.lastBrace = 0;
+        this.headerLine = false;
+        this.headerLength = 0;
+    }
+
+    private void addByte(int c) {
+        if(this.lineLength == 0) {
+            this.firstByte = c;
+            this.headerLine = c == '[' && !this.state.inComment;
+        }
+        this.lineLength++;
+        if(c == '{') {
+            this.sawOpenBrace = true;
+            this.lastBrace = c;
+        } else if(c == '}') {
+            this.sawCloseBrace = true;
+            this.lastBrace = c;
+        }
+        if(this.headerLine && this.items != null) {
+            if(this.headerLength == this.header.length) {
+                byte[] larger = new byte[this.header.length * 2];
+                System.arraycopy(this.header, 0, larger, 0, this.headerLength);
+                this.header = larger;
+            }
+            this.header[this.headerLength] = (byte) c;
+            this.headerLength++;
+        }
+    }
+
+    private void endLine(long lineEnd) {
+        // skip comments
+        if(this.lineLength > 0 && this.firstByte == '%') {
+            this.resetLine();
+            return;
+        }
+        if(this.headerLine) {
+            if(this.state.gamePos == -1) {
+                this.state.gamePos = this.state.lastPos;
+                if(this.items != null) {
+                    this.currentItem = new PgnItem();
+                }
+            }
+            this.state.lastPos = lineEnd;
+            if(this.items != null) {
+                this.parseHeader();
+            }
+            this.resetLine();
+            return;
+        }
+        if((!this.state.inComment && this.sawOpenBrace) || (this.state.inComment && this.sawCloseBrace)) {
+            this.state.inComment = this.lastBrace == '{';
+        }
+        if(this.state.gamePos != -1) {
+            this.offsets.add(this.state.gamePos);
+            if(this.items != null) {
+                if(this.currentItem == null) {
+                    this.currentItem = new PgnItem();
+                }
+                this.currentItem.setOffset(this.state.gamePos);
+                this.items.add(this.currentItem);
+                this.currentItem = null;
+            }
+            this.state.gamePos = -1;
+        }
+        this.state.lastPos = lineEnd;
+        this.resetLine();
+    }
+
+    private void parseHeader() {
+        if(this.headerLength <= 4 || this.currentItem == null) {
+            return;
+        }
+        int spaceOffset = this.indexOf(' ', 0);
+        int firstQuote = this.indexOf('"', 0);
+        int secondQuote = firstQuote < 0 ? -1 : this.indexOf('"', firstQuote + 1);
+        if(spaceOffset <= 1 || secondQuote < 0) {
+            return;
+        }
+        String tag = new String(this.header, 1, spaceOffset - 1, StandardCharsets.ISO_8859_1);
+        String value = this.decoder.decode(this.header, firstQuote + 1, secondQuote - firstQuote - 1);
+        if(tag.equals("Event")) {
+            this.currentItem.setEvent(value);
+        }
+        if(tag.equals("Site")) {
+            this.currentItem.setSite(value);
+        }
+        if(tag.equals("Date")) {
+            this.currentItem.setDate(value);
+        }
+        if(tag.equals("Round")) {
+            this.currentItem.setRound(value);
+        }
+        if(tag.equals("White")) {
+            this.currentItem.setWhite(value);
+        }
+        if(tag.equals("Black")) {
+            this.currentItem.setBlack(value);
+        }
+        if(tag.equals("Result")) {
+            this.currentItem.setResult(value);
+        }
+        if(tag.equals("WhiteElo")) {
+            this.currentItem.setWhiteElo(value);
+        }
+        if(tag.equals("BlackElo")) {
+            this.currentItem.setBlackElo(value);
+        }
+    }
+
+    private int indexOf(int c, int from) {
+        for(int i=from;i<this.headerLength;i++) {
+            if(this.header[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
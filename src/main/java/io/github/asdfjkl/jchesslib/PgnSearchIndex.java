@@ -0,0 +1,579 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Inverted index over the words of the seven tag roster headers of all
+ * games of a PGN (cf. {@code PgnIndex}), for fast search of players,
+ * events, sites etc. Header values are split into words at all characters
+ * that are not letters or digits, and words are normalized to lower case
+ * without accents, e.g. "Raúl Capablanca, José" has the words "raul",
+ * "capablanca" and "jose". For each tag and word, the sorted indices of
+ * all games that contain the word are stored delta-encoded as variable-length
+ * integers (posting lists). Words are sorted, such that prefix searches are
+ * binary searches.
+ *
+ * The index is stored next to the PGN file (the PGN filename with suffix
+ * {@code .sdx}), and rebuilt if the {@code PgnIndex} of the PGN changes.
+ */
+public class PgnSearchIndex {
+
+    /**
+     * suffix appended to the PGN filename for the index file
+     */
+    public static final String SUFFIX = ".sdx";
+
+    private static final int MAGIC = 0x4A435358; // "JCSX"
+    private static final int VERSION = 1;
+
+    private final int gameCount;
+    // of the PgnIndex the index was built from
+    private final long pgnSize;
+    private final long pgnModified;
+    private final long checksum;
+
+    // for each tag: sorted words, start of the posting list of each
+    // word within postings (plus the end), and number of games per word
+    private final String[][] words;
+    private final int[][] postingStarts;
+    private final int[][] postingCounts;
+    private final byte[][] postings;
+
+    // reads a tag of a game, i.e. a PgnIndex or a list of PgnItems
+    private interface TagSource {
+        String getTag(int game, int tag);
+    }
+
+    // growable list of game indices
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if(this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, 2 * this.size);
+            }
+            this.values[this.size++] = value;
+        }
+    }
+
+    private PgnSearchIndex(int gameCount, long pgnSize, long pgnModified, long checksum, String[][] words,
+                           int[][] postingStarts, int[][] postingCounts, byte[][] postings) {
+        this.gameCount = gameCount;
+        this.pgnSize = pgnSize;
+        this.pgnModified = pgnModified;
+        this.checksum = checksum;
+        this.words = words;
+        this.postingStarts = postingStarts;
+        this.postingCounts = postingCounts;
+        this.postings = postings;
+    }
+
+    /**
+     * open the search index of the supplied PGN file. The {@code PgnIndex}
+     * of the PGN is opened (and updated if necessary) first. If there is a search
+     * index file that matches it, it is read. Otherwise the search index is built,
+     * and the index file is (re-)written. If the index file can not be written,
+     * the index is still returned.
+     * @param pgnFilename filename of the PGN
+     * @return the index
+     * @throws IOException if the PGN file can not be read
+     */
+    public static PgnSearchIndex open(String pgnFilename) throws IOException {
+        PgnIndex pgnIndex = PgnIndex.open(pgnFilename);
+        Path indexPath = Path.of(pgnFilename + SUFFIX);
+        if(Files.isReadable(indexPath)) {
+            try {
+                PgnSearchIndex existing = read(indexPath.toString());
+                if(existing.gameCount == pgnIndex.size() && existing.pgnSize == pgnIndex.getPgnSize()
+                        && existing.pgnModified == pgnIndex.getPgnModified()
+                        && existing.checksum == pgnIndex.getChecksum()) {
+                    return existing;
+                }
+            } catch (IOException e) {
+                // broken index file, rebuild below
+            }
+        }
+        PgnSearchIndex index = build(pgnIndex);
+        try {
+            index.write(indexPath.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * create the search index of all games of a {@code PgnIndex} in memory.
+     * Game indices are indices within the {@code PgnIndex}.
+     * @param pgnIndex the index of the PGN
+     * @return the index
+     */
+    public static PgnSearchIndex build(PgnIndex pgnIndex) {
+        return build(pgnIndex.size(), pgnIndex::getTag, pgnIndex.getPgnSize(),
+                pgnIndex.getPgnModified(), pgnIndex.getChecksum());
+    }
+
+    /**
+     * create the search index of the supplied games in memory. Game
+     * indices are indices within the list.
+     * @param items the games, e.g. as scanned from a PGN
+     * @return the index
+     */
+    public static PgnSearchIndex build(List<PgnItem> items) {
+        return build(items.size(), (game, tag) -> getTag(items.get(game), tag), 0, 0, 0);
+    }
+
+    private static String getTag(PgnItem item, int tag) {
+        switch(tag) {
+            case PgnIndex.TAG_EVENT: return item.getEvent();
+            case PgnIndex.TAG_SITE: return item.getSite();
+            case PgnIndex.TAG_DATE: return item.getDate();
+            case PgnIndex.TAG_ROUND: return item.getRound();
+            case PgnIndex.TAG_WHITE: return item.getWhite();
+            case PgnIndex.TAG_BLACK: return item.getBlack();
+            default: return item.getResult();
+        }
+    }
+
+    private static PgnSearchIndex build(int gameCount, TagSource source, long pgnSize,
+                                        long pgnModified, long checksum) {
+        // header values repeat a lot, split each value only once
+        HashMap<String, String[]> split = new HashMap<>();
+        String[][] words = new String[PgnIndex.TAG_COUNT][];
+        int[][] postingStarts = new int[PgnIndex.TAG_COUNT][];
+        int[][] postingCounts = new int[PgnIndex.TAG_COUNT][];
+        byte[][] postings = new byte[PgnIndex.TAG_COUNT][];
+        for(int tag=0;tag<PgnIndex.TAG_COUNT;tag++) {
+            HashMap<String, IntList> games = new HashMap<>();
+            for(int i=0;i<gameCount;i++) {
+                String value = source.getTag(i, tag);
+                if(value == null || value.isEmpty()) {
+                    continue;
+                }
+                String[] valueWords = split.get(value);
+                if(valueWords == null) {
+                    valueWords = words(value);
+                    split.put(value, valueWords);
+                }
+                for(String word : valueWords) {
+                    IntList list = games.get(word);
+                    if(list == null) {
+                        list = new IntList();
+                        games.put(word, list);
+                    }
+                    list.add(i);
+                }
+            }
+            String[] sorted = games.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            int[] starts = new int[sorted.length + 1];
+            int[] counts = new int[sorted.length];
+            byte[] data = new byte[64];
+            int length = 0;
+            for(int w=0;w<sorted.length;w++) {
+                IntList list = games.get(sorted[w]);
+                starts[w] = length;
+                counts[w] = list.size;
+                int previous = -1;
+                for(int j=0;j<list.size;j++) {
+                    if(length + 5 > data.length) {
+                        data = Arrays.copyOf(data, 2 * data.length);
+                    }
+                    length = writeVarInt(data, length, list.values[j] - previous);
+                    previous = list.values[j];
+                }
+            }
+            starts[sorted.length] = length;
+            words[tag] = sorted;
+            postingStarts[tag] = starts;
+            postingCounts[tag] = counts;
+            postings[tag] = Arrays.copyOf(data, length);
+        }
+        return new PgnSearchIndex(gameCount, pgnSize, pgnModified, checksum,
+                words, postingStarts, postingCounts, postings);
+    }
+
+    private static int writeVarInt(byte[] data, int pos, int value) {
+        while((value & ~0x7f) != 0) {
+            data[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * normalize a word or a prefix, i.e. convert it to lower case and remove accents
+     * @param s the word
+     * @return the normalized word
+     */
+    static String normalize(String s) {
+        boolean ascii = true;
+        for(int i=0;i<s.length() && ascii;i++) {
+            ascii = s.charAt(i) < 128;
+        }
+        if(!ascii) {
+            s = Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        }
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * split a header value or a query into distinct normalized words
+     * @param value the value
+     * @return the words
+     */
+    static String[] words(String value) {
+        String normalized = normalize(value);
+        ArrayList<String> words = new ArrayList<>();
+        int start = -1;
+        for(int i=0;i<=normalized.length();i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if(letter && start < 0) {
+                start = i;
+            } else if(!letter && start >= 0) {
+                String word = normalized.substring(start, i);
+                if(!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * read an index file
+     * @param indexFilename filename of the index
+     * @return the index
+     * @throws IOException if the file can not be read or is not a valid index
+     */
+    public static PgnSearchIndex read(String indexFilename) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFilename), 1 << 16));
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a PGN search index file");
+            }
+            int gameCount = in.readInt();
+            long pgnSize = in.readLong();
+            long pgnModified = in.readLong();
+            long checksum = in.readLong();
+            String[][] words = new String[PgnIndex.TAG_COUNT][];
+            int[][] postingStarts = new int[PgnIndex.TAG_COUNT][];
+            int[][] postingCounts = new int[PgnIndex.TAG_COUNT][];
+            byte[][] postings = new byte[PgnIndex.TAG_COUNT][];
+            for(int tag=0;tag<PgnIndex.TAG_COUNT;tag++) {
+                int count = in.readInt();
+                words[tag] = new String[count];
+                postingStarts[tag] = new int[count + 1];
+                postingCounts[tag] = new int[count];
+                for(int w=0;w<count;w++) {
+                    words[tag][w] = in.readUTF();
+                    postingCounts[tag][w] = in.readInt();
+                    postingStarts[tag][w + 1] = in.readInt();
+                }
+                postings[tag] = new byte[postingStarts[tag][count]];
+                in.readFully(postings[tag]);
+            }
+            return new PgnSearchIndex(gameCount, pgnSize, pgnModified, checksum,
+                    words, postingStarts, postingCounts, postings);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * write the index to a file. The file is written to a temporary
+     * file first, and then moved, i.e. readers never see a partial index.
+     * @param indexFilename filename of the index
+     * @throws IOException if the file can not be written
+     */
+    public void write(String indexFilename) throws IOException {
+        Path path = Path.of(indexFilename);
+        Path tmp = Path.of(indexFilename + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.gameCount);
+            out.writeLong(this.pgnSize);
+            out.writeLong(this.pgnModified);
+            out.writeLong(this.checksum);
+            for(int tag=0;tag<PgnIndex.TAG_COUNT;tag++) {
+                out.writeInt(this.words[tag].length);
+                for(int w=0;w<this.words[tag].length;w++) {
+                    out.writeUTF(this.words[tag][w]);
+                    out.writeInt(this.postingCounts[tag][w]);
+                    out.writeInt(this.postingStarts[tag][w + 1]);
+                }
+                out.write(this.postings[tag]);
+            }
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * get the number of indexed games
+     * @return number of games
+     */
+    public int size() {
+        return this.gameCount;
+    }
+
+    private static void checkTag(int tag) {
+        if(tag < 0 || tag >= PgnIndex.TAG_COUNT) {
+            throw new IllegalArgumentException("unknown tag: " + tag);
+        }
+    }
+
+    /**
+     * get the number of distinct words of a tag
+     * @param tag one of {@code PgnIndex.TAG_EVENT, ... PgnIndex.TAG_RESULT}
+     * @return number of words
+     */
+    public int getWordCount(int tag) {
+        checkTag(tag);
+        return this.words[tag].length;
+    }
+
+    /**
+     * get all games that contain the supplied word in a tag
+     * @param tag one of {@code PgnIndex.TAG_EVENT, ... PgnIndex.TAG_RESULT}
+     * @param word the word, case and accents are ignored
+     * @return sorted indices of the games
+     */
+    public int[] find(int tag, String word) {
+        checkTag(tag);
+        int w = Arrays.binarySearch(this.words[tag], normalize(word));
+        if(w < 0) {
+            return new int[0];
+        }
+        return this.decode(tag, w);
+    }
+
+    /**
+     * get all games that contain a word in a tag that
+     * starts with the supplied prefix
+     * @param tag one of {@code PgnIndex.TAG_EVENT, ... PgnIndex.TAG_RESULT}
+     * @param prefix the prefix, case and accents are ignored
+     * @return sorted indices of the games
+     */
+    public int[] findPrefix(int tag, String prefix) {
+        checkTag(tag);
+        String normalized = normalize(prefix);
+        String[] tagWords = this.words[tag];
+        int from = insertionPoint(tagWords, normalized);
+        int to = insertionPoint(tagWords, normalized + Character.MAX_VALUE);
+        if(to - from == 1) {
+            return this.decode(tag, from);
+        }
+        long total = 0;
+        for(int w=from;w<to;w++) {
+            total += this.postingCounts[tag][w];
+        }
+        if(total > this.gameCount / 32) {
+            // many games, collect in a bit set
+            long[] bits = new long[(this.gameCount + 63) >>> 6];
+            for(int w=from;w<to;w++) {
+                this.decodeInto(tag, w, bits);
+            }
+            return toArray(bits);
+        }
+        int[] games = new int[(int) total];
+        int length = 0;
+        for(int w=from;w<to;w++) {
+            int[] wordGames = this.decode(tag, w);
+            System.arraycopy(wordGames, 0, games, length, wordGames.length);
+            length += wordGames.length;
+        }
+        Arrays.sort(games);
+        return distinct(games);
+    }
+
+    /**
+     * search games by a query like "carlsen m", i.e. get all games where each
+     * word of the query is the prefix of a word of the tag
+     * @param tag one of {@code PgnIndex.TAG_EVENT, ... PgnIndex.TAG_RESULT}
+     * @param query the query, case and accents are ignored
+     * @return sorted indices of the games
+     */
+    public int[] search(int tag, String query) {
+        checkTag(tag);
+        String[] queryWords = words(query);
+        if(queryWords.length == 0) {
+            return new int[0];
+        }
+        int[] games = this.findPrefix(tag, queryWords[0]);
+        for(int i=1;i<queryWords.length && games.length > 0;i++) {
+            games = intersect(games, this.findPrefix(tag, queryWords[i]));
+        }
+        return games;
+    }
+
+    /**
+     * search games by player, i.e. get all games where
+     * White or Black match the query (cf. {@code search})
+     * @param query the query, case and accents are ignored
+     * @return sorted indices of the games
+     */
+    public int[] searchPlayer(String query) {
+        return union(this.search(PgnIndex.TAG_WHITE, query), this.search(PgnIndex.TAG_BLACK, query));
+    }
+
+    private static int insertionPoint(String[] sorted, String key) {
+        int i = Arrays.binarySearch(sorted, key);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    private int[] decode(int tag, int w) {
+        byte[] data = this.postings[tag];
+        int[] games = new int[this.postingCounts[tag][w]];
+        int pos = this.postingStarts[tag][w];
+        int game = -1;
+        for(int i=0;i<games.length;i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while(b < 0);
+            game += delta;
+            games[i] = game;
+        }
+        return games;
+    }
+
+    private void decodeInto(int tag, int w, long[] bits) {
+        byte[] data = this.postings[tag];
+        int end = this.postingStarts[tag][w + 1];
+        int pos = this.postingStarts[tag][w];
+        int game = -1;
+        while(pos < end) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while(b < 0);
+            game += delta;
+            bits[game >>> 6] |= 1L << game;
+        }
+    }
+
+    private static int[] toArray(long[] bits) {
+        int count = 0;
+        for(long word : bits) {
+            count += Long.bitCount(word);
+        }
+        int[] games = new int[count];
+        int length = 0;
+        for(int i=0;i<bits.length;i++) {
+            long word = bits[i];
+            while(word != 0) {
+                games[length++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return games;
+    }
+
+    private static int[] distinct(int[] sorted) {
+        int length = 0;
+        for(int i=0;i<sorted.length;i++) {
+            if(length == 0 || sorted[length - 1] != sorted[i]) {
+                sorted[length++] = sorted[i];
+            }
+        }
+        return length == sorted.length ? sorted : Arrays.copyOf(sorted, length);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while(i < a.length && j < b.length) {
+            if(a[i] < b[j]) {
+                i++;
+            } else if(a[i] > b[j]) {
+                j++;
+            } else {
+                result[length++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while(i < a.length || j < b.length) {
+            if(j == b.length || (i < a.length && a[i] < b[j])) {
+                result[length++] = a[i++];
+            } else if(i == a.length || b[j] < a[i]) {
+                result[length++] = b[j++];
+            } else {
+                result[length++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes header values and comments of a PGN with a cached decoder.
+ * Pure ASCII text, which is the common case for PGN files, as well
+ * as ISO-8859-1 text are decoded directly without the decoder.
+ * Not thread-safe.
+ */
+final class PgnTextDecoder {
+
+    private final String encoding;
+    private final boolean latin1;
+    private final CharsetDecoder decoder;
+
+    PgnTextDecoder(String encoding) {
+        this.encoding = encoding;
+        Charset charset = Charset.forName(encoding);
+        this.latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        // same as new String(bytes, encoding) for malformed input
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    String getEncoding() {
+        return this.encoding;
+    }
+
+    private static boolean isAscii(byte[] b, int start, int length) {
+        for(int i=start;i<start+length;i++) {
+            if(b[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * decode the supplied bytes
+     * @param b buffer
+     * @param start offset of the first byte
+     * @param length number of bytes
+     * @return decoded text
+     */
+    String decode(byte[] b, int start, int length) {
+        if(this.latin1 || isAscii(b, start, length)) {
+            return new String(b, start, length, StandardCharsets.ISO_8859_1);
+        }
+        try {
+            CharBuffer chars = this.decoder.decode(ByteBuffer.wrap(b, start, length));
+            return chars.toString();
+        } catch (CharacterCodingException e) {
+            // can not happen, malformed input is replaced
+            return new String(b, start, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * decode text that was read as ISO-8859-1, i.e. each char
+     * of the supplied string is a byte of the file
+     * @param text the text as read
+     * @return decoded text
+     */
+    String decodeLatin1(String text) {
+        if(this.latin1) {
+            return text;
+        }
+        for(int i=0;i<text.length();i++) {
+            if(text.charAt(i) >= 0x80) {
+                byte[] b = text.getBytes(StandardCharsets.ISO_8859_1);
+                return this.decode(b, 0, b.length);
+            }
+        }
+        return text;
+    }
+
+}
@@ -0,0 +1,618 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of all positions of all games of a PGN file, to find the games that
+ * reach a position. The index is a sorted file of fixed-size entries, similar
+ * to a Polyglot book: each entry consists of the zobrist hash of a position
+ * (cf. {@code Board.getZobrist}), the index of a game (as in the {@code PgnIndex}
+ * of the PGN) and the ply at which the game reached the position. Entries are sorted
+ * by hash (unsigned) and game, hence all games of a position are found by binary
+ * search. The file is memory-mapped.
+ *
+ * Building the index replays the main line (and optionally all variations) of
+ * all games in parallel. Each worker collects entries in a fixed-size buffer,
+ * and writes sorted runs to temporary files, which are merged into the index
+ * file. Hence the memory used does not depend on the size of the PGN.
+ *
+ * The index is stored next to the PGN file (the PGN filename with suffix
+ * {@code .pdx}), and rebuilt if the {@code PgnIndex} of the PGN changes.
+ */
+public class PositionIndex {
+
+    /**
+     * suffix appended to the PGN filename for the index file
+     */
+    public static final String SUFFIX = ".pdx";
+
+    private static final int MAGIC = 0x4A435058; // "JCPX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int ENTRY_SIZE = 16;
+
+    // entries per sorted run, i.e. 16 MB of keys and values per worker
+    private static final int RUN_ENTRIES = 1 << 20;
+    // entries per mapped segment of the index file, i.e. 1 GB
+    private static final int SEGMENT_ENTRIES = 1 << 26;
+    private static final int MIN_GAMES_PER_TASK = 64;
+
+    private final ByteBuffer[] segments;
+    private final long entryCount;
+    private final int gameCount;
+    private final boolean variations;
+    // of the PgnIndex the index was built from
+    private final long pgnSize;
+    private final long pgnModified;
+    private final long checksum;
+
+    private PositionIndex(ByteBuffer[] segments, long entryCount, int gameCount, boolean variations,
+                          long pgnSize, long pgnModified, long checksum) {
+        this.segments = segments;
+        this.entryCount = entryCount;
+        this.gameCount = gameCount;
+        this.variations = variations;
+        this.pgnSize = pgnSize;
+        this.pgnModified = pgnModified;
+        this.checksum = checksum;
+    }
+
+    /**
+     * open the position index of the main lines of all games of
+     * a PGN file (cf. {@code open(String, boolean, int)})
+     * @param pgnFilename filename of the PGN
+     * @return the index
+     * @throws IOException if the PGN can not be read or the index can not be written
+     */
+    public static PositionIndex open(String pgnFilename) throws IOException {
+        return open(pgnFilename, false, 0);
+    }
+
+    /**
+     * open the position index of the supplied PGN file. The {@code PgnIndex}
+     * of the PGN is opened (and updated if necessary) first. If there is a position
+     * index file that matches it, it is memory-mapped. Otherwise the index file
+     * is (re-)built.
+     * @param pgnFilename filename of the PGN
+     * @param variations if true, positions of variations are indexed, too
+     * @param parallelism number of worker threads when building the index. 0 uses
+     *                    the common fork/join pool, 1 builds the index on the calling thread
+     * @return the index
+     * @throws IOException if the PGN can not be read or the index can not be written
+     */
+    public static PositionIndex open(String pgnFilename, boolean variations, int parallelism) throws IOException {
+        PgnIndex pgnIndex = PgnIndex.open(pgnFilename);
+        Path indexPath = Path.of(pgnFilename + SUFFIX);
+        if(Files.isReadable(indexPath)) {
+            try {
+                PositionIndex existing = read(indexPath.toString());
+                if(existing.variations == variations && existing.gameCount == pgnIndex.size()
+                        && existing.pgnSize == pgnIndex.getPgnSize()
+                        && existing.pgnModified == pgnIndex.getPgnModified()
+                        && existing.checksum == pgnIndex.getChecksum()) {
+                    return existing;
+                }
+            } catch (IOException e) {
+                // broken index file, rebuild below
+            }
+        }
+        build(pgnFilename, pgnIndex, indexPath.toString(), variations, parallelism);
+        return read(indexPath.toString());
+    }
+
+    /**
+     * memory-map an index file
+     * @param indexFilename filename of the index
+     * @return the index
+     * @throws IOException if the file can not be read or is not a valid index
+     */
+    public static PositionIndex read(String indexFilename) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(indexFilename), StandardOpenOption.READ);
+        try {
+            if(channel.size() < HEADER_SIZE) {
+                throw new IOException("not a position index file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if(header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a position index file");
+            }
+            int gameCount = header.getInt();
+            boolean variations = header.getInt() != 0;
+            long pgnSize = header.getLong();
+            long pgnModified = header.getLong();
+            long checksum = header.getLong();
+            long entryCount = header.getLong();
+            if(channel.size() != HEADER_SIZE + entryCount * ENTRY_SIZE) {
+                throw new IOException("position index file is truncated");
+            }
+            ByteBuffer[] segments = new ByteBuffer[(int) ((entryCount + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+            for(int i=0;i<segments.length;i++) {
+                long first = (long) i * SEGMENT_ENTRIES;
+                long entries = Math.min(SEGMENT_ENTRIES, entryCount - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE,
+                        entries * ENTRY_SIZE);
+            }
+            return new PositionIndex(segments, entryCount, gameCount, variations, pgnSize, pgnModified, checksum);
+        } finally {
+            // the mappings stay valid after closing the channel
+            channel.close();
+        }
+    }
+
+    /**
+     * build the position index file of a PGN
+     * @param pgnFilename filename of the PGN
+     * @param indexFilename filename of the index
+     * @param variations if true, positions of variations are indexed, too
+     * @param parallelism number of worker threads. 0 uses the common
+     *                    fork/join pool, 1 builds the index on the calling thread
+     * @throws IOException if the PGN can not be read or the index can not be written
+     */
+    public static void build(String pgnFilename, String indexFilename, boolean variations,
+                             int parallelism) throws IOException {
+        build(pgnFilename, PgnIndex.open(pgnFilename), indexFilename, variations, parallelism);
+    }
+
+    private static void build(String pgnFilename, PgnIndex pgnIndex, String indexFilename,
+                              boolean variations, int parallelism) throws IOException {
+        if(parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative, but is: " + parallelism);
+        }
+        Builder builder = new Builder(pgnFilename, pgnIndex, indexFilename, variations);
+        ArrayList<Path> runs = null;
+        try {
+            int games = pgnIndex.size();
+            if(parallelism == 1 || games <= MIN_GAMES_PER_TASK) {
+                runs = builder.buildRange(0, games);
+            } else {
+                ForkJoinPool pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+                try {
+                    int threshold = Math.max(MIN_GAMES_PER_TASK, games / (pool.getParallelism() * 4));
+                    runs = pool.invoke(new BuildTask(builder, 0, games, threshold));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                } finally {
+                    if(pool != ForkJoinPool.commonPool()) {
+                        pool.shutdown();
+                    }
+                }
+            }
+            merge(runs, pgnIndex, indexFilename, variations);
+        } finally {
+            // runs of failed builds are in the builder only
+            for(Path run : builder.getRuns()) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    // merges the sorted runs into the index file
+    private static void merge(ArrayList<Path> runs, PgnIndex pgnIndex, String indexFilename,
+                              boolean variations) throws IOException {
+        long entryCount = 0;
+        for(Path run : runs) {
+            entryCount += Files.size(run) / ENTRY_SIZE;
+        }
+        Path path = Path.of(indexFilename);
+        Path tmp = Path.of(indexFilename + ".tmp");
+        PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+        try {
+            for(Path run : runs) {
+                RunReader reader = new RunReader(run);
+                if(reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pgnIndex.size());
+            out.writeInt(variations ? 1 : 0);
+            out.writeLong(pgnIndex.getPgnSize());
+            out.writeLong(pgnIndex.getPgnModified());
+            out.writeLong(pgnIndex.getChecksum());
+            out.writeLong(entryCount);
+            while(!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                out.writeLong(reader.key);
+                out.writeLong(reader.value);
+                if(reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for(RunReader reader : queue) {
+                reader.close();
+            }
+            out.close();
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * get the number of indexed games
+     * @return number of games
+     */
+    public int getGameCount() {
+        return this.gameCount;
+    }
+
+    /**
+     * get the number of entries, i.e. the number
+     * of positions of all games
+     * @return number of entries
+     */
+    public long size() {
+        return this.entryCount;
+    }
+
+    /**
+     * checks if positions of variations are indexed
+     * @return true if variations are indexed, false
+     * if only the main lines are indexed
+     */
+    public boolean hasVariations() {
+        return this.variations;
+    }
+
+    /**
+     * get all games that reach the position of the board
+     * @param board the position
+     * @return sorted indices of the games
+     */
+    public int[] gamesContaining(Board board) {
+        return this.gamesContaining(board.getZobrist());
+    }
+
+    /**
+     * get all games that reach a position
+     * @param zobrist zobrist hash of the position (cf. {@code Board.getZobrist})
+     * @return sorted indices of the games
+     */
+    public int[] gamesContaining(long zobrist) {
+        long from = this.lowerBound(zobrist);
+        int[] games = new int[8];
+        int length = 0;
+        for(long i=from;i<this.entryCount && this.getKey(i) == zobrist;i++) {
+            int game = this.getGame(i);
+            // positions repeated within a game have several entries
+            if(length > 0 && games[length - 1] == game) {
+                continue;
+            }
+            if(length == games.length) {
+                games = Arrays.copyOf(games, 2 * length);
+            }
+            games[length++] = game;
+        }
+        return Arrays.copyOf(games, length);
+    }
+
+    /**
+     * get the first ply at which a game reaches a position
+     * @param board the position
+     * @param game index of the game
+     * @return number of half moves from the start of the game,
+     * or -1 if the game does not reach the position
+     */
+    public int getPly(Board board, int game) {
+        long zobrist = board.getZobrist();
+        int ply = -1;
+        for(long i=this.lowerBound(zobrist);i<this.entryCount && this.getKey(i) == zobrist;i++) {
+            if(this.getGame(i) == game && (ply < 0 || this.getEntryPly(i) < ply)) {
+                ply = this.getEntryPly(i);
+            }
+        }
+        return ply;
+    }
+
+    // first entry with a hash not less than zobrist
+    private long lowerBound(long zobrist) {
+        long low = 0;
+        long high = this.entryCount;
+        while(low < high) {
+            long middle = (low + high) >>> 1;
+            if(Long.compareUnsigned(this.getKey(middle), zobrist) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long getKey(long entry) {
+        return this.segments[(int) (entry / SEGMENT_ENTRIES)].getLong((int) (entry % SEGMENT_ENTRIES) * ENTRY_SIZE);
+    }
+
+    private int getGame(long entry) {
+        return this.segments[(int) (entry / SEGMENT_ENTRIES)].getInt((int) (entry % SEGMENT_ENTRIES) * ENTRY_SIZE + 8);
+    }
+
+    private int getEntryPly(long entry) {
+        return this.segments[(int) (entry / SEGMENT_ENTRIES)].getInt((int) (entry % SEGMENT_ENTRIES) * ENTRY_SIZE + 12);
+    }
+
+    /**
+     * sorts the first n keys (unsigned) together with their values. This is
+     * an LSD radix sort in four passes of 16 bits, hence it is stable.
+     * @param keys keys
+     * @param values values, moved together with their keys
+     * @param n number of entries to sort
+     * @param tmpKeys temporary space for at least n keys
+     * @param tmpValues temporary space for at least n values
+     */
+    static void radixSort(long[] keys, long[] values, int n, long[] tmpKeys, long[] tmpValues) {
+        int[] counts = new int[1 << 16];
+        long[] fromKeys = keys;
+        long[] fromValues = values;
+        long[] toKeys = tmpKeys;
+        long[] toValues = tmpValues;
+        // four passes, hence the result ends up in keys and values again
+        for(int shift=0;shift<64;shift+=16) {
+            Arrays.fill(counts, 0);
+            for(int i=0;i<n;i++) {
+                counts[(int) (fromKeys[i] >>> shift) & 0xffff]++;
+            }
+            int sum = 0;
+            for(int d=0;d<counts.length;d++) {
+                int count = counts[d];
+                counts[d] = sum;
+                sum += count;
+            }
+            for(int i=0;i<n;i++) {
+                int p = counts[(int) (fromKeys[i] >>> shift) & 0xffff]++;
+                toKeys[p] = fromKeys[i];
+                toValues[p] = fromValues[i];
+            }
+            long[] swap = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swap;
+            swap = fromValues;
+            fromValues = toValues;
+            toValues = swap;
+        }
+    }
+
+    /**
+     * replays ranges of games and writes their entries as sorted runs
+     */
+    private static class Builder {
+
+        private final String pgnFilename;
+        private final PgnIndex pgnIndex;
+        private final String indexFilename;
+        private final boolean variations;
+        private final AtomicInteger runCount = new AtomicInteger();
+        private final ArrayList<Path> runs = new ArrayList<>();
+
+        Builder(String pgnFilename, PgnIndex pgnIndex, String indexFilename, boolean variations) {
+            this.pgnFilename = pgnFilename;
+            this.pgnIndex = pgnIndex;
+            this.indexFilename = indexFilename;
+            this.variations = variations;
+        }
+
+        synchronized ArrayList<Path> getRuns() {
+            return new ArrayList<>(this.runs);
+        }
+
+        ArrayList<Path> buildRange(int from, int to) throws IOException {
+            ArrayList<Path> rangeRuns = new ArrayList<>();
+            if(from >= to) {
+                return rangeRuns;
+            }
+            RunBuffer buffer = new RunBuffer(Math.min(RUN_ENTRIES, (to - from) * 128));
+            PgnReader reader = new PgnReader();
+            OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(this.pgnFilename, "r");
+            try {
+                for(int i=from;i<to;i++) {
+                    raf.seek(this.pgnIndex.getOffset(i));
+                    Game g = reader.readGame(raf);
+                    this.addLine(g.getRootNode(), 0, i, buffer, rangeRuns);
+                }
+                if(buffer.size > 0) {
+                    rangeRuns.add(this.writeRun(buffer));
+                }
+            } finally {
+                raf.close();
+            }
+            return rangeRuns;
+        }
+
+        // adds the line starting at node, and all variations branching off it
+        private void addLine(GameNode node, int ply, int game, RunBuffer buffer,
+                             ArrayList<Path> rangeRuns) throws IOException {
+            while(true) {
+                if(buffer.size == buffer.keys.length) {
+                    rangeRuns.add(this.writeRun(buffer));
+                }
+                buffer.add(node.getZobrist(), game, ply);
+                if(!node.hasChild()) {
+                    return;
+                }
+                if(this.variations) {
+                    for(int i=1;i<node.getVariations().size();i++) {
+                        this.addLine(node.getVariation(i), ply + 1, game, buffer, rangeRuns);
+                    }
+                }
+                node = node.getVariation(0);
+                ply++;
+            }
+        }
+
+        private Path writeRun(RunBuffer buffer) throws IOException {
+            buffer.sort();
+            Path run = Path.of(this.indexFilename + ".run" + this.runCount.getAndIncrement());
+            synchronized (this) {
+                this.runs.add(run);
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16));
+            try {
+                for(int i=0;i<buffer.size;i++) {
+                    out.writeLong(buffer.keys[i]);
+                    out.writeLong(buffer.values[i]);
+                }
+            } finally {
+                out.close();
+            }
+            buffer.size = 0;
+            return run;
+        }
+    }
+
+    /**
+     * entries of a run, values are the game index (upper
+     * 32 bits) and the ply (lower 32 bits)
+     */
+    private static class RunBuffer {
+
+        private final long[] keys;
+        private final long[] values;
+        private final long[] tmpKeys;
+        private final long[] tmpValues;
+        private int size;
+
+        RunBuffer(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new long[capacity];
+            this.tmpKeys = new long[capacity];
+            this.tmpValues = new long[capacity];
+        }
+
+        void add(long key, int game, int ply) {
+            this.keys[this.size] = key;
+            this.values[this.size] = ((long) game << 32) | ply;
+            this.size++;
+        }
+
+        // entries are added by ascending game, and the sort
+        // is stable, hence the result is sorted by key and game
+        void sort() {
+            radixSort(this.keys, this.values, this.size, this.tmpKeys, this.tmpValues);
+        }
+    }
+
+    /**
+     * reads the entries of a run one by one during merging
+     */
+    private static class RunReader implements Comparable<RunReader> {
+
+        private final DataInputStream in;
+        private final long entries;
+        private long read;
+        private long key;
+        private long value;
+
+        RunReader(Path run) throws IOException {
+            this.entries = Files.size(run) / ENTRY_SIZE;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            if(this.read == this.entries) {
+                return false;
+            }
+            this.key = this.in.readLong();
+            this.value = this.in.readLong();
+            this.read++;
+            return true;
+        }
+
+        void close() throws IOException {
+            this.in.close();
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int c = Long.compareUnsigned(this.key, other.key);
+            if(c != 0) {
+                return c;
+            }
+            return Long.compare(this.value, other.value);
+        }
+    }
+
+    private static class BuildTask extends RecursiveTask<ArrayList<Path>> {
+
+        private final Builder builder;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        BuildTask(Builder builder, int from, int to, int threshold) {
+            this.builder = builder;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected ArrayList<Path> compute() {
+            if(to - from <= threshold) {
+                try {
+                    return builder.buildRange(from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            BuildTask left = new BuildTask(builder, from, middle, threshold);
+            left.fork();
+            ArrayList<Path> runs = new BuildTask(builder, middle, to, threshold).compute();
+            runs.addAll(left.join());
+            return runs;
+        }
+    }
+
+}
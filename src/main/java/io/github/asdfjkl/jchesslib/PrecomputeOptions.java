@@ -0,0 +1,118 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+/**
+ * Options for {@code Game.precompute}. Select which per-node information
+ * (SAN, check and checkmate status, hashes) is computed in advance for
+ * all nodes of a game tree, and how many threads are used for that.
+ */
+public class PrecomputeOptions {
+
+    private boolean computeSan = true;
+    private boolean computeStatus = true;
+    private boolean computeHashes = true;
+    private int parallelism = 0;
+    private int parallelThreshold = 256;
+
+    /**
+     * checks if SAN of all moves is precomputed
+     * @return true if SAN is precomputed
+     */
+    public boolean isComputeSan() { return computeSan; }
+
+    /**
+     * set whether SAN of all moves is precomputed
+     * @param computeSan true to precompute SAN
+     */
+    public void setComputeSan(boolean computeSan) { this.computeSan = computeSan; }
+
+    /**
+     * checks if check and checkmate status of all nodes is precomputed
+     * @return true if check and checkmate status is precomputed
+     */
+    public boolean isComputeStatus() { return computeStatus; }
+
+    /**
+     * set whether check and checkmate status of all nodes is precomputed.
+     * Note that computing SAN always requires this status.
+     * @param computeStatus true to precompute the status
+     */
+    public void setComputeStatus(boolean computeStatus) { this.computeStatus = computeStatus; }
+
+    /**
+     * checks if zobrist and position hashes of all nodes are precomputed
+     * @return true if hashes are precomputed
+     */
+    public boolean isComputeHashes() { return computeHashes; }
+
+    /**
+     * set whether zobrist and position hashes of all nodes are precomputed
+     * @param computeHashes true to precompute hashes
+     */
+    public void setComputeHashes(boolean computeHashes) { this.computeHashes = computeHashes; }
+
+    /**
+     * get the number of threads used. 0 means that the common
+     * ForkJoinPool is used, i.e. all available cores
+     * @return number of threads
+     */
+    public int getParallelism() { return parallelism; }
+
+    /**
+     * set the number of threads used. Set to 0 to use the common
+     * ForkJoinPool (i.e. all available cores), and to 1 to
+     * do all computation on the calling thread
+     * @param parallelism number of threads
+     */
+    public void setParallelism(int parallelism) {
+        if(parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative: "+parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * get the minimum number of nodes of a game tree (or the minimum number
+     * of nodes handled by one task) before work is split across threads
+     * @return the threshold
+     */
+    public int getParallelThreshold() { return parallelThreshold; }
+
+    /**
+     * set the minimum number of nodes of a game tree (or the minimum number
+     * of nodes handled by one task) before work is split across threads.
+     * Small trees are faster processed on one thread.
+     * @param parallelThreshold the threshold, must be at least 1
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if(parallelThreshold < 1) {
+            throw new IllegalArgumentException("parallel threshold must be at least 1: "+parallelThreshold);
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.util.ArrayList;
+
+/**
+ * Resolves moves in SAN, given as bytes (cf. {@code PgnLexer}),
+ * to moves on a board. The rules are the same as for the
+ * string based parsing in {@code PgnReader}: a piece move is resolved
+ * among the pieces that match the disambiguation, or among all pieces
+ * if none matches, and only legal moves are taken into account if more
+ * than one piece can reach the target square. In addition, a disambiguation
+ * by file and rank, like Qh4e1, is resolved, which {@code PgnReader} does not parse.
+ */
+final class SanResolver {
+
+    /**
+     * returned by {@code resolve} for moves that match more than one legal move
+     */
+    static final Move AMBIGUOUS = new Move();
+
+    private SanResolver() {
+    }
+
+    private static boolean isCol(int c) {
+        return c >= 'a' && c <= 'h';
+    }
+
+    private static boolean isRow(int c) {
+        return c >= '1' && c <= '8';
+    }
+
+    private static int pieceType(int c) {
+        switch(c) {
+            case 'N': return CONSTANTS.KNIGHT;
+            case 'B': return CONSTANTS.BISHOP;
+            case 'R': return CONSTANTS.ROOK;
+            case 'Q': return CONSTANTS.QUEEN;
+            case 'K': return CONSTANTS.KING;
+            default: return -1;
+        }
+    }
+
+    /**
+     * resolve a move in SAN, like e4, exd5, e8=Q, Nbd2, R1e2, O-O or --
+     * @param board the position
+     * @param b bytes of the move
+     * @param start start of the move within b
+     * @param length length of the move
+     * @return the move, AMBIGUOUS if more than one legal move matches,
+     *         or null if the move can not be resolved
+     */
+    static Move resolve(Board board, byte[] b, int start, int length) {
+
+        // strip check and mate symbols
+        int end = start + length;
+        while(end > start && (b[end - 1] == '+' || b[end - 1] == '#')) {
+            end--;
+        }
+        if(end - start < 2) {
+            return null;
+        }
+        int first = b[start];
+        if(first == '-' && b[start + 1] == '-') {
+            Move m = new Move();
+            m.isNullMove = true;
+            return m;
+        }
+        if(first == 'O' || first == '0') {
+            return resolveCastling(board, b, start, end);
+        }
+        // promotion, like e8=Q or e8Q
+        char promotion = 0;
+        if(pieceType(b[end - 1]) > 0 && b[end - 1] != 'K') {
+            promotion = (char) b[end - 1];
+            end--;
+            if(end > start && b[end - 1] == '=') {
+                end--;
+            }
+        }
+        if(end - start < 2 || !isCol(b[end - 2]) || !isRow(b[end - 1])) {
+            return null;
+        }
+        int toCol = b[end - 2] - 'a';
+        int toRow = b[end - 1] - '1';
+        int piece = pieceType(first);
+        if(piece < 0 && !isCol(first)) {
+            return null;
+        }
+        // disambiguation between the piece (or the file of a pawn)
+        // and the target square, like the b in Nbd2
+        int fromCol = -1;
+        int fromRow = -1;
+        for(int i = start + 1; i < end - 2; i++) {
+            if(isCol(b[i])) {
+                fromCol = b[i] - 'a';
+            } else if(isRow(b[i])) {
+                fromRow = b[i] - '1';
+            }
+        }
+        if(piece < 0) {
+            return resolvePawn(board, first - 'a', toCol, toRow, promotion);
+        }
+        return resolvePiece(board, piece, fromCol, fromRow, toCol, toRow);
+    }
+
+    private static Move resolveCastling(Board board, byte[] b, int start, int end) {
+        boolean white = board.turn == CONSTANTS.WHITE;
+        if(end - start >= 5 && b[start + 3] == '-') {
+            return white ? new Move(CONSTANTS.E1, CONSTANTS.C1) : new Move(CONSTANTS.E8, CONSTANTS.C8);
+        }
+        if(end - start >= 3 && b[start + 1] == '-') {
+            return white ? new Move(CONSTANTS.E1, CONSTANTS.G1) : new Move(CONSTANTS.E8, CONSTANTS.G8);
+        }
+        return null;
+    }
+
+    private static Move resolvePawn(Board board, int col, int toCol, int toRow, char promotion) {
+        int fromRow = -1;
+        if(col != toCol) {
+            // capture, the pawn must be on the neighbouring file one row back
+            if(board.turn == CONSTANTS.WHITE && toRow - 1 >= 0
+                    && board.getPieceAt(col, toRow - 1) == CONSTANTS.WHITE_PAWN) {
+                fromRow = toRow - 1;
+            } else if(board.turn == CONSTANTS.BLACK && toRow + 1 <= 7
+                    && board.getPieceAt(col, toRow + 1) == CONSTANTS.BLACK_PAWN) {
+                fromRow = toRow + 1;
+            }
+        } else if(board.turn == CONSTANTS.WHITE) {
+            for(int row = toRow - 1; row >= 1; row--) {
+                if(board.getPieceAt(col, row) == CONSTANTS.WHITE_PAWN) {
+                    fromRow = row;
+                    break;
+                }
+            }
+        } else {
+            for(int row = toRow + 1; row <= 7; row++) {
+                if(board.getPieceAt(col, row) == CONSTANTS.BLACK_PAWN) {
+                    fromRow = row;
+                    break;
+                }
+            }
+        }
+        if(fromRow < 0) {
+            return null;
+        }
+        if(promotion != 0) {
+            return new Move(col, fromRow, toCol, toRow, promotion);
+        }
+        return new Move(col, fromRow, toCol, toRow);
+    }
+
+    private static Move resolvePiece(Board board, int piece, int fromCol, int fromRow, int toCol, int toRow) {
+        int to = Board.xyToInternal(toCol, toRow);
+        ArrayList<Move> pseudos = board.pseudoLegalMoves(CONSTANTS.ANY_SQUARE, to, piece, false, board.turn);
+        if(fromCol >= 0 || fromRow >= 0) {
+            ArrayList<Move> filter = new ArrayList<>();
+            for(Move m : pseudos) {
+                if((fromCol < 0 || (m.from % 10) - 1 == fromCol) && (fromRow < 0 || (m.from / 10) - 2 == fromRow)) {
+                    filter.add(m);
+                }
+            }
+            // a disambiguation that matches no piece is ignored
+            if(!filter.isEmpty()) {
+                pseudos = filter;
+            }
+        }
+        if(pseudos.size() == 1) {
+            return pseudos.get(0);
+        }
+        ArrayList<Move> legals = board.legalsFromPseudos(pseudos);
+        if(legals.size() == 1) {
+            return legals.get(0);
+        }
+        if(legals.size() > 1) {
+            return AMBIGUOUS;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Jchesslib - A Java Chess Library
+ * The MIT License
+ *
+ * Copyright 2022 Dominik Klein
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.github.asdfjkl.jchesslib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fills SAN, check/checkmate status and hashes of all nodes of game trees.
+ * Work is done in two phases. First the status and hashes of each node are computed
+ * (only touching the board of that node), then the SAN of each child is computed
+ * from the board of its parent (only touching the board of the parent). Within
+ * a phase no two tasks access the same board, hence node ranges can be
+ * processed in parallel.
+ */
+final class TreePrecomputer {
+
+    private static final int PHASE_STATUS = 0;
+    private static final int PHASE_SAN = 1;
+
+    private TreePrecomputer() {}
+
+    static void precompute(Game g, PrecomputeOptions options) {
+        GameNode[] nodes = collectNodes(g.getRootNode());
+        if(options.getParallelism() == 1 || nodes.length < options.getParallelThreshold()) {
+            processRange(nodes, 0, nodes.length, PHASE_STATUS, options);
+            processRange(nodes, 0, nodes.length, PHASE_SAN, options);
+            return;
+        }
+        ForkJoinPool pool = createPool(options);
+        try {
+            pool.invoke(new NodeRangeTask(nodes, 0, nodes.length, PHASE_STATUS, options));
+            pool.invoke(new NodeRangeTask(nodes, 0, nodes.length, PHASE_SAN, options));
+        } finally {
+            shutdownPool(pool);
+        }
+    }
+
+    static void precompute(List<Game> games, PrecomputeOptions options) {
+        if(options.getParallelism() == 1 || games.size() < 2) {
+            for(Game g : games) {
+                GameNode[] nodes = collectNodes(g.getRootNode());
+                processRange(nodes, 0, nodes.length, PHASE_STATUS, options);
+                processRange(nodes, 0, nodes.length, PHASE_SAN, options);
+            }
+            return;
+        }
+        ForkJoinPool pool = createPool(options);
+        try {
+            pool.invoke(new GameRangeTask(games, 0, games.size(), options));
+        } finally {
+            shutdownPool(pool);
+        }
+    }
+
+    private static ForkJoinPool createPool(PrecomputeOptions options) {
+        if(options.getParallelism() == 0) {
+            return ForkJoinPool.commonPool();
+        } else {
+            return new ForkJoinPool(options.getParallelism());
+        }
+    }
+
+    private static void shutdownPool(ForkJoinPool pool) {
+        if(pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    private static GameNode[] collectNodes(GameNode root) {
+        ArrayList<GameNode> nodes = new ArrayList<>();
+        GameNodeIterator it = new GameNodeIterator(root);
+        while(it.hasNext()) {
+            nodes.add(it.next());
+        }
+        return nodes.toArray(new GameNode[0]);
+    }
+
+    private static void processRange(GameNode[] nodes, int from, int to, int phase, PrecomputeOptions options) {
+        boolean needStatus = options.isComputeStatus() || options.isComputeSan();
+        for(int i=from;i<to;i++) {
+            GameNode node = nodes[i];
+            if(node.getBoard() == null) {
+                continue;
+            }
+            if(phase == PHASE_STATUS) {
+                if(needStatus) {
+                    node.computeStatus();
+                }
+                if(options.isComputeHashes()) {
+                    node.computeHashes();
+                }
+            } else if(options.isComputeSan()) {
+                // node acts as parent here: its board is used to
+                // render the moves leading to all of its children
+                Board board = node.getBoard();
+                for(GameNode child : node.getVariations()) {
+                    child.setSanCache(board.san(child.getMove(), child.isCheck(), child.isCheckmate()));
+                }
+            }
+        }
+    }
+
+    private static class NodeRangeTask extends RecursiveAction {
+
+        private final GameNode[] nodes;
+        private final int from;
+        private final int to;
+        private final int phase;
+        private final PrecomputeOptions options;
+
+        NodeRangeTask(GameNode[] nodes, int from, int to, int phase, PrecomputeOptions options) {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+            this.phase = phase;
+            this.options = options;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= options.getParallelThreshold()) {
+                processRange(nodes, from, to, phase, options);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new NodeRangeTask(nodes, from, middle, phase, options),
+                        new NodeRangeTask(nodes, middle, to, phase, options));
+            }
+        }
+    }
+
+    private static class GameRangeTask extends RecursiveAction {
+
+        private final List<Game> games;
+        private final int from;
+        private final int to;
+        private final PrecomputeOptions options;
+
+        GameRangeTask(List<Game> games, int from, int to, PrecomputeOptions options) {
+            this.games = games;
+            this.from = from;
+            this.to = to;
+            this.options = options;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= 1) {
+                for(int i=from;i<to;i++) {
+                    GameNode[] nodes = collectNodes(games.get(i).getRootNode());
+                    processRange(nodes, 0, nodes.length, PHASE_STATUS, options);
+                    processRange(nodes, 0, nodes.length, PHASE_SAN, options);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new GameRangeTask(games, from, middle, options),
+                        new GameRangeTask(games, middle, to, options));
+            }
+        }
+    }
+
+}
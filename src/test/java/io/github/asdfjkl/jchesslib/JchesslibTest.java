@@ -3,9 +3,19 @@ package io.github.asdfjkl.jchesslib;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Unit tests for jchesslib.
@@ -446,4 +456,1543 @@ public class JchesslibTest
     }
 
 
+    @Test
+    public void precomputeTest() {
+
+        System.out.println("TEST: precomputeTest");
+
+        String s = "[Event \"Berlin\"]\n" +
+                "[Result \"1-0\"]\n" +
+                "\n" +
+                "1.e4 e5 2.Nf3 Nc6 3.Bc4 Bc5 4.b4 Bxb4 5.c3 Ba5 6.d4 exd4 7.O-O\n" +
+                "d3 8.Qb3 Qf6 9.e5 Qg6 10.Re1 Nge7 11.Ba3 b5 12.Qxb5 Rb8 13.Qa4\n" +
+                "Bb6 14.Nbd2 Bb7 15.Ne4 Qf5 16.Bxd3 Qh5 17.Nf6+ gxf6 18.exf6\n" +
+                "Rg8 19.Rad1 Qxf3 20.Rxe7+ Nxe7 21.Qxd7+ Kxd7 22.Bf5+ Ke8\n" +
+                "23.Bd7+ Kf8 24.Bxe7# 1-0";
+        PgnReader reader = new PgnReader();
+        PgnPrinter printer = new PgnPrinter();
+        String expected = printer.printGame(reader.readGame(s));
+
+        Game g = reader.readGame(s);
+        PrecomputeOptions options = new PrecomputeOptions();
+        options.setParallelism(2);
+        options.setParallelThreshold(1);
+        g.precompute(options);
+        assertTrue(g.getEndNode().isCheckmate());
+        assertEquals(g.getEndNode().getZobrist(), g.getEndNode().getBoard().getZobrist());
+        assertEquals(printer.printGame(g), expected);
+
+        ArrayList<Game> games = new ArrayList<>();
+        for(int i=0;i<4;i++) {
+            games.add(reader.readGame(s));
+        }
+        Game.precompute(games, options);
+        for(Game gi : games) {
+            assertEquals(printer.printGame(gi), expected);
+        }
+
+    }
+
+    @Test
+    public void openingTreeTest() {
+
+        System.out.println("TEST: openingTreeTest");
+
+        Move promotion = new Move("e7e8q");
+        assertEquals(Move.unpack(promotion.pack()).getUci(), promotion.getUci());
+        Move m = new Move("g1f3");
+        assertEquals(Move.unpack(m.pack()).getUci(), "g1f3");
+
+        PgnReader reader = new PgnReader();
+        ArrayList<Game> games = new ArrayList<>();
+        for(int i=0;i<100;i++) {
+            String result = i % 2 == 0 ? "1-0" : "1/2-1/2";
+            String moves = i % 4 < 2 ? "1.e4 e5 2.Nf3 Nc6 " : "1.Nf3 Nc6 2.e4 e5 ";
+            games.add(reader.readGame("[Result \"" + result + "\"]\n[WhiteElo \"2400\"]\n" +
+                    "[BlackElo \"2600\"]\n\n" + moves + result));
+        }
+
+        OpeningTree sequential = OpeningTree.build(games, 40, 1);
+        int root = sequential.getPosition(new Board(true));
+        assertEquals(sequential.getGameCount(root), 100);
+        assertEquals(sequential.getWhiteWins(root), 50);
+        assertEquals(sequential.getDraws(root), 50);
+        assertEquals(sequential.getAverageElo(root), 2500);
+        assertEquals(sequential.getMoveCount(root, new Move("e2e4")), 50);
+        // both move orders transpose into the same position
+        int e4 = sequential.getChild(root, new Move("e2e4"));
+        int nf3 = sequential.getChild(root, new Move("g1f3"));
+        int end1 = sequential.getChild(sequential.getChild(sequential.getChild(e4, new Move("e7e5")), new Move("g1f3")), new Move("b8c6"));
+        int end2 = sequential.getChild(sequential.getChild(sequential.getChild(nf3, new Move("b8c6")), new Move("e2e4")), new Move("e7e5"));
+        assertEquals(end1, end2);
+        assertEquals(sequential.getGameCount(end1), 100);
+        assertEquals(sequential.getChild(root, new Move("d2d4")), -1);
+
+        OpeningTree parallel = OpeningTree.build(games, 40, 4);
+        assertEquals(parallel.size(), sequential.size());
+        assertEquals(parallel.getEdgeCount(), sequential.getEdgeCount());
+        int proot = parallel.getPosition(new Board(true));
+        assertEquals(parallel.getGameCount(proot), 100);
+        assertEquals(parallel.getWhiteScoreSum(proot), sequential.getWhiteScoreSum(root));
+        assertEquals(parallel.getMoves(proot).size(), 2);
+
+        // repeated positions and moves are counted once per game
+        OpeningTree repetition = new OpeningTree();
+        repetition.addGame(reader.readGame("[Result \"1-0\"]\n\n1.Nf3 Nf6 2.Ng1 Ng8 3.Nf3 Nf6 4.Ng1 Ng8 1-0"));
+        int start = repetition.getPosition(new Board(true));
+        assertEquals(repetition.getGameCount(start), 1);
+        assertEquals(repetition.getWhiteWins(start), 1);
+        assertEquals(repetition.getMoveCount(start, new Move("g1f3")), 1);
+        assertEquals(repetition.size(), 4);
+
+    }
+
+    private String sanSequence(GameNodeIterator it) {
+        StringBuilder sb = new StringBuilder();
+        while(it.hasNext()) {
+            GameNode node = it.next();
+            if(node.getParent() != null) {
+                sb.append(node.getSan()).append(" ");
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void treeTraversalTest() {
+
+        System.out.println("TEST: treeTraversalTest");
+
+        PgnReader reader = new PgnReader();
+        Game g = reader.readGame("1.e4 (1.d4 d5) e5 2.Nf3 (2.Nc3) Nc6 *");
+        assertEquals(sanSequence(g.iterator(GameNodeIterator.PRE_ORDER)), "e4 e5 Nf3 Nc6 Nc3 d4 d5");
+        assertEquals(sanSequence(g.iterator(GameNodeIterator.POST_ORDER)), "Nc6 Nf3 Nc3 e5 e4 d5 d4");
+        assertEquals(sanSequence(g.iterator(GameNodeIterator.MAINLINE_FIRST)), "e4 e5 Nf3 Nc6 d4 d5 Nc3");
+
+        // PGN order, skipping the nodes after d4
+        StringBuilder pgnOrder = new StringBuilder();
+        g.acceptInPgnOrder(new GameNodeVisitor() {
+            @Override
+            public boolean visit(GameNode node) {
+                pgnOrder.append(node.getSan()).append(' ');
+                return !node.getSan().equals("d4");
+            }
+            @Override
+            public void beginVariation() {
+                pgnOrder.append("( ");
+            }
+            @Override
+            public void endVariation() {
+                pgnOrder.append(") ");
+            }
+        });
+        assertEquals(pgnOrder.toString().trim(), "e4 ( d4 ) e5 Nf3 ( Nc3 ) Nc6");
+        assertTrue(new PgnPrinter().printGame(g).contains("1. e4 ( 1. d4 d5 ) 1... e5 2. Nf3 ( 2. Nc3 ) 2... Nc6 *"));
+        String html = new HtmlPrinter().printGame(g);
+        assertTrue(html.matches("(?s)<b><span[^>]*><a[^>]*>1\\. e4.*\\[ <span[^>]*><a[^>]*>1\\. d4.*"));
+        assertTrue(html.matches("(?s).*<b><span[^>]*><a[^>]*>2\\.\\.\\. Nc6.*"));
+
+        AtomicInteger visited = new AtomicInteger();
+        g.acceptParallel(node -> { visited.incrementAndGet(); return true; }, 2);
+        assertEquals(visited.get(), g.getAllIds().size());
+
+        // a long main line with a variation at every fourth move
+        // overflowed the stack when printing recursively
+        Game deep = new Game();
+        deep.resetWithNewRootBoard(new Board(true));
+        String[] moves = { "g1f3", "g8f6", "f3g1", "f6g8" };
+        for(int i=0;i<20000;i++) {
+            GameNode current = deep.getCurrentNode();
+            deep.applyMove(new Move(moves[i % 4]));
+            if(i % 4 == 0) {
+                deep.setCurrent(current);
+                deep.applyMove(new Move("b1c3"));
+                deep.goToParent();
+                deep.goToChild(0);
+            }
+        }
+        deep.getEndNode().setComment("end");
+        String pgn = new PgnPrinter().printGame(deep);
+        assertTrue(pgn.contains("{ end }"));
+        assertEquals(deep.getAllIds().size(), 25001);
+        deep.removeAllComments();
+        assertTrue(deep.getEndNode().getComment().isEmpty());
+        assertEquals(deep.findNodeById(deep.getEndNode().getId()), deep.getEndNode());
+
+    }
+
+    @Test
+    public void childIndexTest() {
+
+        System.out.println("TEST: childIndexTest");
+
+        Game g = new Game();
+        g.resetWithNewRootBoard(new Board(true));
+        GameNode root = g.getRootNode();
+        ArrayList<Move> moves = root.getBoard().legalMoves();
+        for(int k=0;k<2;k++) {
+            for(Move m : moves) {
+                g.setCurrent(root);
+                g.applyMove(m);
+            }
+        }
+        assertEquals(root.getVariations().size(), moves.size());
+        for(Move m : moves) {
+            assertEquals(root.findChild(m).getMove().getUci(), m.getUci());
+        }
+
+        GameNode last = root.findChild(moves.get(moves.size() - 1));
+        g.moveUp(last);
+        g.delVariant(last);
+        assertNull(root.findChild(moves.get(moves.size() - 1)));
+        g.setCurrent(root);
+        g.applyMove(moves.get(moves.size() - 1));
+        assertEquals(root.getVariations().size(), moves.size());
+
+        // edits of the list of variations that keep its size
+        Move a = moves.get(0);
+        Move b = moves.get(moves.size() - 1);
+        GameNode first = root.findChild(a);
+        GameNode removed = root.getVariations().remove(root.getVariations().size() - 1);
+        assertNull(root.findChild(b));
+        root.getVariations().set(root.getVariations().indexOf(first), removed);
+        assertNull(root.findChild(a));
+        assertEquals(root.findChild(b), removed);
+        root.getVariations().remove(removed);
+        root.getVariations().add(first);
+        assertNull(root.findChild(b));
+        assertEquals(root.findChild(a), first);
+        g.setCurrent(root);
+        g.applyMove(a);
+        assertEquals(g.getCurrentNode(), first);
+        assertEquals(root.getVariations().size(), moves.size() - 1);
+
+    }
+
+    @Test
+    public void mainlineCacheTest() {
+
+        System.out.println("TEST: mainlineCacheTest");
+
+        PgnReader reader = new PgnReader();
+        Game g = reader.readGame("1.e4 (1.d4 d5 2.c4) e5 2.Nf3 *");
+        assertEquals(g.countHalfmoves(), 3);
+        assertEquals(g.getMainlineNode(2).getSan(), "e5");
+
+        g.goToEnd();
+        g.applyMove(new Move("b8c6"));
+        assertEquals(g.countHalfmoves(), 4);
+        assertEquals(g.getEndNode().getSan(), "Nc6");
+        assertEquals(g.getMainlineNode(4), g.getEndNode());
+
+        // promoting the sideline changes the main line
+        g.moveUp(g.getRootNode().getVariation(1));
+        assertEquals(g.countHalfmoves(), 3);
+        assertEquals(g.getEndNode().getSan(), "c4");
+
+        g.delBelow(g.getMainlineNode(1));
+        assertEquals(g.countHalfmoves(), 1);
+
+        // edits are detected, also at the end of the main line
+        g.goToEnd();
+        g.applyMove(new Move("d7d5"));
+        GameNode end = g.getEndNode();
+        GameNode next = new GameNode();
+        Board b = end.getBoard().makeCopy();
+        b.apply(new Move("c2c4"));
+        next.setBoard(b);
+        next.setMove(new Move("c2c4"));
+        next.setParent(end);
+        end.addVariation(next);
+        assertEquals(g.countHalfmoves(), 3);
+
+        // and on inner nodes, through GameNode or the list of variations
+        g = reader.readGame("1.e4 (1.d4 d5 2.c4) e5 2.Nf3 (2.f4) Nc6 *");
+        GameNode first = g.getMainlineNode(1);
+        assertEquals(g.countHalfmoves(), 4);
+        first.deleteVariation(0);
+        assertEquals(g.countHalfmoves(), 1);
+        g = reader.readGame("1.e4 (1.d4 d5 2.c4) e5 2.Nf3 (2.f4) Nc6 *");
+        assertEquals(g.getEndNode().getSan(), "Nc6");
+        GameNode e5 = g.getMainlineNode(2);
+        Collections.swap(e5.getVariations(), 0, 1);
+        assertEquals(g.countHalfmoves(), 3);
+        assertEquals(g.getEndNode().getSan(), "f4");
+        e5.getVariations().subList(0, 2).set(0, e5.getVariation(1));
+        assertEquals(g.getEndNode().getSan(), "Nc6");
+        g.getRootNode().getVariations().add(0, g.getRootNode().getVariations().remove(1));
+        assertEquals(g.countHalfmoves(), 3);
+        assertEquals(g.getMainlineNode(3).getSan(), "c4");
+        GameNode c4 = g.getEndNode();
+        Game other = reader.readGame("1.e4 e5 2.Nf3 Nc6 *");
+        GameNode sideline = other.getRootNode().getVariation(0);
+        // a subtree of another game becomes part of this tree
+        c4.getVariations().add(sideline);
+        assertEquals(g.countHalfmoves(), 7);
+        sideline.getVariation(0).deleteVariation(0);
+        assertEquals(g.countHalfmoves(), 5);
+
+    }
+
+    // writes a PGN with many games, including comments that span
+    // several lines and contain empty lines followed by header-like lines
+    private File writeScanTestPgn(String lineEnd) throws IOException {
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        StringBuilder sb = new StringBuilder();
+        for(int i=0;i<300;i++) {
+            if(i % 7 == 0) {
+                sb.append("% escaped line").append(lineEnd);
+            }
+            sb.append("[Event \"Game ").append(i).append("\"]").append(lineEnd);
+            sb.append("[Result \"*\"]").append(lineEnd);
+            sb.append(lineEnd);
+            sb.append("1.e4 e5 2.Nf3").append(lineEnd);
+            if(i % 5 == 0) {
+                sb.append("{ a comment").append(lineEnd).append(lineEnd);
+                sb.append("[Event \"not a game\"]").append(lineEnd);
+                sb.append("} Nc6 *").append(lineEnd);
+            } else {
+                sb.append("Nc6 *").append(lineEnd);
+            }
+            sb.append(lineEnd);
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    // line based reference implementation of PgnReader.scanPgn
+    private ArrayList<Long> scanPgnLines(String filename) throws IOException {
+        ArrayList<Long> offsets = new ArrayList<>();
+        boolean inComment = false;
+        long game_pos = -1;
+        long last_pos = 0;
+        String currentLine;
+        OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(filename, "r");
+        while ((currentLine = raf.readLine()) != null) {
+            if (currentLine.startsWith("%")) {
+                continue;
+            }
+            if (!inComment && currentLine.startsWith("[")) {
+                if (game_pos == -1) {
+                    game_pos = last_pos;
+                }
+                last_pos = raf.getFilePointer();
+                continue;
+            }
+            if ((!inComment && currentLine.contains("{"))
+                    || (inComment && currentLine.contains("}"))) {
+                inComment = currentLine.lastIndexOf("{") > currentLine.lastIndexOf("}");
+            }
+            if (game_pos != -1) {
+                offsets.add(game_pos);
+                game_pos = -1;
+            }
+            last_pos = raf.getFilePointer();
+        }
+        raf.close();
+        return offsets;
+    }
+
+    @Test
+    public void parallelScanTest() throws IOException {
+
+        System.out.println("TEST: parallelScanTest");
+
+        PgnReader reader = new PgnReader();
+        for(String lineEnd : new String[] { "\n", "\r\n", "\r" }) {
+            File file = writeScanTestPgn(lineEnd);
+            ArrayList<Long> expected = scanPgnLines(file.getPath());
+            assertEquals(expected.size(), 300);
+            assertEquals(reader.scanPgn(file.getPath()), expected);
+            ArrayList<PgnItem> items = reader.scanPgnGetSTR(file.getPath());
+            assertEquals(items.size(), 300);
+            assertEquals(items.get(299).getEvent(), "Game 299");
+            assertEquals((Long) items.get(299).getOffset(), expected.get(299));
+            ArrayList<Long> scanned = new ArrayList<>();
+            ParallelPgnScanner.scan(file.getPath(), 4, 256, scanned);
+            assertEquals(scanned, expected);
+            assertEquals(reader.scanPgnParallel(file.getPath()), expected);
+        }
+
+        // errors are reported instead of returning incomplete offsets silently
+        ArrayList<Exception> errors = new ArrayList<>();
+        PgnReader reporting = new PgnReader();
+        reporting.setReadListener(new PgnReadListener() {
+            @Override
+            public void readError(Exception e) {
+                errors.add(e);
+            }
+        });
+        String missing = writeScanTestPgn("\n").getPath() + ".missing";
+        assertTrue(reporting.scanPgnParallel(missing, 4).isEmpty());
+        assertEquals(errors.size(), 1);
+        try {
+            ParallelPgnScanner.scan(missing, 4, 256, new ArrayList<>());
+            fail();
+        } catch (IOException e) {
+            assertTrue(e instanceof java.nio.file.NoSuchFileException);
+        }
+
+    }
+
+    @Test
+    public void streamGamesTest() throws IOException {
+
+        System.out.println("TEST: streamGamesTest");
+
+        PgnReader reader = new PgnReader();
+        for(String lineEnd : new String[] { "\n", "\r\n" }) {
+            File file = writeScanTestPgn(lineEnd);
+            ArrayList<Long> offsets = reader.scanPgn(file.getPath());
+            ArrayList<String> expected = new ArrayList<>();
+            OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(file.getPath(), "r");
+            for(Long offset : offsets) {
+                raf.seek(offset);
+                expected.add(new PgnPrinter().printGame(reader.readGame(raf)));
+            }
+            // reading past the last game must not fail
+            reader.readGame(raf);
+            raf.close();
+
+            ArrayList<String> iterated = new ArrayList<>();
+            try(PgnGameIterator it = reader.iterateGames(file.getPath())) {
+                while(it.hasNext()) {
+                    iterated.add(new PgnPrinter().printGame(it.next()));
+                }
+            }
+            assertEquals(iterated, expected);
+
+            try(Stream<Game> games = reader.streamGames(file.getPath())) {
+                assertEquals(games.map(g -> new PgnPrinter().printGame(g)).collect(Collectors.toList()), expected);
+            }
+            try(Stream<Game> games = reader.streamGames(file.getPath()).parallel()) {
+                assertEquals(games.map(g -> new PgnPrinter().printGame(g)).collect(Collectors.toList()), expected);
+            }
+        }
+
+    }
+
+    @Test
+    public void parallelPgnReaderTest() throws IOException {
+
+        System.out.println("TEST: parallelPgnReaderTest");
+
+        File file = writeScanTestPgn("\n");
+        ArrayList<String> expected = new ArrayList<>();
+        try(PgnGameIterator it = new PgnReader().iterateGames(file.getPath())) {
+            while(it.hasNext()) {
+                expected.add(new PgnPrinter().printGame(it.next()));
+            }
+        }
+
+        ArrayList<String> ordered = new ArrayList<>();
+        try(ParallelPgnReader reader = new ParallelPgnReader(file.getPath())) {
+            reader.setParallelism(4);
+            reader.setQueueCapacity(8);
+            while(reader.hasNext()) {
+                ordered.add(new PgnPrinter().printGame(reader.next()));
+            }
+        }
+        assertEquals(ordered, expected);
+
+        ArrayList<String> unordered = new ArrayList<>();
+        try(ParallelPgnReader reader = new ParallelPgnReader(file.getPath())) {
+            reader.setParallelism(4);
+            reader.setOrdered(false);
+            while(reader.hasNext()) {
+                unordered.add(new PgnPrinter().printGame(reader.next()));
+            }
+        }
+        Collections.sort(unordered);
+        ArrayList<String> sorted = new ArrayList<>(expected);
+        Collections.sort(sorted);
+        assertEquals(unordered, sorted);
+
+        // closing before all games are consumed must not block
+        try(ParallelPgnReader reader = new ParallelPgnReader(file.getPath())) {
+            reader.setQueueCapacity(1);
+            assertTrue(reader.hasNext());
+        }
+
+        // failures of the reader and of the workers end the iteration
+        for(boolean inOrder : new boolean[] { true, false }) {
+            try(ParallelPgnReader reader = new ParallelPgnReader(file.getPath() + ".missing")) {
+                reader.setOrdered(inOrder);
+                reader.hasNext();
+                fail();
+            } catch (java.io.UncheckedIOException e) {
+                assertTrue(e.getCause() instanceof java.nio.file.NoSuchFileException);
+            }
+            try(ParallelPgnReader reader = new ParallelPgnReader(file.getPath())) {
+                reader.setOrdered(inOrder);
+                reader.setHeaderFilter(h -> { throw new IllegalStateException("filter"); });
+                while(reader.hasNext()) {
+                    reader.next();
+                }
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals(e.getMessage(), "filter");
+            }
+        }
+
+    }
+
+    @Test
+    public void pgnIndexTest() throws IOException {
+
+        System.out.println("TEST: pgnIndexTest");
+
+        File file = writeScanTestPgn("\r\n");
+        File indexFile = new File(file.getPath() + PgnIndex.SUFFIX);
+        indexFile.deleteOnExit();
+
+        PgnReader reader = new PgnReader();
+        ArrayList<Long> offsets = reader.scanPgn(file.getPath());
+        ArrayList<PgnItem> items = reader.scanPgnGetSTR(file.getPath());
+
+        PgnIndex built = PgnIndex.open(file.getPath());
+        assertTrue(indexFile.exists());
+        PgnIndex mapped = PgnIndex.open(file.getPath());
+        assertTrue(mapped.isUpToDate(file.getPath()));
+
+        for(PgnIndex index : new PgnIndex[] { built, mapped }) {
+            assertEquals(index.size(), offsets.size());
+            for(int i=0;i<index.size();i++) {
+                assertEquals(index.getOffset(i), (long) offsets.get(i));
+                assertEquals(index.getEvent(i), items.get(i).getEvent());
+                assertEquals(index.getEvent(i), "Game " + i);
+                assertEquals(index.getResult(i), "*");
+                assertEquals(index.getWhite(i), "");
+            }
+            long last = index.getOffset(index.size() - 1) + index.getLength(index.size() - 1);
+            assertEquals(last, file.length());
+        }
+
+        // changing the PGN invalidates the index
+        Files.write(file.toPath(), "[Event \"new\"]\n\n1.e4 *\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertFalse(mapped.isUpToDate(file.getPath()));
+        PgnIndex rebuilt = PgnIndex.open(file.getPath());
+        assertEquals(rebuilt.size(), 1);
+        assertEquals(rebuilt.getEvent(0), "new");
+
+    }
+
+    @Test
+    public void pgnIndexRefreshTest() throws IOException {
+
+        System.out.println("TEST: pgnIndexRefreshTest");
+
+        File file = writeScanTestPgn("\n");
+        new File(file.getPath() + PgnIndex.SUFFIX).deleteOnExit();
+        PgnIndex index = PgnIndex.open(file.getPath());
+        assertTrue(index.refresh(file.getPath()) == index);
+
+        // append a game, with the last line only partially written
+        Files.write(file.toPath(), "[Event \"appended\"]\n[White \"Carl\"]\n\n1.e4 e5 2.N".getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.APPEND);
+        PgnIndex partial = index.refresh(file.getPath());
+        assertEquals(partial.size(), index.size() + 1);
+        assertEquals(partial.getEvent(index.size()), "appended");
+
+        Files.write(file.toPath(), "f3 *\n\n[Event \"last\"]\n[White \"Carl\"]\n\n1.d4 *\n".getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.APPEND);
+        PgnIndex refreshed = partial.refresh(file.getPath());
+        PgnIndex rebuilt = PgnIndex.build(file.getPath(), "UTF-8");
+        assertEquals(refreshed.size(), index.size() + 2);
+        assertEquals(refreshed.size(), rebuilt.size());
+        for(int i=0;i<rebuilt.size();i++) {
+            assertEquals(refreshed.getOffset(i), rebuilt.getOffset(i));
+            assertEquals(refreshed.getLength(i), rebuilt.getLength(i));
+            assertEquals(refreshed.getEvent(i), rebuilt.getEvent(i));
+            assertEquals(refreshed.getWhite(i), rebuilt.getWhite(i));
+        }
+        assertEquals(refreshed.getWhite(refreshed.size() - 1), "Carl");
+
+        // the refreshed index is written and mapped again
+        assertEquals(PgnIndex.open(file.getPath()).size(), rebuilt.size());
+        assertEquals(PgnIndex.open(file.getPath()).getEvent(rebuilt.size() - 1), "last");
+
+    }
+
+    @Test
+    public void parseOptionsTest() throws IOException {
+
+        System.out.println("TEST: parseOptionsTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        String pgn = "[Event \"Options\"]\n[White \"A\"]\n[Black \"B\"]\n"
+                + "[FEN \"rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1\"]\n\n"
+                + "1...e5 $1 2.Nf3!? (2.f4 { a (comment) with\n\n a ( and an empty line }\n"
+                + "exf4 (2...d5) 3.Nf3) Nc6?? { end\n"
+                + "} 3.Bb5 (3.Bc4 Bc5 (3...Nf6)\n"
+                + "4.c3) a6 *\n\n"
+                + "[Event \"Second\"]\n[White \"C\"]\n\n1.d4 (1.c4) d5 *\n";
+        Files.write(file.toPath(), pgn.getBytes(StandardCharsets.ISO_8859_1));
+
+        ArrayList<String> expected = new ArrayList<>();
+        try(PgnGameIterator it = new PgnReader().iterateGames(file.getPath())) {
+            while(it.hasNext()) {
+                Game g = it.next();
+                g.removeAllVariants();
+                g.removeAllComments();
+                g.removeAllAnnotations();
+                expected.add(new PgnPrinter().printGame(g));
+            }
+        }
+        assertEquals(expected.size(), 2);
+
+        PgnReader reader = new PgnReader();
+        reader.setSkipVariations(true);
+        reader.setSkipComments(true);
+        reader.setSkipNags(true);
+        ArrayList<String> skipped = new ArrayList<>();
+        try(PgnGameIterator it = reader.iterateGames(file.getPath())) {
+            while(it.hasNext()) {
+                skipped.add(new PgnPrinter().printGame(it.next()));
+            }
+        }
+        assertEquals(skipped, expected);
+
+        reader = new PgnReader();
+        reader.setSkipVariations(true);
+        reader.setKeptHeaders(Collections.singletonList("White"));
+        try(PgnGameIterator it = reader.iterateGames(file.getPath())) {
+            Game g = it.next();
+            assertEquals(g.getHeader("White"), "A");
+            assertFalse(g.getPgnHeaders().containsKey("Black"));
+            assertEquals(g.getRootNode().getBoard().turn, CONSTANTS.BLACK);
+            assertEquals(g.countHalfmoves(), 5);
+            assertEquals(g.getRootNode().getVariation(0).getVariation(0).getComment(), "");
+            assertEquals(g.getRootNode().getVariation(0).getVariation(0).getVariations().size(), 1);
+            assertEquals(it.next().getHeader("White"), "C");
+            assertFalse(it.hasNext());
+        }
+
+    }
+
+    @Test
+    public void packedGameTest() throws IOException {
+
+        System.out.println("TEST: packedGameTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        String pgn = "[Event \"Packed\"]\n\n"
+                + "1.e4 e5 $1 2.Nf3 (2.f4 exf4) Nc6 { comment } 3.Bb5 a6 4.O-O Nf6 1-0\n\n"
+                + "[Event \"Promotion\"]\n[FEN \"8/P7/8/8/8/8/8/k6K w - - 0 1\"]\n\n1.a8=Q+ Kb2 *\n";
+        Files.write(file.toPath(), pgn.getBytes(StandardCharsets.ISO_8859_1));
+
+        ArrayList<Game> games = new ArrayList<>();
+        try(PgnGameIterator it = new PgnReader().iterateGames(file.getPath())) {
+            while(it.hasNext()) {
+                games.add(it.next());
+            }
+        }
+
+        PgnReader reader = new PgnReader();
+        ArrayList<Long> zobrists = new ArrayList<>();
+        reader.setPlyCallback((ply, board) -> zobrists.add(board.getZobrist()));
+        OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(file.getPath(), "r");
+        ArrayList<PackedGame> packed = new ArrayList<>();
+        PackedGame p;
+        while((p = reader.readPackedGame(raf)) != null) {
+            packed.add(p);
+        }
+        raf.close();
+
+        assertEquals(packed.size(), games.size());
+        int z = 0;
+        for(int i=0;i<games.size();i++) {
+            Game g = games.get(i);
+            PackedGame pg = packed.get(i);
+            assertEquals(pg.getHeader("Event"), g.getHeader("Event"));
+            assertEquals(pg.getResult(), g.getResult());
+            assertEquals(pg.size(), g.countHalfmoves());
+            GameNode node = g.getRootNode();
+            assertEquals((long) zobrists.get(z++), node.getBoard().getZobrist());
+            for(int j=0;j<pg.size();j++) {
+                node = node.getVariation(0);
+                assertEquals(pg.getMove(j).getUci(), node.getMove().getUci());
+                assertEquals((long) zobrists.get(z++), node.getBoard().getZobrist());
+            }
+            assertEquals(pg.getFinalBoard().fen(), node.getBoard().fen());
+        }
+        assertEquals(z, zobrists.size());
+
+    }
+
+    private ArrayList<String> printAllGames(PgnReader reader, String filename) throws IOException {
+        ArrayList<String> printed = new ArrayList<>();
+        try(PgnGameIterator it = reader.iterateGames(filename)) {
+            while(it.hasNext()) {
+                printed.add(new PgnPrinter().printGame(it.next()));
+            }
+        }
+        return printed;
+    }
+
+    @Test
+    public void byteLexerTest() throws IOException {
+
+        System.out.println("TEST: byteLexerTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        String pgn = "[Event \"Lexer\"]\n[White \"Jos\u00e9\"]\n\n"
+                + "1.e4 e5 $1 2.Nf3!? (2.f4 { a (comment) with\n\n a ( and an empty line }\n"
+                + "exf4 (2...d5) 3.Nf3) Nc6?? {end} 3.Bb5 Nf6 4.O-O Nxe4 5.d4 Nd6 6.Bxc6 dxc6\n"
+                + "7.dxe5 Nf5 8.Qxd8+ Kxd8 9.Nc3 h6 10.Rd1+ Ke8 11.h3 Be7 12.Ne2 Nh4 13.Nxh4 Bxh4\n"
+                + "14.Be3 Bf5 15.Nd4 Bh7 16.g4 Be7 17.Kg2 h5 18.Nf5 Bf8 19.Kf3 Bg6 20.Rd2 hxg4+\n"
+                + "21.hxg4 Rh3+ 22.Kg2 Rh7 23.Kg3 f6 24.Bf4 Bxf5 25.gxf5 fxe5 26.Re1 Bd6 27.Bxe5\n"
+                + "Kd7 28.c4 c5 29.Bxd6 cxd6 30.Re6 b6 31.Rxd6+ Kc7 32.Re2 Rf7 33.Rde6 a5 34.Re7 *\n\n"
+                + "% escaped\n"
+                + "[Event \"Promotion\"]\n[FEN \"8/P7/8/8/8/8/8/k6K w - - 0 1\"]\n\n1.a8=Q+ Kb2 2.Qb7+ Kc3 *\n\n"
+                + "[Event \"Null\"]\n\n1.d4 -- 2.c4 Nf6 3.Nc3 g6 4.e4 d6 5.f3 O-O 6.Be3 e5 7.d5 c6 8.Qd2 cxd5\n"
+                + "9.cxd5 Nbd7 10.O-O-O a6 { last }\n"
+                + "*\n";
+        Files.write(file.toPath(), pgn.getBytes(StandardCharsets.UTF_8));
+
+        PgnReader lexerReader = new PgnReader();
+        lexerReader.setByteLexer(true);
+        ArrayList<String> expected = printAllGames(new PgnReader(), file.getPath());
+        assertEquals(expected.size(), 3);
+        assertEquals(printAllGames(lexerReader, file.getPath()), expected);
+
+        File scanFile = writeScanTestPgn("\r\n");
+        assertEquals(printAllGames(lexerReader, scanFile.getPath()), printAllGames(new PgnReader(), scanFile.getPath()));
+
+        lexerReader.setSkipVariations(true);
+        lexerReader.setSkipComments(true);
+        lexerReader.setSkipNags(true);
+        PgnReader lineReader = new PgnReader();
+        lineReader.setSkipVariations(true);
+        lineReader.setSkipComments(true);
+        lineReader.setSkipNags(true);
+        assertEquals(printAllGames(lexerReader, file.getPath()), printAllGames(lineReader, file.getPath()));
+
+        // both parsers resolve disambiguations among legal moves of the matching pieces.
+        // The knight on b3 is pinned, the knights on b1 and f3 can both go to d2
+        String fen = "[FEN \"4k3/8/8/8/K7/1N3N2/8/1N1b4 w - - 0 1\"]\n[SetUp \"1\"]\n\n1.";
+        String[][] moves = { { "Nbd2", "b1d2" }, { "N1d2", "b1d2" }, { "Nfd2", "f3d2" },
+                { "Nbxd2", "b1d2" }, { "N3d2", "f3d2" }, { "Nd2", null }, { "Ncd2", null } };
+        for(boolean byteLexer : new boolean[] { false, true }) {
+            for(String[] move : moves) {
+                PgnReader reader = new PgnReader();
+                reader.setByteLexer(byteLexer);
+                PgnReadCounter counter = new PgnReadCounter();
+                reader.setReadListener(counter);
+                Files.write(file.toPath(), (fen + move[0] + " *\n").getBytes(StandardCharsets.UTF_8));
+                try(PgnGameIterator it = reader.iterateGames(file.getPath())) {
+                    Game g = it.next();
+                    if(move[1] != null) {
+                        assertEquals(g.getRootNode().getVariation(0).getMove().getUci(), move[1]);
+                    } else {
+                        assertFalse(g.getRootNode().hasChild());
+                        assertEquals(counter.getAmbiguousMoves(), 1);
+                    }
+                }
+            }
+        }
+
+        // the lexer recognizes draws, and a header directly after the moves
+        Files.write(file.toPath(), "[Event \"a\"]\n\n1.e4 1/2-1/2\n[Event \"b\"]\n\n1.d4 *\n".getBytes(StandardCharsets.UTF_8));
+        try(PgnGameIterator it = lexerReader.iterateGames(file.getPath())) {
+            Game g = it.next();
+            assertEquals(g.getResult(), CONSTANTS.RES_DRAW);
+            assertEquals(it.next().getHeader("Event"), "b");
+            assertFalse(it.hasNext());
+        }
+
+    }
+
+    @Test
+    public void encodingTest() throws IOException {
+
+        System.out.println("TEST: encodingTest");
+
+        StringBuilder sb = new StringBuilder();
+        for(int i=0;i<50;i++) {
+            sb.append("[Event \"Turnier in M\u00fcnchen\"]\n[White \"Jos\u00e9 Ra\u00fal Capablanca\"]\n");
+            sb.append("[Black \"Sch\u00f6ne, D\u00f6rte\"]\n\n1.e4 { sch\u00f6n } e5 *\n\n");
+        }
+        String pgn = sb.toString();
+        File latin1 = File.createTempFile("jchesslib", ".pgn");
+        latin1.deleteOnExit();
+        new File(latin1.getPath() + PgnIndex.SUFFIX).deleteOnExit();
+        Files.write(latin1.toPath(), pgn.getBytes(StandardCharsets.ISO_8859_1));
+        File utf8 = File.createTempFile("jchesslib", ".pgn");
+        utf8.deleteOnExit();
+        new File(utf8.getPath() + PgnIndex.SUFFIX).deleteOnExit();
+        Files.write(utf8.toPath(), pgn.getBytes(StandardCharsets.UTF_8));
+
+        PgnReader reader = new PgnReader();
+        assertTrue(reader.isIsoLatin1(latin1.getPath()));
+        assertFalse(reader.isIsoLatin1(utf8.getPath()));
+
+        for(boolean byteLexer : new boolean[] { false, true }) {
+            for(File file : new File[] { latin1, utf8 }) {
+                reader = new PgnReader();
+                reader.setByteLexer(byteLexer);
+                if(file == latin1) {
+                    reader.setEncodingIsoLatin1();
+                }
+                try(PgnGameIterator it = reader.iterateGames(file.getPath())) {
+                    Game g = it.next();
+                    assertEquals(g.getHeader("Event"), "Turnier in M\u00fcnchen");
+                    assertEquals(g.getHeader("White"), "Jos\u00e9 Ra\u00fal Capablanca");
+                    assertEquals(g.getRootNode().getVariation(0).getComment(), " sch\u00f6n ");
+                }
+                ArrayList<PgnItem> items = reader.scanPgnGetSTR(file.getPath());
+                assertEquals(items.get(49).getBlack(), "Sch\u00f6ne, D\u00f6rte");
+            }
+        }
+
+        // the detected encoding is stored in the index
+        PgnIndex index = PgnIndex.open(latin1.getPath());
+        assertEquals(index.getEncoding(), "ISO-8859-1");
+        assertEquals(index.getWhite(0), "Jos\u00e9 Ra\u00fal Capablanca");
+        assertEquals(PgnIndex.open(latin1.getPath()).getEncoding(), "ISO-8859-1");
+        assertEquals(PgnIndex.open(utf8.getPath()).getEncoding(), "UTF-8");
+        assertEquals(PgnIndex.open(utf8.getPath()).getBlack(0), "Sch\u00f6ne, D\u00f6rte");
+
+    }
+
+    @Test
+    public void readListenerTest() throws IOException {
+
+        System.out.println("TEST: readListenerTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        String pgn = "[Event \"illegal\"]\n\n1.e4 e5 2.Kd3 *\n\n"
+                + "[Event \"ambiguous\"]\n\n1.Nf3 Nf6 2.d3 d6 3.Nd2 *\n\n"
+                + "[Event \"fen\"]\n[FEN \"8/8/8/8/8/8/8/8 w - - 0 1\"]\n\n1.e4 *\n\n"
+                + "[Event \"comment\"]\n\n1.e4 { never closed\n";
+        Files.write(file.toPath(), pgn.getBytes(StandardCharsets.UTF_8));
+
+        for(boolean byteLexer : new boolean[] { false, true }) {
+            ArrayList<Long> offsets = new ArrayList<>();
+            PgnReadCounter counter = new PgnReadCounter() {
+                @Override
+                public void illegalMove(String san, long offset) {
+                    super.illegalMove(san, offset);
+                    assertEquals(san, "Kd3");
+                    offsets.add(offset);
+                }
+
+                @Override
+                public void ambiguousMove(String san, long offset) {
+                    super.ambiguousMove(san, offset);
+                    assertEquals(san, "Nd2");
+                    offsets.add(offset);
+                }
+            };
+            PgnReader reader = new PgnReader();
+            reader.setByteLexer(byteLexer);
+            reader.setReadListener(counter);
+            try(PgnGameIterator it = reader.iterateGames(file.getPath())) {
+                while(it.hasNext()) {
+                    it.next();
+                }
+            }
+            assertEquals(counter.getGames(), 4);
+            assertEquals(counter.getIllegalMoves(), 1);
+            assertEquals(counter.getAmbiguousMoves(), 1);
+            assertEquals(counter.getInvalidFens(), 1);
+            assertEquals(counter.getTruncatedComments(), 1);
+            assertEquals(counter.getErrors(), 0);
+            assertTrue(counter.getBytes() > 0 && counter.getBytes() <= pgn.length());
+            assertEquals(offsets.size(), 2);
+            assertEquals((long) offsets.get(0), pgn.indexOf("Kd3"));
+            assertEquals((long) offsets.get(1), pgn.indexOf("Nd2"));
+        }
+
+        // offsets of games read with random access
+        PgnReadCounter counter = new PgnReadCounter();
+        PgnReader reader = new PgnReader();
+        reader.setReadListener(new PgnReadListener() {
+            @Override
+            public void gameRead(long offset, long bytes) {
+                counter.gameRead(offset, bytes);
+                assertTrue(pgn.startsWith("[Event", (int) offset));
+            }
+        });
+        OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(file.getPath(), "r");
+        for(int i=0;i<4;i++) {
+            reader.readGame(raf);
+        }
+        raf.close();
+        assertEquals(counter.getGames(), 4);
+
+        counter.reset();
+        try(ParallelPgnReader parallel = new ParallelPgnReader(file.getPath())) {
+            parallel.setReadListener(counter);
+            while(parallel.hasNext()) {
+                parallel.next();
+            }
+        }
+        assertEquals(counter.getGames(), 4);
+        assertEquals(counter.getIllegalMoves(), 1);
+        assertEquals(counter.getAmbiguousMoves(), 1);
+
+    }
+
+    @Test
+    public void gzipTest() throws IOException {
+
+        System.out.println("TEST: gzipTest");
+
+        StringBuilder sb = new StringBuilder();
+        for(int i=0;i<6000;i++) {
+            sb.append("[Event \"Game ").append(i).append("\"]\n[White \"W").append(i % 97).append("\"]\n\n");
+            sb.append(i % 2 == 0 ? "1.e4 e5 2.Nf3 Nc6 3.Bb5 a6 4.Ba4 Nf6 5.O-O Be7 { Closed } 6.Re1 b5 7.Bb3 d6\r\n"
+                    : "1.d4 Nf6 2.c4 g6 (2...e6 3.Nc3 Bb4) 3.Nc3 d5 4.cxd5 Nxd5 5.e4 Nxc3 6.bxc3 Bg7\n");
+            sb.append("8.c3 O-O 9.h3 Nb8 10.d4 Nbd7 11.Nbd2 Bb7 12.Bc2 Re8 13.Nf1 Bf8 14.Ng3 g6 ");
+            sb.append(i).append(" ").append(i * 31 % 1000).append(" 1-0\n\n");
+        }
+        byte[] pgn = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        File plain = File.createTempFile("jchesslib", ".pgn");
+        plain.deleteOnExit();
+        Files.write(plain.toPath(), pgn);
+
+        // two members, the second one with stored blocks only
+        File gz = File.createTempFile("jchesslib", ".pgn.gz");
+        gz.deleteOnExit();
+        new File(gz.getPath() + GzipIndex.SUFFIX).deleteOnExit();
+        int split = pgn.length / 3;
+        try(java.io.OutputStream out = Files.newOutputStream(gz.toPath())) {
+            java.util.zip.GZIPOutputStream first = new java.util.zip.GZIPOutputStream(out);
+            first.write(pgn, 0, split);
+            first.finish();
+            java.util.zip.GZIPOutputStream second = new java.util.zip.GZIPOutputStream(out) {
+                {
+                    this.def.setLevel(java.util.zip.Deflater.NO_COMPRESSION);
+                }
+            };
+            second.write(pgn, split, pgn.length - split);
+            second.finish();
+        }
+        assertTrue(gz.length() < pgn.length);
+
+        PgnReader reader = new PgnReader();
+        ArrayList<Long> offsets = reader.scanPgn(plain.getPath());
+        assertEquals(offsets.size(), 6000);
+        assertEquals(reader.scanPgn(gz.getPath()), offsets);
+        assertEquals(reader.scanPgnParallel(gz.getPath()), offsets);
+        assertEquals(printAllGames(reader, gz.getPath()), printAllGames(reader, plain.getPath()));
+        try(Stream<Game> games = reader.streamGames(gz.getPath())) {
+            assertEquals(games.count(), 6000);
+        }
+
+        // more checkpoints than with the default span
+        GzipIndex index = GzipIndex.build(gz.getPath(), 1 << 16);
+        assertEquals(index.getUncompressedSize(), pgn.length);
+        assertTrue(index.size() > 10);
+        index.write(gz.getPath() + GzipIndex.SUFFIX);
+
+        OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(plain.getPath(), "r");
+        try(GzipRandomAccessFile gzRaf = new GzipRandomAccessFile(gz.getPath())) {
+            assertEquals(gzRaf.length(), pgn.length);
+            // backwards, forwards with gaps, and across the members
+            for(int i=offsets.size()-1;i>=0;i-=89) {
+                raf.seek(offsets.get(i));
+                gzRaf.seek(offsets.get(i));
+                assertEquals(new PgnPrinter().printGame(reader.readGame(gzRaf)),
+                        new PgnPrinter().printGame(reader.readGame(raf)));
+            }
+            for(int i=0;i<offsets.size();i+=211) {
+                assertEquals(reader.readSingleHeader(gzRaf, offsets.get(i)).get("Event"), "Game " + i);
+            }
+            gzRaf.seek(offsets.get(5999));
+            assertEquals(reader.readPackedGame(gzRaf).getHeader("Event"), "Game 5999");
+            assertNull(reader.readPackedGame(gzRaf));
+        }
+        raf.close();
+
+        // the index file is rebuilt if the file changed
+        Files.write(gz.toPath(), Files.readAllBytes(gz.toPath()), StandardOpenOption.APPEND);
+        try(GzipRandomAccessFile gzRaf = new GzipRandomAccessFile(gz.getPath())) {
+            assertEquals(gzRaf.length(), 2L * pgn.length);
+            gzRaf.seek(pgn.length + offsets.get(4321));
+            assertEquals(reader.readGame(gzRaf).getHeader("Event"), "Game 4321");
+        }
+
+    }
+
+    @Test
+    public void searchIndexTest() throws IOException {
+
+        System.out.println("TEST: searchIndexTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        new File(file.getPath() + PgnIndex.SUFFIX).deleteOnExit();
+        new File(file.getPath() + PgnSearchIndex.SUFFIX).deleteOnExit();
+        String[] players = { "Capablanca, José Raúl", "Carlsen, Magnus", "Caruana, Fabiano", "Lasker, Emanuel" };
+        StringBuilder pgn = new StringBuilder();
+        for(int i=0;i<200;i++) {
+            pgn.append("[Event \"Open ").append(i % 10).append("\"]\n");
+            pgn.append("[Site \"Zürich SUI\"]\n");
+            pgn.append("[White \"").append(players[i % 4]).append("\"]\n");
+            pgn.append("[Black \"").append(players[(i / 4) % 4]).append("\"]\n");
+            pgn.append("[Result \"*\"]\n\n1.e4 *\n\n");
+        }
+        Files.write(file.toPath(), pgn.toString().getBytes(StandardCharsets.UTF_8));
+
+        PgnSearchIndex built = PgnSearchIndex.open(file.getPath());
+        assertTrue(new File(file.getPath() + PgnSearchIndex.SUFFIX).exists());
+        PgnSearchIndex read = PgnSearchIndex.open(file.getPath());
+        ArrayList<PgnItem> items = new PgnReader().scanPgnGetSTR(file.getPath());
+        PgnSearchIndex fromItems = PgnSearchIndex.build(items);
+
+        for(PgnSearchIndex index : new PgnSearchIndex[] { built, read, fromItems }) {
+            assertEquals(index.size(), 200);
+            assertEquals(index.getWordCount(PgnIndex.TAG_WHITE), 9);
+            // case and accents are ignored
+            int[] jose = index.find(PgnIndex.TAG_WHITE, "JOSE");
+            assertEquals(jose.length, 50);
+            for(int i=0;i<jose.length;i++) {
+                assertEquals(jose[i], 4 * i);
+            }
+            assertEquals(index.findPrefix(PgnIndex.TAG_WHITE, "ca").length, 150);
+            assertEquals(index.findPrefix(PgnIndex.TAG_SITE, "zur").length, 200);
+            assertEquals(index.find(PgnIndex.TAG_WHITE, "carl").length, 0);
+            assertEquals(index.search(PgnIndex.TAG_WHITE, "carlsen m").length, 50);
+            assertEquals(index.search(PgnIndex.TAG_WHITE, "carlsen e").length, 0);
+            assertEquals(index.search(PgnIndex.TAG_EVENT, "open 3").length, 20);
+            // games with Lasker as White or as Black
+            int[] lasker = index.searchPlayer("lask");
+            int expected = 0;
+            for(int i=0;i<200;i++) {
+                if(i % 4 == 3 || (i / 4) % 4 == 3) {
+                    assertEquals(lasker[expected++], i);
+                }
+            }
+            assertEquals(lasker.length, expected);
+        }
+
+    }
+
+    @Test
+    public void positionIndexTest() throws IOException {
+
+        System.out.println("TEST: positionIndexTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        new File(file.getPath() + PgnIndex.SUFFIX).deleteOnExit();
+        new File(file.getPath() + PositionIndex.SUFFIX).deleteOnExit();
+        String[] lines = { "1.e4 e5 2.Nf3 Nc6 3.Ng1 Nb8 4.Nf3 Nc6", "1.d4 d5 2.c4 e6",
+                "1.Nf3 d5 2.d4 Nf6", "1.e4 c5 (1...e5 2.Nf3 (2.Nc3)) 2.Nf3 d6" };
+        StringBuilder pgn = new StringBuilder();
+        for(int i=0;i<400;i++) {
+            pgn.append("[Event \"Game ").append(i).append("\"]\n[Result \"*\"]\n\n");
+            pgn.append(lines[i % 4]).append(" *\n\n");
+        }
+        Files.write(file.toPath(), pgn.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        for(boolean variations : new boolean[] { false, true }) {
+            // reference: positions of all games
+            java.util.TreeMap<Long, java.util.TreeSet<Integer>> expected = new java.util.TreeMap<>();
+            PgnReader reader = new PgnReader();
+            OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(file.getPath(), "r");
+            for(int i=0;i<400;i++) {
+                Game g = reader.readGame(raf);
+                ArrayList<GameNode> nodes = new ArrayList<>();
+                if(variations) {
+                    GameNodeIterator it = new GameNodeIterator(g.getRootNode());
+                    while(it.hasNext()) {
+                        nodes.add(it.next());
+                    }
+                } else {
+                    for(GameNode node = g.getRootNode(); node != null;
+                        node = node.hasChild() ? node.getVariation(0) : null) {
+                        nodes.add(node);
+                    }
+                }
+                for(GameNode node : nodes) {
+                    expected.computeIfAbsent(node.getZobrist(), k -> new java.util.TreeSet<>()).add(i);
+                }
+            }
+            raf.close();
+
+            for(int parallelism : new int[] { 1, 4 }) {
+                new File(file.getPath() + PositionIndex.SUFFIX).delete();
+                PositionIndex index = PositionIndex.open(file.getPath(), variations, parallelism);
+                assertEquals(index.getGameCount(), 400);
+                assertEquals(index.hasVariations(), variations);
+                for(long zobrist : expected.keySet()) {
+                    int[] games = index.gamesContaining(zobrist);
+                    assertEquals(games.length, expected.get(zobrist).size());
+                    int j = 0;
+                    for(int game : expected.get(zobrist)) {
+                        assertEquals(games[j++], game);
+                    }
+                }
+            }
+            // reopening maps the existing file
+            PositionIndex index = PositionIndex.open(file.getPath(), variations, 0);
+            assertEquals(index.gamesContaining(new Board(true)).length, 400);
+            Board b = new Board(true);
+            b.apply(new Move("e2e4"));
+            b.apply(new Move("e7e5"));
+            b.apply(new Move("g1f3"));
+            assertEquals(index.gamesContaining(b).length, variations ? 200 : 100);
+            assertEquals(index.getPly(b, 0), 3);
+            assertEquals(index.getPly(b, 1), -1);
+            b.apply(new Move("b8c6"));
+            // the position of game 0 after 2...Nc6 repeats after 4...Nc6
+            assertEquals(index.gamesContaining(b).length, 100);
+            assertEquals(index.size(), variations ? 2700 : 2400);
+        }
+
+    }
+
+    @Test
+    public void duplicatesTest() throws IOException {
+
+        System.out.println("TEST: duplicatesTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        new File(file.getPath() + PgnIndex.SUFFIX).deleteOnExit();
+        File out = File.createTempFile("jchesslib", ".pgn");
+        out.deleteOnExit();
+        StringBuilder pgn = new StringBuilder();
+        for(int i=0;i<1000;i++) {
+            int source = i % 10;
+            int game = i / 10;
+            // every game appears in ten sources, but only sources 0, 3 and 7
+            // write the same names, date and moves
+            String white = source == 3 ? "player " + game + ", A." : "Player " + game + " a";
+            String date = source == 7 ? "2020.??.??" : "2020";
+            String moves = source == 0 || source == 3 || source == 7 ? "1.e4 e5 2.Nf3" : "1.e4 e5 2.Nc3";
+            if(source == 9) {
+                white = "Other " + game;
+            }
+            pgn.append("[Event \"Source ").append(source).append("\"]\n");
+            pgn.append("[White \"").append(white).append("\"]\n");
+            pgn.append("[Black \"Black\"]\n[Date \"").append(date).append("\"]\n");
+            pgn.append("[Result \"*\"]\n\n").append(moves).append(" *\n\n");
+        }
+        Files.write(file.toPath(), pgn.toString().getBytes(StandardCharsets.UTF_8));
+
+        PgnIndex index = PgnIndex.open(file.getPath());
+        for(int parallelism : new int[] { 1, 4 }) {
+            PgnDuplicates duplicates = PgnDuplicates.find(file.getPath(), parallelism);
+            assertEquals(duplicates.getGameCount(), 1000);
+            // sources 0, 3, 7 and sources 1, 2, 4, 5, 6, 8 of each game
+            assertEquals(duplicates.getClusterCount(), 200);
+            assertEquals(duplicates.getDuplicateCount(), 100 * 2 + 100 * 5);
+            assertArrayEquals(duplicates.getCluster(0), new int[] { 0, 3, 7 });
+            assertArrayEquals(duplicates.getCluster(1), new int[] { 1, 2, 4, 5, 6, 8 });
+            assertArrayEquals(duplicates.getClusterOffsets(2),
+                    new long[] { index.getOffset(10), index.getOffset(13), index.getOffset(17) });
+            assertFalse(duplicates.isDuplicate(9));
+            assertTrue(duplicates.isDuplicate(17));
+
+            duplicates.write(out.getPath());
+            ArrayList<String> events = new ArrayList<>();
+            for(PgnItem item : new PgnReader().scanPgnGetSTR(out.getPath())) {
+                events.add(item.getEvent());
+            }
+            assertEquals(events.size(), 300);
+            assertEquals(events.subList(0, 3), java.util.Arrays.asList("Source 0", "Source 1", "Source 9"));
+        }
+
+        // fingerprints of games and packed games agree
+        OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(file.getPath(), "r");
+        PgnReader reader = new PgnReader();
+        Game g = reader.readGame(raf);
+        raf.seek(0);
+        assertEquals(PgnDuplicates.fingerprint(g), PgnDuplicates.fingerprint(reader.readPackedGame(raf)));
+        raf.close();
+
+    }
+
+    @Test
+    public void headerStoreTest() throws IOException {
+
+        System.out.println("TEST: headerStoreTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        String[] players = { "Carlsen, Magnus", "Caruana, Fabiano", "Anand, Viswanathan" };
+        String[] results = { "1-0", "0-1", "1/2-1/2", "*" };
+        StringBuilder pgn = new StringBuilder();
+        for(int i=0;i<3000;i++) {
+            pgn.append("[Event \"Event ").append(i % 50).append("\"]\n");
+            pgn.append("[Date \"").append(2000 + i % 25).append(i % 12 == 0 ? ".??.??" : ".03.1" + i % 10).append("\"]\n");
+            pgn.append("[White \"").append(players[i % 3]).append("\"]\n");
+            pgn.append("[Black \"").append(players[(i + 1) % 3]).append("\"]\n");
+            pgn.append("[Result \"").append(results[i % 4]).append("\"]\n");
+            pgn.append("[WhiteElo \"").append(2400 + i % 300).append("\"]\n");
+            if(i % 7 != 0) {
+                pgn.append("[BlackElo \"").append(2400 + i % 200).append("\"]\n");
+            }
+            pgn.append("\n1.e4 *\n\n");
+        }
+        Files.write(file.toPath(), pgn.toString().getBytes(StandardCharsets.UTF_8));
+
+        ArrayList<PgnItem> items = new PgnReader().scanPgnGetSTR(file.getPath());
+        PgnHeaderStore store = PgnHeaderStore.scan(file.getPath());
+        assertEquals(store.size(), 3000);
+        assertEquals(store.getDictionarySize(PgnHeaderStore.COLUMN_WHITE), 3);
+        assertEquals(store.getDictionarySize(PgnHeaderStore.COLUMN_EVENT), 50);
+        for(int i=0;i<3000;i+=37) {
+            PgnItem item = store.getPgnItem(i);
+            assertEquals(item.getOffset(), items.get(i).getOffset());
+            assertEquals(item.getEvent(), items.get(i).getEvent());
+            assertEquals(item.getWhite(), items.get(i).getWhite());
+            assertEquals(item.getDate(), items.get(i).getDate());
+            assertEquals(item.getResult(), items.get(i).getResult());
+            assertEquals(item.getBlackElo(), items.get(i).getBlackElo());
+        }
+        assertEquals(store.getDate(12), 20120000);
+        assertEquals(store.getDate(13), 20130313);
+        assertEquals(store.getResult(2), CONSTANTS.RES_DRAW);
+        assertEquals(store.getBlackElo(7), 0);
+
+        // games from 2019 to 2021 with both players over 2500
+        int[] games = store.filter(PgnHeaderStore.COLUMN_DATE, 20190000, 20211231);
+        games = store.filter(games, PgnHeaderStore.COLUMN_WHITE_ELO, 2501, Integer.MAX_VALUE);
+        games = store.filter(games, PgnHeaderStore.COLUMN_BLACK_ELO, 2501, Integer.MAX_VALUE);
+        ArrayList<Integer> expected = new ArrayList<>();
+        for(int i=0;i<3000;i++) {
+            int year = 2000 + i % 25;
+            if(year >= 2019 && year <= 2021 && 2400 + i % 300 > 2500 && i % 7 != 0 && 2400 + i % 200 > 2500) {
+                expected.add(i);
+            }
+        }
+        assertEquals(games.length, expected.size());
+        for(int i=0;i<games.length;i++) {
+            assertEquals(games[i], (int) expected.get(i));
+        }
+        int carlsen = store.getId(PgnHeaderStore.COLUMN_WHITE, "Carlsen, Magnus");
+        assertEquals(store.filter(PgnHeaderStore.COLUMN_WHITE, carlsen, carlsen).length, 1000);
+        assertEquals(store.getId(PgnHeaderStore.COLUMN_WHITE, "Kasparov, Garry"), -1);
+
+        // sorting is stable, and text columns are sorted by text
+        int[] byWhite = store.sort(PgnHeaderStore.COLUMN_WHITE, true);
+        assertEquals(store.getWhite(byWhite[0]), "Anand, Viswanathan");
+        assertEquals(byWhite[0], 2);
+        assertEquals(byWhite[1], 5);
+        assertEquals(store.getWhite(byWhite[2999]), "Caruana, Fabiano");
+        int[] byElo = store.sort(PgnHeaderStore.COLUMN_WHITE_ELO, false);
+        for(int i=1;i<byElo.length;i++) {
+            int previous = store.getWhiteElo(byElo[i - 1]);
+            int current = store.getWhiteElo(byElo[i]);
+            assertTrue(previous > current || (previous == current && byElo[i - 1] < byElo[i]));
+        }
+        int[] sortedGames = store.sort(games, PgnHeaderStore.COLUMN_DATE, true);
+        for(int i=1;i<sortedGames.length;i++) {
+            assertTrue(store.getDate(sortedGames[i - 1]) <= store.getDate(sortedGames[i]));
+        }
+
+    }
+
+    @Test
+    public void gameDatabaseTest() throws IOException {
+
+        System.out.println("TEST: gameDatabaseTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        File db = File.createTempFile("jchesslib", GameDatabase.SUFFIX);
+        db.deleteOnExit();
+        File exported = File.createTempFile("jchesslib", ".pgn");
+        exported.deleteOnExit();
+        String[] games = {
+                "[Event \"Var\"]\n[White \"Müller\"]\n[Result \"1-0\"]\n\n{ start } 1.e4 $1 { best } "
+                        + "(1.d4 d5 (1...Nf6 2.c4 (2.Nf3 g6) e6) 2.c4 $2) e5 2.Nf3 (2.Nc3) (2.f4 exf4) Nc6 3.Bb5 1-0",
+                "[Event \"FEN\"]\n[SetUp \"1\"]\n[FEN \"8/P6k/8/8/8/8/6K1/8 w - - 0 1\"]\n[Result \"1/2-1/2\"]\n\n"
+                        + "1.a8=Q Kg6 (1...Kh6 2.Qh8+) 2.Qg8+ 1/2-1/2",
+                "[Event \"Empty\"]\n[Result \"*\"]\n\n*"
+        };
+        StringBuilder pgn = new StringBuilder();
+        for(int i=0;i<300;i++) {
+            pgn.append(games[i % 3]).append("\n\n");
+        }
+        Files.write(file.toPath(), pgn.toString().getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(GameDatabase.convert(file.getPath(), db.getPath()), 300);
+        ArrayList<String> expected = new ArrayList<>();
+        try(PgnGameIterator it = new PgnReader().iterateGames(file.getPath())) {
+            while(it.hasNext()) {
+                expected.add(new PgnPrinter().printGame(it.next()));
+            }
+        }
+        try(GameDatabase database = GameDatabase.open(db.getPath())) {
+            assertEquals(database.size(), 300);
+            for(int i=299;i>=0;i--) {
+                Game g = database.readGame(i);
+                assertEquals(new PgnPrinter().printGame(g), expected.get(i));
+            }
+            assertEquals(database.readHeaders(3).get("White"), "Müller");
+            Game g = database.readGame(1);
+            assertEquals(g.getEndNode().getBoard().fen(), "6Q1/8/6k1/8/8/8/6K1/8 b - - 2 2");
+            assertEquals(g.getRootNode().getVariation(0).getVariation(1).getVariation(0).getSan(), "Qh8+");
+            database.exportPgn(exported.getPath());
+        }
+        ArrayList<String> printed = new ArrayList<>();
+        try(PgnGameIterator it = new PgnReader().iterateGames(exported.getPath())) {
+            while(it.hasNext()) {
+                printed.add(new PgnPrinter().printGame(it.next()));
+            }
+        }
+        assertEquals(printed, expected);
+
+    }
+
+    @Test
+    public void rangeIndexTest() throws IOException {
+
+        System.out.println("TEST: rangeIndexTest");
+
+        File file = File.createTempFile("jchesslib", ".pgn");
+        file.deleteOnExit();
+        new File(file.getPath() + PgnIndex.SUFFIX).deleteOnExit();
+        String[] results = { "1-0", "0-1", "1/2-1/2", "*" };
+        StringBuilder pgn = new StringBuilder();
+        for(int i=0;i<3000;i++) {
+            pgn.append("[Event \"Event ").append(i % 50).append("\"]\n");
+            pgn.append("[Date \"").append(2000 + i % 25).append(i % 12 == 0 ? ".??.??" : ".03.1" + i % 10).append("\"]\n");
+            pgn.append("[Result \"").append(results[i % 4]).append("\"]\n");
+            pgn.append("[WhiteElo \"").append(2400 + i % 300).append("\"]\n");
+            if(i % 7 != 0) {
+                pgn.append("[BlackElo \"").append(2400 + i % 200).append("\"]\n");
+            }
+            pgn.append("\n1.e4 *\n\n");
+        }
+        Files.write(file.toPath(), pgn.toString().getBytes(StandardCharsets.UTF_8));
+
+        ArrayList<Integer> expected = new ArrayList<>();
+        for(int i=0;i<3000;i++) {
+            int year = 2000 + i % 25;
+            if(year >= 2019 && year <= 2021 && 2400 + i % 300 > 2500 && i % 7 != 0 && 2400 + i % 200 > 2500) {
+                expected.add(i);
+            }
+        }
+        PgnIndex built = PgnIndex.open(file.getPath());
+        PgnIndex mapped = PgnIndex.open(file.getPath());
+        // tiny segments, such that strings span segments
+        PgnIndex segmented = PgnIndex.read(file.getPath() + PgnIndex.SUFFIX, 6);
+        for(int i=0;i<built.size();i++) {
+            assertEquals(segmented.getOffset(i), built.getOffset(i));
+            assertEquals(segmented.getLength(i), built.getLength(i));
+            for(int tag=0;tag<7;tag++) {
+                assertEquals(segmented.getTag(i, tag), built.getTag(i, tag));
+            }
+        }
+        for(PgnIndex index : new PgnIndex[] { built, mapped, segmented }) {
+            assertEquals(index.getValue(12, PgnIndex.VALUE_DATE), 20120000);
+            assertEquals(index.getValue(13, PgnIndex.VALUE_DATE), 20130313);
+            assertEquals(index.getValue(2, PgnIndex.VALUE_RESULT), CONSTANTS.RES_DRAW);
+            assertEquals(index.getValue(7, PgnIndex.VALUE_BLACK_ELO), 0);
+            assertEquals(index.getPgnItem(8).getWhiteElo(), "2408");
+            assertEquals(index.countGames(PgnIndex.VALUE_DATE, 20190000, 20211231), 360);
+            assertEquals(index.countGames(PgnIndex.VALUE_WHITE_ELO, 2700, 2500), 0);
+
+            // games from 2019 to 2021 with both players over 2500
+            int[] games = index.findGames(PgnIndex.VALUE_DATE, 20190000, 20211231);
+            games = index.findGames(games, PgnIndex.VALUE_WHITE_ELO, 2501, Integer.MAX_VALUE);
+            games = index.findGames(games, PgnIndex.VALUE_BLACK_ELO, 2501, Integer.MAX_VALUE);
+            assertEquals(games.length, expected.size());
+            for(int i=0;i<games.length;i++) {
+                assertEquals(games[i], (int) expected.get(i));
+            }
+            assertEquals(index.getOffsets(games)[0], index.getOffset(expected.get(0)));
+
+            // few and many matches give games in ascending order
+            for(int[] range : new int[][] { { 2699, 2699 }, { 2450, Integer.MAX_VALUE } }) {
+                int[] byElo = index.findGames(PgnIndex.VALUE_WHITE_ELO, range[0], range[1]);
+                assertEquals(byElo.length, index.countGames(PgnIndex.VALUE_WHITE_ELO, range[0], range[1]));
+                for(int i=0;i<byElo.length;i++) {
+                    int elo = index.getValue(byElo[i], PgnIndex.VALUE_WHITE_ELO);
+                    assertTrue(elo >= range[0] && elo <= range[1]);
+                    assertTrue(i == 0 || byElo[i - 1] < byElo[i]);
+                }
+            }
+        }
+
+        // appended games are added to the value columns
+        Files.write(file.toPath(), "[Date \"2020.01.01\"]\n[Result \"1-0\"]\n[WhiteElo \"2900\"]\n[BlackElo \"2900\"]\n\n1.e4 1-0\n\n"
+                .getBytes(StandardCharsets.UTF_8), java.nio.file.StandardOpenOption.APPEND);
+        PgnIndex refreshed = mapped.refresh(file.getPath());
+        int[] strong = refreshed.findGames(PgnIndex.VALUE_BLACK_ELO, 2800, Integer.MAX_VALUE);
+        assertEquals(strong.length, 1);
+        assertEquals(strong[0], 3000);
+        assertEquals(refreshed.countGames(PgnIndex.VALUE_RESULT, CONSTANTS.RES_WHITE_WINS, CONSTANTS.RES_WHITE_WINS), 751);
+
+    }
+
+    @Test
+    public void resumeScanTest() throws IOException {
+
+        System.out.println("TEST: resumeScanTest");
+
+        File file = writeScanTestPgn("\r\n");
+        File checkpoint = new File(file.getPath() + PgnIndex.SUFFIX + PgnIndex.CHECKPOINT_SUFFIX);
+        checkpoint.deleteOnExit();
+        PgnIndex expected = PgnIndex.build(file.getPath(), "UTF-8");
+
+        // interrupt the scan after the third checkpoint
+        ArrayList<long[]> progress = new ArrayList<>();
+        ArrayList<byte[]> checkpoints = new ArrayList<>();
+        int[] checkpointGames = new int[1];
+        PgnScanListener interrupting = new PgnScanListener() {
+            @Override
+            public void progress(long bytes, long size, int games) {
+                progress.add(new long[] { bytes, size, games });
+            }
+            @Override
+            public void checkpointWritten(long bytes, int games) {
+                try {
+                    checkpoints.add(Files.readAllBytes(checkpoint.toPath()));
+                } catch (IOException e) {
+                    fail();
+                }
+                checkpointGames[0] = games;
+                if(checkpoints.size() == 3) {
+                    throw new IllegalStateException("interrupted");
+                }
+            }
+        };
+        try {
+            PgnIndex.build(file.getPath(), "UTF-8", 2000, interrupting);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(checkpoint.exists());
+        }
+        assertTrue(checkpointGames[0] > 0 && checkpointGames[0] < expected.size());
+        assertEquals(progress.size(), 2);
+        // checkpoints are appended, only the header is rewritten
+        for(int i=1;i<checkpoints.size();i++) {
+            byte[] previous = checkpoints.get(i - 1);
+            byte[] current = checkpoints.get(i);
+            assertTrue(current.length > previous.length);
+            assertTrue(Arrays.equals(previous, 56, previous.length, current, 56, previous.length));
+        }
+        byte[] partial = checkpoints.get(2);
+        assertEquals(progress.get(1)[1], file.length());
+
+        // resuming continues at the last game of the checkpoint
+        progress.clear();
+        PgnIndex resumed = PgnIndex.resume(file.getPath(), 2000, new PgnScanListener() {
+            @Override
+            public void progress(long bytes, long size, int games) {
+                progress.add(new long[] { bytes, size, games });
+            }
+        });
+        assertFalse(checkpoint.exists());
+        assertTrue(progress.get(0)[0] > 6000);
+        assertEquals(progress.get(progress.size() - 1)[0], file.length());
+        assertEquals(progress.get(progress.size() - 1)[2], expected.size());
+        for(int i=1;i<progress.size();i++) {
+            assertTrue(progress.get(i - 1)[0] < progress.get(i)[0]);
+            assertTrue(progress.get(i - 1)[2] <= progress.get(i)[2]);
+        }
+        assertEquals(resumed.size(), expected.size());
+        for(int i=0;i<expected.size();i++) {
+            assertEquals(resumed.getOffset(i), expected.getOffset(i));
+            assertEquals(resumed.getLength(i), expected.getLength(i));
+            assertEquals(resumed.getEvent(i), expected.getEvent(i));
+        }
+        assertTrue(resumed.isUpToDate(file.getPath()));
+
+        // a checkpoint of a changed file is not used
+        Files.write(checkpoint.toPath(), partial);
+        byte[] content = Files.readAllBytes(file.toPath());
+        content[content.length / 4] = 'x';
+        Files.write(file.toPath(), content);
+        PgnIndex rescanned = PgnIndex.resume(file.getPath(), 0, null);
+        PgnIndex rebuilt = PgnIndex.build(file.getPath(), "ISO-8859-1");
+        assertEquals(rescanned.size(), rebuilt.size());
+        assertEquals(rescanned.getEncoding(), "UTF-8");
+        assertEquals(rescanned.getEvent(rebuilt.size() - 1), rebuilt.getEvent(rebuilt.size() - 1));
+
+    }
+
+    @Test
+    public void headerFilterTest() throws IOException {
+
+        System.out.println("TEST: headerFilterTest");
+
+        java.util.function.Predicate<java.util.HashMap<String, String>> filter =
+                h -> Integer.parseInt(h.get("Event").substring(5)) % 3 == 0;
+        for(String lineEnd : new String[] { "\n", "\r\n" }) {
+            File file = writeScanTestPgn(lineEnd);
+            ArrayList<String> expected = new ArrayList<>();
+            try(PgnGameIterator it = new PgnReader().iterateGames(file.getPath())) {
+                while(it.hasNext()) {
+                    Game g = it.next();
+                    if(filter.test(g.getPgnHeaders())) {
+                        expected.add(new PgnPrinter().printGame(g));
+                    }
+                }
+            }
+            assertEquals(expected.size(), 100);
+
+            for(boolean byteLexer : new boolean[] { false, true }) {
+                PgnReader reader = new PgnReader();
+                reader.setByteLexer(byteLexer);
+                reader.setHeaderFilter(filter);
+                assertEquals(printAllGames(reader, file.getPath()), expected);
+                try(Stream<Game> games = reader.streamGames(file.getPath())) {
+                    assertEquals(games.parallel().map(g -> new PgnPrinter().printGame(g))
+                            .collect(Collectors.toList()), expected);
+                }
+                // the number of games is not known in advance
+                try(Stream<Game> games = reader.streamGames(file.getPath())) {
+                    java.util.Spliterator<Game> split = games.spliterator();
+                    assertNotNull(split.trySplit());
+                    assertFalse(split.hasCharacteristics(java.util.Spliterator.SIZED));
+                    assertEquals(split.getExactSizeIfKnown(), -1);
+                }
+                for(boolean ordered : new boolean[] { true, false }) {
+                    ArrayList<String> printed = new ArrayList<>();
+                    try(ParallelPgnReader parallel = new ParallelPgnReader(file.getPath())) {
+                        parallel.setByteLexer(byteLexer);
+                        parallel.setOrdered(ordered);
+                        parallel.setHeaderFilter(filter);
+                        while(parallel.hasNext()) {
+                            printed.add(new PgnPrinter().printGame(parallel.next()));
+                        }
+                    }
+                    if(!ordered) {
+                        Collections.sort(printed);
+                        ArrayList<String> sorted = new ArrayList<>(expected);
+                        Collections.sort(sorted);
+                        assertEquals(printed, sorted);
+                    } else {
+                        assertEquals(printed, expected);
+                    }
+                }
+            }
+
+            // random access reads skip to the next matching game
+            PgnReader reader = new PgnReader();
+            reader.setHeaderFilter(filter);
+            OptimizedRandomAccessFile raf = new OptimizedRandomAccessFile(file.getPath(), "r");
+            ArrayList<String> printed = new ArrayList<>();
+            Game g;
+            while(!(g = reader.readGame(raf)).getPgnHeaders().isEmpty()) {
+                printed.add(new PgnPrinter().printGame(g));
+            }
+            assertEquals(printed, expected);
+            raf.seek(0);
+            int packed = 0;
+            PackedGame pg;
+            while((pg = reader.readPackedGame(raf)) != null) {
+                assertTrue(filter.test(pg.getPgnHeaders()));
+                packed++;
+            }
+            assertEquals(packed, 100);
+            raf.close();
+        }
+
+    }
+
 }